@@ -0,0 +1,35 @@
+-- ============================================
+-- 知识图谱系统数据库升级脚本
+-- 在 init.sql 初始化的数据库上按顺序执行
+-- init.sql 的建表语句不含以下新增列和索引，新建的数据库同样需要执行本脚本
+-- ============================================
+
+USE knowledge_graph;
+
+-- --------------------------------------------
+-- 聊天消息状态：大模型生成期间不再持有事务，AI消息先以pending写入，生成完成后更新
+-- 缺少该列时消息保存失败（ChatMessage.status）
+-- --------------------------------------------
+ALTER TABLE kg_chat_message
+    ADD COLUMN status VARCHAR(16) NOT NULL DEFAULT 'complete' COMMENT '消息状态（pending-生成中, complete-已完成, failed-生成失败, cancelled-已取消，只含部分内容）' AFTER rag_context;
+
+-- --------------------------------------------
+-- 文档处理阶段：解析、分块、向量化、知识抽取分阶段提交，中断后从已完成的阶段继续
+-- --------------------------------------------
+ALTER TABLE kg_document
+    ADD COLUMN stage TINYINT NOT NULL DEFAULT 0 COMMENT '已完成的处理阶段（0-未开始, 1-已解析, 2-已分块, 3-已向量化, 4-已抽取知识）' AFTER status;
+
+-- 已完成的文档视为所有阶段已完成；新建的数据库没有文档，此语句不影响任何行
+UPDATE kg_document SET stage = 4 WHERE status = 2;
+
+-- --------------------------------------------
+-- 节点名称唯一约束：未删除的节点按 规范化名称+类型 唯一，并发抽取时以插入或取已有的方式写入，避免重复节点
+-- name_key 由应用写入（NFKC、小写、合并空白），逻辑删除时置NULL以释放唯一键
+-- 已有节点的 name_key 由应用启动时按同一规范化规则回填（NameKeyMigration），重复节点只有ID最小的一个占用唯一键
+-- 节点写入依赖该唯一索引判断插入冲突，缺少索引时并发抽取会重新产生重复节点
+-- --------------------------------------------
+ALTER TABLE kg_knowledge_node
+    ADD COLUMN name_key VARCHAR(255) NULL COMMENT '规范化名称（唯一键，逻辑删除后为NULL）' AFTER name;
+
+ALTER TABLE kg_knowledge_node
+    ADD UNIQUE INDEX uk_name_key_type (name_key, node_type);
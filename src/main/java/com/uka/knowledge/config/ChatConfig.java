@@ -0,0 +1,98 @@
+package com.uka.knowledge.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * 对话配置类
+ * <p>
+ * 配置流式对话的线程池、SSE连接和心跳参数
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "chat")
+public class ChatConfig {
+
+    /**
+     * 流式对话准备线程池大小（检索等待、提示词组装、消息落库）
+     */
+    private Integer streamPoolSize = 32;
+
+    /**
+     * 流式对话准备线程池队列容量（队列满时拒绝新的流式请求）
+     */
+    private Integer streamQueueCapacity = 100;
+
+    /**
+     * SSE连接超时时间（毫秒）
+     */
+    private Long sseTimeoutMs = 5 * 60 * 1000L;
+
+    /**
+     * SSE心跳间隔（毫秒），心跳发送失败视为客户端已断开
+     */
+    private Long heartbeatIntervalMs = 15000L;
+
+    /**
+     * 流式输出片段合并时间窗口（毫秒），为0时每个token单独发送
+     */
+    private Long frameWindowMs = 50L;
+
+    /**
+     * 流式输出单帧最大字节数，达到后立即发送
+     */
+    private Integer frameMaxBytes = 1024;
+
+    /**
+     * 响应式流式对话最大并发数
+     */
+    private Integer fluxMaxConcurrency = 64;
+
+    /**
+     * 响应式流式对话向上游预取的token数（背压窗口）
+     */
+    private Integer fluxPrefetch = 32;
+
+    /**
+     * RAG检索返回数量
+     */
+    private Integer ragTopK = 5;
+
+    /**
+     * 创建流式对话线程池
+     *
+     * @return 线程池
+     */
+    @Bean(name = "chatStreamExecutor")
+    public ThreadPoolTaskExecutor chatStreamExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(streamPoolSize);
+        executor.setMaxPoolSize(streamPoolSize);
+        executor.setQueueCapacity(streamQueueCapacity);
+        executor.setThreadNamePrefix("chat-stream-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 创建SSE心跳及合并帧定时写出调度器
+     *
+     * @return 调度器
+     */
+    @Bean(name = "chatHeartbeatScheduler")
+    public ThreadPoolTaskScheduler chatHeartbeatScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(2);
+        scheduler.setThreadNamePrefix("chat-heartbeat-");
+        scheduler.initialize();
+        return scheduler;
+    }
+}
@@ -0,0 +1,70 @@
+package com.uka.knowledge.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 向量生成配置类
+ * <p>
+ * 配置批量向量生成的批次大小。每批的文本条数在最小值和最大值之间自适应调整：
+ * 单批耗时超过目标时减半，明显低于目标时逐步增大；同时受单批总字符数限制，
+ * 避免长文本凑成的大批次超出模型上下文或请求超时。
+ * </p>
+ * <p>
+ * 同时配置批量生成使用的向量持久化缓存（内存映射文件 + LRU热缓存）。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "embedding")
+public class EmbeddingConfig {
+
+    /**
+     * 单批最少文本条数
+     */
+    private Integer batchMinItems = 1;
+
+    /**
+     * 单批最多文本条数
+     */
+    private Integer batchMaxItems = 32;
+
+    /**
+     * 初始单批文本条数
+     */
+    private Integer batchInitialItems = 8;
+
+    /**
+     * 单批最多总字符数（单条文本超过该值时单独成批）
+     */
+    private Integer batchMaxChars = 16000;
+
+    /**
+     * 单批目标耗时（毫秒）
+     */
+    private Long batchTargetLatencyMs = 2000L;
+
+    /**
+     * 是否启用向量持久化缓存
+     */
+    private Boolean cacheEnabled = true;
+
+    /**
+     * 缓存文件路径
+     */
+    private String cachePath = "./data/embedding-cache.bin";
+
+    /**
+     * 缓存文件最大字节数（不超过2GB），达到后不再追加
+     */
+    private Long cacheMaxBytes = 512L * 1024 * 1024;
+
+    /**
+     * 内存中LRU热缓存的最大条数
+     */
+    private Integer cacheHotEntries = 10000;
+}
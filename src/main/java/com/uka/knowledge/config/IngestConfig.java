@@ -0,0 +1,104 @@
+package com.uka.knowledge.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * 文档入库流水线配置类
+ * <p>
+ * 配置解析 → 分块 → 向量化 → 写入各阶段的并行度和阶段间缓冲上限，以及知识抽取的并行度。
+ * 向量化和写入线程池为全局共享，并行度即同时发往Ollama/Milvus的请求数上限，
+ * 多个文档同时入库时共享该上限。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ingest")
+public class IngestConfig {
+
+    /**
+     * 向量化并行度（同时进行的Ollama向量生成请求数）
+     */
+    private Integer embedParallelism = 4;
+
+    /**
+     * 写入并行度（同时进行的Milvus/MySQL批量写入数）
+     */
+    private Integer persistParallelism = 2;
+
+    /**
+     * 单个文档已解析但尚未写入的分块数上限，达到后暂停解析（背压）
+     */
+    private Integer maxInFlightChunks = 64;
+
+    /**
+     * 每批写入的分块数
+     */
+    private Integer persistBatchSize = 16;
+
+    /**
+     * 知识抽取并行度（同时进行抽取的文本段数，实际发往Ollama的调用数仍受批量通道上限约束）
+     */
+    private Integer extractParallelism = 2;
+
+    /**
+     * 单个文档同时提交到抽取线程池（排队或执行）的文本段数上限，一段完成后再提交下一段
+     */
+    private Integer extractMaxInFlightChunks = 4;
+
+    /**
+     * 知识抽取是否使用结构化输出（Ollama format 参数传入JSON Schema），模型不支持时自动改为普通输出
+     */
+    private Boolean extractStructuredOutput = true;
+
+    /**
+     * 创建向量化线程池
+     *
+     * @return 线程池
+     */
+    @Bean(name = "ingestEmbedExecutor")
+    public ThreadPoolTaskExecutor ingestEmbedExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(embedParallelism);
+        executor.setMaxPoolSize(embedParallelism);
+        executor.setThreadNamePrefix("ingest-embed-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 创建写入线程池
+     *
+     * @return 线程池
+     */
+    @Bean(name = "ingestPersistExecutor")
+    public ThreadPoolTaskExecutor ingestPersistExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(persistParallelism);
+        executor.setMaxPoolSize(persistParallelism);
+        executor.setThreadNamePrefix("ingest-persist-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 创建知识抽取线程池
+     *
+     * @return 线程池
+     */
+    @Bean(name = "ingestExtractExecutor")
+    public ThreadPoolTaskExecutor ingestExtractExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(extractParallelism);
+        executor.setMaxPoolSize(extractParallelism);
+        executor.setThreadNamePrefix("ingest-extract-");
+        executor.initialize();
+        return executor;
+    }
+}
@@ -4,15 +4,34 @@ import io.milvus.v2.client.ConnectConfig;
 import io.milvus.v2.client.MilvusClientV2;
 import io.milvus.v2.common.IndexParam;
 import lombok.Data;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Milvus向量数据库配置类
  * <p>
  * 配置Milvus客户端连接参数，用于存储和检索文档的向量表示
  * </p>
+ * <p>
+ * 向量按类型（chunk/node/ocr）的存放方式由 milvus.layout 决定：
+ * single 为所有类型共用一个集合、检索时按type字段过滤；
+ * partition 为共用一个集合、每种类型一个分区，检索时只搜索对应分区；
+ * collection 为每种类型一个集合，可按类型单独配置索引参数。
+ * 从single切换到其他方式后，原集合中的向量在启动后迁移到新的集合/分区。
+ * </p>
+ * <p>
+ * 索引按类型配置为索引方案（milvus.index-profiles.&lt;type&gt;）：索引类型和构建参数只在collection布局下按类型生效
+ * （共用集合时只有一个索引，使用默认方案），检索参数和一致性级别在所有布局下按类型生效。
+ * </p>
  *
  * @author uka
  * @version 1.0
@@ -47,12 +66,79 @@ public class MilvusConfig {
      */
     private String metricType = "COSINE";
 
+    /**
+     * 向量集合布局
+     */
+    private Layout layout = Layout.SINGLE;
+
+    /**
+     * 主键方式：business 由（类型, 业务ID）计算主键，更新向量为一次幂等的upsert；
+     * auto 由Milvus自动生成主键。已存在的自增主键集合继续按auto写入，重建索引后改为新的主键方式
+     */
+    private PrimaryKey primaryKey = PrimaryKey.BUSINESS;
+
+    /**
+     * 向量类型（partition布局下每种类型一个分区，collection布局下每种类型一个集合）
+     */
+    private List<String> types = new ArrayList<>(List.of("chunk", "node", "ocr"));
+
+    /**
+     * 默认索引构建参数，未配置时为 nlist=1024
+     */
+    private Map<String, Object> indexParams = new HashMap<>();
+
+    /**
+     * 默认检索参数，未配置时为 nprobe=10
+     */
+    private Map<String, Object> searchParams = new HashMap<>();
+
+    /**
+     * 默认检索一致性级别（STRONG/SESSION/BOUNDED/EVENTUALLY）
+     */
+    private String consistencyLevel = "BOUNDED";
+
+    /**
+     * 按类型的索引方案，未配置的项使用默认值
+     */
+    private Map<String, IndexProfile> indexProfiles = new HashMap<>();
+
+    /**
+     * 是否将原集合（collection-name）中的向量迁移到新布局（默认关闭）
+     */
+    private Boolean migrateLegacy = false;
+
+    /**
+     * 迁移和重建索引时每批复制的向量数
+     */
+    private Integer migrateBatchSize = 1000;
+
+    /**
+     * 迁移完成后是否删除原集合
+     */
+    private Boolean dropLegacyAfterMigrate = false;
+
+    /**
+     * 批量写入：缓冲的向量数达到该值时立即写入
+     */
+    private Integer bulkFlushSize = 512;
+
+    /**
+     * 批量写入：缓冲的最长等待时间（毫秒），到期后不足一批也写入
+     */
+    private Long bulkFlushIntervalMs = 200L;
+
+    /**
+     * 批量写入：同时进行的写入请求数
+     */
+    private Integer bulkWriteParallelism = 2;
+
     /**
      * 创建Milvus客户端Bean
      *
      * @return MilvusClientV2实例
      */
     @Bean
+    @ConditionalOnExpression(VectorStoreConfig.MILVUS_ENABLED)
     public MilvusClientV2 milvusClient() {
         // 1、创建连接参数
         ConnectConfig connectConfig = ConnectConfig
@@ -80,4 +166,141 @@ public class MilvusConfig {
     public IndexParam.MetricType getMetricTypeEnum() {
         return IndexParam.MetricType.valueOf(metricType);
     }
+
+    /**
+     * 获取指定类型向量所在的集合
+     *
+     * @param type 向量类型
+     * @return 集合名称
+     */
+    public String getTypeCollectionName(String type) {
+        return switch (layout) {
+            case SINGLE -> collectionName;
+            case PARTITION -> collectionName + "_by_type";
+            case COLLECTION -> collectionName + "_" + type;
+        };
+    }
+
+    /**
+     * 获取指定类型向量所在的分区
+     *
+     * @param type 向量类型
+     * @return 分区名称，非partition布局返回null
+     */
+    public String getTypePartitionName(String type) {
+        return layout == Layout.PARTITION ? type : null;
+    }
+
+    /**
+     * 获取指定类型的索引方案，未配置的项使用默认值
+     *
+     * @param type 向量类型（为null时返回默认方案）
+     * @return 索引方案
+     */
+    public IndexProfile getIndexProfile(String type) {
+        IndexProfile configured = type == null ? null : indexProfiles.get(type);
+        // 共用集合时只有一个索引，索引类型和构建参数使用默认值
+        IndexProfile build = layout == Layout.COLLECTION ? configured : null;
+        IndexProfile profile = new IndexProfile();
+        profile.setIndexType(build != null && build.getIndexType() != null
+                ? build.getIndexType() : indexType);
+        profile.setIndexParams(build != null && !build.getIndexParams().isEmpty()
+                ? build.getIndexParams()
+                : indexParams.isEmpty() ? Map.of("nlist", 1024) : indexParams);
+        profile.setSearchParams(configured != null && !configured.getSearchParams().isEmpty()
+                ? configured.getSearchParams()
+                : searchParams.isEmpty() ? Map.of("nprobe", 10) : searchParams);
+        profile.setConsistencyLevel(configured != null && configured.getConsistencyLevel() != null
+                ? configured.getConsistencyLevel() : consistencyLevel);
+        return profile;
+    }
+
+    /**
+     * 创建向量索引维护线程池（索引重建），同时只执行一个任务
+     *
+     * @return 线程池
+     */
+    @Bean(name = "vectorIndexExecutor")
+    public ThreadPoolTaskExecutor vectorIndexExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("vector-index-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 创建批量写入调度线程池（到期写入和执行写入）
+     *
+     * @return 调度线程池
+     */
+    @Bean(name = "milvusBulkWriteScheduler")
+    public ThreadPoolTaskScheduler milvusBulkWriteScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(bulkWriteParallelism);
+        scheduler.setThreadNamePrefix("milvus-bulk-");
+        scheduler.initialize();
+        return scheduler;
+    }
+
+    /**
+     * 向量集合布局
+     */
+    public enum Layout {
+        /**
+         * 单集合，按type字段过滤
+         */
+        SINGLE,
+        /**
+         * 单集合，每种类型一个分区
+         */
+        PARTITION,
+        /**
+         * 每种类型一个集合
+         */
+        COLLECTION
+    }
+
+    /**
+     * 向量主键方式
+     */
+    public enum PrimaryKey {
+        /**
+         * Milvus自动生成
+         */
+        AUTO,
+        /**
+         * 由（类型, 业务ID）计算
+         */
+        BUSINESS
+    }
+
+    /**
+     * 索引方案
+     */
+    @Data
+    public static class IndexProfile {
+
+        /**
+         * 索引类型（如IVF_FLAT、IVF_PQ、HNSW、DISKANN）
+         */
+        private String indexType;
+
+        /**
+         * 索引构建参数（如IVF的nlist、HNSW的M/efConstruction）
+         */
+        private Map<String, Object> indexParams = new HashMap<>();
+
+        /**
+         * 检索参数（如IVF的nprobe、HNSW的ef、DISKANN的search_list）
+         */
+        private Map<String, Object> searchParams = new HashMap<>();
+
+        /**
+         * 检索一致性级别
+         */
+        private String consistencyLevel;
+    }
 }
@@ -0,0 +1,37 @@
+package com.uka.knowledge.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Ollama调用调度配置类
+ * <p>
+ * 所有Ollama调用（对话、流式对话、向量生成）共享同一个并发上限，
+ * 并按优先级分为交互通道（在线对话、查询向量）和批量通道（文档入库、知识抽取、OCR）。
+ * 批量通道的并发上限应小于总并发上限，为交互请求保留空闲槽位。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ollama.scheduler")
+public class OllamaSchedulerConfig {
+
+    /**
+     * 同时进行的Ollama调用总数上限
+     */
+    private Integer maxConcurrency = 4;
+
+    /**
+     * 交互通道并发上限
+     */
+    private Integer interactiveMaxConcurrency = 4;
+
+    /**
+     * 批量通道并发上限
+     */
+    private Integer bulkMaxConcurrency = 2;
+}
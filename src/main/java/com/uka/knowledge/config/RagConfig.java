@@ -0,0 +1,142 @@
+package com.uka.knowledge.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * RAG检索配置类
+ * <p>
+ * 配置RAG检索计划的并发度和各阶段超时时间
+ * 超时的阶段返回空结果，不阻塞对话
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "rag")
+public class RagConfig {
+
+    /**
+     * 检索线程池大小（每次检索最多占用2个线程）
+     */
+    private Integer poolSize = 16;
+
+    /**
+     * 检索线程池队列容量
+     */
+    private Integer queueCapacity = 200;
+
+    /**
+     * 查询向量生成超时时间（毫秒）
+     */
+    private Long embeddingTimeoutMs = 10000L;
+
+    /**
+     * 文档分块检索超时时间（毫秒）
+     */
+    private Long chunkTimeoutMs = 3000L;
+
+    /**
+     * 知识节点检索超时时间（毫秒）
+     */
+    private Long nodeTimeoutMs = 3000L;
+
+    /**
+     * 节点关系扩展超时时间（毫秒）
+     */
+    private Long relationTimeoutMs = 2000L;
+
+    /**
+     * 检索结果缓存配置
+     */
+    private Cache cache = new Cache();
+
+    /**
+     * 上下文组装配置
+     */
+    private Context context = new Context();
+
+    /**
+     * 创建RAG检索线程池
+     * 队列满时由调用线程执行，保证检索不被丢弃
+     *
+     * @return 线程池
+     */
+    @Bean(name = "ragExecutor")
+    public ThreadPoolTaskExecutor ragExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("rag-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 检索结果缓存配置
+     */
+    @Data
+    public static class Cache {
+
+        /**
+         * 是否启用缓存
+         */
+        private Boolean enabled = true;
+
+        /**
+         * 最大缓存条数
+         */
+        private Integer maxSize = 500;
+
+        /**
+         * 缓存有效期（秒）
+         */
+        private Long ttlSeconds = 1800L;
+
+        /**
+         * 近似查询复用阈值（余弦距离，0表示只复用完全相同的查询向量）
+         */
+        private Double maxCosineDistance = 0.03;
+    }
+
+    /**
+     * 上下文组装配置（各部分的token预算）
+     */
+    @Data
+    public static class Context {
+
+        /**
+         * 文档片段token预算
+         */
+        private Integer documentTokens = 1500;
+
+        /**
+         * 知识图谱节点token预算
+         */
+        private Integer nodeTokens = 400;
+
+        /**
+         * 附件内容token预算
+         */
+        private Integer attachmentTokens = 1500;
+
+        /**
+         * 历史对话token预算
+         */
+        private Integer historyTokens = 600;
+
+        /**
+         * 片段去重阈值（两个片段的3-gram重合度超过该值视为重复）
+         */
+        private Double dedupThreshold = 0.8;
+    }
+}
@@ -0,0 +1,97 @@
+package com.uka.knowledge.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * 向量存储配置类
+ * <p>
+ * vector.store 选择向量服务的实现：
+ * milvus 使用Milvus向量数据库；
+ * local 使用进程内HNSW索引（向量存放在内存映射文件中），不依赖Milvus，适用于边缘部署和测试；
+ * replica 以Milvus为准写入，同时维护一份进程内HNSW副本，检索由本地副本完成（副本未就绪时读Milvus）。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "vector")
+public class VectorStoreConfig {
+
+    /**
+     * 需要Milvus的组件的启用条件（local模式下不连接Milvus）
+     */
+    public static final String MILVUS_ENABLED = "!'${vector.store:milvus}'.equalsIgnoreCase('local')";
+
+    /**
+     * 向量存储方式
+     */
+    private Store store = Store.MILVUS;
+
+    /**
+     * 本地索引文件目录（每种向量类型一个子目录）
+     */
+    private String localPath = "./data/vector-index";
+
+    /**
+     * HNSW每个节点的邻居数（第0层为其两倍）
+     */
+    private Integer hnswM = 16;
+
+    /**
+     * HNSW构建时的候选集大小
+     */
+    private Integer hnswEfConstruction = 200;
+
+    /**
+     * HNSW检索时的候选集大小（小于topK时按topK）
+     */
+    private Integer hnswEfSearch = 64;
+
+    /**
+     * 压缩检查间隔（毫秒）
+     */
+    private Long compactionIntervalMs = 300000L;
+
+    /**
+     * 已删除向量占比达到该值时压缩（重建索引并清除已删除的向量）
+     */
+    private Double compactionDeletedRatio = 0.2;
+
+    /**
+     * 向量存储方式
+     */
+    public enum Store {
+        /**
+         * Milvus向量数据库
+         */
+        MILVUS,
+        /**
+         * 进程内HNSW索引
+         */
+        LOCAL,
+        /**
+         * Milvus + 进程内只读副本
+         */
+        REPLICA
+    }
+
+    /**
+     * 创建本地索引压缩调度器
+     *
+     * @return 调度器
+     */
+    @Bean(name = "vectorCompactionScheduler")
+    public ThreadPoolTaskScheduler vectorCompactionScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("vector-compaction-");
+        scheduler.initialize();
+        return scheduler;
+    }
+}
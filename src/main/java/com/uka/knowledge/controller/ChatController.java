@@ -13,9 +13,11 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 
@@ -121,6 +123,21 @@ public class ChatController {
         return chatService.sendMessageStream(sessionId, request);
     }
 
+    /**
+     * 流式发送消息（响应式SSE）
+     *
+     * @param sessionId 会话ID
+     * @param request 发送消息请求
+     * @return SSE事件流
+     */
+    @Operation(summary = "响应式流式发送消息", description = "响应式流式发送消息，不占用请求线程，支持背压和并发限制，事件格式与/send/stream一致")
+    @PostMapping(value = "/{sessionId}/send/flux", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> sendMessageFlux(
+            @Parameter(description = "会话ID", required = true) @PathVariable Long sessionId,
+            @Valid @RequestBody ChatSendRequest request) {
+        return chatService.sendMessageFlux(sessionId, request);
+    }
+
     /**
      * 获取消息历史
      *
@@ -46,6 +46,19 @@ public class KnowledgeNodeController {
         return Result.success(node, "节点创建成功");
     }
 
+    /**
+     * 批量创建知识节点
+     *
+     * @param dtos 节点信息列表
+     * @return 创建成功的节点
+     */
+    @Operation(summary = "批量创建节点", description = "批量创建知识节点，向量按批生成，单个节点失败不影响其他节点")
+    @PostMapping("/batch")
+    public Result<List<KnowledgeNode>> createBatch(@Valid @RequestBody List<KnowledgeNodeDTO> dtos) {
+        List<KnowledgeNode> nodes = nodeService.createNodes(dtos);
+        return Result.success(nodes, "成功创建" + nodes.size() + "个节点");
+    }
+
     /**
      * 更新知识节点
      *
@@ -0,0 +1,144 @@
+package com.uka.knowledge.controller;
+
+import com.uka.knowledge.common.Result;
+import com.uka.knowledge.service.impl.ChatStreamMetrics;
+import com.uka.knowledge.service.impl.EmbeddingCache;
+import com.uka.knowledge.service.impl.EntityDictionary;
+import com.uka.knowledge.service.impl.KnowledgeExtractServiceImpl;
+import com.uka.knowledge.service.impl.LocalVectorServiceImpl;
+import com.uka.knowledge.service.impl.OllamaScheduler;
+import com.uka.knowledge.service.impl.RagQueryCache;
+import com.uka.knowledge.util.ContextPacker;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * 运行监控控制器
+ * <p>
+ * 提供缓存命中率、上下文压缩等运行指标查询接口
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Tag(name = "运行监控", description = "运行指标查询接口")
+@RestController
+@RequestMapping("/api/monitor")
+@RequiredArgsConstructor
+public class MonitorController {
+
+    private final RagQueryCache ragQueryCache;
+    private final ContextPacker contextPacker;
+    private final ChatStreamMetrics chatStreamMetrics;
+    private final EmbeddingCache embeddingCache;
+    private final OllamaScheduler ollamaScheduler;
+    private final ObjectProvider<LocalVectorServiceImpl> localVectorService;
+    private final KnowledgeExtractServiceImpl knowledgeExtractService;
+    private final EntityDictionary entityDictionary;
+
+    /**
+     * 获取RAG检索缓存统计
+     *
+     * @return 命中/未命中次数、条数等统计信息
+     */
+    @Operation(summary = "RAG缓存统计", description = "获取RAG检索结果缓存的命中率和容量信息")
+    @GetMapping("/rag-cache")
+    public Result<Map<String, Object>> ragCacheStats() {
+        return Result.success(ragQueryCache.stats());
+    }
+
+    /**
+     * 清空RAG检索缓存
+     *
+     * @return 操作结果
+     */
+    @Operation(summary = "清空RAG缓存", description = "清空RAG检索结果缓存")
+    @DeleteMapping("/rag-cache")
+    public Result<Void> clearRagCache() {
+        ragQueryCache.clear();
+        return Result.success();
+    }
+
+    /**
+     * 获取上下文组装统计
+     *
+     * @return 累计请求数、原始token数、节省token数
+     */
+    @Operation(summary = "上下文组装统计", description = "获取提示词上下文按预算组装后累计节省的token数")
+    @GetMapping("/context")
+    public Result<Map<String, Object>> contextStats() {
+        return Result.success(contextPacker.stats());
+    }
+
+    /**
+     * 获取流式对话统计
+     *
+     * @return 完成/取消次数及取消时的token数
+     */
+    @Operation(summary = "流式对话统计", description = "获取流式对话完成、失败、客户端断开取消的次数及token数")
+    @GetMapping("/chat-stream")
+    public Result<Map<String, Object>> chatStreamStats() {
+        return Result.success(chatStreamMetrics.stats());
+    }
+
+    /**
+     * 获取向量缓存统计
+     *
+     * @return 命中/未命中次数、条数、文件大小等统计信息
+     */
+    @Operation(summary = "向量缓存统计", description = "获取文本向量持久化缓存的命中率和容量信息")
+    @GetMapping("/embedding-cache")
+    public Result<Map<String, Object>> embeddingCacheStats() {
+        return Result.success(embeddingCache.stats());
+    }
+
+    /**
+     * 获取Ollama调用调度统计
+     *
+     * @return 各通道的排队数、执行数和等待耗时
+     */
+    @Operation(summary = "Ollama调度统计", description = "获取交互/批量通道的排队深度、执行中调用数和排队等待耗时")
+    @GetMapping("/ollama-scheduler")
+    public Result<Map<String, Object>> ollamaSchedulerStats() {
+        return Result.success(ollamaScheduler.stats());
+    }
+
+    /**
+     * 获取本地向量索引统计
+     *
+     * @return 各类型的记录数、已删除数和存活数（未启用本地索引时只返回存储方式）
+     */
+    @Operation(summary = "本地向量索引统计", description = "获取进程内HNSW索引各类型的记录数和已删除数")
+    @GetMapping("/vector-store")
+    public Result<Map<String, Object>> vectorStoreStats() {
+        LocalVectorServiceImpl local = localVectorService.getIfAvailable();
+        return Result.success(local != null ? local.stats() : Map.of("store", "MILVUS"));
+    }
+
+    /**
+     * 获取进行中的知识抽取进度
+     *
+     * @return 各抽取任务的总段数、已完成段数和失败段数
+     */
+    @Operation(summary = "知识抽取进度", description = "获取进行中的知识抽取任务的分段完成情况")
+    @GetMapping("/extract-progress")
+    public Result<Map<String, Object>> extractProgress() {
+        return Result.success(knowledgeExtractService.progress());
+    }
+
+    /**
+     * 获取实体词典统计
+     *
+     * @return 条目数、容量、类型数和是否已加载
+     */
+    @Operation(summary = "实体词典统计", description = "获取内存实体词典的条目数和加载状态")
+    @GetMapping("/entity-dictionary")
+    public Result<Map<String, Object>> entityDictionaryStats() {
+        return Result.success(entityDictionary.stats());
+    }
+}
@@ -0,0 +1,87 @@
+package com.uka.knowledge.controller;
+
+import com.uka.knowledge.common.Result;
+import com.uka.knowledge.config.MilvusConfig;
+import com.uka.knowledge.config.VectorStoreConfig;
+import com.uka.knowledge.service.impl.VectorIndexManager;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * 向量索引控制器
+ * <p>
+ * 提供索引方案查询、在线重建索引和召回自检接口
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Tag(name = "向量索引", description = "向量索引方案、重建和召回自检接口")
+@RestController
+@ConditionalOnExpression(VectorStoreConfig.MILVUS_ENABLED)
+@RequestMapping("/api/vector-index")
+@RequiredArgsConstructor
+public class VectorIndexController {
+
+    private final VectorIndexManager vectorIndexManager;
+
+    /**
+     * 获取各类型当前使用的索引方案
+     *
+     * @return 类型 → 索引方案
+     */
+    @Operation(summary = "索引方案", description = "获取各向量类型当前使用的索引类型、构建参数、检索参数和一致性级别")
+    @GetMapping("/profiles")
+    public Result<Map<String, MilvusConfig.IndexProfile>> profiles() {
+        return Result.success(vectorIndexManager.profiles());
+    }
+
+    /**
+     * 在线重建索引
+     *
+     * @param type    向量类型（collection布局必填）
+     * @param profile 新的索引方案（不传则使用配置中的方案）
+     * @return 任务状态
+     */
+    @Operation(summary = "重建索引", description = "按新的索引方案创建集合、复制向量后切换，重建期间检索和写入不中断")
+    @PostMapping("/rebuild")
+    public Result<Map<String, Object>> rebuild(
+            @Parameter(description = "向量类型") @RequestParam(required = false) String type,
+            @RequestBody(required = false) MilvusConfig.IndexProfile profile) {
+        return Result.success(vectorIndexManager.rebuild(type, profile), "索引重建已开始");
+    }
+
+    /**
+     * 获取最近一次索引重建的状态
+     *
+     * @return 任务状态
+     */
+    @Operation(summary = "重建状态", description = "获取最近一次索引重建的进度和结果")
+    @GetMapping("/rebuild")
+    public Result<Map<String, Object>> rebuildStatus() {
+        return Result.success(vectorIndexManager.rebuildStatus());
+    }
+
+    /**
+     * 召回自检
+     *
+     * @param type    向量类型
+     * @param samples 抽样查询数
+     * @param topK    每次检索返回数量
+     * @return 召回率和检索耗时
+     */
+    @Operation(summary = "召回自检", description = "随机抽样查询，比较ANN检索结果与暴力计算的精确结果，返回召回率和耗时")
+    @GetMapping("/self-check")
+    public Result<Map<String, Object>> selfCheck(
+            @Parameter(description = "向量类型", required = true) @RequestParam String type,
+            @Parameter(description = "抽样查询数") @RequestParam(defaultValue = "20") Integer samples,
+            @Parameter(description = "返回数量") @RequestParam(defaultValue = "10") Integer topK) {
+        return Result.success(vectorIndexManager.selfCheck(type, samples, topK));
+    }
+}
@@ -31,13 +31,13 @@ public interface ChatMessageMapper extends BaseMapper<ChatMessage> {
     List<ChatMessage> selectBySessionId(@Param("sessionId") Long sessionId);
 
     /**
-     * 获取会话最近N条消息（用于上下文）
+     * 获取会话最近N条消息（用于上下文，不含生成中的消息）
      *
      * @param sessionId 会话ID
      * @param limit 数量限制
      * @return 消息列表
      */
-    @Select("SELECT * FROM kg_chat_message WHERE session_id = #{sessionId} AND deleted = 0 ORDER BY create_time DESC LIMIT #{limit}")
+    @Select("SELECT * FROM kg_chat_message WHERE session_id = #{sessionId} AND deleted = 0 AND status <> 'pending' ORDER BY create_time DESC LIMIT #{limit}")
     List<ChatMessage> selectRecentMessages(@Param("sessionId") Long sessionId, @Param("limit") int limit);
 
     /**
@@ -2,11 +2,13 @@ package com.uka.knowledge.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.uka.knowledge.model.entity.DocumentChunk;
+import com.uka.knowledge.model.vo.RagDocument;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * 文档分块Mapper接口
@@ -35,6 +37,41 @@ public interface DocumentChunkMapper extends BaseMapper<DocumentChunk> {
     @Select("SELECT * FROM kg_document_chunk WHERE id = #{id} AND deleted = 0")
     DocumentChunk selectByChunkId(@Param("id") Long id);
 
+    /**
+     * 批量查询分块及其所属文档（RAG检索结果回填）
+     *
+     * @param chunkIds 分块ID列表
+     * @return RAG文档列表（未设置相似度分数，顺序不保证）
+     */
+    @Select("""
+            <script>
+            SELECT d.id, c.id AS chunk_id, d.name, d.file_type, c.page_num, d.summary,
+                   c.content AS matched_content
+            FROM kg_document_chunk c
+            INNER JOIN kg_document d ON c.document_id = d.id AND d.deleted = 0
+            WHERE c.deleted = 0
+              AND c.id IN <foreach collection='chunkIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>
+            </script>
+            """)
+    List<RagDocument> selectRagDocumentsByChunkIds(@Param("chunkIds") List<Long> chunkIds);
+
+    /**
+     * 批量回填分块的向量ID
+     *
+     * @param chunks 分块列表（只使用id和vectorId）
+     * @return 影响行数
+     */
+    @org.apache.ibatis.annotations.Update("""
+            <script>
+            UPDATE kg_document_chunk
+            SET vector_id = CASE id
+            <foreach collection='chunks' item='c'>WHEN #{c.id} THEN #{c.vectorId} </foreach>
+            END
+            WHERE id IN <foreach collection='chunks' item='c' open='(' separator=',' close=')'>#{c.id}</foreach>
+            </script>
+            """)
+    int updateVectorIds(@Param("chunks") List<DocumentChunk> chunks);
+
     /**
      * 删除文档的所有分块
      *
@@ -43,4 +80,21 @@ public interface DocumentChunkMapper extends BaseMapper<DocumentChunk> {
      */
     @org.apache.ibatis.annotations.Update("UPDATE kg_document_chunk SET deleted = 1 WHERE document_id = #{documentId}")
     int deleteByDocumentId(@Param("documentId") Long documentId);
+
+    /**
+     * 按旧向量ID批量替换为新向量ID（向量迁移到新集合后回填）
+     *
+     * @param mappings 旧向量ID → 新向量ID
+     * @return 影响行数
+     */
+    @org.apache.ibatis.annotations.Update("""
+            <script>
+            UPDATE kg_document_chunk
+            SET vector_id = CASE vector_id
+            <foreach collection='mappings' index='oldId' item='newId'>WHEN #{oldId} THEN #{newId} </foreach>
+            END
+            WHERE vector_id IN <foreach collection='mappings' index='oldId' open='(' separator=',' close=')'>#{oldId}</foreach>
+            </script>
+            """)
+    int remapVectorIds(@Param("mappings") Map<String, String> mappings);
 }
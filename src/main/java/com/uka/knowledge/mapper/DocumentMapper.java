@@ -3,6 +3,8 @@ package com.uka.knowledge.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.uka.knowledge.model.entity.Document;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Update;
 
 /**
  * 文档Mapper接口
@@ -16,4 +18,14 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface DocumentMapper extends BaseMapper<Document> {
 
+    /**
+     * 更新文档处理状态和错误信息（错误信息为null时清空）
+     *
+     * @param id 文档ID
+     * @param status 处理状态
+     * @param errorMsg 错误信息
+     * @return 影响行数
+     */
+    @Update("UPDATE kg_document SET status = #{status}, error_msg = #{errorMsg}, update_time = NOW() WHERE id = #{id}")
+    int updateStatus(@Param("id") Long id, @Param("status") Integer status, @Param("errorMsg") String errorMsg);
 }
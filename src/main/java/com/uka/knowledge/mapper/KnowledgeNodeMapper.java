@@ -2,11 +2,14 @@ package com.uka.knowledge.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.uka.knowledge.model.entity.KnowledgeNode;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * 知识节点Mapper接口
@@ -63,4 +66,135 @@ public interface KnowledgeNodeMapper extends BaseMapper<KnowledgeNode> {
      */
     @Select("SELECT * FROM kg_knowledge_node WHERE source_doc_id = #{sourceDocId} AND deleted = 0")
     List<KnowledgeNode> selectBySourceDocId(@Param("sourceDocId") Long sourceDocId);
+
+    /**
+     * 按ID分页查询节点的名称和类型（实体词典加载）
+     *
+     * @param afterId 上一页最后一个节点ID
+     * @param limit   每页条数
+     * @return 节点列表（只包含id、name、nodeType）
+     */
+    @Select("SELECT id, name, node_type FROM kg_knowledge_node WHERE deleted = 0 AND id > #{afterId} ORDER BY id LIMIT #{limit}")
+    List<KnowledgeNode> selectKeysAfter(@Param("afterId") Long afterId, @Param("limit") Integer limit);
+
+    /**
+     * 按ID分页查询未写入规范化名称的节点（规范化名称回填）
+     *
+     * @param afterId 上一页最后一个节点ID
+     * @param limit   每页条数
+     * @return 节点列表（只包含id、name、nodeType）
+     */
+    @Select("SELECT id, name, node_type FROM kg_knowledge_node WHERE deleted = 0 AND name_key IS NULL AND id > #{afterId} ORDER BY id LIMIT #{limit}")
+    List<KnowledgeNode> selectWithoutNameKeyAfter(@Param("afterId") Long afterId, @Param("limit") Integer limit);
+
+    /**
+     * 批量回填规范化名称，按ID顺序写入，与已有节点唯一键冲突的节点跳过（保持NULL）
+     *
+     * @param nodes 节点列表（只使用id和nameKey）
+     * @return 影响行数
+     */
+    @Update("""
+            <script>
+            UPDATE IGNORE kg_knowledge_node
+            SET name_key = CASE id
+            <foreach collection='nodes' item='n'>WHEN #{n.id} THEN #{n.nameKey} </foreach>
+            END
+            WHERE name_key IS NULL
+              AND id IN <foreach collection='nodes' item='n' open='(' separator=',' close=')'>#{n.id}</foreach>
+            ORDER BY id
+            </script>
+            """)
+    int fillNameKeys(@Param("nodes") List<KnowledgeNode> nodes);
+
+    /**
+     * 按规范化名称和类型批量查询未删除的节点
+     *
+     * @param keys 查询条件（只使用nameKey和nodeType）
+     * @return 节点列表（只包含id、name、nameKey、nodeType）
+     */
+    @Select("""
+            <script>
+            SELECT id, name, name_key, node_type FROM kg_knowledge_node
+            WHERE deleted = 0
+              AND (name_key, node_type) IN <foreach collection='keys' item='k' open='(' separator=',' close=')'>(#{k.nameKey}, #{k.nodeType})</foreach>
+            </script>
+            """)
+    List<KnowledgeNode> selectByNameKeys(@Param("keys") List<KnowledgeNode> keys);
+
+    /**
+     * 批量插入节点，规范化名称和类型已存在的节点跳过（插入或取已有，插入后按 {@link #selectByNameKeys} 取实际ID）
+     *
+     * @param nodes 节点列表（已分配ID）
+     * @return 影响行数
+     */
+    @Insert("""
+            <script>
+            INSERT INTO kg_knowledge_node (id, name, name_key, node_type, description, properties,
+                                           source_doc_id, source_type, create_time, update_time, deleted)
+            VALUES <foreach collection='nodes' item='n' separator=','>(#{n.id}, #{n.name}, #{n.nameKey}, #{n.nodeType},
+                #{n.description}, #{n.properties}, #{n.sourceDocId}, #{n.sourceType}, NOW(), NOW(), 0)</foreach>
+            ON DUPLICATE KEY UPDATE id = id
+            </script>
+            """)
+    int insertOrIgnore(@Param("nodes") List<KnowledgeNode> nodes);
+
+    /**
+     * 释放节点的唯一键（逻辑删除前调用）
+     *
+     * @param id 节点ID
+     * @return 影响行数
+     */
+    @Update("UPDATE kg_knowledge_node SET name_key = NULL WHERE id = #{id}")
+    int releaseNameKey(@Param("id") Long id);
+
+    /**
+     * 批量回填节点的Neo4j ID
+     *
+     * @param nodes 节点列表（只使用id和neo4jId）
+     * @return 影响行数
+     */
+    @Update("""
+            <script>
+            UPDATE kg_knowledge_node
+            SET neo4j_id = CASE id
+            <foreach collection='nodes' item='n'>WHEN #{n.id} THEN #{n.neo4jId} </foreach>
+            END
+            WHERE id IN <foreach collection='nodes' item='n' open='(' separator=',' close=')'>#{n.id}</foreach>
+            </script>
+            """)
+    int updateNeo4jIds(@Param("nodes") List<KnowledgeNode> nodes);
+
+    /**
+     * 批量回填节点的向量ID
+     *
+     * @param nodes 节点列表（只使用id和vectorId）
+     * @return 影响行数
+     */
+    @Update("""
+            <script>
+            UPDATE kg_knowledge_node
+            SET vector_id = CASE id
+            <foreach collection='nodes' item='n'>WHEN #{n.id} THEN #{n.vectorId} </foreach>
+            END
+            WHERE id IN <foreach collection='nodes' item='n' open='(' separator=',' close=')'>#{n.id}</foreach>
+            </script>
+            """)
+    int updateVectorIds(@Param("nodes") List<KnowledgeNode> nodes);
+
+    /**
+     * 按旧向量ID批量替换为新向量ID（向量迁移到新集合后回填）
+     *
+     * @param mappings 旧向量ID → 新向量ID
+     * @return 影响行数
+     */
+    @Update("""
+            <script>
+            UPDATE kg_knowledge_node
+            SET vector_id = CASE vector_id
+            <foreach collection='mappings' index='oldId' item='newId'>WHEN #{oldId} THEN #{newId} </foreach>
+            END
+            WHERE vector_id IN <foreach collection='mappings' index='oldId' open='(' separator=',' close=')'>#{oldId}</foreach>
+            </script>
+            """)
+    int remapVectorIds(@Param("mappings") Map<String, String> mappings);
 }
@@ -56,6 +56,21 @@ public interface KnowledgeRelationMapper extends BaseMapper<KnowledgeRelation> {
     List<KnowledgeRelation> selectBySourceAndTarget(@Param("sourceNodeId") Long sourceNodeId,
                                                      @Param("targetNodeId") Long targetNodeId);
 
+    /**
+     * 批量查询多组节点之间已存在的关系
+     *
+     * @param pairs 节点对（只使用sourceNodeId和targetNodeId）
+     * @return 关系列表
+     */
+    @Select("""
+            <script>
+            SELECT * FROM kg_knowledge_relation
+            WHERE deleted = 0
+              AND (source_node_id, target_node_id) IN <foreach collection='pairs' item='p' open='(' separator=',' close=')'>(#{p.sourceNodeId}, #{p.targetNodeId})</foreach>
+            </script>
+            """)
+    List<KnowledgeRelation> selectByNodePairs(@Param("pairs") List<KnowledgeRelation> pairs);
+
     /**
      * 获取所有关系类型
      *
@@ -85,4 +100,22 @@ public interface KnowledgeRelationMapper extends BaseMapper<KnowledgeRelation> {
      */
     @Select("SELECT * FROM kg_knowledge_relation WHERE source_node_id = #{sourceNodeId} AND deleted = 0")
     List<KnowledgeRelation> selectBySourceNodeId(@Param("sourceNodeId") Long sourceNodeId);
+
+    /**
+     * 批量查询多个起始节点的关系（包含目标节点名称）
+     *
+     * @param sourceNodeIds 起始节点ID列表
+     * @return 关系VO列表
+     */
+    @Select("""
+            <script>
+            SELECT r.id, r.name, r.relation_type, r.source_node_id, r.target_node_id,
+                   tn.name as target_node_name
+            FROM kg_knowledge_relation r
+            INNER JOIN kg_knowledge_node tn ON r.target_node_id = tn.id AND tn.deleted = 0
+            WHERE r.deleted = 0
+              AND r.source_node_id IN <foreach collection='sourceNodeIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>
+            </script>
+            """)
+    List<KnowledgeRelationVO> selectBySourceNodeIds(@Param("sourceNodeIds") List<Long> sourceNodeIds);
 }
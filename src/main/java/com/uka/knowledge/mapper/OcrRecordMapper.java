@@ -3,6 +3,10 @@ package com.uka.knowledge.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.uka.knowledge.model.entity.OcrRecord;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.Map;
 
 /**
  * OCR记录Mapper接口
@@ -16,4 +20,20 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface OcrRecordMapper extends BaseMapper<OcrRecord> {
 
+    /**
+     * 按旧向量ID批量替换为新向量ID（向量迁移到新集合后回填）
+     *
+     * @param mappings 旧向量ID → 新向量ID
+     * @return 影响行数
+     */
+    @Update("""
+            <script>
+            UPDATE kg_ocr_record
+            SET vector_id = CASE vector_id
+            <foreach collection='mappings' index='oldId' item='newId'>WHEN #{oldId} THEN #{newId} </foreach>
+            END
+            WHERE vector_id IN <foreach collection='mappings' index='oldId' open='(' separator=',' close=')'>#{oldId}</foreach>
+            </script>
+            """)
+    int remapVectorIds(@Param("mappings") Map<String, String> mappings);
 }
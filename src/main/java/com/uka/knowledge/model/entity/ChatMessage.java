@@ -58,6 +58,11 @@ public class ChatMessage implements Serializable {
      */
     private String ragContext;
 
+    /**
+     * 消息状态（pending-生成中, complete-已完成, failed-生成失败, cancelled-已取消，只含部分内容）
+     */
+    private String status;
+
     /**
      * 创建时间
      */
@@ -76,4 +81,12 @@ public class ChatMessage implements Serializable {
     public static final String ROLE_USER = "user";
     public static final String ROLE_ASSISTANT = "assistant";
     public static final String ROLE_SYSTEM = "system";
+
+    /**
+     * 状态常量
+     */
+    public static final String STATUS_PENDING = "pending";
+    public static final String STATUS_COMPLETE = "complete";
+    public static final String STATUS_FAILED = "failed";
+    public static final String STATUS_CANCELLED = "cancelled";
 }
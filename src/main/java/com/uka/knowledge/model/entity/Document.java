@@ -68,6 +68,11 @@ public class Document implements Serializable {
      */
     private Integer status;
 
+    /**
+     * 已完成的处理阶段（0-未开始, 1-已解析, 2-已分块, 3-已向量化, 4-已抽取知识）
+     */
+    private Integer stage;
+
     /**
      * 处理错误信息
      */
@@ -103,4 +108,13 @@ public class Document implements Serializable {
     public static final int STATUS_PROCESSING = 1;
     public static final int STATUS_COMPLETED = 2;
     public static final int STATUS_FAILED = 3;
+
+    /**
+     * 文档处理阶段常量（记录已完成的阶段，中断后从下一阶段继续）
+     */
+    public static final int STAGE_NONE = 0;
+    public static final int STAGE_PARSED = 1;
+    public static final int STAGE_CHUNKED = 2;
+    public static final int STAGE_EMBEDDED = 3;
+    public static final int STAGE_EXTRACTED = 4;
 }
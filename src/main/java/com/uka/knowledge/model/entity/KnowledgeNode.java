@@ -33,6 +33,11 @@ public class KnowledgeNode implements Serializable {
      */
     private String name;
 
+    /**
+     * 规范化名称（与节点类型组成唯一键，逻辑删除后为NULL）
+     */
+    private String nameKey;
+
     /**
      * 节点类型（如：Person, Concept, Event, Location等）
      */
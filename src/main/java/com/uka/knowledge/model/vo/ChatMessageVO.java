@@ -67,6 +67,12 @@ public class ChatMessageVO {
     @Schema(description = "关联图谱节点列表")
     private List<RagNode> ragNodes;
 
+    /**
+     * 消息状态（pending/complete/failed/cancelled）
+     */
+    @Schema(description = "消息状态（pending/complete/failed/cancelled）")
+    private String status;
+
     /**
      * 创建时间
      */
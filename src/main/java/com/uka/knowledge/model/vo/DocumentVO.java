@@ -78,6 +78,12 @@ public class DocumentVO {
     @Schema(description = "状态描述")
     private String statusDesc;
 
+    /**
+     * 已完成的处理阶段
+     */
+    @Schema(description = "已完成的处理阶段（0-未开始, 1-已解析, 2-已分块, 3-已向量化, 4-已抽取知识）")
+    private Integer stage;
+
     /**
      * 错误信息
      */
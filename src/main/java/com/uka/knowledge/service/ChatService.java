@@ -9,7 +9,9 @@ import com.uka.knowledge.model.vo.ChatMessageVO;
 import com.uka.knowledge.model.vo.ChatSendResponse;
 import com.uka.knowledge.model.vo.ChatSessionVO;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 
@@ -73,6 +75,16 @@ public interface ChatService extends IService<ChatSession> {
      */
     SseEmitter sendMessageStream(Long sessionId, ChatSendRequest request);
 
+    /**
+     * 流式发送消息（响应式，带RAG增强）
+     * 不占用请求线程，支持背压和并发数限制
+     *
+     * @param sessionId 会话ID
+     * @param request 发送请求
+     * @return SSE事件流
+     */
+    Flux<ServerSentEvent<String>> sendMessageFlux(Long sessionId, ChatSendRequest request);
+
     /**
      * 获取会话消息历史
      *
@@ -26,7 +26,7 @@ public interface DocumentService extends IService<Document> {
     Document uploadAndParse(MultipartFile file);
 
     /**
-     * 解析指定文档
+     * 解析指定文档（从已完成的处理阶段继续）
      *
      * @param documentId 文档ID
      * @return 解析后的文档实体
@@ -63,7 +63,7 @@ public interface DocumentService extends IService<Document> {
     boolean deleteDocument(Long id);
 
     /**
-     * 重新解析文档
+     * 重新解析文档（处理失败的文档从已完成的阶段继续，其余从头开始）
      *
      * @param id 文档ID
      * @return 解析后的文档
@@ -46,16 +46,25 @@ public interface KnowledgeExtractService {
 
     /**
      * 抽取结果封装类
+     * <p>
+     * failed 为true表示抽取未全部完成（整体失败或有文本段抽取失败），已写入的节点和关系仍保留，
+     * 重新抽取时按名称复用已有节点，不会产生重复数据。
+     * </p>
      */
     record ExtractResult(
             List<KnowledgeNode> nodes,
             List<KnowledgeRelation> relations,
             int nodeCount,
             int relationCount,
-            String message
+            String message,
+            boolean failed
     ) {
         public static ExtractResult empty(String message) {
-            return new ExtractResult(List.of(), List.of(), 0, 0, message);
+            return new ExtractResult(List.of(), List.of(), 0, 0, message, false);
+        }
+
+        public static ExtractResult failed(String message) {
+            return new ExtractResult(List.of(), List.of(), 0, 0, message, true);
         }
 
         public static ExtractResult of(List<KnowledgeNode> nodes, List<KnowledgeRelation> relations) {
@@ -63,7 +72,19 @@ public interface KnowledgeExtractService {
                     nodes, relations,
                     nodes != null ? nodes.size() : 0,
                     relations != null ? relations.size() : 0,
-                    "抽取成功"
+                    "抽取成功",
+                    false
+            );
+        }
+
+        public static ExtractResult partial(List<KnowledgeNode> nodes, List<KnowledgeRelation> relations,
+                                            int failedChunks, int totalChunks) {
+            return new ExtractResult(
+                    nodes, relations,
+                    nodes != null ? nodes.size() : 0,
+                    relations != null ? relations.size() : 0,
+                    String.format("%d/%d段文本抽取失败", failedChunks, totalChunks),
+                    true
             );
         }
     }
@@ -29,6 +29,15 @@ public interface KnowledgeNodeService extends IService<KnowledgeNode> {
      */
     KnowledgeNode createNode(KnowledgeNodeDTO dto);
 
+    /**
+     * 批量创建知识节点
+     * 向量按批生成，每个节点单独提交，单个节点失败不影响其他节点
+     *
+     * @param dtos 节点DTO列表
+     * @return 创建成功的节点
+     */
+    List<KnowledgeNode> createNodes(List<KnowledgeNodeDTO> dtos);
+
     /**
      * 更新知识节点
      * 同时更新MySQL和Neo4j中的数据
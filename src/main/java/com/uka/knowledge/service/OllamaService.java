@@ -34,6 +34,19 @@ public interface OllamaService {
      */
     Flux<String> chatStream(String prompt);
 
+    /**
+     * 结构化输出的流式对话
+     * <p>
+     * 通过Ollama的 format 参数约束输出：传入JSON Schema时输出符合该结构的JSON，传入"json"时只约束为合法JSON。
+     * 模型或Ollama版本不支持时返回错误。
+     * </p>
+     *
+     * @param prompt 提示词
+     * @param format 输出格式（JSON Schema对象或"json"）
+     * @return 流式响应
+     */
+    Flux<String> chatStream(String prompt, Object format);
+
     /**
      * 从文本中抽取知识实体
      *
@@ -75,6 +88,18 @@ public interface OllamaService {
      */
     float[] generateEmbedding(String text);
 
+    /**
+     * 批量生成文本的向量表示
+     * <p>
+     * 按总字符数和耗时自适应分批请求，单条失败（含空文本）不影响同批其他文本，
+     * 失败的条目返回错误信息而不是零向量。已缓存的文本不请求模型。
+     * </p>
+     *
+     * @param texts 文本列表
+     * @return 与输入一一对应的结果列表
+     */
+    List<EmbeddingResult> generateEmbeddings(List<String> texts);
+
     /**
      * 知识抽取结果封装类
      */
@@ -82,4 +107,25 @@ public interface OllamaService {
             List<KnowledgeNode> entities,
             List<KnowledgeRelation> relations
     ) {}
+
+    /**
+     * 单条文本的向量生成结果
+     *
+     * @param vector 向量（失败时为null）
+     * @param error  错误信息（成功时为null）
+     */
+    record EmbeddingResult(float[] vector, String error) {
+
+        public static EmbeddingResult success(float[] vector) {
+            return new EmbeddingResult(vector, null);
+        }
+
+        public static EmbeddingResult failure(String error) {
+            return new EmbeddingResult(null, error);
+        }
+
+        public boolean isSuccess() {
+            return vector != null;
+        }
+    }
 }
@@ -4,6 +4,8 @@ import com.uka.knowledge.model.vo.RagDocument;
 import com.uka.knowledge.model.vo.RagNode;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * RAG检索增强服务接口
@@ -25,6 +27,29 @@ public interface RagService {
             String contextPrompt
     ) {}
 
+    /**
+     * RAG检索进度监听器
+     * 各部分结果就绪时立即回调（在检索线程中执行）
+     */
+    interface RagSearchListener {
+
+        /**
+         * 文档检索完成
+         *
+         * @param documents 相关文档列表
+         */
+        default void onDocuments(List<RagDocument> documents) {
+        }
+
+        /**
+         * 节点检索（含关系扩展）完成
+         *
+         * @param nodes 相关节点列表
+         */
+        default void onNodes(List<RagNode> nodes) {
+        }
+    }
+
     /**
      * 执行RAG检索
      * 根据用户输入检索相关文档和知识图谱节点
@@ -35,6 +60,17 @@ public interface RagService {
      */
     RagResult search(String query, int topK);
 
+    /**
+     * 异步执行RAG检索
+     * 文档和节点结果就绪时分别通知监听器，不等待另一部分完成
+     *
+     * @param query 用户查询
+     * @param topK 返回的最大数量
+     * @param listener 进度监听器（可为null）
+     * @return RAG检索结果
+     */
+    CompletableFuture<RagResult> searchAsync(String query, int topK, RagSearchListener listener);
+
     /**
      * 检索相关文档
      *
@@ -44,6 +80,16 @@ public interface RagService {
      */
     List<RagDocument> searchDocuments(String query, int topK);
 
+    /**
+     * 使用已生成的查询向量检索相关文档
+     *
+     * @param queryVector 查询向量
+     * @param topK 返回数量
+     * @return 相关文档列表
+     * @throws RuntimeException 向量检索或数据库查询失败时抛出，不返回空结果
+     */
+    List<RagDocument> searchDocuments(float[] queryVector, int topK);
+
     /**
      * 检索相关知识节点
      *
@@ -53,6 +99,25 @@ public interface RagService {
      */
     List<RagNode> searchNodes(String query, int topK);
 
+    /**
+     * 使用已生成的查询向量检索相关知识节点（不含关系）
+     *
+     * @param queryVector 查询向量
+     * @param topK 返回数量
+     * @return 相关节点列表
+     * @throws RuntimeException 向量检索或数据库查询失败时抛出，不返回空结果
+     */
+    List<RagNode> searchNodes(float[] queryVector, int topK);
+
+    /**
+     * 查询节点的关联关系（关系扩展）
+     *
+     * @param nodeIds 节点ID列表
+     * @return 节点ID -> 以该节点为起点的关系列表
+     * @throws RuntimeException 向量检索或数据库查询失败时抛出，不返回空结果
+     */
+    Map<Long, List<RagNode.RagRelation>> searchRelations(List<Long> nodeIds);
+
     /**
      * 构建RAG上下文提示词
      *
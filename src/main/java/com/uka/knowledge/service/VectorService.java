@@ -1,6 +1,11 @@
 package com.uka.knowledge.service;
 
+import org.springframework.util.DigestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 向量服务接口
@@ -35,6 +40,41 @@ public interface VectorService {
      */
     List<String> insertVectors(List<VectorInsertData>  vectorInsertDataList);
 
+    /**
+     * 缓冲批量插入向量数据
+     * 与其他调用方的向量合并，缓冲达到批量大小或等待超时后统一写入，适用于文档入库等大批量写入
+     *
+     * @param vectorInsertDataList 向量数据
+     * @return 写入完成后返回按输入顺序排列的向量ID列表
+     */
+    CompletableFuture<List<String>> bulkInsertVectors(List<VectorInsertData> vectorInsertDataList);
+
+    /**
+     * 写入或覆盖向量
+     * 同一类型、同一业务ID只保留一条向量，已存在时替换
+     *
+     * @param vectorInsertData 向量数据
+     * @return 向量ID
+     */
+    String upsertVector(VectorInsertData vectorInsertData);
+
+    /**
+     * 批量写入或覆盖向量
+     *
+     * @param vectorInsertDataList 向量数据
+     * @return 按输入顺序排列的向量ID
+     */
+    List<String> upsertVectors(List<VectorInsertData> vectorInsertDataList);
+
+    /**
+     * 按业务ID删除向量
+     *
+     * @param type        数据类型
+     * @param businessIds 业务ID
+     * @return 是否成功
+     */
+    boolean deleteVectors(String type, List<Long> businessIds);
+
     /**
      * 删除向量
      *
@@ -43,6 +83,16 @@ public interface VectorService {
      */
     boolean deleteVector(String vectorId);
 
+    /**
+     * 删除指定类型的向量
+     * 按类型分区或分集合存放时只在该类型的位置删除
+     *
+     * @param vectorId 向量ID
+     * @param type     数据类型
+     * @return 是否成功
+     */
+    boolean deleteVector(String vectorId, String type);
+
     /**
      * 向量相似性搜索
      *
@@ -53,6 +103,19 @@ public interface VectorService {
      */
     List<VectorSearchResult> search(float[] queryVector, int topK, String type);
 
+    /**
+     * 由类型和业务ID计算向量主键
+     * 取 MD5("类型:业务ID") 的前8字节（非负），同一业务对象的向量主键固定，更新时直接覆盖
+     *
+     * @param type       数据类型
+     * @param businessId 业务ID
+     * @return 向量主键
+     */
+    static long businessKey(String type, long businessId) {
+        byte[] digest = DigestUtils.md5Digest((type + ":" + businessId).getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(digest).getLong() & Long.MAX_VALUE;
+    }
+
     /**
      * 向量搜索结果封装类
      */
@@ -24,12 +24,16 @@ public class AsyncService {
 
     private final OcrService ocrService;
 
+    private final OllamaScheduler ollamaScheduler;
+
     /**
      * 使用@Lazy解决循环依赖问题
      */
-    public AsyncService(@Lazy DocumentService documentService, @Lazy OcrService ocrService) {
+    public AsyncService(@Lazy DocumentService documentService, @Lazy OcrService ocrService,
+                        OllamaScheduler ollamaScheduler) {
         this.documentService = documentService;
         this.ocrService = ocrService;
+        this.ollamaScheduler = ollamaScheduler;
     }
 
     /**
@@ -41,7 +45,8 @@ public class AsyncService {
     public void asyncParseDocument(Long documentId) {
         log.info("开始异步解析文档, documentId={}, thread={}", documentId, Thread.currentThread().getName());
         try {
-            documentService.parseDocument(documentId);
+            // 文档入库的大模型调用走批量通道，不影响在线对话
+            ollamaScheduler.runAsBulk("document:" + documentId, () -> documentService.parseDocument(documentId));
             log.info("异步解析文档完成, documentId={}", documentId);
         } catch (Exception e) {
             log.error("异步解析文档失败, documentId={}", documentId, e);
@@ -57,7 +62,7 @@ public class AsyncService {
     @Async
     public void asyncRecognize(Long recordId) {
         try {
-            ocrService.recognizeImage(recordId);
+            ollamaScheduler.runAsBulk("ocr:" + recordId, () -> ocrService.recognizeImage(recordId));
         } catch (Exception e) {
             log.error("异步OCR识别失败, recordId={}", recordId, e);
         }
@@ -4,7 +4,9 @@ import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.util.IdUtil;
 import cn.hutool.core.util.StrUtil;
 import com.alibaba.fastjson2.JSON;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.uka.knowledge.config.ChatConfig;
 import com.uka.knowledge.config.FileConfig;
 import com.uka.knowledge.exception.BusinessException;
 import com.uka.knowledge.common.ResultCode;
@@ -19,29 +21,46 @@ import com.uka.knowledge.model.vo.*;
 import com.uka.knowledge.service.ChatService;
 import com.uka.knowledge.service.OllamaService;
 import com.uka.knowledge.service.RagService;
+import com.uka.knowledge.util.ContextPacker;
 import com.uka.knowledge.util.DocumentParser;
+import com.uka.knowledge.util.SseFrameWriter;
+import com.uka.knowledge.util.ThinkTagParser;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 聊天服务实现类
@@ -68,6 +87,15 @@ public class ChatServiceImpl extends ServiceImpl<ChatSessionMapper, ChatSession>
     private final RagService ragService;
     private final DocumentParser documentParser;
     private final FileConfig fileConfig;
+    private final ContextPacker contextPacker;
+    private final ChatConfig chatConfig;
+    private final ChatStreamMetrics chatStreamMetrics;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * 当前响应式流式对话数量
+     */
+    private final AtomicInteger activeFluxStreams = new AtomicInteger();
 
 
     private static final String PROMPT_TEMPLATE = """
@@ -90,13 +118,14 @@ public class ChatServiceImpl extends ServiceImpl<ChatSessionMapper, ChatSession>
     /**
      * 用于SSE流式响应的线程池
      */
-    private final ExecutorService sseExecutor = Executors.newCachedThreadPool();
+    @Qualifier("chatStreamExecutor")
+    private final ThreadPoolTaskExecutor chatStreamExecutor;
 
     /**
-     * 思考链标签的正则表达式
-     * 匹配 <think>...</think> 格式
+     * 用于SSE心跳的调度器
      */
-    private static final Pattern THINKING_PATTERN = Pattern.compile("<think>(.*?)</think>", Pattern.DOTALL);
+    @Qualifier("chatHeartbeatScheduler")
+    private final ThreadPoolTaskScheduler chatHeartbeatScheduler;
 
     /**
      * 创建新会话
@@ -160,9 +189,12 @@ public class ChatServiceImpl extends ServiceImpl<ChatSessionMapper, ChatSession>
 
     /**
      * 发送消息（带RAG增强）
+     * <p>
+     * 不在事务中调用大模型：检索和提示词组装只读，先在短事务中写入用户消息和待生成（pending）的AI消息，
+     * 生成期间不持有数据库连接，完成后单条更新AI消息内容和状态。
+     * </p>
      */
     @Override
-    @Transactional(rollbackFor = Exception.class)
     public ChatSendResponse sendMessage(Long sessionId, ChatSendRequest request) {
         // 验证会话
         ChatSession session = this.getById(sessionId);
@@ -174,95 +206,62 @@ public class ChatServiceImpl extends ServiceImpl<ChatSessionMapper, ChatSession>
         Boolean enableRag = request.getEnableRag() != null ? request.getEnableRag() : true;
 
         // 处理附件
-        String attachmentContext = "";
         List<ChatAttachment> attachments = new ArrayList<>();
         if (request.getAttachmentIds() != null && !request.getAttachmentIds().isEmpty()) {
             attachments = attachmentMapper.selectByIds(request.getAttachmentIds());
-            attachmentContext = buildAttachmentContext(attachments);
         }
+        ContextPacker.Section attachmentSection = contextPacker.packAttachments(attachments, userMessage);
 
         // 执行RAG检索
         RagService.RagResult ragResult = null;
+        ContextPacker.Section documentSection = contextPacker.packDocuments(List.of(), userMessage);
         String prompt = userMessage;
 
         if (enableRag) {
-            ragResult = ragService.search(userMessage, 5);
+            ragResult = ragService.search(userMessage, chatConfig.getRagTopK());
 
             // 构建带RAG上下文的提示词
-            if (ragResult != null && StrUtil.isNotBlank(ragResult.contextPrompt())) {
-                prompt = ragResult.contextPrompt();
+            documentSection = contextPacker.packDocuments(ragResult.documents(), userMessage);
+            if (StrUtil.isNotBlank(documentSection.text())) {
+                prompt = documentSection.text();
             }
         }
 
         // 添加附件上下文
-        if (StrUtil.isNotBlank(attachmentContext)) {
-            prompt = prompt + "\n\n【附件内容】\n" + attachmentContext;
+        if (StrUtil.isNotBlank(attachmentSection.text())) {
+            prompt = prompt + "\n\n【附件内容】\n" + attachmentSection.text();
         }
 
         // 获取历史消息作为上下文
         List<ChatMessage> history = messageMapper.selectRecentMessages(sessionId, 10);
-        String historyContext = buildHistoryContext(history);
-        if (StrUtil.isNotBlank(historyContext)) {
-            prompt = historyContext + "\n\n" + prompt;
+        ContextPacker.Section historySection = contextPacker.packHistory(history);
+        if (StrUtil.isNotBlank(historySection.text())) {
+            prompt = historySection.text() + "\n\n" + prompt;
         }
+        contextPacker.report(sessionId, documentSection, attachmentSection, historySection);
 
-        // 调用大模型
+        // 短事务：写入用户消息和待生成的AI消息
+        PendingMessages pending = persistPendingMessages(session, IdWorker.getId(), IdWorker.getId(),
+                userMessage, attachments, ragResult);
+        ChatMessage userMsg = pending.userMessage();
+        ChatMessage assistantMsg = pending.assistantMessage();
+
+        // 调用大模型（不持有数据库连接）
         String aiResponse;
         try {
             aiResponse = ollamaService.chat(prompt);
         } catch (Exception e) {
             log.error("调用大模型失败", e);
+            updateAssistantMessage(assistantMsg.getId(), "", null, ChatMessage.STATUS_FAILED);
             throw new BusinessException(ResultCode.OLLAMA_ERROR, "AI服务暂时不可用，请稍后重试");
         }
 
         // 解析思考链
-        String thinkingContent = null;
-        String content = aiResponse;
-
-        Matcher matcher = THINKING_PATTERN.matcher(aiResponse);
-        if (matcher.find()) {
-            thinkingContent = matcher.group(1).trim();
-            content = matcher.replaceAll("").trim();
-        }
-
-        // 保存用户消息
-        ChatMessage userMsg = new ChatMessage();
-        userMsg.setSessionId(sessionId);
-        userMsg.setRole(ChatMessage.ROLE_USER);
-        userMsg.setContent(userMessage);
-        if (!attachments.isEmpty()) {
-            userMsg.setAttachments(JSON.toJSONString(attachments.stream()
-                    .map(a -> Map.of("id", a.getId(), "fileName", a.getFileName()))
-                    .toList()));
-        }
-        messageMapper.insert(userMsg);
-
-        // 保存AI回复
-        ChatMessage assistantMsg = new ChatMessage();
-        assistantMsg.setSessionId(sessionId);
-        assistantMsg.setRole(ChatMessage.ROLE_ASSISTANT);
-        assistantMsg.setContent(content);
-        assistantMsg.setThinkingContent(thinkingContent);
-
-        // 保存RAG上下文
-        if (ragResult != null) {
-            Map<String, Object> ragContext = new HashMap<>();
-            ragContext.put("documents", ragResult.documents());
-            ragContext.put("nodes", ragResult.nodes());
-            assistantMsg.setRagContext(JSON.toJSONString(ragContext));
-        }
-        messageMapper.insert(assistantMsg);
-
-        // 更新会话统计
-        sessionMapper.incrementMessageCount(sessionId);
-        sessionMapper.incrementMessageCount(sessionId);
-
-        // 如果是第一条消息，自动设置会话标题
-        if (session.getMessageCount() == 0) {
-            String title = userMessage.length() > 30 ? userMessage.substring(0, 30) + "..." : userMessage;
-            session.setTitle(title);
-            this.updateById(session);
-        }
+        ThinkTagParser.Result parsed = ThinkTagParser.parse(aiResponse);
+        assistantMsg.setContent(parsed.content());
+        assistantMsg.setThinkingContent(parsed.thinking());
+        assistantMsg.setStatus(ChatMessage.STATUS_COMPLETE);
+        updateAssistantMessage(assistantMsg.getId(), parsed.content(), parsed.thinking(), ChatMessage.STATUS_COMPLETE);
 
         // 构建响应
         ChatSendResponse response = new ChatSendResponse();
@@ -285,195 +284,691 @@ public class ChatServiceImpl extends ServiceImpl<ChatSessionMapper, ChatSession>
 
     /**
      * 流式发送消息（带RAG增强）
+     * <p>
+     * 立即返回SSE连接，检索、提示词组装和消息落库全部异步执行：
+     * 先推送init（预分配的消息ID），检索各部分就绪时推送sources，
+     * 提示词组装完成后立即开始生成，消息落库与生成并行
+     * </p>
      */
     @Override
     public SseEmitter sendMessageStream(Long sessionId, ChatSendRequest request) {
-        // 验证会话
-        ChatSession session = this.getById(sessionId);
-        if (session == null) {
-            throw new BusinessException(ResultCode.NOT_FOUND, "会话不存在");
+        // 创建SSE Emitter
+        SseEmitter emitter = new SseEmitter(chatConfig.getSseTimeoutMs());
+
+        // 预分配消息ID，客户端无需等待落库即可关联消息
+        Long userMsgId = IdWorker.getId();
+        Long assistantMsgId = IdWorker.getId();
+        StreamHandle handle = new StreamHandle(emitter, sessionId, assistantMsgId);
+
+        // 连接结束、超时或出错时取消上游生成
+        emitter.onCompletion(() -> cancelStream(handle, "连接关闭"));
+        emitter.onTimeout(() -> {
+            log.warn("SSE连接超时, sessionId={}", sessionId);
+            cancelStream(handle, "连接超时");
+            emitter.complete();
+        });
+        emitter.onError(error -> {
+            log.warn("SSE连接错误, sessionId={}, error={}", sessionId, error.getMessage());
+            cancelStream(handle, "连接错误");
+        });
+
+        // 心跳检测客户端是否已断开
+        handle.heartbeat = chatHeartbeatScheduler.scheduleAtFixedRate(() -> sendHeartbeat(handle),
+                Duration.ofMillis(chatConfig.getHeartbeatIntervalMs()));
+
+        try {
+            chatStreamExecutor.execute(() -> prepareAndStream(handle, request, userMsgId));
+        } catch (TaskRejectedException e) {
+            log.warn("流式对话线程池已满, 拒绝请求, sessionId={}", sessionId);
+            sendEvent(handle, Map.of("type", "error", "message", "当前对话请求过多，请稍后重试"));
+            handle.finish();
+            emitter.complete();
+        }
+
+        return emitter;
+    }
+
+    /**
+     * 准备上下文并发起流式生成（在流式对话线程池中执行）
+     */
+    private void prepareAndStream(StreamHandle handle, ChatSendRequest request, Long userMsgId) {
+        Long sessionId = handle.sessionId;
+        try {
+            // 首先发送消息ID
+            Map<String, Object> initData = new HashMap<>();
+            initData.put("type", "init");
+            initData.put("userMessageId", userMsgId);
+            initData.put("assistantMessageId", handle.assistantMsgId);
+            sendEvent(handle, initData);
+
+            String userMessage = request.getMessage();
+            Boolean enableRag = request.getEnableRag() != null ? request.getEnableRag() : true;
+
+            // 执行RAG检索（与会话、附件、历史查询并行），各部分就绪时立即推送
+            CompletableFuture<RagService.RagResult> ragFuture = CompletableFuture.completedFuture(null);
+            if (enableRag) {
+                sendEvent(handle, Map.of("type", "retrieval_started"));
+                ragFuture = ragService.searchAsync(userMessage, chatConfig.getRagTopK(),
+                        new RagService.RagSearchListener() {
+                            @Override
+                            public void onDocuments(List<RagDocument> documents) {
+                                sendEvent(handle, Map.of("type", "sources", "ragDocuments", documents));
+                            }
+
+                            @Override
+                            public void onNodes(List<RagNode> nodes) {
+                                sendEvent(handle, Map.of("type", "sources", "ragNodes", nodes));
+                            }
+                        });
+            }
+
+            // 验证会话
+            ChatSession session = this.getById(sessionId);
+            if (session == null) {
+                sendEvent(handle, Map.of("type", "error", "message", "会话不存在"));
+                handle.finish();
+                handle.emitter.complete();
+                return;
+            }
+
+            // 处理附件
+            List<ChatAttachment> attachments = new ArrayList<>();
+            if (request.getAttachmentIds() != null && !request.getAttachmentIds().isEmpty()) {
+                attachments = attachmentMapper.selectByIds(request.getAttachmentIds());
+            }
+
+            // 获取历史消息作为上下文
+            List<ChatMessage> history = messageMapper.selectRecentMessages(sessionId, 10);
+
+            RagService.RagResult ragResult = ragFuture.join();
+            String prompt = buildStreamPrompt(sessionId, userMessage, ragResult, attachments, history);
+
+            // 检查客户端是否已断开与标记开始生成是同一个原子操作：
+            // 准备期间已断开则不再落库和生成，标记之后断开由cancelStream以取消状态更新落库的消息
+            CompletableFuture<Void> persistFuture = new CompletableFuture<>();
+            handle.persistFuture = persistFuture;
+            if (!handle.startStreaming()) {
+                log.info("客户端已断开, 跳过生成, sessionId={}", sessionId);
+                return;
+            }
+            chatStreamMetrics.streamStarted();
+
+            // 消息落库与生成并行，不占用首字节时间
+            List<ChatAttachment> finalAttachments = attachments;
+            runOffCriticalPath(() -> persistPendingMessages(
+                    session, userMsgId, handle.assistantMsgId, userMessage, finalAttachments, ragResult))
+                    .whenComplete((v, error) -> {
+                        if (error != null) {
+                            persistFuture.completeExceptionally(error);
+                        } else {
+                            persistFuture.complete(null);
+                        }
+                    });
+
+            streamResponse(handle, prompt);
+        } catch (Exception e) {
+            log.error("流式消息处理失败", e);
+            sendEvent(handle, Map.of("type", "error", "message", StrUtil.nullToDefault(e.getMessage(), "发送失败")));
+            if (handle.finish() && handle.isStreaming()) {
+                chatStreamMetrics.streamFailed();
+                ThinkTagParser.Result parsed = handle.result();
+                saveAssistantContent(handle, parsed.content(), parsed.thinking(), ChatMessage.STATUS_FAILED);
+            }
+            handle.emitter.completeWithError(e);
         }
+    }
+
+    /**
+     * 流式发送消息（响应式，带RAG增强）
+     * <p>
+     * 直接返回事件流，不为每个流占用线程：数据库查询在boundedElastic调度器执行，
+     * 检索由RAG线程池异步完成，生成按客户端消费速度向Ollama请求数据（背压）。
+     * 同时进行的流数量受chat.flux-max-concurrency限制，超出时返回error事件。
+     * </p>
+     */
+    @Override
+    public Flux<ServerSentEvent<String>> sendMessageFlux(Long sessionId, ChatSendRequest request) {
+        Flux<ServerSentEvent<String>> events = Flux.defer(() -> {
+            if (!tryAcquireFluxPermit()) {
+                log.warn("响应式流式对话已达并发上限, 拒绝请求, sessionId={}", sessionId);
+                return Flux.just(toServerSentEvent(Map.of("type", "error", "message", "当前对话请求过多，请稍后重试")));
+            }
+            return buildFluxEvents(sessionId, request)
+                    .doFinally(signal -> activeFluxStreams.decrementAndGet());
+        });
 
+        // 心跳：主事件流结束时停止；客户端未消费时丢弃心跳（interval不支持背压，否则溢出报错）。
+        // publish和merge按flux-prefetch预取，不在生成的背压窗口之外额外缓冲事件
+        Duration heartbeatInterval = Duration.ofMillis(chatConfig.getHeartbeatIntervalMs());
+        int prefetch = chatConfig.getFluxPrefetch();
+        return events.publish(shared -> Flux.merge(prefetch, shared,
+                Flux.interval(heartbeatInterval)
+                        .onBackpressureDrop()
+                        .map(i -> ServerSentEvent.<String>builder().comment("heartbeat").build())
+                        .takeUntilOther(shared.ignoreElements())), prefetch);
+    }
+
+    /**
+     * 构建响应式流式对话的事件序列：init -> 检索进度 -> 生成内容 -> done
+     */
+    private Flux<ServerSentEvent<String>> buildFluxEvents(Long sessionId, ChatSendRequest request) {
+        // 预分配消息ID
+        Long userMsgId = IdWorker.getId();
+        Long assistantMsgId = IdWorker.getId();
         String userMessage = request.getMessage();
         Boolean enableRag = request.getEnableRag() != null ? request.getEnableRag() : true;
 
-        // 处理附件
-        String attachmentContext = "";
+        Map<String, Object> initData = new HashMap<>();
+        initData.put("type", "init");
+        initData.put("userMessageId", userMsgId);
+        initData.put("assistantMessageId", assistantMsgId);
+        Flux<ServerSentEvent<String>> head = enableRag
+                ? Flux.just(toServerSentEvent(initData), toServerSentEvent(Map.of("type", "retrieval_started")))
+                : Flux.just(toServerSentEvent(initData));
+
+        // 执行RAG检索，各部分就绪时推送sources
+        AtomicReference<RagService.RagResult> ragHolder = new AtomicReference<>();
+        Flux<ServerSentEvent<String>> retrieval = !enableRag ? Flux.empty() : Flux.create(sink ->
+                ragService.searchAsync(userMessage, chatConfig.getRagTopK(), new RagService.RagSearchListener() {
+                    @Override
+                    public void onDocuments(List<RagDocument> documents) {
+                        sink.next(toServerSentEvent(Map.of("type", "sources", "ragDocuments", documents)));
+                    }
+
+                    @Override
+                    public void onNodes(List<RagNode> nodes) {
+                        sink.next(toServerSentEvent(Map.of("type", "sources", "ragNodes", nodes)));
+                    }
+                }).whenComplete((result, error) -> {
+                    ragHolder.set(result);
+                    sink.complete();
+                }));
+
+        // 会话、附件、历史查询与检索并行
+        Mono<FluxContext> contextMono = Mono.fromCallable(() -> loadFluxContext(sessionId, request))
+                .subscribeOn(Schedulers.boundedElastic())
+                .cache();
+
+        Flux<ServerSentEvent<String>> generation = contextMono.flatMapMany(context -> {
+            RagService.RagResult ragResult = ragHolder.get();
+            String prompt = buildStreamPrompt(sessionId, userMessage, ragResult, context.attachments(), context.history());
+
+            // 消息落库与生成并行
+            CompletableFuture<Void> persistFuture = Mono.<Void>fromRunnable(() -> persistPendingMessages(
+                            context.session(), userMsgId, assistantMsgId, userMessage, context.attachments(), ragResult))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .toFuture();
+
+            return generateFlux(sessionId, assistantMsgId, prompt, persistFuture);
+        });
+
+        return Flux.concat(head, Flux.merge(retrieval, contextMono.then(Mono.empty())), generation)
+                .onErrorResume(error -> {
+                    log.error("响应式流式对话失败, sessionId={}", sessionId, error);
+                    return Flux.just(toServerSentEvent(Map.of("type", "error",
+                            "message", StrUtil.nullToDefault(error.getMessage(), "发送失败"))));
+                });
+    }
+
+    /**
+     * 查询响应式流式对话所需的会话、附件和历史消息
+     */
+    private FluxContext loadFluxContext(Long sessionId, ChatSendRequest request) {
+        ChatSession session = this.getById(sessionId);
+        if (session == null) {
+            throw new BusinessException(ResultCode.NOT_FOUND, "会话不存在");
+        }
+
         List<ChatAttachment> attachments = new ArrayList<>();
         if (request.getAttachmentIds() != null && !request.getAttachmentIds().isEmpty()) {
             attachments = attachmentMapper.selectByIds(request.getAttachmentIds());
-            attachmentContext = buildAttachmentContext(attachments);
         }
+        List<ChatMessage> history = messageMapper.selectRecentMessages(sessionId, 10);
+        return new FluxContext(session, attachments, history);
+    }
 
-        // 执行RAG检索
-        RagService.RagResult ragResult = null;
-        String ragPrompt = "";
+    /**
+     * 响应式生成：按客户端消费速度分批向上游请求，客户端断开时取消上游请求并以取消状态保存已生成内容
+     */
+    private Flux<ServerSentEvent<String>> generateFlux(Long sessionId, Long assistantMsgId, String prompt,
+                                                       CompletableFuture<Void> persistFuture) {
+        ThinkTagParser parser = new ThinkTagParser();
+        AtomicInteger tokens = new AtomicInteger();
+        AtomicBoolean finished = new AtomicBoolean(false);
+        chatStreamMetrics.streamStarted();
+
+        return ollamaService.chatStream(prompt)
+                // 背压：最多预取flux-prefetch个token，客户端消费后再向上游补充（下游各级同样按该值预取）
+                .limitRate(chatConfig.getFluxPrefetch())
+                .concatMapIterable(chunk -> {
+                    tokens.incrementAndGet();
+                    List<ServerSentEvent<String>> parts = new ArrayList<>(2);
+                    parser.feed(chunk, (part, text) -> parts.add(toPartEvent(part, text)));
+                    return parts;
+                }, chatConfig.getFluxPrefetch())
+                .concatWith(Flux.defer(() -> {
+                    List<ServerSentEvent<String>> tail = new ArrayList<>(2);
+                    parser.finish((part, text) -> tail.add(toPartEvent(part, text)));
+                    if (!finished.compareAndSet(false, true)) {
+                        return Flux.fromIterable(tail);
+                    }
+                    chatStreamMetrics.streamCompleted();
+
+                    ThinkTagParser.Result parsed = parser.result();
+                    saveAssistantContent(sessionId, assistantMsgId, persistFuture, parsed.content(), parsed.thinking(),
+                            ChatMessage.STATUS_COMPLETE);
+
+                    Map<String, Object> doneData = new HashMap<>();
+                    doneData.put("type", "done");
+                    doneData.put("thinkingContent", parsed.thinking());
+                    doneData.put("content", parsed.content());
+                    tail.add(toServerSentEvent(doneData));
+                    log.info("响应式流式消息发送完成, sessionId={}, assistantMsgId={}", sessionId, assistantMsgId);
+                    return Flux.fromIterable(tail);
+                }))
+                .doOnCancel(() -> {
+                    if (!finished.compareAndSet(false, true)) {
+                        return;
+                    }
+                    chatStreamMetrics.streamCancelled(tokens.get());
+                    log.info("响应式流式生成已取消, sessionId={}, assistantMsgId={}, 已生成{}个token",
+                            sessionId, assistantMsgId, tokens.get());
+                    // 已生成的部分内容以取消状态保存，与完整回复区分
+                    ThinkTagParser.Result parsed = parser.result();
+                    saveAssistantContent(sessionId, assistantMsgId, persistFuture, parsed.content(), parsed.thinking(),
+                            ChatMessage.STATUS_CANCELLED);
+                })
+                .onErrorResume(error -> {
+                    if (finished.compareAndSet(false, true)) {
+                        chatStreamMetrics.streamFailed();
+                        ThinkTagParser.Result parsed = parser.result();
+                        saveAssistantContent(sessionId, assistantMsgId, persistFuture, parsed.content(),
+                                parsed.thinking(), ChatMessage.STATUS_FAILED);
+                    }
+                    log.error("响应式流式对话失败", error);
+                    return Flux.just(toServerSentEvent(Map.of("type", "error",
+                            "message", StrUtil.nullToDefault(error.getMessage(), "发送失败"))));
+                });
+    }
 
-        if (enableRag) {
-            ragResult = ragService.search(userMessage, 5);
-            if (ragResult != null && StrUtil.isNotBlank(ragResult.contextPrompt())) {
-                ragPrompt = ragResult.contextPrompt();
+    /**
+     * 获取响应式流式对话并发许可
+     */
+    private boolean tryAcquireFluxPermit() {
+        int max = chatConfig.getFluxMaxConcurrency();
+        while (true) {
+            int current = activeFluxStreams.get();
+            if (current >= max) {
+                return false;
+            }
+            if (activeFluxStreams.compareAndSet(current, current + 1)) {
+                return true;
             }
         }
-        String prompt = PROMPT_TEMPLATE.formatted(ragPrompt, (ragResult.nodes() != null ? JSON.toJSONString(ragResult.nodes()) : "无信息"), userMessage);
+    }
+
+    private ServerSentEvent<String> toPartEvent(ThinkTagParser.Part part, String text) {
+        return ServerSentEvent.<String>builder()
+                .event("message")
+                .data(SseFrameWriter.toJson(part, text))
+                .build();
+    }
+
+    private ServerSentEvent<String> toServerSentEvent(Map<String, Object> data) {
+        return ServerSentEvent.<String>builder()
+                .event("message")
+                .data(JSON.toJSONString(data))
+                .build();
+    }
+
+    /**
+     * 已写入的用户消息和待生成的AI消息
+     */
+    private record PendingMessages(ChatMessage userMessage, ChatMessage assistantMessage) {
+    }
+
+    /**
+     * 响应式流式对话的上下文
+     */
+    private record FluxContext(ChatSession session, List<ChatAttachment> attachments, List<ChatMessage> history) {
+    }
+
+    /**
+     * 组装流式对话提示词
+     */
+    private String buildStreamPrompt(Long sessionId, String userMessage, RagService.RagResult ragResult,
+                                     List<ChatAttachment> attachments, List<ChatMessage> history) {
+        ContextPacker.Section attachmentSection = contextPacker.packAttachments(attachments, userMessage);
+        ContextPacker.Section documentSection = contextPacker.packDocuments(
+                ragResult != null ? ragResult.documents() : List.of(), userMessage);
+        ContextPacker.Section nodeSection = contextPacker.packNodes(
+                ragResult != null ? ragResult.nodes() : List.of());
 
+        String prompt = PROMPT_TEMPLATE.formatted(documentSection.text(),
+                StrUtil.isNotBlank(nodeSection.text()) ? nodeSection.text() : "无信息", userMessage);
 
         // 添加附件上下文
-        if (StrUtil.isNotBlank(attachmentContext)) {
-            prompt = prompt + "\n\n【附件内容】\n" + attachmentContext;
+        if (StrUtil.isNotBlank(attachmentSection.text())) {
+            prompt = prompt + "\n\n【附件内容】\n" + attachmentSection.text();
         }
 
-        // 获取历史消息作为上下文
-        List<ChatMessage> history = messageMapper.selectRecentMessages(sessionId, 10);
-        String historyContext = buildHistoryContext(history);
-        if (StrUtil.isNotBlank(historyContext)) {
-            prompt = historyContext + "\n\n" + prompt;
+        // 添加历史对话
+        ContextPacker.Section historySection = contextPacker.packHistory(history);
+        if (StrUtil.isNotBlank(historySection.text())) {
+            prompt = historySection.text() + "\n\n" + prompt;
         }
+        contextPacker.report(sessionId, documentSection, nodeSection, attachmentSection, historySection);
 
-        prompt +=  "\n\n请给出整合后的完整回答";
+        return prompt + "\n\n请给出整合后的完整回答";
+    }
 
-        // 保存用户消息
+    /**
+     * 在短事务中保存用户消息和待生成（pending）的AI消息，并更新会话统计
+     */
+    private PendingMessages persistPendingMessages(ChatSession session, Long userMsgId, Long assistantMsgId,
+                                                   String userMessage, List<ChatAttachment> attachments,
+                                                   RagService.RagResult ragResult) {
+        // 用户消息
         ChatMessage userMsg = new ChatMessage();
-        userMsg.setSessionId(sessionId);
+        userMsg.setId(userMsgId);
+        userMsg.setSessionId(session.getId());
         userMsg.setRole(ChatMessage.ROLE_USER);
         userMsg.setContent(userMessage);
+        userMsg.setStatus(ChatMessage.STATUS_COMPLETE);
         if (!attachments.isEmpty()) {
             userMsg.setAttachments(JSON.toJSONString(attachments.stream()
                     .map(a -> Map.of("id", a.getId(), "fileName", a.getFileName()))
                     .toList()));
         }
-        messageMapper.insert(userMsg);
 
-        // 创建AI消息记录（后续流式更新内容）
+        // AI消息记录（生成完成后更新内容和状态）
         ChatMessage assistantMsg = new ChatMessage();
-        assistantMsg.setSessionId(sessionId);
+        assistantMsg.setId(assistantMsgId);
+        assistantMsg.setSessionId(session.getId());
         assistantMsg.setRole(ChatMessage.ROLE_ASSISTANT);
         assistantMsg.setContent("");
+        assistantMsg.setStatus(ChatMessage.STATUS_PENDING);
         if (ragResult != null) {
             Map<String, Object> ragContext = new HashMap<>();
             ragContext.put("documents", ragResult.documents());
             ragContext.put("nodes", ragResult.nodes());
             assistantMsg.setRagContext(JSON.toJSONString(ragContext));
         }
-        messageMapper.insert(assistantMsg);
 
-        // 更新会话统计
-        sessionMapper.incrementMessageCount(sessionId);
-        sessionMapper.incrementMessageCount(sessionId);
+        transactionTemplate.executeWithoutResult(status -> {
+            messageMapper.insert(userMsg);
+            messageMapper.insert(assistantMsg);
 
-        // 如果是第一条消息，自动设置会话标题
-        if (session.getMessageCount() == 0) {
-            String title = userMessage.length() > 30 ? userMessage.substring(0, 30) + "..." : userMessage;
-            session.setTitle(title);
-            this.updateById(session);
-        }
+            // 更新会话统计
+            sessionMapper.incrementMessageCount(session.getId());
+            sessionMapper.incrementMessageCount(session.getId());
+
+            // 如果是第一条消息，自动设置会话标题
+            if (session.getMessageCount() == 0) {
+                String title = userMessage.length() > 30 ? userMessage.substring(0, 30) + "..." : userMessage;
+                session.setTitle(title);
+                this.updateById(session);
+            }
+        });
+        return new PendingMessages(userMsg, assistantMsg);
+    }
 
-        // 创建SSE Emitter（超时5分钟）
-        SseEmitter emitter = new SseEmitter(5 * 60 * 1000L);
-        final String finalPrompt = prompt;
-        final RagService.RagResult finalRagResult = ragResult;
-        final Long assistantMsgId = assistantMsg.getId();
-        final Long userMsgId = userMsg.getId();
-        final List<ChatAttachment> finalAttachments = attachments;
+    /**
+     * 更新AI消息内容和状态（单条语句，无需事务）
+     */
+    private void updateAssistantMessage(Long assistantMsgId, String content, String thinkingContent, String status) {
+        ChatMessage msgToUpdate = new ChatMessage();
+        msgToUpdate.setId(assistantMsgId);
+        msgToUpdate.setContent(content);
+        msgToUpdate.setThinkingContent(thinkingContent);
+        msgToUpdate.setStatus(status);
+        messageMapper.updateById(msgToUpdate);
+    }
 
-        // 使用线程池执行流式响应
-        sseExecutor.execute(() -> {
-            StringBuilder fullContent = new StringBuilder();
+    /**
+     * 在流式对话线程池中执行非关键路径任务，线程池已满时在当前线程执行
+     */
+    private CompletableFuture<Void> runOffCriticalPath(Runnable task) {
+        try {
+            return CompletableFuture.runAsync(task, chatStreamExecutor);
+        } catch (TaskRejectedException e) {
             try {
-                // 首先发送消息ID和RAG结果
-                Map<String, Object> initData = new HashMap<>();
-                initData.put("type", "init");
-                initData.put("userMessageId", userMsgId);
-                initData.put("assistantMessageId", assistantMsgId);
-                if (finalRagResult != null) {
-                    initData.put("ragDocuments", finalRagResult.documents());
-                    initData.put("ragNodes", finalRagResult.nodes());
-                }
-                emitter.send(SseEmitter.event()
-                        .name("message")
-                        .data(JSON.toJSONString(initData)));
-
-                // 流式调用大模型
-                ollamaService.chatStream(finalPrompt)
-                        .doOnNext(chunk -> {
-                            try {
-                                fullContent.append(chunk);
-                                Map<String, Object> chunkData = new HashMap<>();
-                                chunkData.put("type", "chunk");
-                                chunkData.put("content", chunk);
-                                emitter.send(SseEmitter.event()
-                                        .name("message")
-                                        .data(JSON.toJSONString(chunkData)));
-                            } catch (IOException e) {
-                                log.error("发送SSE消息失败", e);
-                            }
-                        })
-                        .doOnComplete(() -> {
-                            try {
-                                // 解析思考链
-                                String content = fullContent.toString();
-                                String thinkingContent = null;
-                                Matcher matcher = THINKING_PATTERN.matcher(content);
-                                if (matcher.find()) {
-                                    thinkingContent = matcher.group(1).trim();
-                                    content = matcher.replaceAll("").trim();
-                                }
-
-                                // 更新消息内容
-                                ChatMessage msgToUpdate = new ChatMessage();
-                                msgToUpdate.setId(assistantMsgId);
-                                msgToUpdate.setContent(content);
-                                msgToUpdate.setThinkingContent(thinkingContent);
-                                messageMapper.updateById(msgToUpdate);
-
-                                // 发送完成信号
-                                Map<String, Object> doneData = new HashMap<>();
-                                doneData.put("type", "done");
-                                doneData.put("thinkingContent", thinkingContent);
-                                doneData.put("content", content);
-                                emitter.send(SseEmitter.event()
-                                        .name("message")
-                                        .data(JSON.toJSONString(doneData)));
-
-                                emitter.complete();
-                                log.info("流式消息发送完成, sessionId={}, assistantMsgId={}", sessionId, assistantMsgId);
-                            } catch (IOException e) {
-                                log.error("发送完成信号失败", e);
-                                emitter.completeWithError(e);
-                            }
-                        })
-                        .doOnError(error -> {
-                            log.error("流式对话失败", error);
-                            try {
-                                Map<String, Object> errorData = new HashMap<>();
-                                errorData.put("type", "error");
-                                errorData.put("message", error.getMessage());
-                                emitter.send(SseEmitter.event()
-                                        .name("message")
-                                        .data(JSON.toJSONString(errorData)));
-                            } catch (IOException e) {
-                                log.error("发送错误信息失败", e);
-                            }
-                            emitter.completeWithError(error);
-                        })
-                        .subscribe();
+                task.run();
+                return CompletableFuture.completedFuture(null);
+            } catch (Exception ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+        }
+    }
 
-            } catch (Exception e) {
-                log.error("流式消息处理失败", e);
-                emitter.completeWithError(e);
+    /**
+     * 流式调用大模型并推送内容
+     * 订阅句柄保存在StreamHandle中，客户端断开时取消订阅即中止对Ollama的请求
+     */
+    private void streamResponse(StreamHandle handle, String prompt) {
+        // 片段按时间窗口/字节数合并成帧，思考与正文切换时立即写出
+        SseFrameWriter writer = new SseFrameWriter(frame -> sendFrame(handle, frame), chatHeartbeatScheduler,
+                chatConfig.getFrameWindowMs(), chatConfig.getFrameMaxBytes());
+
+        Disposable subscription = ollamaService.chatStream(prompt)
+                .doOnNext(chunk -> handle.append(chunk, writer::append))
+                .doOnComplete(() -> {
+                    // 输出暂存的标签前缀字符，并写出剩余的合并内容
+                    handle.flush(writer::append);
+                    writer.close();
+                    if (!handle.finish()) {
+                        return;
+                    }
+                    chatStreamMetrics.streamCompleted();
+
+                    ThinkTagParser.Result parsed = handle.result();
+                    String content = parsed.content();
+                    String thinkingContent = parsed.thinking();
+
+                    // 发送完成信号
+                    Map<String, Object> doneData = new HashMap<>();
+                    doneData.put("type", "done");
+                    doneData.put("thinkingContent", thinkingContent);
+                    doneData.put("content", content);
+                    sendEvent(handle, doneData);
+                    handle.emitter.complete();
+
+                    saveAssistantContent(handle, content, thinkingContent, ChatMessage.STATUS_COMPLETE);
+                    log.info("流式消息发送完成, sessionId={}, assistantMsgId={}", handle.sessionId, handle.assistantMsgId);
+                })
+                .doOnError(error -> {
+                    if (!handle.finish()) {
+                        return;
+                    }
+                    chatStreamMetrics.streamFailed();
+                    log.error("流式对话失败", error);
+                    ThinkTagParser.Result parsed = handle.result();
+                    saveAssistantContent(handle, parsed.content(), parsed.thinking(), ChatMessage.STATUS_FAILED);
+                    Map<String, Object> errorData = new HashMap<>();
+                    errorData.put("type", "error");
+                    errorData.put("message", error.getMessage());
+                    sendEvent(handle, errorData);
+                    handle.emitter.completeWithError(error);
+                })
+                .subscribe(chunk -> { }, error -> { });
+
+        handle.subscription.set(subscription);
+        // 订阅建立前客户端已断开
+        if (handle.isFinished() && !subscription.isDisposed()) {
+            subscription.dispose();
+        }
+    }
+
+    /**
+     * 取消流式生成（客户端断开、超时或连接错误）
+     * 取消上游订阅后以取消状态保存已生成的部分内容
+     */
+    private void cancelStream(StreamHandle handle, String reason) {
+        if (!handle.finish()) {
+            return;
+        }
+        Disposable subscription = handle.subscription.get();
+        if (subscription != null && !subscription.isDisposed()) {
+            subscription.dispose();
+        }
+        if (!handle.isStreaming()) {
+            return;
+        }
+
+        int generatedTokens = handle.tokenCount();
+        chatStreamMetrics.streamCancelled(generatedTokens);
+        log.info("流式生成已取消, reason={}, sessionId={}, assistantMsgId={}, 已生成{}个token",
+                reason, handle.sessionId, handle.assistantMsgId, generatedTokens);
+
+        // 已生成的部分内容以取消状态保存，与完整回复区分
+        ThinkTagParser.Result parsed = handle.result();
+        saveAssistantContent(handle, parsed.content(), parsed.thinking(), ChatMessage.STATUS_CANCELLED);
+    }
+
+    /**
+     * 消息落库完成后更新AI回复内容和状态
+     */
+    private void saveAssistantContent(StreamHandle handle, String content, String thinkingContent, String status) {
+        saveAssistantContent(handle.sessionId, handle.assistantMsgId, handle.persistFuture, content, thinkingContent,
+                status);
+    }
+
+    /**
+     * 消息落库完成后更新AI回复内容和状态（在boundedElastic调度器执行，不阻塞调用线程）
+     */
+    private void saveAssistantContent(Long sessionId, Long assistantMsgId, CompletableFuture<Void> persistFuture,
+                                      String content, String thinkingContent, String status) {
+        persistFuture.whenCompleteAsync((v, error) -> {
+            if (error != null) {
+                log.error("保存流式消息失败, sessionId={}, assistantMsgId={}", sessionId, assistantMsgId, error);
+                return;
             }
-        });
+            updateAssistantMessage(assistantMsgId, content, thinkingContent, status);
+        }, task -> Schedulers.boundedElastic().schedule(task));
+    }
 
-        // 设置超时和错误回调
-        emitter.onTimeout(() -> {
-            log.warn("SSE连接超时, sessionId={}", sessionId);
-            emitter.complete();
-        });
-        emitter.onError(error -> {
-            log.error("SSE连接错误, sessionId={}", sessionId, error);
-        });
+    /**
+     * 发送心跳（SSE注释行，客户端忽略），发送失败说明客户端已断开
+     */
+    private void sendHeartbeat(StreamHandle handle) {
+        if (handle.isFinished()) {
+            return;
+        }
+        try {
+            handle.emitter.send(SseEmitter.event().comment("heartbeat"));
+        } catch (IOException | IllegalStateException e) {
+            cancelStream(handle, "心跳失败");
+        }
+    }
 
-        return emitter;
+    /**
+     * 推送合并后的思考内容（thinking）或正文（content）帧
+     */
+    private void sendFrame(StreamHandle handle, String frame) {
+        if (handle.isFinished()) {
+            return;
+        }
+        try {
+            // 帧已按SSE格式拼好，作为一个整体写出，不经过SseEmitter的事件构建
+            handle.emitter.send(Set.of(new ResponseBodyEmitter.DataWithMediaType(frame, MediaType.TEXT_PLAIN)));
+        } catch (IOException | IllegalStateException e) {
+            log.debug("发送SSE消息失败, sessionId={}, error={}", handle.sessionId, e.getMessage());
+            cancelStream(handle, "客户端断开");
+        }
+    }
+
+    /**
+     * 发送SSE消息，发送失败说明客户端已断开，取消生成
+     */
+    private void sendEvent(StreamHandle handle, Map<String, Object> data) {
+        try {
+            handle.emitter.send(SseEmitter.event()
+                    .name("message")
+                    .data(JSON.toJSONString(data)));
+        } catch (IOException | IllegalStateException e) {
+            log.debug("发送SSE消息失败, sessionId={}, error={}", handle.sessionId, e.getMessage());
+            cancelStream(handle, "客户端断开");
+        }
+    }
+
+    /**
+     * 单次流式对话的状态
+     */
+    private static final class StreamHandle {
+        static final int STATE_PREPARING = 0;
+        static final int STATE_STREAMING = 1;
+        static final int STATE_FINISHED_PREPARING = 2;
+        static final int STATE_FINISHED_STREAMING = 3;
+
+        final SseEmitter emitter;
+        final Long sessionId;
+        final Long assistantMsgId;
+        final AtomicReference<Disposable> subscription = new AtomicReference<>();
+        /**
+         * 流状态：准备中、生成中、准备期间结束、生成后结束
+         */
+        final AtomicInteger state = new AtomicInteger(STATE_PREPARING);
+        final ThinkTagParser parser = new ThinkTagParser();
+        int tokens;
+        volatile ScheduledFuture<?> heartbeat;
+        volatile CompletableFuture<Void> persistFuture = CompletableFuture.completedFuture(null);
+
+        StreamHandle(SseEmitter emitter, Long sessionId, Long assistantMsgId) {
+            this.emitter = emitter;
+            this.sessionId = sessionId;
+            this.assistantMsgId = assistantMsgId;
+        }
+
+        synchronized void append(String chunk, ThinkTagParser.Listener listener) {
+            parser.feed(chunk, listener);
+            tokens++;
+        }
+
+        synchronized void flush(ThinkTagParser.Listener listener) {
+            parser.finish(listener);
+        }
+
+        synchronized ThinkTagParser.Result result() {
+            return parser.result();
+        }
+
+        synchronized int tokenCount() {
+            return tokens;
+        }
+
+        boolean isFinished() {
+            return state.get() >= STATE_FINISHED_PREPARING;
+        }
+
+        /**
+         * 是否已开始生成（结束后仍返回开始生成时的状态）
+         */
+        boolean isStreaming() {
+            int current = state.get();
+            return current == STATE_STREAMING || current == STATE_FINISHED_STREAMING;
+        }
+
+        /**
+         * 标记开始生成，已结束时返回false
+         */
+        boolean startStreaming() {
+            return state.compareAndSet(STATE_PREPARING, STATE_STREAMING);
+        }
+
+        /**
+         * 标记结束并停止心跳，只有首次调用返回true
+         */
+        boolean finish() {
+            if (!state.compareAndSet(STATE_PREPARING, STATE_FINISHED_PREPARING)
+                    && !state.compareAndSet(STATE_STREAMING, STATE_FINISHED_STREAMING)) {
+                return false;
+            }
+            ScheduledFuture<?> task = heartbeat;
+            if (task != null) {
+                task.cancel(false);
+            }
+            return true;
+        }
     }
 
     /**
@@ -625,51 +1120,6 @@ public class ChatServiceImpl extends ServiceImpl<ChatSessionMapper, ChatSession>
         return Set.of("txt", "md", "pdf", "doc", "docx").contains(fileType.toLowerCase());
     }
 
-    /**
-     * 构建附件上下文
-     */
-    private String buildAttachmentContext(List<ChatAttachment> attachments) {
-        if (attachments == null || attachments.isEmpty()) {
-            return "";
-        }
-
-        StringBuilder sb = new StringBuilder();
-        for (ChatAttachment attachment : attachments) {
-            if (StrUtil.isNotBlank(attachment.getParsedContent())) {
-                sb.append(String.format("文件「%s」内容:\n%s\n\n",
-                        attachment.getFileName(), attachment.getParsedContent()));
-            }
-        }
-        return sb.toString();
-    }
-
-    /**
-     * 构建历史消息上下文
-     */
-    private String buildHistoryContext(List<ChatMessage> history) {
-        if (history == null || history.isEmpty()) {
-            return "";
-        }
-
-        // 按时间正序排列
-        List<ChatMessage> sorted = new ArrayList<>(history);
-        Collections.reverse(sorted);
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("【历史对话】\n");
-
-        for (ChatMessage msg : sorted) {
-            String role = ChatMessage.ROLE_USER.equals(msg.getRole()) ? "用户" : "助手";
-            String content = msg.getContent();
-            if (content.length() > 500) {
-                content = content.substring(0, 500) + "...";
-            }
-            sb.append(role).append(": ").append(content).append("\n");
-        }
-
-        return sb.toString();
-    }
-
     /**
      * 会话实体转VO
      */
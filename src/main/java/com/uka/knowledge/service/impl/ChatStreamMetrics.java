@@ -0,0 +1,86 @@
+package com.uka.knowledge.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流式对话指标统计
+ * <p>
+ * 统计流式对话的完成/取消次数，以及客户端断开时已生成的token数
+ * 和取消后不再生成的token数（按num-predict上限估算）
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Component
+public class ChatStreamMetrics {
+
+    /**
+     * 单次生成的最大token数
+     */
+    @Value("${spring.ai.ollama.chat.options.num-predict:2048}")
+    private int numPredict;
+
+    private final AtomicLong activeStreams = new AtomicLong();
+    private final AtomicLong completedStreams = new AtomicLong();
+    private final AtomicLong failedStreams = new AtomicLong();
+    private final AtomicLong cancelledStreams = new AtomicLong();
+    private final AtomicLong cancelledTokens = new AtomicLong();
+    private final AtomicLong savedTokens = new AtomicLong();
+
+    /**
+     * 流开始
+     */
+    public void streamStarted() {
+        activeStreams.incrementAndGet();
+    }
+
+    /**
+     * 流正常完成
+     */
+    public void streamCompleted() {
+        activeStreams.decrementAndGet();
+        completedStreams.incrementAndGet();
+    }
+
+    /**
+     * 流因错误结束
+     */
+    public void streamFailed() {
+        activeStreams.decrementAndGet();
+        failedStreams.incrementAndGet();
+    }
+
+    /**
+     * 流因客户端断开被取消
+     *
+     * @param generatedTokens 取消前已生成的token数
+     */
+    public void streamCancelled(long generatedTokens) {
+        activeStreams.decrementAndGet();
+        cancelledStreams.incrementAndGet();
+        cancelledTokens.addAndGet(generatedTokens);
+        savedTokens.addAndGet(Math.max(0, numPredict - generatedTokens));
+    }
+
+    /**
+     * 获取统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activeStreams", activeStreams.get());
+        stats.put("completedStreams", completedStreams.get());
+        stats.put("failedStreams", failedStreams.get());
+        stats.put("cancelledStreams", cancelledStreams.get());
+        stats.put("cancelledTokens", cancelledTokens.get());
+        stats.put("estimatedSavedTokens", savedTokens.get());
+        return stats;
+    }
+}
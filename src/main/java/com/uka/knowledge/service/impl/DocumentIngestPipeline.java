@@ -0,0 +1,367 @@
+package com.uka.knowledge.service.impl;
+
+import cn.hutool.core.util.StrUtil;
+import com.uka.knowledge.common.ResultCode;
+import com.uka.knowledge.config.IngestConfig;
+import com.uka.knowledge.exception.BusinessException;
+import com.uka.knowledge.mapper.DocumentChunkMapper;
+import com.uka.knowledge.model.entity.Document;
+import com.uka.knowledge.model.entity.DocumentChunk;
+import com.uka.knowledge.service.OllamaService;
+import com.uka.knowledge.service.VectorService;
+import com.uka.knowledge.util.DocumentParser;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 文档入库流水线
+ * <p>
+ * 解析 → 分块 → 向量化 → 写入 四个阶段并行执行：
+ * 解析线程逐页解析并批量写入分块记录，向量化（按批调用Ollama）和写入分别在独立线程池中
+ * 按配置的并行度执行，因此PDF文本提取、Ollama向量生成和Milvus/MySQL写入相互重叠。
+ * 向量经 {@link MilvusBulkWriter} 与其他文档的向量合并后批量写入Milvus。
+ * </p>
+ * <p>
+ * 单个文档已解析但尚未写入的分块数受 ingest.max-in-flight-chunks 限制，
+ * 下游处理不过来时解析线程阻塞等待，大文档的内存占用保持平稳。
+ * </p>
+ * <p>
+ * 分块按序号（chunk_index）识别：已存在的分块不重复写入，已有向量的分块不重复生成，
+ * 中断后再次执行只处理剩余部分。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DocumentIngestPipeline {
+
+    private final DocumentParser documentParser;
+    private final OllamaService ollamaService;
+    private final VectorService vectorService;
+    private final DocumentChunkMapper documentChunkMapper;
+    private final RagQueryCache ragQueryCache;
+    private final IngestConfig ingestConfig;
+    private final OllamaScheduler ollamaScheduler;
+    @Qualifier("ingestEmbedExecutor")
+    private final ThreadPoolTaskExecutor ingestEmbedExecutor;
+    @Qualifier("ingestPersistExecutor")
+    private final ThreadPoolTaskExecutor ingestPersistExecutor;
+
+    /**
+     * 阶段完成回调
+     */
+    public interface StageListener {
+
+        /**
+         * 文件解析完成
+         *
+         * @param fullContent 文档完整内容
+         */
+        default void onParsed(String fullContent) {
+        }
+
+        /**
+         * 全部分块记录已写入
+         *
+         * @param chunkCount 分块数量
+         */
+        default void onChunked(int chunkCount) {
+        }
+    }
+
+    /**
+     * 解析文件并完成分块、向量化和写入
+     *
+     * @param document 文档
+     * @param listener 阶段完成回调
+     * @return 本次生成的向量数
+     */
+    public int ingestFile(Document document, StageListener listener) {
+        Long documentId = document.getId();
+        Map<Integer, DocumentChunk> existing = new HashMap<>();
+        for (DocumentChunk chunk : documentChunkMapper.selectByDocumentId(documentId)) {
+            existing.put(chunk.getChunkIndex(), chunk);
+        }
+
+        Run run = new Run(documentId);
+        List<DocumentChunk> insertBatch = new ArrayList<>();
+        AtomicInteger chunkIndex = new AtomicInteger();
+        DocumentParser.ParseResult parseResult;
+        try {
+            parseResult = documentParser.parseWithPages(document.getFilePath(), document.getFileType(), page -> {
+                run.checkFailed();
+                int index = chunkIndex.getAndIncrement();
+                DocumentChunk chunk = existing.get(index);
+                if (chunk != null) {
+                    // 上次中断前已写入的分块
+                    if (StrUtil.isBlank(chunk.getVectorId())) {
+                        run.submit(chunk);
+                    }
+                    return;
+                }
+                chunk = new DocumentChunk();
+                chunk.setDocumentId(documentId);
+                chunk.setPageNum(page.getPageNum());
+                chunk.setChunkIndex(index);
+                chunk.setContent(page.getContent());
+                insertBatch.add(chunk);
+                if (insertBatch.size() >= ingestConfig.getPersistBatchSize()) {
+                    insertChunks(insertBatch, run);
+                }
+            });
+        } catch (RuntimeException e) {
+            run.abort();
+            throw e;
+        }
+        listener.onParsed(parseResult.getFullContent());
+
+        insertChunks(insertBatch, run);
+        listener.onChunked(chunkIndex.get());
+
+        run.await();
+        log.info("文档入库流水线完成, documentId={}, 分块数={}, 本次向量数={}, 耗时={}ms, {}",
+                documentId, chunkIndex.get(), run.embedded.get(), run.elapsedMs(), run.throughput());
+        return run.embedded.get();
+    }
+
+    /**
+     * 为已写入但尚未生成向量的分块完成向量化和写入
+     *
+     * @param documentId 文档ID
+     * @return 本次生成的向量数
+     */
+    public int ingestChunks(Long documentId) {
+        Run run = new Run(documentId);
+        for (DocumentChunk chunk : documentChunkMapper.selectByDocumentId(documentId)) {
+            if (StrUtil.isBlank(chunk.getVectorId())) {
+                run.checkFailed();
+                run.submit(chunk);
+            }
+        }
+        run.await();
+        log.info("文档向量化完成, documentId={}, 本次向量数={}, 耗时={}ms, {}",
+                documentId, run.embedded.get(), run.elapsedMs(), run.throughput());
+        return run.embedded.get();
+    }
+
+    /**
+     * 批量写入分块记录并提交向量化
+     */
+    private void insertChunks(List<DocumentChunk> batch, Run run) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        documentChunkMapper.insert(batch);
+        for (DocumentChunk chunk : batch) {
+            run.submit(chunk);
+        }
+        batch.clear();
+    }
+
+    /**
+     * 写入一批向量（与其他文档的向量合并为大批量写入Milvus），完成后回填分块的向量ID
+     */
+    private CompletableFuture<Void> persist(List<Embedded> batch) {
+        List<VectorService.VectorInsertData> data = batch.stream()
+                .map(e -> new VectorService.VectorInsertData(e.chunk().getId(), e.vector(), "chunk"))
+                .toList();
+        return vectorService.bulkInsertVectors(data).thenAcceptAsync(vectorIds -> {
+            List<DocumentChunk> updates = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                DocumentChunk update = new DocumentChunk();
+                update.setId(batch.get(i).chunk().getId());
+                update.setVectorId(vectorIds.get(i));
+                updates.add(update);
+            }
+            documentChunkMapper.updateVectorIds(updates);
+            batch.forEach(e -> ragQueryCache.onVectorAdded("chunk", e.vector()));
+        }, ingestPersistExecutor);
+    }
+
+    /**
+     * 已生成向量的分块
+     */
+    private record Embedded(DocumentChunk chunk, float[] vector) {
+    }
+
+    /**
+     * 单个文档的一次流水线执行
+     */
+    private class Run {
+        final Long documentId;
+        final long startTime = System.currentTimeMillis();
+        final Semaphore inFlight = new Semaphore(ingestConfig.getMaxInFlightChunks());
+        final Queue<CompletableFuture<Void>> embedFutures = new ConcurrentLinkedQueue<>();
+        final Queue<CompletableFuture<Void>> persistFutures = new ConcurrentLinkedQueue<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final AtomicInteger embedded = new AtomicInteger();
+        final List<Embedded> persistBuffer = new ArrayList<>();
+
+        /**
+         * 待提交向量化的分块，只在解析线程中访问
+         */
+        final List<DocumentChunk> embedBuffer = new ArrayList<>();
+
+        /**
+         * 向量化和写入按同一批次大小凑批。向量化缓冲和写入缓冲各自最多差一条凑满，
+         * 批次大小不超过在途上限的一半，保证两者合计占用的许可不会耗尽而阻塞
+         */
+        final int batchSize = Math.max(1, Math.min(ingestConfig.getPersistBatchSize(),
+                ingestConfig.getMaxInFlightChunks() / 2));
+
+        Run(Long documentId) {
+            this.documentId = documentId;
+        }
+
+        /**
+         * 提交一个分块进行向量化，凑满一批后整批请求，缓冲已满时阻塞（背压）
+         */
+        void submit(DocumentChunk chunk) {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("文档入库被中断", e);
+            }
+            if (error.get() != null) {
+                inFlight.release();
+                return;
+            }
+            embedBuffer.add(chunk);
+            if (embedBuffer.size() >= batchSize) {
+                submitEmbedBatch();
+            }
+        }
+
+        /**
+         * 将已凑好的分块作为一批提交向量化，失败的分块使本次执行失败，成功的分块照常写入
+         */
+        void submitEmbedBatch() {
+            if (embedBuffer.isEmpty()) {
+                return;
+            }
+            List<DocumentChunk> batch = new ArrayList<>(embedBuffer);
+            embedBuffer.clear();
+            embedFutures.add(CompletableFuture
+                    .supplyAsync(() -> error.get() != null ? null
+                                    : ollamaScheduler.runAsBulk("document:" + documentId, () -> ollamaService
+                                    .generateEmbeddings(batch.stream().map(DocumentChunk::getContent).toList())),
+                            ingestEmbedExecutor)
+                    .handle((results, ex) -> {
+                        if (ex != null) {
+                            fail(ex);
+                        }
+                        if (results == null) {
+                            inFlight.release(batch.size());
+                            return null;
+                        }
+                        List<Embedded> succeeded = new ArrayList<>(batch.size());
+                        for (int i = 0; i < batch.size(); i++) {
+                            OllamaService.EmbeddingResult result = results.get(i);
+                            if (result.isSuccess()) {
+                                succeeded.add(new Embedded(batch.get(i), result.vector()));
+                            } else {
+                                inFlight.release();
+                                fail(new BusinessException(ResultCode.OLLAMA_ERROR, "分块" + batch.get(i).getChunkIndex()
+                                        + "向量生成失败: " + result.error()));
+                            }
+                        }
+                        addToPersistBuffer(succeeded, false);
+                        return null;
+                    }));
+        }
+
+        /**
+         * 加入写入缓冲，凑满一批（或强制）时提交写入
+         */
+        void addToPersistBuffer(List<Embedded> items, boolean force) {
+            List<Embedded> batch;
+            synchronized (persistBuffer) {
+                persistBuffer.addAll(items);
+                if (persistBuffer.isEmpty() || (!force && persistBuffer.size() < batchSize)) {
+                    return;
+                }
+                batch = new ArrayList<>(persistBuffer);
+                persistBuffer.clear();
+            }
+            persistFutures.add(CompletableFuture
+                    .supplyAsync(() -> error.get() != null ? CompletableFuture.<Void>completedFuture(null)
+                            : persist(batch).thenRun(() -> embedded.addAndGet(batch.size())), ingestPersistExecutor)
+                    .thenCompose(future -> future)
+                    .handle((v, ex) -> {
+                        if (ex != null) {
+                            fail(ex);
+                        }
+                        inFlight.release(batch.size());
+                        return null;
+                    }));
+        }
+
+        void fail(Throwable ex) {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null
+                    ? ex.getCause() : ex;
+            if (error.compareAndSet(null, cause)) {
+                log.error("文档入库流水线失败, documentId={}", documentId, cause);
+            }
+        }
+
+        /**
+         * 下游已失败时中止解析
+         */
+        void checkFailed() {
+            Throwable cause = error.get();
+            if (cause != null) {
+                throw cause instanceof RuntimeException re ? re : new IllegalStateException(cause);
+            }
+        }
+
+        /**
+         * 解析失败时停止写入并等待已提交的任务结束，下游先失败时抛出下游的原始异常
+         */
+        void abort() {
+            boolean parseFailedFirst = error.compareAndSet(null, new IllegalStateException("文档解析失败，停止写入"));
+            waitAll();
+            if (!parseFailedFirst) {
+                checkFailed();
+            }
+        }
+
+        /**
+         * 等待全部分块写入完成
+         */
+        void await() {
+            submitEmbedBatch();
+            waitAll();
+            checkFailed();
+        }
+
+        private void waitAll() {
+            CompletableFuture.allOf(embedFutures.toArray(new CompletableFuture<?>[0])).join();
+            addToPersistBuffer(List.of(), true);
+            CompletableFuture.allOf(persistFutures.toArray(new CompletableFuture<?>[0])).join();
+        }
+
+        long elapsedMs() {
+            return System.currentTimeMillis() - startTime;
+        }
+
+        String throughput() {
+            long elapsed = Math.max(elapsedMs(), 1);
+            return String.format("%.2f 分块/秒", embedded.get() * 1000.0 / elapsed);
+        }
+    }
+}
@@ -25,10 +25,13 @@ import com.uka.knowledge.util.DocumentParser;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -62,6 +65,9 @@ public class DocumentServiceImpl extends ServiceImpl<DocumentMapper, Document> i
     private final KnowledgeNodeService knowledgeNodeService;
     private final AsyncService asyncDocumentService;
     private final DocumentChunkMapper documentChunkMapper;
+    private final RagQueryCache ragQueryCache;
+    private final TransactionTemplate transactionTemplate;
+    private final DocumentIngestPipeline ingestPipeline;
 
     /**
      * 上传并解析文档
@@ -87,6 +93,7 @@ public class DocumentServiceImpl extends ServiceImpl<DocumentMapper, Document> i
         document.setFileType(fileType);
         document.setFileSize(file.getSize());
         document.setStatus(Document.STATUS_PENDING);
+        document.setStage(Document.STAGE_NONE);
 
         // 保存到数据库
         this.save(document);
@@ -108,81 +115,123 @@ public class DocumentServiceImpl extends ServiceImpl<DocumentMapper, Document> i
 
     /**
      * 解析指定文档
+     * <p>
+     * 按阶段（解析 → 分块 → 向量化 → 知识抽取）依次执行，每个阶段完成后单独提交并记录到kg_document.stage，
+     * 调用Ollama/Milvus等远程服务时不持有数据库连接和行锁。
+     * 解析、分块、向量化由入库流水线并行执行，知识抽取在向量化完成后执行。
+     * 从文档已完成的阶段继续执行，中断（宕机或失败）后再次调用不会重复已完成的阶段。
+     * </p>
      */
     @Override
-    @Transactional(rollbackFor = Exception.class)
     public Document parseDocument(Long documentId) {
         Document document = this.getById(documentId);
         if (document == null) {
             throw new BusinessException(ResultCode.NOT_FOUND);
         }
 
-        // 更新状态为处理中
+        int stage = document.getStage() == null ? Document.STAGE_NONE : document.getStage();
+        baseMapper.updateStatus(documentId, Document.STATUS_PROCESSING, null);
         document.setStatus(Document.STATUS_PROCESSING);
-        this.updateById(document);
+        document.setErrorMsg(null);
+        log.info("开始处理文档, documentId={}, 已完成阶段={}", documentId, stage);
 
         try {
-            // 解析文档内容（带页码）
-            DocumentParser.ParseResult parseResult = documentParser.parseWithPages(
-                    document.getFilePath(), document.getFileType());
-
-            document.setContent(parseResult.getFullContent());
-
-            // 删除旧的分块
-            documentChunkMapper.deleteByDocumentId(documentId);
-
-            // 创建分块并生成向量
-            List<DocumentParser.PageContent> pages = parseResult.getPages();
-            for (int i = 0; i < pages.size(); i++) {
-                DocumentParser.PageContent page = pages.get(i);
-                String content = page.getContent();
+            // 1-3. 解析、分块、向量化流水线（逐页解析与向量生成、写入并行，分块和向量逐批提交）
+            if (stage < Document.STAGE_CHUNKED) {
+                int startStage = stage;
+                ingestPipeline.ingestFile(document, new DocumentIngestPipeline.StageListener() {
+                    @Override
+                    public void onParsed(String fullContent) {
+                        if (startStage < Document.STAGE_PARSED) {
+                            document.setContent(fullContent);
+                            completeStage(document, Document.STAGE_PARSED);
+                        }
+                    }
+
+                    @Override
+                    public void onChunked(int chunkCount) {
+                        completeStage(document, Document.STAGE_CHUNKED);
+                        log.info("文档分块完成, documentId={}, chunks={}", documentId, chunkCount);
+                    }
+                });
+                stage = completeStage(document, Document.STAGE_EMBEDDED);
+            } else if (stage < Document.STAGE_EMBEDDED) {
+                // 分块已全部写入，只为缺少向量的分块生成向量
+                ingestPipeline.ingestChunks(documentId);
+                stage = completeStage(document, Document.STAGE_EMBEDDED);
+            }
 
-                if (StrUtil.isBlank(content)) {
-                    continue;
+            // 4. 自动抽取知识并构建图谱（抽取结果按名称复用已有节点，重复执行不会产生重复数据）
+            //    抽取未全部完成时不提交该阶段，文档标记为失败，重新解析时只重新抽取知识
+            if (stage < Document.STAGE_EXTRACTED) {
+                KnowledgeExtractService.ExtractResult extractResult =
+                        knowledgeExtractService.extractFromDocument(documentId, document.getContent());
+                if (extractResult.failed()) {
+                    throw new BusinessException(ResultCode.EXTRACT_FAILED, "知识抽取未完成: " + extractResult.message());
                 }
-
-                // 创建分块记录
-                DocumentChunk chunk = new DocumentChunk();
-                chunk.setDocumentId(documentId);
-                chunk.setPageNum(page.getPageNum());
-                chunk.setChunkIndex(i);
-                chunk.setContent(content);
-
-                // 生成向量
-                float[] vector = ollamaService.generateEmbedding(content);
-                documentChunkMapper.insert(chunk);
-
-                // 存储向量（使用chunk类型，ID为chunk的ID）
-                String vectorId = vectorService.insertVector(new VectorService.VectorInsertData(chunk.getId(), vector, "chunk"));
-                chunk.setVectorId(vectorId);
-                documentChunkMapper.updateById(chunk);
+                log.info("文档知识抽取完成, documentId={}, 节点数={}, 关系数={}",
+                        documentId, extractResult.nodeCount(), extractResult.relationCount());
+                completeStage(document, Document.STAGE_EXTRACTED);
             }
 
-            // 更新状态为已完成
             document.setStatus(Document.STATUS_COMPLETED);
-            document.setErrorMsg(null);
-
-            log.info("文档解析成功, documentId={}, contentLength={}, chunks={}",
-                    documentId, parseResult.getFullContent().length(), pages.size());
+            baseMapper.updateStatus(documentId, Document.STATUS_COMPLETED, null);
+            log.info("文档解析成功, documentId={}, contentLength={}",
+                    documentId, StrUtil.length(document.getContent()));
 
         } catch (Exception e) {
-            log.error("文档解析失败, documentId={}", documentId, e);
+            log.error("文档解析失败, documentId={}, 已完成阶段={}", documentId, document.getStage(), e);
             document.setStatus(Document.STATUS_FAILED);
             document.setErrorMsg(e.getMessage());
+            baseMapper.updateStatus(documentId, Document.STATUS_FAILED, e.getMessage());
         }
+        return document;
+    }
 
-        // 自动抽取知识并构建图谱
-        try {
-            KnowledgeExtractService.ExtractResult extractResult = knowledgeExtractService.extractFromDocument(document.getId(), document.getContent());
-            log.info("OCR知识抽取完成, recordId={}, 节点数={}, 关系数={}",
-                    document.getId(), extractResult.nodeCount(), extractResult.relationCount());
-        } catch (Exception e) {
-            log.warn("OCR知识抽取失败, recordId={}, error={}", document.getId(), e.getMessage());
-            // 知识抽取失败不影响OCR识别的整体结果
-        }
+    /**
+     * 记录文档已完成的阶段（同时保存该阶段产生的文档字段）
+     */
+    private int completeStage(Document document, int stage) {
+        Document update = new Document();
+        update.setId(document.getId());
+        update.setContent(stage == Document.STAGE_PARSED ? document.getContent() : null);
+        update.setStage(stage);
+        this.updateById(update);
+        document.setStage(stage);
+        return stage;
+    }
 
-        this.updateById(document);
-        return document;
+    /**
+     * 删除文档的旧分块及其向量（重新从头解析前调用）
+     */
+    private void resetChunks(Long documentId) {
+        // 删除旧分块的向量（远程调用，在事务外执行）
+        List<Long> oldChunkIds = documentChunkMapper.selectByDocumentId(documentId).stream()
+                .map(DocumentChunk::getId)
+                .toList();
+        vectorService.deleteVectors("chunk", oldChunkIds);
+        transactionTemplate.executeWithoutResult(status -> {
+            documentChunkMapper.deleteByDocumentId(documentId);
+            ragQueryCache.invalidateDocument(documentId);
+            Document update = new Document();
+            update.setId(documentId);
+            update.setStage(Document.STAGE_NONE);
+            this.updateById(update);
+        });
+    }
+
+    /**
+     * 应用启动后恢复未完成的文档处理（处理中宕机或尚未开始处理的文档）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinishedDocuments() {
+        List<Document> unfinished = this.list(new LambdaQueryWrapper<Document>()
+                .select(Document::getId, Document::getStage)
+                .in(Document::getStatus, Document.STATUS_PENDING, Document.STATUS_PROCESSING));
+        for (Document document : unfinished) {
+            log.info("恢复未完成的文档处理, documentId={}, 已完成阶段={}", document.getId(), document.getStage());
+            asyncDocumentService.asyncParseDocument(document.getId());
+        }
     }
 
     /**
@@ -253,12 +302,9 @@ public class DocumentServiceImpl extends ServiceImpl<DocumentMapper, Document> i
 
         // 删除文档分块及其向量
         List<DocumentChunk> chunks = documentChunkMapper.selectByDocumentId(id);
-        for (DocumentChunk chunk : chunks) {
-            if (StrUtil.isNotBlank(chunk.getVectorId())) {
-                vectorService.deleteVector(chunk.getVectorId());
-            }
-        }
+        vectorService.deleteVectors("chunk", chunks.stream().map(DocumentChunk::getId).toList());
         documentChunkMapper.deleteByDocumentId(id);
+        ragQueryCache.invalidateDocument(id);
         log.info("删除文档分块完成, documentId={}, 分块数={}", id, chunks.size());
 
         // 删除文件
@@ -270,9 +316,17 @@ public class DocumentServiceImpl extends ServiceImpl<DocumentMapper, Document> i
 
     /**
      * 重新解析文档
+     * 处理失败的文档从已完成的阶段继续，其余文档从头开始
      */
     @Override
     public Document reparseDocument(Long id) {
+        Document document = this.getById(id);
+        if (document == null) {
+            throw new BusinessException(ResultCode.NOT_FOUND);
+        }
+        if (document.getStatus() == null || document.getStatus() != Document.STATUS_FAILED) {
+            resetChunks(id);
+        }
         return parseDocument(id);
     }
 
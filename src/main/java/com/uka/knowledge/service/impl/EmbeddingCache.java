@@ -0,0 +1,348 @@
+package com.uka.knowledge.service.impl;
+
+import com.uka.knowledge.config.EmbeddingConfig;
+import com.uka.knowledge.config.MilvusConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文本向量持久化缓存
+ * <p>
+ * 以归一化文本的SHA-256为键缓存向量，重新解析文档、重复上传相同文件、
+ * 更新节点时内容未变的文本直接复用已有向量，不再请求Ollama。
+ * </p>
+ * <p>
+ * 向量存放在内存映射的追加写文件中（堆外），内存中只保存 键→文件偏移 的索引，
+ * 最近访问的向量另有一层按条数淘汰的LRU热缓存。文件头记录向量模型名和维度，
+ * 启动时与当前的 spring.ai.ollama.embedding.model 和向量维度不一致则清空重建，
+ * 即缓存键实际为（模型名, 维度, 文本SHA-256）。
+ * </p>
+ * <p>
+ * 文件格式：256字节文件头（魔数、版本、维度、模型名、已提交数据末尾位置），
+ * 之后为定长记录（32字节SHA-256 + 维度×4字节向量）。先写记录再更新文件头中的末尾位置，
+ * 进程异常退出时最多丢失最后一条未提交的记录。文件达到上限后不再追加，已有条目仍可命中。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class EmbeddingCache {
+
+    private static final int MAGIC = 0x4B474543;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 256;
+    private static final int MAX_MODEL_BYTES = HEADER_SIZE - 24;
+    private static final int HASH_SIZE = 32;
+    private static final int OFFSET_DIMENSION = 8;
+    private static final int OFFSET_END = 12;
+    private static final int OFFSET_MODEL = 20;
+
+    /**
+     * 映射区域初始大小
+     */
+    private static final long INITIAL_MAPPED_SIZE = 4L * 1024 * 1024;
+
+    private final EmbeddingConfig embeddingConfig;
+    private final MilvusConfig milvusConfig;
+
+    @Value("${spring.ai.ollama.embedding.model:}")
+    private String embeddingModel;
+
+    /**
+     * 键（SHA-256十六进制）→ 记录在文件中的偏移
+     */
+    private final Map<String, Long> index = new HashMap<>();
+
+    /**
+     * 热点向量（按访问顺序排列，用于LRU淘汰）
+     */
+    private final LinkedHashMap<String, float[]> hot = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong hotHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int dimension;
+    private int recordSize;
+    private long end;
+    private boolean available;
+    private boolean fullWarned;
+
+    /**
+     * 打开缓存文件并重建索引
+     */
+    @PostConstruct
+    public synchronized void open() {
+        if (!Boolean.TRUE.equals(embeddingConfig.getCacheEnabled())) {
+            return;
+        }
+        dimension = milvusConfig.getDimension();
+        recordSize = HASH_SIZE + dimension * Float.BYTES;
+        Path path = Paths.get(embeddingConfig.getCachePath());
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long fileSize = channel.size();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(fileSize, Math.min(INITIAL_MAPPED_SIZE, maxBytes())));
+            if (fileSize >= HEADER_SIZE && headerMatches()) {
+                end = buffer.getLong(OFFSET_END);
+                for (long offset = HEADER_SIZE; offset + recordSize <= end; offset += recordSize) {
+                    index.put(readKey(offset), offset);
+                }
+                log.info("向量缓存已加载, 模型={}, 维度={}, 条数={}, 文件={}",
+                        embeddingModel, dimension, index.size(), path);
+            } else {
+                if (fileSize >= HEADER_SIZE) {
+                    log.info("向量模型或维度已变更, 清空向量缓存, 模型={}, 维度={}", embeddingModel, dimension);
+                }
+                writeHeader();
+            }
+            available = true;
+        } catch (IOException | RuntimeException e) {
+            log.error("向量缓存文件打开失败, 不使用缓存, 文件={}", path, e);
+            closeQuietly();
+        }
+    }
+
+    /**
+     * 查找文本的向量
+     *
+     * @param text 文本
+     * @return 向量，未命中返回null
+     */
+    public synchronized float[] get(String text) {
+        if (!available) {
+            return null;
+        }
+        String key = buildKey(text);
+        float[] vector = hot.get(key);
+        if (vector != null) {
+            hotHits.incrementAndGet();
+            hits.incrementAndGet();
+            return vector;
+        }
+        Long offset = index.get(key);
+        if (offset == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        vector = new float[dimension];
+        long position = offset + HASH_SIZE;
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = buffer.getFloat((int) (position + (long) i * Float.BYTES));
+        }
+        putHot(key, vector);
+        hits.incrementAndGet();
+        return vector;
+    }
+
+    /**
+     * 写入文本的向量，维度与当前配置不一致的向量不缓存
+     *
+     * @param text   文本
+     * @param vector 向量
+     */
+    public synchronized void put(String text, float[] vector) {
+        if (!available || vector == null || vector.length != dimension) {
+            return;
+        }
+        String key = buildKey(text);
+        if (index.containsKey(key)) {
+            putHot(key, vector);
+            return;
+        }
+        try {
+            if (!ensureCapacity(end + recordSize)) {
+                return;
+            }
+            int position = (int) end;
+            buffer.put(position, HexFormat.of().parseHex(key));
+            for (int i = 0; i < dimension; i++) {
+                buffer.putFloat(position + HASH_SIZE + i * Float.BYTES, vector[i]);
+            }
+            end += recordSize;
+            buffer.putLong(OFFSET_END, end);
+            index.put(key, (long) position);
+            putHot(key, vector);
+            writes.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            log.error("向量缓存写入失败, 停用缓存", e);
+            closeQuietly();
+        }
+    }
+
+    /**
+     * 获取缓存统计
+     *
+     * @return 统计信息
+     */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", available);
+        stats.put("model", embeddingModel);
+        stats.put("dimension", dimension);
+        stats.put("entries", index.size());
+        stats.put("hotEntries", hot.size());
+        stats.put("fileBytes", available ? end : 0);
+        stats.put("maxBytes", maxBytes());
+        stats.put("hits", hits.get());
+        stats.put("hotHits", hotHits.get());
+        stats.put("misses", misses.get());
+        long total = hits.get() + misses.get();
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hits.get() / total);
+        stats.put("writes", writes.get());
+        return stats;
+    }
+
+    /**
+     * 将映射内容写回磁盘并关闭文件
+     */
+    @PreDestroy
+    public synchronized void close() {
+        if (available) {
+            buffer.force();
+        }
+        closeQuietly();
+    }
+
+    /**
+     * 归一化文本（Unicode NFC、合并空白、去除首尾空白）后计算SHA-256
+     */
+    static String buildKey(String text) {
+        String normalized = Normalizer.normalize(text == null ? "" : text, Normalizer.Form.NFC)
+                .replaceAll("\\s+", " ")
+                .trim();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean headerMatches() {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(OFFSET_DIMENSION) != dimension) {
+            return false;
+        }
+        byte[] model = modelBytes();
+        if (buffer.getShort(OFFSET_MODEL) != model.length) {
+            return false;
+        }
+        byte[] stored = new byte[model.length];
+        buffer.get(OFFSET_MODEL + 2, stored);
+        long storedEnd = buffer.getLong(OFFSET_END);
+        return Arrays.equals(model, stored)
+                && storedEnd >= HEADER_SIZE && storedEnd <= buffer.capacity();
+    }
+
+    /**
+     * 写入新的文件头，原有记录视为无效，后续写入从文件头之后覆盖
+     */
+    private void writeHeader() {
+        byte[] model = modelBytes();
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(OFFSET_DIMENSION, dimension);
+        buffer.putShort(OFFSET_MODEL, (short) model.length);
+        buffer.put(OFFSET_MODEL + 2, model);
+        end = HEADER_SIZE;
+        buffer.putLong(OFFSET_END, end);
+    }
+
+    private byte[] modelBytes() {
+        byte[] model = embeddingModel.getBytes(StandardCharsets.UTF_8);
+        if (model.length > MAX_MODEL_BYTES) {
+            // 模型名过长时以其摘要代替
+            model = buildKey(embeddingModel).getBytes(StandardCharsets.US_ASCII);
+        }
+        return model;
+    }
+
+    /**
+     * 映射区域不足时按倍数扩大，超过文件上限返回false
+     */
+    private boolean ensureCapacity(long required) throws IOException {
+        if (required <= buffer.capacity()) {
+            return true;
+        }
+        if (required > maxBytes()) {
+            if (!fullWarned) {
+                fullWarned = true;
+                log.warn("向量缓存文件已达上限, 不再追加新条目, 上限={}字节", maxBytes());
+            }
+            return false;
+        }
+        long size = Math.min(Math.max((long) buffer.capacity() * 2, required), maxBytes());
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return true;
+    }
+
+    /**
+     * 单个映射区域不超过2GB
+     */
+    private long maxBytes() {
+        return Math.min(embeddingConfig.getCacheMaxBytes(), Integer.MAX_VALUE);
+    }
+
+    private String readKey(long offset) {
+        byte[] hash = new byte[HASH_SIZE];
+        buffer.get((int) offset, hash);
+        return HexFormat.of().formatHex(hash);
+    }
+
+    private void putHot(String key, float[] vector) {
+        hot.put(key, vector);
+        if (hot.size() > embeddingConfig.getCacheHotEntries()) {
+            hot.remove(hot.keySet().iterator().next());
+        }
+    }
+
+    private void closeQuietly() {
+        available = false;
+        index.clear();
+        hot.clear();
+        buffer = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("向量缓存文件关闭失败: {}", e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
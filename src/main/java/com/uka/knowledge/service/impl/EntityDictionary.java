@@ -0,0 +1,421 @@
+package com.uka.knowledge.service.impl;
+
+import com.uka.knowledge.mapper.KnowledgeNodeMapper;
+import com.uka.knowledge.model.entity.KnowledgeNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 实体词典
+ * <p>
+ * 进程内维护 规范化名称+节点类型 → 节点ID 的映射，实体消歧和关系端点解析直接查内存，不再逐个查询MySQL。
+ * 名称规范化：NFKC（全角字母、数字、标点和空格转半角）、转小写、去除首尾空白并合并连续空白，
+ * 因此“ＪＡＶＡ”“Java”“java ”视为同一实体。
+ * </p>
+ * <p>
+ * 存储为开放寻址哈希表：名称数组、类型序号数组（类型名称只保存一份）和long型节点ID数组，
+ * 每个条目只有规范化名称一个对象，没有Map.Entry和装箱的Long。
+ * 同一键对应多个节点时保留ID最小的节点（与按库查询取第一条一致）。
+ * </p>
+ * <p>
+ * 应用启动完成后按ID分页从 kg_knowledge_node 加载，加载完成前 {@link #isReady()} 为false，调用方应改为查库。
+ * 节点创建、修改、删除在事务提交后同步到词典。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class EntityDictionary {
+
+    /**
+     * 启动加载时每页读取的节点数
+     */
+    private static final int WARM_UP_BATCH_SIZE = 5000;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final KnowledgeNodeMapper nodeMapper;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 规范化名称，null表示空槽
+     */
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    /**
+     * 节点类型在 typeIndex 中的序号
+     */
+    private int[] types = new int[INITIAL_CAPACITY];
+
+    /**
+     * 节点ID
+     */
+    private long[] ids = new long[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * 规范化类型名称 → 序号
+     */
+    private final Map<String, Integer> typeIndex = new HashMap<>();
+
+    /**
+     * 词典是否已加载完成
+     */
+    private volatile boolean ready;
+
+    /**
+     * 是否正在加载
+     */
+    private volatile boolean warming;
+
+    /**
+     * 加载期间删除的节点ID，加载读到时跳过
+     */
+    private final Set<Long> removedDuringWarmUp = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 规范化实体名称（NFKC、小写、合并空白）
+     *
+     * @param text 名称或类型
+     * @return 规范化结果，空白时返回null
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return null;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC)
+                .toLowerCase(Locale.ROOT)
+                .trim()
+                .replaceAll("\\s+", " ");
+        return normalized.isEmpty() ? null : normalized;
+    }
+
+    /**
+     * 词典是否已加载完成（未完成时查询结果不完整）
+     *
+     * @return 是否可用
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 按名称和类型查找节点ID
+     *
+     * @param name     节点名称
+     * @param nodeType 节点类型
+     * @return 节点ID，不存在时返回null
+     */
+    public Long get(String name, String nodeType) {
+        String key = normalize(name);
+        String type = normalize(nodeType);
+        if (key == null || type == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Integer typeId = typeIndex.get(type);
+            if (typeId == null) {
+                return null;
+            }
+            int slot = find(key, typeId);
+            return slot < 0 ? null : ids[slot];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查找名称包含关键词的节点ID（关键词同样规范化，忽略大小写和全半角）
+     *
+     * @param keyword 关键词
+     * @return 节点ID列表
+     */
+    public List<Long> findIdsByNameContaining(String keyword) {
+        String key = normalize(keyword);
+        if (key == null) {
+            return List.of();
+        }
+        List<Long> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] != null && names[i].contains(key)) {
+                    result.add(ids[i]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * 节点已创建（当前事务提交后生效）
+     *
+     * @param node 节点
+     */
+    public void onNodeSaved(KnowledgeNode node) {
+        long id = node.getId();
+        String name = node.getName();
+        String nodeType = node.getNodeType();
+        afterCommit(() -> put(id, name, nodeType));
+    }
+
+    /**
+     * 节点名称或类型已修改（当前事务提交后生效）
+     *
+     * @param id          节点ID
+     * @param oldName     修改前名称
+     * @param oldNodeType 修改前类型
+     * @param name        修改后名称
+     * @param nodeType    修改后类型
+     */
+    public void onNodeUpdated(long id, String oldName, String oldNodeType, String name, String nodeType) {
+        if (Objects.equals(normalize(oldName), normalize(name)) && Objects.equals(normalize(oldNodeType), normalize(nodeType))) {
+            return;
+        }
+        afterCommit(() -> {
+            remove(id, oldName, oldNodeType);
+            put(id, name, nodeType);
+        });
+    }
+
+    /**
+     * 节点已删除（当前事务提交后生效）
+     *
+     * @param node 删除前的节点
+     */
+    public void onNodeDeleted(KnowledgeNode node) {
+        long id = node.getId();
+        String name = node.getName();
+        String nodeType = node.getNodeType();
+        afterCommit(() -> remove(id, name, nodeType));
+    }
+
+    /**
+     * 获取词典统计
+     *
+     * @return 条目数、容量、类型数和是否已加载
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("ready", ready);
+            stats.put("size", size);
+            stats.put("capacity", names.length);
+            stats.put("types", typeIndex.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        return stats;
+    }
+
+    /**
+     * 应用启动完成后加载词典
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        warmUp();
+    }
+
+    /**
+     * 按ID分页加载全部节点
+     */
+    synchronized void warmUp() {
+        long startTime = System.currentTimeMillis();
+        removedDuringWarmUp.clear();
+        warming = true;
+        try {
+            long afterId = 0;
+            int loaded = 0;
+            while (true) {
+                List<KnowledgeNode> page = nodeMapper.selectKeysAfter(afterId, WARM_UP_BATCH_SIZE);
+                if (page.isEmpty()) {
+                    break;
+                }
+                lock.writeLock().lock();
+                try {
+                    for (KnowledgeNode node : page) {
+                        if (!removedDuringWarmUp.contains(node.getId())) {
+                            putLocked(node.getId(), normalize(node.getName()), normalize(node.getNodeType()));
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                loaded += page.size();
+                afterId = page.get(page.size() - 1).getId();
+            }
+            ready = true;
+            log.info("实体词典加载完成, 节点数={}, 条目数={}, 耗时={}ms", loaded, size, System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("实体词典加载失败, 实体消歧将继续查询数据库", e);
+        } finally {
+            warming = false;
+            removedDuringWarmUp.clear();
+        }
+    }
+
+    void put(long id, String name, String nodeType) {
+        String key = normalize(name);
+        String type = normalize(nodeType);
+        lock.writeLock().lock();
+        try {
+            putLocked(id, key, type);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除映射到该节点的条目，同键下还有其他节点时改为映射到其他节点
+     */
+    void remove(long id, String name, String nodeType) {
+        if (warming) {
+            removedDuringWarmUp.add(id);
+        }
+        String key = normalize(name);
+        String type = normalize(nodeType);
+        if (key == null || type == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Integer typeId = typeIndex.get(type);
+            int slot = typeId == null ? -1 : find(key, typeId);
+            if (slot < 0 || ids[slot] != id) {
+                return;
+            }
+            delete(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // 同键的其他节点
+        KnowledgeNode probe = new KnowledgeNode();
+        probe.setNameKey(key);
+        probe.setNodeType(nodeType);
+        for (KnowledgeNode other : nodeMapper.selectByNameKeys(List.of(probe))) {
+            if (other.getId() != id) {
+                put(other.getId(), other.getName(), other.getNodeType());
+            }
+        }
+    }
+
+    private void putLocked(long id, String key, String type) {
+        if (key == null || type == null) {
+            return;
+        }
+        int typeId = typeIndex.computeIfAbsent(type, t -> typeIndex.size());
+        if ((size + 1) * 4L > names.length * 3L) {
+            resize(names.length * 2);
+        }
+        int mask = names.length - 1;
+        int slot = slot(key, typeId, mask);
+        while (names[slot] != null) {
+            if (types[slot] == typeId && names[slot].equals(key)) {
+                if (id < ids[slot]) {
+                    ids[slot] = id;
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        names[slot] = key;
+        types[slot] = typeId;
+        ids[slot] = id;
+        size++;
+    }
+
+    private int find(String key, int typeId) {
+        int mask = names.length - 1;
+        for (int slot = slot(key, typeId, mask); names[slot] != null; slot = (slot + 1) & mask) {
+            if (types[slot] == typeId && names[slot].equals(key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 删除槽位，并将后续探测链上的条目前移（线性探测的回移删除，不留墓碑）
+     */
+    private void delete(int slot) {
+        int mask = names.length - 1;
+        names[slot] = null;
+        size--;
+        int hole = slot;
+        for (int next = (slot + 1) & mask; names[next] != null; next = (next + 1) & mask) {
+            int home = slot(names[next], types[next], mask);
+            // home 位于 (hole, next] 之间时条目仍可从 home 探测到，不需要移动
+            boolean reachable = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (!reachable) {
+                names[hole] = names[next];
+                types[hole] = types[next];
+                ids[hole] = ids[next];
+                names[next] = null;
+                hole = next;
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        String[] oldNames = names;
+        int[] oldTypes = types;
+        long[] oldIds = ids;
+        names = new String[capacity];
+        types = new int[capacity];
+        ids = new long[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null) {
+                int slot = slot(oldNames[i], oldTypes[i], mask);
+                while (names[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                names[slot] = oldNames[i];
+                types[slot] = oldTypes[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+    }
+
+    private static int slot(String key, int typeId, int mask) {
+        int h = key.hashCode() * 31 + typeId;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * 在当前事务提交后执行（无事务时立即执行），回滚的修改不进入词典
+     */
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
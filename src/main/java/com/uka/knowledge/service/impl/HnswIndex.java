@@ -0,0 +1,817 @@
+package com.uka.knowledge.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+/**
+ * 进程内HNSW向量索引
+ * <p>
+ * 向量存放在内存映射文件（&lt;name&gt;.vec）中，按64MB分段映射，不占用堆内存：
+ * 64字节文件头（魔数、版本、维度、已提交条数）之后为定长记录
+ * （删除标记、向量模长、向量ID、业务ID、向量）。记录先写入再更新文件头中的条数，
+ * 删除只在记录上打标记（墓碑），被删除的节点仍参与图的遍历，但不出现在结果中。
+ * </p>
+ * <p>
+ * 图结构（各层邻居表）在堆内，关闭时写入快照文件（&lt;name&gt;.graph）；打开时加载快照，
+ * 快照之后追加的记录重新插入图中，进程异常退出不会丢失已提交的向量。
+ * </p>
+ * <p>
+ * 插入可并发执行：追加记录时短暂加锁，之后的建图不持有全局锁，邻居表按节点加锁、以写时复制方式替换，
+ * 检索不加锁。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+public class HnswIndex implements Closeable {
+
+    /**
+     * 距离度量
+     */
+    public enum Metric {
+        COSINE, IP, L2
+    }
+
+    private static final int MAGIC = 0x4B47484E;
+    private static final int GRAPH_MAGIC = 0x4B474847;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int OFFSET_DIMENSION = 8;
+    private static final int OFFSET_COUNT = 12;
+
+    private static final int RECORD_FLAGS = 0;
+    private static final int RECORD_NORM = 4;
+    private static final int RECORD_ID = 8;
+    private static final int RECORD_BUSINESS_ID = 16;
+    private static final int RECORD_VECTOR = 24;
+    private static final int FLAG_DELETED = 1;
+
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_LEVEL = 16;
+    private static final int[] NO_LINKS = new int[0];
+
+    private final int dimension;
+    private final Metric metric;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelFactor;
+    private final int recordSize;
+    private final int recordsPerSegment;
+
+    private Path vectorPath;
+    private Path graphPath;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+
+    /**
+     * 节点表，按块分配，块内元素在发布邻居关系之前写入
+     */
+    private final AtomicReferenceArray<Node[]> chunks = new AtomicReferenceArray<>((Integer.MAX_VALUE >> CHUNK_BITS) + 1);
+
+    /**
+     * 向量ID → 记录位置（不含已删除）
+     */
+    private final Map<Long, Integer> slots = new ConcurrentHashMap<>();
+
+    private final Object appendLock = new Object();
+    private final Object entryLock = new Object();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private volatile int count;
+    private volatile Entry entry;
+
+    private HnswIndex(Path dir, String name, int dimension, Metric metric, int m, int efConstruction) throws IOException {
+        this.dimension = dimension;
+        this.metric = metric;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levelFactor = 1 / Math.log(m);
+        this.recordSize = RECORD_VECTOR + dimension * Float.BYTES;
+        this.recordsPerSegment = (int) Math.max(1, SEGMENT_BYTES / recordSize);
+        this.vectorPath = dir.resolve(name + ".vec");
+        this.graphPath = dir.resolve(name + ".graph");
+        Files.createDirectories(dir);
+        this.channel = FileChannel.open(vectorPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    }
+
+    /**
+     * 打开（不存在时创建）索引
+     *
+     * @param dir            目录
+     * @param name           索引名（文件名前缀）
+     * @param dimension      向量维度
+     * @param metric         距离度量
+     * @param m              每个节点的邻居数
+     * @param efConstruction 构建时的候选集大小
+     * @return 索引
+     * @throws IOException 文件读写失败
+     */
+    public static HnswIndex open(Path dir, String name, int dimension, Metric metric, int m, int efConstruction)
+            throws IOException {
+        HnswIndex index = new HnswIndex(dir, name, dimension, metric, m, efConstruction);
+        try {
+            index.load();
+        } catch (IOException | RuntimeException e) {
+            index.channel.close();
+            throw e;
+        }
+        return index;
+    }
+
+    /**
+     * 添加向量，向量ID已存在时忽略
+     *
+     * @param id         向量ID
+     * @param businessId 业务ID
+     * @param vector     向量
+     * @return 是否添加
+     */
+    public boolean add(long id, long businessId, float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不正确: " + vector.length + ", 期望=" + dimension);
+        }
+        int slot;
+        synchronized (appendLock) {
+            if (slots.containsKey(id)) {
+                return false;
+            }
+            slot = count;
+            MappedByteBuffer segment = segment(slot);
+            int base = offset(slot);
+            double norm = 0;
+            for (int i = 0; i < dimension; i++) {
+                segment.putFloat(base + RECORD_VECTOR + i * Float.BYTES, vector[i]);
+                norm += vector[i] * vector[i];
+            }
+            segment.putInt(base + RECORD_FLAGS, 0);
+            segment.putFloat(base + RECORD_NORM, (float) Math.sqrt(norm));
+            segment.putLong(base + RECORD_ID, id);
+            segment.putLong(base + RECORD_BUSINESS_ID, businessId);
+            header.putInt(OFFSET_COUNT, slot + 1);
+            count = slot + 1;
+            slots.put(id, slot);
+        }
+        link(slot);
+        return true;
+    }
+
+    /**
+     * 删除向量（打墓碑标记）
+     *
+     * @param id 向量ID
+     * @return 是否删除
+     */
+    public boolean delete(long id) {
+        Integer slot = slots.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        segment(slot).putInt(offset(slot) + RECORD_FLAGS, FLAG_DELETED);
+        deleted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 是否包含未删除的向量
+     *
+     * @param id 向量ID
+     * @return 是否包含
+     */
+    public boolean contains(long id) {
+        return slots.containsKey(id);
+    }
+
+    /**
+     * 检索最相似的向量
+     *
+     * @param query 查询向量
+     * @param topK  返回数量
+     * @param ef    候选集大小
+     * @return 按相似度排序的结果
+     */
+    public List<Hit> search(float[] query, int topK, int ef) {
+        Entry ep = entry;
+        if (ep == null || topK <= 0) {
+            return List.of();
+        }
+        float queryNorm = norm(query);
+        int current = ep.slot();
+        float currentDistance = distance(query, queryNorm, current);
+        for (int level = ep.level(); level > 0; level--) {
+            Candidate nearest = greedy(query, queryNorm, current, currentDistance, level);
+            current = nearest.slot();
+            currentDistance = nearest.distance();
+        }
+        PriorityQueue<Candidate> results = searchLayer(query, queryNorm, current, currentDistance,
+                Math.max(ef, topK), 0, true);
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(Candidate::distance));
+        List<Hit> hits = new ArrayList<>(Math.min(topK, sorted.size()));
+        for (Candidate candidate : sorted) {
+            if (hits.size() >= topK) {
+                break;
+            }
+            int base = offset(candidate.slot());
+            MappedByteBuffer segment = segment(candidate.slot());
+            hits.add(new Hit(segment.getLong(base + RECORD_ID), segment.getLong(base + RECORD_BUSINESS_ID),
+                    score(candidate.distance())));
+        }
+        return hits;
+    }
+
+    /**
+     * 遍历指定范围内未删除的向量
+     *
+     * @param from    起始位置
+     * @param to      结束位置（不含）
+     * @param visitor 访问者
+     */
+    public void forEachLive(int from, int to, VectorVisitor visitor) {
+        for (int slot = from; slot < to; slot++) {
+            MappedByteBuffer segment = segment(slot);
+            int base = offset(slot);
+            if ((segment.getInt(base + RECORD_FLAGS) & FLAG_DELETED) == 0) {
+                visitor.visit(segment.getLong(base + RECORD_ID), segment.getLong(base + RECORD_BUSINESS_ID),
+                        vector(slot));
+            }
+        }
+    }
+
+    /**
+     * 遍历未删除向量的向量ID和业务ID（不读取向量）
+     *
+     * @param visitor 访问者（向量ID, 业务ID）
+     */
+    public void forEachLiveKey(BiConsumer<Long, Long> visitor) {
+        slots.forEach((id, slot) -> visitor.accept(id, segment(slot).getLong(offset(slot) + RECORD_BUSINESS_ID)));
+    }
+
+    /**
+     * 未删除的向量ID
+     *
+     * @return 向量ID集合（只读视图）
+     */
+    public Set<Long> ids() {
+        return Collections.unmodifiableSet(slots.keySet());
+    }
+
+    /**
+     * 已写入的记录数（含已删除）
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * 已删除的记录数
+     */
+    public int deletedCount() {
+        return deleted.get();
+    }
+
+    /**
+     * 获取向量的业务ID
+     *
+     * @param id 向量ID
+     * @return 业务ID，向量不存在或已删除时返回null
+     */
+    public Long businessId(long id) {
+        Integer slot = slots.get(id);
+        return slot == null ? null : segment(slot).getLong(offset(slot) + RECORD_BUSINESS_ID);
+    }
+
+    /**
+     * 重命名索引文件，覆盖同名的已有索引（压缩完成后替换原索引）
+     * <p>
+     * 先删除目标图快照，再原子替换向量文件，最后移动图快照。任一步骤之间中断时，
+     * 目标索引要么是原索引（缺少图快照时打开后重新建图），要么是新的向量文件（缺少图快照时重新建图），
+     * 不会出现向量文件与图快照不匹配或向量文件丢失。
+     * </p>
+     *
+     * @param name 新的索引名
+     * @throws IOException 文件移动失败
+     */
+    public synchronized void rename(String name) throws IOException {
+        Path dir = vectorPath.getParent();
+        Path newVectorPath = dir.resolve(name + ".vec");
+        Path newGraphPath = dir.resolve(name + ".graph");
+        // 向量落盘后再替换，避免替换后的文件缺少尚未写回的记录
+        header.force();
+        segments.forEach(MappedByteBuffer::force);
+        Files.deleteIfExists(newGraphPath);
+        Files.move(vectorPath, newVectorPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (Files.exists(graphPath)) {
+            Files.move(graphPath, newGraphPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        vectorPath = newVectorPath;
+        graphPath = newGraphPath;
+    }
+
+    /**
+     * 关闭但不保存图快照、不删除文件（索引文件即将被压缩后的索引覆盖）
+     * 已映射的区域在不再被引用后释放，进行中的检索不受影响
+     */
+    public synchronized void release() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("关闭本地向量索引文件失败, 文件={}: {}", vectorPath, e.getMessage());
+        }
+    }
+
+    /**
+     * 关闭并删除索引文件（已映射的区域在不再被引用后释放，进行中的检索不受影响）
+     */
+    public synchronized void destroy() {
+        try {
+            channel.close();
+            Files.deleteIfExists(vectorPath);
+            Files.deleteIfExists(graphPath);
+        } catch (IOException e) {
+            log.warn("删除本地向量索引文件失败, 文件={}: {}", vectorPath, e.getMessage());
+        }
+    }
+
+    /**
+     * 写入图快照并关闭
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        saveGraph();
+        header.force();
+        segments.forEach(MappedByteBuffer::force);
+        channel.close();
+    }
+
+    /**
+     * 写入图快照（先写临时文件再替换）
+     *
+     * @throws IOException 文件写入失败
+     */
+    public synchronized void saveGraph() throws IOException {
+        Entry ep = entry;
+        int nodes = 0;
+        while (nodes < count && node(nodes) != null) {
+            nodes++;
+        }
+        Path tmp = graphPath.resolveSibling(graphPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(GRAPH_MAGIC);
+            out.writeInt(nodes);
+            out.writeInt(ep == null ? -1 : ep.slot());
+            out.writeInt(ep == null ? -1 : ep.level());
+            for (int slot = 0; slot < nodes; slot++) {
+                Node node = node(slot);
+                out.writeInt(node.level());
+                for (int level = 0; level <= node.level(); level++) {
+                    int[] links = node.links.get(level);
+                    out.writeInt(links.length);
+                    for (int link : links) {
+                        out.writeInt(link);
+                    }
+                }
+            }
+        }
+        Files.move(tmp, graphPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取文件头和记录，加载图快照并补建快照之后的节点
+     */
+    private void load() throws IOException {
+        boolean valid = channel.size() >= HEADER_SIZE && header.getInt(0) == MAGIC
+                && header.getInt(4) == VERSION && header.getInt(OFFSET_DIMENSION) == dimension;
+        if (!valid) {
+            if (channel.size() > HEADER_SIZE) {
+                log.warn("本地向量索引文件格式或维度不匹配, 重建索引, 文件={}", vectorPath);
+            }
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(OFFSET_DIMENSION, dimension);
+            header.putInt(OFFSET_COUNT, 0);
+            Files.deleteIfExists(graphPath);
+        }
+        int committed = header.getInt(OFFSET_COUNT);
+        for (int slot = 0; slot < committed; slot++) {
+            MappedByteBuffer segment = segment(slot);
+            int base = offset(slot);
+            if ((segment.getInt(base + RECORD_FLAGS) & FLAG_DELETED) != 0) {
+                deleted.incrementAndGet();
+            } else {
+                slots.put(segment.getLong(base + RECORD_ID), slot);
+            }
+        }
+        count = committed;
+
+        int restored = loadGraph();
+        for (int slot = restored; slot < committed; slot++) {
+            link(slot);
+        }
+        if (committed > restored) {
+            log.info("本地向量索引补建节点, 文件={}, 快照节点={}, 补建={}", vectorPath, restored, committed - restored);
+        }
+    }
+
+    /**
+     * 加载图快照
+     *
+     * @return 快照中的节点数，快照不存在或无效时返回0
+     */
+    private int loadGraph() {
+        if (!Files.exists(graphPath)) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(graphPath)))) {
+            if (in.readInt() != GRAPH_MAGIC) {
+                return 0;
+            }
+            int nodes = in.readInt();
+            int entrySlot = in.readInt();
+            int entryLevel = in.readInt();
+            if (nodes > count) {
+                return 0;
+            }
+            for (int slot = 0; slot < nodes; slot++) {
+                Node node = new Node(in.readInt());
+                for (int level = 0; level <= node.level(); level++) {
+                    int[] links = new int[in.readInt()];
+                    for (int i = 0; i < links.length; i++) {
+                        links[i] = in.readInt();
+                    }
+                    node.links.set(level, links);
+                }
+                setNode(slot, node);
+            }
+            entry = entrySlot < 0 ? null : new Entry(entrySlot, entryLevel);
+            return nodes;
+        } catch (IOException | RuntimeException e) {
+            log.warn("本地向量索引图快照无效, 重新建图, 文件={}: {}", graphPath, e.getMessage());
+            for (int slot = 0; slot < count; slot++) {
+                setNode(slot, null);
+            }
+            entry = null;
+            return 0;
+        }
+    }
+
+    /**
+     * 将记录插入图中
+     */
+    private void link(int slot) {
+        int level = randomLevel();
+        Node node = new Node(level);
+        setNode(slot, node);
+
+        Entry ep = entry;
+        if (ep == null) {
+            synchronized (entryLock) {
+                if (entry == null) {
+                    entry = new Entry(slot, level);
+                    return;
+                }
+                ep = entry;
+            }
+        }
+
+        float[] vector = vector(slot);
+        float vectorNorm = norm(vector);
+        int current = ep.slot();
+        float currentDistance = distance(vector, vectorNorm, current);
+        for (int l = ep.level(); l > level; l--) {
+            Candidate nearest = greedy(vector, vectorNorm, current, currentDistance, l);
+            current = nearest.slot();
+            currentDistance = nearest.distance();
+        }
+        for (int l = Math.min(level, ep.level()); l >= 0; l--) {
+            PriorityQueue<Candidate> candidates = searchLayer(vector, vectorNorm, current, currentDistance,
+                    efConstruction, l, false);
+            List<Candidate> sorted = new ArrayList<>(candidates);
+            sorted.sort(Comparator.comparingDouble(Candidate::distance));
+            List<Candidate> neighbors = selectNeighbors(sorted, l == 0 ? maxM0 : m);
+            int[] links = new int[neighbors.size()];
+            for (int i = 0; i < links.length; i++) {
+                links[i] = neighbors.get(i).slot();
+            }
+            node.links.set(l, links);
+            for (Candidate neighbor : neighbors) {
+                addLink(neighbor.slot(), slot, neighbor.distance(), l);
+            }
+            current = sorted.get(0).slot();
+            currentDistance = sorted.get(0).distance();
+        }
+
+        if (level > ep.level()) {
+            synchronized (entryLock) {
+                if (level > entry.level()) {
+                    entry = new Entry(slot, level);
+                }
+            }
+        }
+    }
+
+    /**
+     * 启发式选择邻居：候选与已选邻居的距离比与新节点的距离更近时跳过，保留不同方向的邻居；
+     * 不足时用跳过的候选补齐
+     */
+    private List<Candidate> selectNeighbors(List<Candidate> sorted, int max) {
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> skipped = new ArrayList<>();
+        for (Candidate candidate : sorted) {
+            if (selected.size() >= max) {
+                break;
+            }
+            float[] candidateVector = vector(candidate.slot());
+            float candidateNorm = norm(candidateVector);
+            boolean diverse = true;
+            for (Candidate chosen : selected) {
+                if (distance(candidateVector, candidateNorm, chosen.slot()) < candidate.distance()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+            selected.add(skipped.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * 为邻居节点添加反向连接，超出上限时保留最近的邻居
+     */
+    private void addLink(int target, int source, float distance, int level) {
+        Node node = node(target);
+        if (node == null || level > node.level()) {
+            return;
+        }
+        int max = level == 0 ? maxM0 : m;
+        synchronized (node) {
+            int[] links = node.links.get(level);
+            if (links.length < max) {
+                int[] expanded = Arrays.copyOf(links, links.length + 1);
+                expanded[links.length] = source;
+                node.links.set(level, expanded);
+                return;
+            }
+            float[] targetVector = vector(target);
+            float targetNorm = norm(targetVector);
+            List<Candidate> candidates = new ArrayList<>(links.length + 1);
+            candidates.add(new Candidate(source, distance));
+            for (int link : links) {
+                candidates.add(new Candidate(link, distance(targetVector, targetNorm, link)));
+            }
+            candidates.sort(Comparator.comparingDouble(Candidate::distance));
+            int[] shrunk = new int[max];
+            for (int i = 0; i < max; i++) {
+                shrunk[i] = candidates.get(i).slot();
+            }
+            node.links.set(level, shrunk);
+        }
+    }
+
+    /**
+     * 在上层贪心移动到最近的节点
+     */
+    private Candidate greedy(float[] query, float queryNorm, int start, float startDistance, int level) {
+        int current = start;
+        float currentDistance = startDistance;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int neighbor : links(current, level)) {
+                float d = distance(query, queryNorm, neighbor);
+                if (d < currentDistance) {
+                    current = neighbor;
+                    currentDistance = d;
+                    changed = true;
+                }
+            }
+        }
+        return new Candidate(current, currentDistance);
+    }
+
+    /**
+     * 在一层内搜索ef个最近的节点
+     *
+     * @param liveOnly 为true时结果中不含已删除的节点（仍经过它们遍历）
+     * @return 结果（堆顶为最远的一个）
+     */
+    private PriorityQueue<Candidate> searchLayer(float[] query, float queryNorm, int start, float startDistance,
+                                                 int ef, int level, boolean liveOnly) {
+        BitSet visited = new BitSet(count);
+        visited.set(start);
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(Comparator.comparingDouble(Candidate::distance));
+        PriorityQueue<Candidate> results = new PriorityQueue<>(
+                Comparator.comparingDouble(Candidate::distance).reversed());
+        Candidate first = new Candidate(start, startDistance);
+        candidates.add(first);
+        if (!liveOnly || isLive(start)) {
+            results.add(first);
+        }
+        while (!candidates.isEmpty()) {
+            Candidate current = candidates.poll();
+            if (results.size() >= ef && current.distance() > results.peek().distance()) {
+                break;
+            }
+            for (int neighbor : links(current.slot(), level)) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float d = distance(query, queryNorm, neighbor);
+                if (results.size() < ef || d < results.peek().distance()) {
+                    Candidate candidate = new Candidate(neighbor, d);
+                    candidates.add(candidate);
+                    if (!liveOnly || isLive(neighbor)) {
+                        results.add(candidate);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private int[] links(int slot, int level) {
+        Node node = node(slot);
+        return node == null || level > node.level() ? NO_LINKS : node.links.get(level);
+    }
+
+    private boolean isLive(int slot) {
+        return (segment(slot).getInt(offset(slot) + RECORD_FLAGS) & FLAG_DELETED) == 0;
+    }
+
+    /**
+     * 查询向量与记录的距离（越小越相似）
+     */
+    private float distance(float[] query, float queryNorm, int slot) {
+        MappedByteBuffer segment = segment(slot);
+        int base = offset(slot) + RECORD_VECTOR;
+        float dot = 0;
+        float squared = 0;
+        for (int i = 0; i < dimension; i++) {
+            float v = segment.getFloat(base + i * Float.BYTES);
+            dot += query[i] * v;
+            if (metric == Metric.L2) {
+                float d = query[i] - v;
+                squared += d * d;
+            }
+        }
+        return switch (metric) {
+            case L2 -> squared;
+            case IP -> -dot;
+            case COSINE -> {
+                float norm = segment.getFloat(offset(slot) + RECORD_NORM);
+                yield queryNorm == 0 || norm == 0 ? 1 : 1 - dot / (queryNorm * norm);
+            }
+        };
+    }
+
+    /**
+     * 距离转换为与Milvus一致的分数（COSINE/IP越大越相似，L2越小越相似）
+     */
+    private float score(float distance) {
+        return switch (metric) {
+            case L2 -> distance;
+            case IP -> -distance;
+            case COSINE -> 1 - distance;
+        };
+    }
+
+    private float[] vector(int slot) {
+        MappedByteBuffer segment = segment(slot);
+        int base = offset(slot) + RECORD_VECTOR;
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = segment.getFloat(base + i * Float.BYTES);
+        }
+        return vector;
+    }
+
+    private static float norm(float[] vector) {
+        double sum = 0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    private int randomLevel() {
+        double r = 1 - ThreadLocalRandom.current().nextDouble();
+        return Math.min(MAX_LEVEL, (int) (-Math.log(r) * levelFactor));
+    }
+
+    /**
+     * 获取记录所在的映射分段，不存在时映射新的分段
+     */
+    private MappedByteBuffer segment(int slot) {
+        int index = slot / recordsPerSegment;
+        if (index < segments.size()) {
+            return segments.get(index);
+        }
+        synchronized (segments) {
+            try {
+                while (segments.size() <= index) {
+                    long position = HEADER_SIZE + (long) segments.size() * recordsPerSegment * recordSize;
+                    segments.add(channel.map(FileChannel.MapMode.READ_WRITE, position,
+                            (long) recordsPerSegment * recordSize));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("本地向量索引文件映射失败: " + vectorPath, e);
+            }
+            return segments.get(index);
+        }
+    }
+
+    private int offset(int slot) {
+        return (slot % recordsPerSegment) * recordSize;
+    }
+
+    private Node node(int slot) {
+        Node[] chunk = chunks.get(slot >>> CHUNK_BITS);
+        return chunk == null ? null : chunk[slot & (CHUNK_SIZE - 1)];
+    }
+
+    private void setNode(int slot, Node node) {
+        int index = slot >>> CHUNK_BITS;
+        Node[] chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new Node[CHUNK_SIZE]);
+            chunk = chunks.get(index);
+        }
+        chunk[slot & (CHUNK_SIZE - 1)] = node;
+    }
+
+    /**
+     * 检索结果
+     *
+     * @param id         向量ID
+     * @param businessId 业务ID
+     * @param score      相似度分数
+     */
+    public record Hit(long id, long businessId, float score) {
+    }
+
+    /**
+     * 向量访问者
+     */
+    @FunctionalInterface
+    public interface VectorVisitor {
+        void visit(long id, long businessId, float[] vector);
+    }
+
+    private record Entry(int slot, int level) {
+    }
+
+    private record Candidate(int slot, float distance) {
+    }
+
+    /**
+     * 图节点：各层邻居表，整体替换以便检索无锁读取
+     */
+    private static final class Node {
+        final AtomicReferenceArray<int[]> links;
+
+        Node(int level) {
+            links = new AtomicReferenceArray<>(level + 1);
+            for (int i = 0; i <= level; i++) {
+                links.set(i, NO_LINKS);
+            }
+        }
+
+        int level() {
+            return links.length() - 1;
+        }
+    }
+}
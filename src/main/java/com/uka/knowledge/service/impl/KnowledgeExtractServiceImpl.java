@@ -2,31 +2,49 @@ package com.uka.knowledge.service.impl;
 
 import cn.hutool.core.util.StrUtil;
 import com.alibaba.fastjson2.JSON;
-import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
-import com.uka.knowledge.model.dto.KnowledgeNodeDTO;
-import com.uka.knowledge.model.dto.KnowledgeRelationDTO;
+import com.uka.knowledge.config.IngestConfig;
 import com.uka.knowledge.model.entity.KnowledgeNode;
 import com.uka.knowledge.model.entity.KnowledgeRelation;
 import com.uka.knowledge.service.KnowledgeExtractService;
-import com.uka.knowledge.service.KnowledgeNodeService;
-import com.uka.knowledge.service.KnowledgeRelationService;
 import com.uka.knowledge.service.OllamaService;
+import com.uka.knowledge.util.StreamingJsonParser;
+import com.uka.knowledge.util.ThinkTagParser;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * 知识抽取服务实现类
  * <p>
  * 使用大模型从文本中自动抽取实体和关系，并保存到知识图谱
  * </p>
+ * <p>
+ * 模型支持时以JSON Schema约束输出格式（结构化输出），输出流由 {@link StreamingJsonParser} 单遍增量解析，
+ * 实体、关系对象一闭合即转换。各段并行抽取，闭合的实体立即交给写入方，按到达顺序去重后分批写入，
+ * 实体写入与各段的生成（包括同一段后续内容的生成）同时进行；关系在全部实体写入后一次写入。
+ * </p>
  *
  * @author uka
  * @version 1.0
@@ -37,14 +55,80 @@ import java.util.Map;
 public class KnowledgeExtractServiceImpl implements KnowledgeExtractService {
 
     private final OllamaService ollamaService;
-    private final KnowledgeNodeService nodeService;
-    private final KnowledgeRelationService relationService;
+    private final OllamaScheduler ollamaScheduler;
+    private final KnowledgeGraphBulkWriter graphBulkWriter;
+    private final IngestConfig ingestConfig;
+
+    @Qualifier("ingestExtractExecutor")
+    private final ThreadPoolTaskExecutor ingestExtractExecutor;
+
+    /**
+     * 进行中的抽取任务进度（抽取任务标识 → 进度）
+     */
+    private final Map<String, Progress> extractProgress = new ConcurrentHashMap<>();
+
+    /**
+     * 抽取任务序号，区分同一来源同时进行的多次抽取
+     */
+    private final AtomicLong runSequence = new AtomicLong();
 
     /**
      * 文本分段大小（避免超过模型上下文限制）
      */
     private static final int CHUNK_SIZE = 2000;
 
+    /**
+     * 单批写入的实体数上限（写入期间闭合的实体在下一批写入）
+     */
+    private static final int NODE_BATCH_SIZE = 256;
+
+    /**
+     * 等待新闭合实体的间隔（毫秒）
+     */
+    private static final long NODE_POLL_MS = 100;
+
+    /**
+     * 抽取结果的JSON Schema（实体在前，实体写入可以先于关系开始）
+     */
+    private static final JSONObject EXTRACTION_SCHEMA = JSON.parseObject("""
+            {
+              "type": "object",
+              "properties": {
+                "entities": {
+                  "type": "array",
+                  "items": {
+                    "type": "object",
+                    "properties": {
+                      "name": {"type": "string"},
+                      "type": {"type": "string"},
+                      "description": {"type": "string"}
+                    },
+                    "required": ["name", "type"]
+                  }
+                },
+                "relations": {
+                  "type": "array",
+                  "items": {
+                    "type": "object",
+                    "properties": {
+                      "source": {"type": "string"},
+                      "target": {"type": "string"},
+                      "relation": {"type": "string"},
+                      "type": {"type": "string"}
+                    },
+                    "required": ["source", "target", "type"]
+                  }
+                }
+              },
+              "required": ["entities", "relations"]
+            }
+            """);
+
+    /**
+     * Ollama是否支持结构化输出（结构化调用被拒绝（HTTP 400）后置为false，不再尝试）
+     */
+    private volatile boolean structuredOutputSupported = true;
+
     /**
      * 从文档中抽取知识
      */
@@ -66,6 +150,11 @@ public class KnowledgeExtractServiceImpl implements KnowledgeExtractService {
      */
     @Override
     public ExtractResult extractAndBuildGraph(String text, Long sourceId, String sourceType) {
+        // 逐段抽取耗时较长，走批量通道，不影响在线对话
+        return ollamaScheduler.runAsBulk(sourceType + ":" + sourceId, () -> doExtractAndBuildGraph(text, sourceId, sourceType));
+    }
+
+    private ExtractResult doExtractAndBuildGraph(String text, Long sourceId, String sourceType) {
         if (StrUtil.isBlank(text)) {
             return ExtractResult.empty("文本内容为空");
         }
@@ -78,309 +167,258 @@ public class KnowledgeExtractServiceImpl implements KnowledgeExtractService {
             List<String> chunks = splitText(text, CHUNK_SIZE);
             log.info("文本分段完成, 共{}段", chunks.size());
 
-            // 2. 存储所有抽取的实体和关系
-            List<KnowledgeNode> allNodes = new ArrayList<>();
-            List<KnowledgeRelation> allRelations = new ArrayList<>();
-
-            // 3. 对每段文本进行抽取
-            for (int i = 0; i < chunks.size(); i++) {
-                String chunk = chunks.get(i);
-                log.info("处理第{}/{}段文本", i + 1, chunks.size());
-
-                try {
-                    // 调用大模型抽取实体和关系
-                    String extractResult = callLlmForExtraction(chunk);
-
-                    // 解析抽取结果
-                    ParsedResult parsed = parseExtractionResult(extractResult);
-
-                    if (parsed != null) {
-                        allNodes.addAll(parsed.nodes);
-                        allRelations.addAll(parsed.relations);
-                    }
-                } catch (Exception e) {
-                    log.warn("第{}段文本抽取失败: {}", i + 1, e.getMessage());
-                }
-            }
-
-            // 4. 去重合并实体
-            Map<String, KnowledgeNode> uniqueNodes = mergeNodes(allNodes);
-            log.info("实体去重完成, 原始{}个, 去重后{}个", allNodes.size(), uniqueNodes.size());
-
-            // 5. 保存实体到数据库
+            // 2. 并行抽取各段文本，实体一闭合即放入队列，在此按到达顺序去重后分批写入新出现的实体
+            //    （同名实体以先闭合的描述为准），写入与各段的生成同时进行
+            BlockingQueue<KnowledgeNode> closedNodes = new LinkedBlockingQueue<>();
+            List<CompletableFuture<ParsedResult>> futures = extractChunks(chunks, sourceType + ":" + sourceId,
+                    closedNodes::add);
+            CompletableFuture<Void> allExtracted = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
             Map<String, Long> nodeNameToIdMap = new HashMap<>();
+            Set<String> seenNames = new HashSet<>();
             List<KnowledgeNode> savedNodes = new ArrayList<>();
-
-            for (KnowledgeNode node : uniqueNodes.values()) {
-                try {
-                    // 检查是否已存在同名节点
-                    List<KnowledgeNode> existing = nodeService.list(
-                            new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<KnowledgeNode>()
-                                    .eq(KnowledgeNode::getName, node.getName())
-                                    .eq(KnowledgeNode::getNodeType, node.getNodeType())
-                    );
-
-                    if (!existing.isEmpty()) {
-                        // 使用已存在的节点
-                        nodeNameToIdMap.put(node.getName(), existing.get(0).getId());
-                        log.debug("节点已存在, 复用: {}", node.getName());
-                    } else {
-                        // 创建新节点
-                        KnowledgeNodeDTO dto = new KnowledgeNodeDTO();
-                        dto.setName(node.getName());
-                        dto.setNodeType(node.getNodeType());
-                        dto.setDescription(node.getDescription());
-                        dto.setSourceDocId(sourceId);
-                        dto.setSourceType(sourceType);
-
-                        KnowledgeNode savedNode = nodeService.createNode(dto);
-                        nodeNameToIdMap.put(node.getName(), savedNode.getId());
-                        savedNodes.add(savedNode);
-                        log.debug("创建新节点: {} ({})", node.getName(), node.getNodeType());
+            int extractedNodes = 0;
+            while (true) {
+                KnowledgeNode first = closedNodes.poll(NODE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // 各段在完成前放入全部实体，完成后队列不会再增加
+                    if (allExtracted.isDone() && closedNodes.isEmpty()) {
+                        break;
                     }
-                } catch (Exception e) {
-                    log.warn("保存节点失败: {}, error: {}", node.getName(), e.getMessage());
+                    continue;
+                }
+                List<KnowledgeNode> batch = new ArrayList<>();
+                batch.add(first);
+                closedNodes.drainTo(batch, NODE_BATCH_SIZE - 1);
+                extractedNodes += batch.size();
+                List<KnowledgeNode> newNodes = mergeNodes(batch, seenNames);
+                if (!newNodes.isEmpty()) {
+                    // 3. 批量写入实体（按批查询已存在的节点，MySQL批量插入，Neo4j UNWIND写入，向量批量生成和写入）
+                    savedNodes.addAll(graphBulkWriter.writeNodes(newNodes, sourceId, sourceType, nodeNameToIdMap));
                 }
             }
-
-            // 6. 保存关系到数据库
-            List<KnowledgeRelation> savedRelations = new ArrayList<>();
-
-            for (KnowledgeRelation relation : allRelations) {
-                try {
-                    // 获取源节点和目标节点的ID
-                    Long sourceNodeId = nodeNameToIdMap.get(relation.getName());
-                    Long targetNodeId = null;
-
-                    // 关系中临时存储的是节点名称，需要转换
-                    String sourceName = (String) relation.getProperties();
-                    String targetName = relation.getNeo4jRelId();
-
-                    if (sourceName != null) {
-                        sourceNodeId = nodeNameToIdMap.get(sourceName);
-                    }
-                    if (targetName != null) {
-                        targetNodeId = nodeNameToIdMap.get(targetName);
-                    }
-
-                    if (sourceNodeId == null || targetNodeId == null) {
-                        log.debug("关系节点不存在, 跳过: {} -> {}", sourceName, targetName);
-                        continue;
-                    }
-
-                    // 检查关系是否已存在
-                    if (relationService.existsRelation(sourceNodeId, targetNodeId, relation.getRelationType())) {
-                        log.debug("关系已存在, 跳过: {} -[{}]-> {}", sourceName, relation.getName(), targetName);
-                        continue;
-                    }
-
-                    // 创建关系
-                    KnowledgeRelationDTO dto = new KnowledgeRelationDTO();
-                    dto.setName(relation.getName());
-                    dto.setRelationType(relation.getRelationType());
-                    dto.setSourceNodeId(sourceNodeId);
-                    dto.setTargetNodeId(targetNodeId);
-                    dto.setWeight(1.0);
-
-                    KnowledgeRelation savedRelation = relationService.createRelation(dto);
-                    savedRelations.add(savedRelation);
-                    log.debug("创建新关系: {} -[{}]-> {}", sourceName, relation.getName(), targetName);
-
-                } catch (Exception e) {
-                    log.warn("保存关系失败: {}, error: {}", relation.getName(), e.getMessage());
+            log.info("实体去重完成, 原始{}个, 去重后{}个", extractedNodes, seenNames.size());
+
+            List<KnowledgeGraphBulkWriter.RelationRef> allRelations = new ArrayList<>();
+            int failedChunks = 0;
+            for (CompletableFuture<ParsedResult> future : futures) {
+                ParsedResult parsed = future.join();
+                if (parsed == null) {
+                    failedChunks++;
+                } else {
+                    allRelations.addAll(parsed.relations());
                 }
             }
 
+            // 4. 全部实体写入后批量写入关系（两端节点可能来自不同段落）
+            List<KnowledgeRelation> savedRelations = graphBulkWriter.writeRelations(allRelations, nodeNameToIdMap);
+
+            if (failedChunks > 0) {
+                log.warn("知识抽取未全部完成, {}/{}段失败, 保存节点{}个, 关系{}个",
+                        failedChunks, chunks.size(), savedNodes.size(), savedRelations.size());
+                return ExtractResult.partial(savedNodes, savedRelations, failedChunks, chunks.size());
+            }
             log.info("知识抽取完成, 保存节点{}个, 关系{}个", savedNodes.size(), savedRelations.size());
 
             return ExtractResult.of(savedNodes, savedRelations);
 
         } catch (Exception e) {
             log.error("知识抽取失败", e);
-            return ExtractResult.empty("抽取失败: " + e.getMessage());
+            return ExtractResult.failed("抽取失败: " + e.getMessage());
         }
     }
 
     /**
-     * 调用大模型进行知识抽取
+     * 并行抽取各段文本
+     * <p>
+     * 同时抽取的段数受抽取线程池大小限制，各段的Ollama调用仍在批量通道中按来源排队，
+     * 整体并发不超过调度器的批量通道上限。单段失败只记录日志，不影响其他段。
+     * 单个文档同时提交到线程池（排队或执行）的段数不超过 ingest.extract-max-in-flight-chunks，
+     * 一段完成后再提交下一段，长文档不会占满线程池队列。
+     * </p>
+     *
+     * @param chunks   文本段
+     * @param source   来源标识
+     * @param nodeSink 闭合实体的接收方（在抽取线程中调用，段失败前已闭合的实体同样会交出）
+     * @return 与文本段一一对应的解析结果（失败的段结果为null）
      */
-    private String callLlmForExtraction(String text) {
-        String prompt = """
-                你是一个知识图谱构建专家。请从以下文本中抽取知识实体和关系。
-
-                要求：
-                1. 识别文本中的重要实体（人物、组织、地点、概念、技术、产品、事件等）
-                2. 识别实体之间的关系
-                3. 严格按照JSON格式输出，不要输出其他内容
-
-                输出格式：
-                {
-                  "entities": [
-                    {"name": "实体名称", "type": "实体类型", "description": "简短描述"}
-                  ],
-                  "relations": [
-                    {"source": "源实体名称", "target": "目标实体名称", "relation": "关系名称", "type": "关系类型"}
-                  ]
-                }
-
-                实体类型包括：Person(人物), Organization(组织), Location(地点), Concept(概念), Technology(技术), Product(产品), Event(事件), Time(时间), Other(其他)
-
-                关系类型包括：BELONGS_TO(属于), PART_OF(包含/组成), LOCATED_IN(位于), WORKS_FOR(工作于), CREATED_BY(创建/发明), RELATED_TO(相关), HAPPENED_AT(发生于), USED_BY(使用), INFLUENCED_BY(影响)
-
-                文本内容：
-                %s
-
-                请输出JSON（只输出JSON，不要其他文字）：
-                """.formatted(text);
-
-        return ollamaService.chat(prompt);
+    private List<CompletableFuture<ParsedResult>> extractChunks(List<String> chunks, String source,
+                                                                Consumer<KnowledgeNode> nodeSink) {
+        // 同一来源可能同时重新解析，进度按本次抽取区分
+        String runKey = source + "#" + runSequence.incrementAndGet();
+        Progress progress = new Progress(source, chunks.size(), System.currentTimeMillis());
+        extractProgress.put(runKey, progress);
+        List<CompletableFuture<ParsedResult>> futures = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        AtomicInteger next = new AtomicInteger();
+        int window = Math.max(1, Math.min(ingestConfig.getExtractMaxInFlightChunks(), chunks.size()));
+        for (int i = 0; i < window; i++) {
+            submitNextChunk(chunks, source, nodeSink, progress, futures, next);
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, e) -> {
+            log.info("文本段抽取完成, 共{}段, 失败{}段, 耗时={}ms", chunks.size(), progress.failed().get(),
+                    System.currentTimeMillis() - progress.startTime());
+            extractProgress.remove(runKey, progress);
+        });
+        return futures;
     }
 
     /**
-     * 解析大模型返回的抽取结果
+     * 提交下一个未开始的文本段，完成后继续提交，直到全部段已提交
      */
-    private ParsedResult parseExtractionResult(String result) {
-        if (StrUtil.isBlank(result)) {
-            return null;
+    private void submitNextChunk(List<String> chunks, String source, Consumer<KnowledgeNode> nodeSink,
+                                 Progress progress, List<CompletableFuture<ParsedResult>> futures,
+                                 AtomicInteger next) {
+        int index = next.getAndIncrement();
+        if (index >= chunks.size()) {
+            return;
         }
-
+        CompletableFuture<ParsedResult> task;
         try {
-            // 提取JSON部分
-            String jsonStr = extractJson(result);
-            if (jsonStr == null) {
-                log.warn("未找到有效的JSON: {}", result.substring(0, Math.min(100, result.length())));
-                return null;
-            }
-
-            JSONObject json = JSON.parseObject(jsonStr);
-
-            List<KnowledgeNode> nodes = new ArrayList<>();
-            List<KnowledgeRelation> relations = new ArrayList<>();
-
-            // 解析实体
-            JSONArray entities = json.getJSONArray("entities");
-            if (entities != null) {
-                for (int i = 0; i < entities.size(); i++) {
-                    JSONObject entity = entities.getJSONObject(i);
-                    KnowledgeNode node = new KnowledgeNode();
-                    node.setName(entity.getString("name"));
-                    node.setNodeType(mapEntityType(entity.getString("type")));
-                    node.setDescription(entity.getString("description"));
-                    nodes.add(node);
-                }
-            }
+            task = CompletableFuture.supplyAsync(() -> runChunk(chunks, index, source, nodeSink, progress),
+                    ingestExtractExecutor);
+        } catch (RuntimeException e) {
+            // 线程池已关闭
+            progress.failed().incrementAndGet();
+            log.warn("第{}段文本抽取提交失败: {}", index + 1, e.getMessage());
+            futures.get(index).complete(null);
+            submitNextChunk(chunks, source, nodeSink, progress, futures, next);
+            return;
+        }
+        task.whenComplete((parsed, e) -> {
+            futures.get(index).complete(e == null ? parsed : null);
+            submitNextChunk(chunks, source, nodeSink, progress, futures, next);
+        });
+    }
 
-            // 解析关系
-            JSONArray rels = json.getJSONArray("relations");
-            if (rels != null) {
-                for (int i = 0; i < rels.size(); i++) {
-                    JSONObject rel = rels.getJSONObject(i);
-                    KnowledgeRelation relation = new KnowledgeRelation();
-                    relation.setName(rel.getString("relation"));
-                    relation.setRelationType(mapRelationType(rel.getString("type")));
-                    // 临时存储源和目标节点名称
-                    relation.setProperties(rel.getString("source"));
-                    relation.setNeo4jRelId(rel.getString("target"));
-                    relations.add(relation);
-                }
+    /**
+     * 抽取一段文本并记录进度
+     *
+     * @return 解析结果，失败时返回null
+     */
+    private ParsedResult runChunk(List<String> chunks, int index, String source,
+                                  Consumer<KnowledgeNode> nodeSink, Progress progress) {
+        try {
+            // 调用大模型抽取实体和关系，边生成边解析
+            ParsedResult parsed = ollamaScheduler.runAsBulk(source,
+                    () -> extractChunk(chunks.get(index), nodeSink));
+            if (parsed == null) {
+                progress.failed().incrementAndGet();
             }
-
-            return new ParsedResult(nodes, relations);
-
+            return parsed;
         } catch (Exception e) {
-            log.warn("解析抽取结果失败: {}, 原始内容: {}", e.getMessage(),
-                    result.substring(0, Math.min(500, result.length())));
+            progress.failed().incrementAndGet();
+            log.warn("第{}段文本抽取失败: {}", index + 1, e.getMessage());
             return null;
+        } finally {
+            log.info("抽取进度 {}: 第{}段完成, 已完成{}/{}段", source, index + 1,
+                    progress.completed().incrementAndGet(), chunks.size());
         }
     }
 
     /**
-     * 从文本中提取JSON
+     * 获取进行中的抽取任务进度
+     *
+     * @return 抽取任务标识（来源标识#序号） → 来源标识、总段数、已完成段数、失败段数和已耗时
      */
-    private String extractJson(String text) {
-        // 尝试找到 { 和 } 的配对
-        int start = text.indexOf('{');
-        int end = text.lastIndexOf('}');
-
-        if (start >= 0 && end > start) {
-            String json = text.substring(start, end + 1);
-            // 清理可能存在的格式问题
-            return sanitizeJson(json);
-        }
-        return null;
+    public Map<String, Object> progress() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        extractProgress.forEach((runKey, progress) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("source", progress.source());
+            item.put("total", progress.total());
+            item.put("completed", progress.completed().get());
+            item.put("failed", progress.failed().get());
+            item.put("elapsedMs", System.currentTimeMillis() - progress.startTime());
+            stats.put(runKey, item);
+        });
+        return stats;
     }
 
     /**
-     * 清理JSON中的格式问题
-     * 处理LLM返回的非法JSON格式，如JavaScript风格的字符串拼接
+     * 调用大模型抽取单段文本的实体和关系
+     * <p>
+     * 优先使用结构化输出；结构化调用在产生输出前失败时本段改为普通输出重试。
+     * 只有Ollama以HTTP 400拒绝结构化输出参数（不支持format参数的版本）时，之后的调用才直接使用普通输出；
+     * 超时、连接中断等临时错误不影响之后的调用。
+     * </p>
      */
-    private String sanitizeJson(String json) {
-        if (json == null) {
-            return null;
+    private ParsedResult extractChunk(String text, Consumer<KnowledgeNode> nodeSink) {
+        String prompt = buildExtractionPrompt(text);
+        if (Boolean.TRUE.equals(ingestConfig.getExtractStructuredOutput()) && structuredOutputSupported) {
+            ChunkParser parser = new ChunkParser(nodeSink);
+            try {
+                return parser.parse(ollamaService.chatStream(prompt, EXTRACTION_SCHEMA));
+            } catch (RuntimeException e) {
+                if (parser.hasOutput()) {
+                    throw e;
+                }
+                if (isBadRequest(e)) {
+                    if (structuredOutputSupported) {
+                        structuredOutputSupported = false;
+                        log.warn("Ollama不支持结构化输出, 知识抽取改为普通输出: {}", e.getMessage());
+                    }
+                } else {
+                    log.warn("结构化输出抽取失败, 本段改为普通输出重试: {}", e.getMessage());
+                }
+                return new ChunkParser(nodeSink).parse(ollamaService.chatStream(prompt));
+            }
         }
+        return new ChunkParser(nodeSink).parse(ollamaService.chatStream(prompt));
+    }
 
-        // 处理 "xxx" + "yyy" 这种JavaScript风格的字符串拼接
-        // 将其合并为 "xxxyyy"
-        String sanitized = json;
-
-        // 正则匹配: "字符串1" + "字符串2" 模式，支持多次连续拼接
-        // 需要多次处理，直到没有匹配项
-        String pattern = "\"\\s*\\+\\s*\"";
-        while (sanitized.matches("(?s).*" + pattern + ".*")) {
-            sanitized = sanitized.replaceAll(pattern, "");
+    /**
+     * 是否为Ollama返回的HTTP 400错误
+     */
+    private static boolean isBadRequest(Throwable e) {
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof WebClientResponseException response && response.getStatusCode().value() == 400) {
+                return true;
+            }
+            cause = cause.getCause();
         }
-
-        // 处理可能的换行符在字符串值中（非法的JSON）
-        // 将字符串值内的换行替换为空格
-        sanitized = fixNewlinesInStrings(sanitized);
-
-        return sanitized;
+        return false;
     }
 
     /**
-     * 修复字符串值内的非法换行符
+     * 构建知识抽取提示词
      */
-    private String fixNewlinesInStrings(String json) {
-        StringBuilder result = new StringBuilder();
-        boolean inString = false;
-        boolean escaped = false;
+    private String buildExtractionPrompt(String text) {
+        return """
+                你是一个知识图谱构建专家。请从以下文本中抽取知识实体和关系。
 
-        for (int i = 0; i < json.length(); i++) {
-            char c = json.charAt(i);
+                要求：
+                1. 识别文本中的重要实体（人物、组织、地点、概念、技术、产品、事件等）
+                2. 识别实体之间的关系
+                3. 严格按照JSON格式输出，不要输出其他内容
 
-            if (escaped) {
-                result.append(c);
-                escaped = false;
-                continue;
-            }
+                输出格式：
+                {
+                  "entities": [
+                    {"name": "实体名称", "type": "实体类型", "description": "简短描述"}
+                  ],
+                  "relations": [
+                    {"source": "源实体名称", "target": "目标实体名称", "relation": "关系名称", "type": "关系类型"}
+                  ]
+                }
 
-            if (c == '\\') {
-                result.append(c);
-                escaped = true;
-                continue;
-            }
+                实体类型包括：Person(人物), Organization(组织), Location(地点), Concept(概念), Technology(技术), Product(产品), Event(事件), Time(时间), Other(其他)
 
-            if (c == '"') {
-                inString = !inString;
-                result.append(c);
-                continue;
-            }
+                关系类型包括：BELONGS_TO(属于), PART_OF(包含/组成), LOCATED_IN(位于), WORKS_FOR(工作于), CREATED_BY(创建/发明), RELATED_TO(相关), HAPPENED_AT(发生于), USED_BY(使用), INFLUENCED_BY(影响)
 
-            // 如果在字符串内遇到换行符，替换为空格
-            if (inString && (c == '\n' || c == '\r')) {
-                result.append(' ');
-            } else {
-                result.append(c);
-            }
-        }
+                文本内容：
+                %s
 
-        return result.toString();
+                请输出JSON（只输出JSON，不要其他文字）：
+                """.formatted(text);
     }
 
     /**
      * 映射实体类型
      */
-    private String mapEntityType(String type) {
+    private static String mapEntityType(String type) {
         if (StrUtil.isBlank(type)) {
             return "Concept";
         }
@@ -401,7 +439,7 @@ public class KnowledgeExtractServiceImpl implements KnowledgeExtractService {
     /**
      * 映射关系类型
      */
-    private String mapRelationType(String type) {
+    private static String mapRelationType(String type) {
         if (StrUtil.isBlank(type)) {
             return "RELATED_TO";
         }
@@ -420,13 +458,20 @@ public class KnowledgeExtractServiceImpl implements KnowledgeExtractService {
     }
 
     /**
-     * 合并去重实体
+     * 合并去重一段的实体（按规范化名称，忽略大小写和全半角差异，空名称的实体丢弃）
+     *
+     * @param nodes     本段抽取的实体
+     * @param seenNames 之前段落已写入的规范化名称，本段新出现的名称会加入
+     * @return 本段新出现的实体
      */
-    private Map<String, KnowledgeNode> mergeNodes(List<KnowledgeNode> nodes) {
-        Map<String, KnowledgeNode> uniqueNodes = new HashMap<>();
+    private List<KnowledgeNode> mergeNodes(List<KnowledgeNode> nodes, Set<String> seenNames) {
+        Map<String, KnowledgeNode> uniqueNodes = new LinkedHashMap<>();
 
         for (KnowledgeNode node : nodes) {
-            String key = node.getName();
+            String key = EntityDictionary.normalize(node.getName());
+            if (key == null || seenNames.contains(key)) {
+                continue;
+            }
             if (!uniqueNodes.containsKey(key)) {
                 uniqueNodes.put(key, node);
             } else {
@@ -438,7 +483,8 @@ public class KnowledgeExtractServiceImpl implements KnowledgeExtractService {
             }
         }
 
-        return uniqueNodes;
+        seenNames.addAll(uniqueNodes.keySet());
+        return new ArrayList<>(uniqueNodes.values());
     }
 
     /**
@@ -487,8 +533,101 @@ public class KnowledgeExtractServiceImpl implements KnowledgeExtractService {
     }
 
     /**
-     * 解析结果内部类
+     * 解析结果内部类（实体已在解析过程中交给接收方，这里只保留关系）
+     */
+    private record ParsedResult(List<KnowledgeGraphBulkWriter.RelationRef> relations) {
+    }
+
+    /**
+     * 单段抽取输出的增量解析器
+     * <p>
+     * 输出块先去除思考链，再逐块输入JSON解析器，实体、关系对象一闭合即转换，实体立即交给接收方写入，
+     * 不保留完整输出，只保留正文开头的少量字符用于未找到JSON时的日志。
+     * </p>
+     */
+    private static final class ChunkParser {
+
+        /**
+         * 日志中保留的正文开头字符数
+         */
+        private static final int LOG_PREFIX_LENGTH = 100;
+
+        private final ThinkTagParser thinkTagParser = new ThinkTagParser(false);
+        private final StreamingJsonParser jsonParser = new StreamingJsonParser(this::onElement);
+        private final Consumer<KnowledgeNode> nodeSink;
+        private final List<KnowledgeGraphBulkWriter.RelationRef> relations = new ArrayList<>();
+        private final StringBuilder contentPrefix = new StringBuilder();
+        private int nodeCount;
+        private boolean output;
+
+        ChunkParser(Consumer<KnowledgeNode> nodeSink) {
+            this.nodeSink = nodeSink;
+        }
+
+        /**
+         * 消费输出流直到结束
+         *
+         * @param stream 大模型输出流
+         * @return 解析结果，输出中没有JSON时返回null
+         */
+        ParsedResult parse(Flux<String> stream) {
+            stream.doOnNext(chunk -> {
+                output = true;
+                thinkTagParser.feed(chunk, this::onText);
+            }).blockLast();
+            thinkTagParser.finish(this::onText);
+            if (jsonParser.finish() == null) {
+                log.warn("未找到有效的JSON: {}", contentPrefix);
+                return null;
+            }
+            if (!jsonParser.isComplete()) {
+                log.warn("抽取输出不完整, 保留已解析的实体{}个, 关系{}个", nodeCount, relations.size());
+            }
+            return new ParsedResult(relations);
+        }
+
+        /**
+         * 是否已收到输出
+         */
+        boolean hasOutput() {
+            return output;
+        }
+
+        private void onText(ThinkTagParser.Part part, String text) {
+            if (part == ThinkTagParser.Part.CONTENT) {
+                if (contentPrefix.length() < LOG_PREFIX_LENGTH) {
+                    contentPrefix.append(text, 0, Math.min(text.length(), LOG_PREFIX_LENGTH - contentPrefix.length()));
+                }
+                jsonParser.feed(text);
+            }
+        }
+
+        private void onElement(String field, JSONObject element) {
+            switch (field) {
+                case "entities" -> {
+                    KnowledgeNode node = new KnowledgeNode();
+                    node.setName(element.getString("name"));
+                    node.setNodeType(mapEntityType(element.getString("type")));
+                    node.setDescription(element.getString("description"));
+                    nodeCount++;
+                    nodeSink.accept(node);
+                }
+                case "relations" -> relations.add(new KnowledgeGraphBulkWriter.RelationRef(
+                        element.getString("source"), element.getString("target"),
+                        element.getString("relation"), mapRelationType(element.getString("type"))));
+                default -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * 单次抽取任务的进度
      */
-    private record ParsedResult(List<KnowledgeNode> nodes, List<KnowledgeRelation> relations) {
+    private record Progress(String source, int total, long startTime, AtomicInteger completed,
+                            AtomicInteger failed) {
+        Progress(String source, int total, long startTime) {
+            this(source, total, startTime, new AtomicInteger(), new AtomicInteger());
+        }
     }
 }
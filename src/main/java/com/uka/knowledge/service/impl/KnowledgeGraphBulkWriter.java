@@ -0,0 +1,493 @@
+package com.uka.knowledge.service.impl;
+
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.uka.knowledge.mapper.KnowledgeNodeMapper;
+import com.uka.knowledge.mapper.KnowledgeRelationMapper;
+import com.uka.knowledge.model.entity.KnowledgeNode;
+import com.uka.knowledge.model.entity.KnowledgeRelation;
+import com.uka.knowledge.service.OllamaService;
+import com.uka.knowledge.service.VectorService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.neo4j.core.Neo4jClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 知识图谱批量写入器
+ * <p>
+ * 将一次抽取得到的实体和关系合并写入：按批查询已存在的节点和关系，新节点的向量一次批量生成，
+ * 向量一次批量写入Milvus，MySQL使用JDBC批量插入，Neo4j节点和关系各用一条 UNWIND 语句写入。
+ * 写入的远程调用次数与批数成正比，而不是与实体、关系数成正比。
+ * </p>
+ * <p>
+ * 节点按规范化的 名称+类型（见 {@link EntityDictionary#normalize}）判断是否已存在，已存在的复用；关系按 起始节点+目标节点+关系类型 去重，已存在的跳过。
+ * </p>
+ * <p>
+ * 多个文档同时抽取时，节点按实体键分段加锁，锁内复查后以插入或取已有的方式写入（kg_knowledge_node 上
+ * name_key+node_type 唯一索引兜底多实例并发），同一实体只创建一次；不同实体的写入互不阻塞。
+ * 锁内只做MySQL插入和Neo4j写入，向量生成和Milvus写入在锁外进行。关系按 起始+目标+类型 同样分段加锁。
+ * MySQL或Neo4j写入失败时回滚本批：Neo4j语句自动提交，不在MySQL事务内，事务回滚后删除本批已写入的
+ * Neo4j节点和关系作为补偿。向量写入失败时节点照常创建但不写入向量。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class KnowledgeGraphBulkWriter {
+
+    /**
+     * 每批查询/写入Neo4j的条数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * 实体/关系写入锁的分段数
+     */
+    private static final int LOCK_STRIPES = 1024;
+
+    private final KnowledgeNodeMapper nodeMapper;
+    private final KnowledgeRelationMapper relationMapper;
+    private final Neo4jClient neo4jClient;
+    private final OllamaService ollamaService;
+    private final VectorService vectorService;
+    private final RagQueryCache ragQueryCache;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityDictionary entityDictionary;
+
+    /**
+     * 按实体键（规范化名称+类型）或关系键分段的写入锁，同键的写入串行，不同键的写入并行
+     */
+    private final Lock[] stripes = createStripes();
+
+    /**
+     * 批量写入实体和关系
+     *
+     * @param nodes      实体（同名实体已合并）
+     * @param relations  关系（以实体名称引用两端节点）
+     * @param sourceId   来源ID
+     * @param sourceType 来源类型
+     * @return 新建的节点和关系
+     */
+    public WriteResult write(Collection<KnowledgeNode> nodes, List<RelationRef> relations,
+                             Long sourceId, String sourceType) {
+        Map<String, Long> nodeNameToIdMap = new HashMap<>();
+        List<KnowledgeNode> savedNodes = writeNodes(nodes, sourceId, sourceType, nodeNameToIdMap);
+        List<KnowledgeRelation> savedRelations = writeRelations(relations, nodeNameToIdMap);
+        return new WriteResult(savedNodes, savedRelations);
+    }
+
+    /**
+     * 批量写入实体：复用已存在的节点，批量创建其余节点
+     * <p>
+     * 可对同一文档分多次调用（如逐段写入），各次共用同一个名称映射，供最后写入关系时解析两端节点。
+     * </p>
+     *
+     * @param nodes           实体（同名实体已合并）
+     * @param sourceId        来源ID
+     * @param sourceType      来源类型
+     * @param nodeNameToIdMap 规范化名称 → 节点ID，写入的和复用的节点都会记入
+     * @return 新建的节点
+     */
+    public List<KnowledgeNode> writeNodes(Collection<KnowledgeNode> nodes, Long sourceId, String sourceType,
+                                           Map<String, Long> nodeNameToIdMap) {
+        // 1. 预查已存在的节点，已存在的实体不再生成向量
+        List<KnowledgeNode> candidates = new ArrayList<>(nodes);
+        candidates.forEach(node -> node.setNameKey(EntityDictionary.normalize(node.getName())));
+        List<KnowledgeNode> newNodes = excludeExisting(candidates, nodeNameToIdMap);
+        if (newNodes.isEmpty()) {
+            return List.of();
+        }
+        for (KnowledgeNode node : newNodes) {
+            node.setId(IdWorker.getId());
+            node.setSourceDocId(sourceId);
+            node.setSourceType(sourceType);
+        }
+
+        // 2. 批量生成向量（耗时，在加锁前完成）
+        List<OllamaService.EmbeddingResult> embeddings = ollamaService.generateEmbeddings(newNodes.stream()
+                .map(node -> KnowledgeNodeServiceImpl.embeddingText(node.getName(), node.getDescription()))
+                .toList());
+        Map<Long, float[]> vectorsByNodeId = new HashMap<>();
+        for (int i = 0; i < newNodes.size(); i++) {
+            OllamaService.EmbeddingResult embedding = embeddings.get(i);
+            if (embedding.isSuccess()) {
+                vectorsByNodeId.put(newNodes.get(i).getId(), embedding.vector());
+            } else {
+                log.warn("节点向量生成失败, 创建节点但不写入向量, name={}, error: {}",
+                        newNodes.get(i).getName(), embedding.error());
+            }
+        }
+
+        // 3. 按实体键分段加锁，锁内复查后插入或取已有，并写入Neo4j
+        List<KnowledgeNode> created;
+        List<Lock> locks = lock(newNodes.stream().map(KnowledgeGraphBulkWriter::nodeKey).toList());
+        try {
+            List<KnowledgeNode> remaining = excludeExisting(newNodes, nodeNameToIdMap);
+            created = remaining.isEmpty() ? List.of() : insertNodes(remaining, nodeNameToIdMap);
+        } finally {
+            unlock(locks);
+        }
+
+        // 4. 新建节点的向量一次写入Milvus，回填向量ID
+        List<KnowledgeNode> embeddedNodes = created.stream()
+                .filter(node -> vectorsByNodeId.containsKey(node.getId()))
+                .toList();
+        if (!embeddedNodes.isEmpty()) {
+            List<VectorService.VectorInsertData> vectors = embeddedNodes.stream()
+                    .map(node -> new VectorService.VectorInsertData(node.getId(), vectorsByNodeId.get(node.getId()), "node"))
+                    .toList();
+            try {
+                List<String> vectorIds = join(vectorService.bulkInsertVectors(vectors));
+                for (int i = 0; i < embeddedNodes.size(); i++) {
+                    embeddedNodes.get(i).setVectorId(vectorIds.get(i));
+                }
+                nodeMapper.updateVectorIds(embeddedNodes);
+                vectors.forEach(vector -> ragQueryCache.onVectorAdded("node", vector.vector()));
+            } catch (RuntimeException e) {
+                log.error("节点向量写入失败, 节点已创建但不写入向量, 数量={}", embeddedNodes.size(), e);
+            }
+        }
+
+        log.info("批量创建知识节点完成, 新建{}个, 复用{}个", created.size(), candidates.size() - created.size());
+        return created;
+    }
+
+    /**
+     * 查询已存在的同名同类型节点（实体词典已加载时查内存，否则按批查库），记录其ID并返回不存在的节点
+     */
+    private List<KnowledgeNode> excludeExisting(List<KnowledgeNode> nodes, Map<String, Long> nodeNameToIdMap) {
+        Map<String, Long> existingIds = new HashMap<>();
+        if (entityDictionary.isReady()) {
+            for (KnowledgeNode node : nodes) {
+                Long id = entityDictionary.get(node.getName(), node.getNodeType());
+                if (id != null) {
+                    existingIds.put(nodeKey(node), id);
+                }
+            }
+        } else {
+            for (List<KnowledgeNode> batch : partition(nodes)) {
+                for (KnowledgeNode existing : nodeMapper.selectByNameKeys(batch)) {
+                    existingIds.merge(nodeKey(existing), existing.getId(), Math::min);
+                }
+            }
+        }
+
+        List<KnowledgeNode> missing = new ArrayList<>();
+        for (KnowledgeNode node : nodes) {
+            Long existingId = existingIds.get(nodeKey(node));
+            if (existingId != null) {
+                nodeNameToIdMap.putIfAbsent(node.getNameKey(), existingId);
+                log.debug("节点已存在, 复用: {}", node.getName());
+            } else {
+                missing.add(node);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 插入或取已有：插入时跳过唯一键（规范化名称+类型）已存在的节点，再查回各键的实际节点ID；
+     * 实际ID是本次分配的ID的节点为新建节点，写入Neo4j并加入实体词典
+     */
+    private List<KnowledgeNode> insertNodes(List<KnowledgeNode> nodes, Map<String, Long> nodeNameToIdMap) {
+        List<KnowledgeNode> created = transactionTemplate.execute(status -> {
+            Map<String, Long> actualIds = new HashMap<>();
+            for (List<KnowledgeNode> batch : partition(nodes)) {
+                nodeMapper.insertOrIgnore(batch);
+                for (KnowledgeNode actual : nodeMapper.selectByNameKeys(batch)) {
+                    actualIds.merge(nodeKey(actual), actual.getId(), Math::min);
+                }
+            }
+            List<KnowledgeNode> inserted = new ArrayList<>(nodes.size());
+            for (KnowledgeNode node : nodes) {
+                Long actualId = actualIds.get(nodeKey(node));
+                if (node.getId().equals(actualId)) {
+                    inserted.add(node);
+                } else if (actualId != null) {
+                    // 其他实例同时创建了该节点
+                    nodeNameToIdMap.putIfAbsent(node.getNameKey(), actualId);
+                    log.debug("节点已被并发创建, 复用: {}", node.getName());
+                }
+            }
+            deleteNeo4jNodesOnRollback(inserted);
+            for (List<KnowledgeNode> batch : partition(inserted)) {
+                saveNeo4jNodes(batch);
+            }
+            if (!inserted.isEmpty()) {
+                nodeMapper.updateNeo4jIds(inserted);
+            }
+            return inserted;
+        });
+        for (KnowledgeNode node : created) {
+            nodeNameToIdMap.putIfAbsent(node.getNameKey(), node.getId());
+            entityDictionary.onNodeSaved(node);
+        }
+        return created;
+    }
+
+    /**
+     * 批量写入关系：解析关系两端节点，跳过已存在的关系后批量创建
+     *
+     * @param relations       关系（以实体名称引用两端节点）
+     * @param nodeNameToIdMap 规范化名称 → 节点ID（由 {@link #writeNodes} 填充），端点不在其中的关系跳过
+     * @return 新建的关系
+     */
+    public List<KnowledgeRelation> writeRelations(List<RelationRef> relations, Map<String, Long> nodeNameToIdMap) {
+        // 1. 名称转节点ID，同一批次内去重
+        Map<String, KnowledgeRelation> pending = new LinkedHashMap<>();
+        for (RelationRef ref : relations) {
+            Long sourceNodeId = ref.sourceName() == null ? null : nodeNameToIdMap.get(EntityDictionary.normalize(ref.sourceName()));
+            Long targetNodeId = ref.targetName() == null ? null : nodeNameToIdMap.get(EntityDictionary.normalize(ref.targetName()));
+            if (sourceNodeId == null || targetNodeId == null) {
+                log.debug("关系节点不存在, 跳过: {} -> {}", ref.sourceName(), ref.targetName());
+                continue;
+            }
+            KnowledgeRelation relation = new KnowledgeRelation();
+            relation.setName(ref.name());
+            relation.setRelationType(ref.relationType());
+            relation.setSourceNodeId(sourceNodeId);
+            relation.setTargetNodeId(targetNodeId);
+            relation.setWeight(1.0);
+            pending.putIfAbsent(relationKey(relation), relation);
+        }
+        if (pending.isEmpty()) {
+            return List.of();
+        }
+
+        // 2. 按关系键分段加锁，锁内查询已存在的关系后写入
+        List<KnowledgeRelation> newRelations;
+        List<Lock> locks = lock(pending.keySet());
+        try {
+            for (List<KnowledgeRelation> batch : partition(new ArrayList<>(pending.values()))) {
+                for (KnowledgeRelation existing : relationMapper.selectByNodePairs(batch)) {
+                    if (pending.remove(relationKey(existing)) != null) {
+                        log.debug("关系已存在, 跳过: {} -[{}]-> {}", existing.getSourceNodeId(),
+                                existing.getRelationType(), existing.getTargetNodeId());
+                    }
+                }
+            }
+            newRelations = new ArrayList<>(pending.values());
+            if (newRelations.isEmpty()) {
+                return List.of();
+            }
+
+            // 3. MySQL批量插入，Neo4j一条UNWIND写入
+            transactionTemplate.executeWithoutResult(status -> {
+                relationMapper.insert(newRelations);
+                deleteNeo4jRelationsOnRollback(newRelations);
+                for (List<KnowledgeRelation> batch : partition(newRelations)) {
+                    saveNeo4jRelations(batch);
+                }
+            });
+        } finally {
+            unlock(locks);
+        }
+        ragQueryCache.invalidateNodes(newRelations.stream().map(KnowledgeRelation::getSourceNodeId).distinct().toList());
+        log.info("批量创建知识关系完成, 新建{}个", newRelations.size());
+        return newRelations;
+    }
+
+    /**
+     * 一条UNWIND语句写入一批Neo4j节点，并回填Neo4j ID
+     */
+    private void saveNeo4jNodes(List<KnowledgeNode> nodes) {
+        List<Map<String, Object>> rows = new ArrayList<>(nodes.size());
+        Map<Long, KnowledgeNode> byId = new HashMap<>();
+        for (KnowledgeNode node : nodes) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("mysqlId", node.getId());
+            row.put("name", node.getName());
+            row.put("nodeType", node.getNodeType());
+            row.put("description", node.getDescription());
+            rows.add(row);
+            byId.put(node.getId(), node);
+        }
+        neo4jClient.query("""
+                        UNWIND $rows AS row
+                        MERGE (n:KnowledgeNode {mysqlId: row.mysqlId})
+                        SET n.name = row.name, n.nodeType = row.nodeType, n.description = row.description,
+                            n.createTime = localdatetime()
+                        RETURN row.mysqlId AS mysqlId, id(n) AS neo4jId
+                        """)
+                .bind(rows).to("rows")
+                .fetch().all()
+                .forEach(record -> byId.get(((Number) record.get("mysqlId")).longValue())
+                        .setNeo4jId(String.valueOf(record.get("neo4jId"))));
+    }
+
+    /**
+     * 一条UNWIND语句写入一批Neo4j关系
+     */
+    private void saveNeo4jRelations(List<KnowledgeRelation> relations) {
+        List<Map<String, Object>> rows = new ArrayList<>(relations.size());
+        for (KnowledgeRelation relation : relations) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("sourceId", relation.getSourceNodeId());
+            row.put("targetId", relation.getTargetNodeId());
+            row.put("relationType", relation.getRelationType());
+            row.put("relName", relation.getName());
+            row.put("weight", relation.getWeight());
+            rows.add(row);
+        }
+        neo4jClient.query("""
+                        UNWIND $rows AS row
+                        MATCH (source:KnowledgeNode {mysqlId: row.sourceId})
+                        MATCH (target:KnowledgeNode {mysqlId: row.targetId})
+                        MERGE (source)-[r:RELATES_TO {type: row.relationType}]->(target)
+                        SET r.name = row.relName, r.weight = row.weight, r.createTime = datetime()
+                        """)
+                .bind(rows).to("rows")
+                .run();
+    }
+
+    /**
+     * 事务回滚时删除本批写入的Neo4j节点（含部分写入的批次）
+     */
+    private void deleteNeo4jNodesOnRollback(List<KnowledgeNode> nodes) {
+        if (nodes.isEmpty()) {
+            return;
+        }
+        List<Long> ids = nodes.stream().map(KnowledgeNode::getId).toList();
+        onRollback(() -> neo4jClient.query("""
+                        UNWIND $ids AS id
+                        MATCH (n:KnowledgeNode {mysqlId: id})
+                        DETACH DELETE n
+                        """)
+                .bind(ids).to("ids")
+                .run(), "节点", ids.size());
+    }
+
+    /**
+     * 事务回滚时删除本批写入的Neo4j关系（写入前已按MySQL排除已存在的关系）
+     */
+    private void deleteNeo4jRelationsOnRollback(List<KnowledgeRelation> relations) {
+        List<Map<String, Object>> rows = new ArrayList<>(relations.size());
+        for (KnowledgeRelation relation : relations) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("sourceId", relation.getSourceNodeId());
+            row.put("targetId", relation.getTargetNodeId());
+            row.put("relationType", relation.getRelationType());
+            rows.add(row);
+        }
+        onRollback(() -> neo4jClient.query("""
+                        UNWIND $rows AS row
+                        MATCH (:KnowledgeNode {mysqlId: row.sourceId})-[r:RELATES_TO {type: row.relationType}]->(:KnowledgeNode {mysqlId: row.targetId})
+                        DELETE r
+                        """)
+                .bind(rows).to("rows")
+                .run(), "关系", rows.size());
+    }
+
+    /**
+     * 注册当前事务未提交时执行的补偿操作，补偿失败只记录日志
+     */
+    private void onRollback(Runnable compensation, String target, int count) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    return;
+                }
+                try {
+                    compensation.run();
+                    log.warn("MySQL事务回滚, 已删除本批写入的Neo4j{}, 数量={}", target, count);
+                } catch (RuntimeException e) {
+                    log.error("MySQL事务回滚后删除Neo4j{}失败, 数量={}", target, count, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 按键所在的分段加锁（按分段序号升序加锁，避免死锁）
+     */
+    private List<Lock> lock(Collection<String> keys) {
+        int[] indexes = keys.stream()
+                .mapToInt(key -> Math.floorMod(key.hashCode() ^ (key.hashCode() >>> 16), LOCK_STRIPES))
+                .distinct()
+                .sorted()
+                .toArray();
+        List<Lock> locked = new ArrayList<>(indexes.length);
+        try {
+            for (int index : indexes) {
+                stripes[index].lock();
+                locked.add(stripes[index]);
+            }
+        } catch (RuntimeException e) {
+            unlock(locked);
+            throw e;
+        }
+        return locked;
+    }
+
+    private static void unlock(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    private static <T> List<List<T>> partition(List<T> list) {
+        List<List<T>> batches = new ArrayList<>();
+        for (int from = 0; from < list.size(); from += BATCH_SIZE) {
+            batches.add(list.subList(from, Math.min(list.size(), from + BATCH_SIZE)));
+        }
+        return batches;
+    }
+
+    private static Lock[] createStripes() {
+        Lock[] locks = new Lock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    private static String nodeKey(KnowledgeNode node) {
+        return EntityDictionary.normalize(node.getNameKey() != null ? node.getNameKey() : node.getName())
+                + "\u0000" + EntityDictionary.normalize(node.getNodeType());
+    }
+
+    private static String relationKey(KnowledgeRelation relation) {
+        return relation.getSourceNodeId() + ":" + relation.getTargetNodeId() + ":" + relation.getRelationType();
+    }
+
+    /**
+     * 以实体名称引用两端节点的关系
+     *
+     * @param sourceName   起始实体名称
+     * @param targetName   目标实体名称
+     * @param name         关系名称
+     * @param relationType 关系类型
+     */
+    public record RelationRef(String sourceName, String targetName, String name, String relationType) {
+    }
+
+    /**
+     * 批量写入结果
+     *
+     * @param nodes     新建的节点
+     * @param relations 新建的关系
+     */
+    public record WriteResult(List<KnowledgeNode> nodes, List<KnowledgeRelation> relations) {
+    }
+}
@@ -21,8 +21,10 @@ import com.uka.knowledge.service.VectorService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.*;
 
@@ -47,6 +49,9 @@ public class KnowledgeNodeServiceImpl extends ServiceImpl<KnowledgeNodeMapper, K
     private final Neo4jNodeRepository neo4jNodeRepository;
     private final OllamaService ollamaService;
     private final VectorService vectorService;
+    private final RagQueryCache ragQueryCache;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityDictionary entityDictionary;
 
     /**
      * 创建知识节点
@@ -54,6 +59,38 @@ public class KnowledgeNodeServiceImpl extends ServiceImpl<KnowledgeNodeMapper, K
     @Override
     @Transactional(rollbackFor = Exception.class)
     public KnowledgeNode createNode(KnowledgeNodeDTO dto) {
+        return saveNode(dto, embed(dto.getName(), embeddingText(dto.getName(), dto.getDescription())));
+    }
+
+    /**
+     * 批量创建知识节点
+     */
+    @Override
+    public List<KnowledgeNode> createNodes(List<KnowledgeNodeDTO> dtos) {
+        List<OllamaService.EmbeddingResult> embeddings = ollamaService.generateEmbeddings(
+                dtos.stream().map(dto -> embeddingText(dto.getName(), dto.getDescription())).toList());
+
+        List<KnowledgeNode> nodes = new ArrayList<>(dtos.size());
+        for (int i = 0; i < dtos.size(); i++) {
+            KnowledgeNodeDTO dto = dtos.get(i);
+            OllamaService.EmbeddingResult embedding = embeddings.get(i);
+            if (!embedding.isSuccess()) {
+                log.warn("节点向量生成失败, 创建节点但不写入向量, name={}, error: {}", dto.getName(), embedding.error());
+            }
+            try {
+                nodes.add(transactionTemplate.execute(status -> saveNode(dto, embedding.vector())));
+            } catch (Exception e) {
+                log.warn("保存节点失败: {}, error: {}", dto.getName(), e.getMessage());
+            }
+        }
+        log.info("批量创建知识节点完成, 请求{}个, 成功{}个", dtos.size(), nodes.size());
+        return nodes;
+    }
+
+    /**
+     * 保存节点到MySQL、Neo4j，并写入已生成的向量（为null时不写入）
+     */
+    private KnowledgeNode saveNode(KnowledgeNodeDTO dto, float[] vector) {
         // 创建MySQL实体
         KnowledgeNode node = new KnowledgeNode();
         BeanUtils.copyProperties(dto, node);
@@ -63,8 +100,13 @@ public class KnowledgeNodeServiceImpl extends ServiceImpl<KnowledgeNodeMapper, K
             node.setSourceType("manual");
         }
 
-        // 保存到MySQL
-        this.save(node);
+        // 保存到MySQL（规范化名称+类型唯一）
+        node.setNameKey(EntityDictionary.normalize(node.getName()));
+        try {
+            this.save(node);
+        } catch (DuplicateKeyException e) {
+            throw new BusinessException(ResultCode.NODE_ALREADY_EXISTS, "同名同类型的知识节点已存在: " + node.getName());
+        }
 
         // 创建Neo4j节点
         Neo4jKnowledgeNode neo4jNode = new Neo4jKnowledgeNode(
@@ -83,14 +125,16 @@ public class KnowledgeNodeServiceImpl extends ServiceImpl<KnowledgeNodeMapper, K
         Neo4jKnowledgeNode savedNeo4jNode = neo4jNodeRepository.save(neo4jNode);
         node.setNeo4jId(String.valueOf(savedNeo4jNode.getId()));
 
-        // 生成向量并存储
-        String textForEmbedding = node.getName() + " " + node.getDescription();
-        float[] vector = ollamaService.generateEmbedding(textForEmbedding);
-        String vectorId = vectorService.insertVector(new VectorService.VectorInsertData(node.getId(), vector, "node"));
-        node.setVectorId(vectorId);
+        // 存储向量
+        if (vector != null) {
+            String vectorId = vectorService.upsertVector(new VectorService.VectorInsertData(node.getId(), vector, "node"));
+            node.setVectorId(vectorId);
+            ragQueryCache.onVectorAdded("node", vector);
+        }
 
         // 更新MySQL记录
         this.updateById(node);
+        entityDictionary.onNodeSaved(node);
 
         log.info("创建知识节点成功, nodeId={}, name={}", node.getId(), node.getName());
         return node;
@@ -111,6 +155,10 @@ public class KnowledgeNodeServiceImpl extends ServiceImpl<KnowledgeNodeMapper, K
             throw new BusinessException(ResultCode.NODE_NOT_FOUND);
         }
 
+        String oldEmbeddingText = embeddingText(node.getName(), node.getDescription());
+        String oldName = node.getName();
+        String oldNodeType = node.getNodeType();
+
         // 更新MySQL实体
         if (StrUtil.isNotBlank(dto.getName())) {
             node.setName(dto.getName());
@@ -125,7 +173,18 @@ public class KnowledgeNodeServiceImpl extends ServiceImpl<KnowledgeNodeMapper, K
             node.setProperties(dto.getProperties());
         }
 
-        this.updateById(node);
+        // 名称或类型变化时才重算唯一键，重复的旧节点（name_key为NULL）只改描述、属性时不占用唯一键
+        boolean keyChanged = !Objects.equals(EntityDictionary.normalize(oldName), EntityDictionary.normalize(node.getName()))
+                || !Objects.equals(oldNodeType, node.getNodeType());
+        if (keyChanged) {
+            node.setNameKey(EntityDictionary.normalize(node.getName()));
+        }
+        try {
+            this.updateById(node);
+        } catch (DuplicateKeyException e) {
+            throw new BusinessException(ResultCode.NODE_ALREADY_EXISTS, "同名同类型的知识节点已存在: " + node.getName());
+        }
+        entityDictionary.onNodeUpdated(node.getId(), oldName, oldNodeType, node.getName(), node.getNodeType());
 
         // 更新Neo4j节点
         Optional<Neo4jKnowledgeNode> neo4jNodeOpt = neo4jNodeRepository.findByMysqlId(node.getId());
@@ -143,15 +202,21 @@ public class KnowledgeNodeServiceImpl extends ServiceImpl<KnowledgeNodeMapper, K
             neo4jNodeRepository.save(neo4jNode);
         }
 
-        // 更新向量
-        if (StrUtil.isNotBlank(node.getVectorId())) {
-            vectorService.deleteVector(node.getVectorId());
+        // 更新向量（名称和描述未变且已有向量时保留原向量）
+        ragQueryCache.invalidateNodes(List.of(node.getId()));
+        String textForEmbedding = embeddingText(node.getName(), node.getDescription());
+        if (!textForEmbedding.equals(oldEmbeddingText) || StrUtil.isBlank(node.getVectorId())) {
+            float[] vector = embed(node.getName(), textForEmbedding);
+            if (vector != null) {
+                // 按节点ID覆盖原向量，业务主键下向量ID不变，无需回写
+                String vectorId = vectorService.upsertVector(new VectorService.VectorInsertData(node.getId(), vector, "node"));
+                if (!vectorId.equals(node.getVectorId())) {
+                    node.setVectorId(vectorId);
+                    this.updateById(node);
+                }
+                ragQueryCache.onVectorAdded("node", vector);
+            }
         }
-        String textForEmbedding = node.getName() + " " + node.getDescription();
-        float[] vector = ollamaService.generateEmbedding(textForEmbedding);
-        String vectorId = vectorService.insertVector(new VectorService.VectorInsertData(node.getId(), vector, "node"));
-        node.setVectorId(vectorId);
-        this.updateById(node);
 
         log.info("更新知识节点成功, nodeId={}, name={}", node.getId(), node.getName());
         return node;
@@ -169,9 +234,7 @@ public class KnowledgeNodeServiceImpl extends ServiceImpl<KnowledgeNodeMapper, K
         }
 
         // 删除向量
-        if (StrUtil.isNotBlank(node.getVectorId())) {
-            vectorService.deleteVector(node.getVectorId());
-        }
+        vectorService.deleteVectors("node", List.of(id));
 
         // 删除Neo4j节点（会同时删除相关关系）
         neo4jNodeRepository.deleteByMysqlId(id);
@@ -184,8 +247,11 @@ public class KnowledgeNodeServiceImpl extends ServiceImpl<KnowledgeNodeMapper, K
                 .eq(com.uka.knowledge.model.entity.KnowledgeRelation::getTargetNodeId, id);
         relationMapper.delete(relationWrapper);
 
-        // 逻辑删除MySQL节点
+        // 逻辑删除MySQL节点，释放唯一键
+        nodeMapper.releaseNameKey(id);
         boolean result = this.removeById(id);
+        entityDictionary.onNodeDeleted(node);
+        ragQueryCache.invalidateNodes(List.of(id));
 
         log.info("删除知识节点成功, nodeId={}", id);
         return result;
@@ -227,7 +293,14 @@ public class KnowledgeNodeServiceImpl extends ServiceImpl<KnowledgeNodeMapper, K
      */
     @Override
     public List<KnowledgeNodeVO> searchByName(String name) {
-        List<KnowledgeNode> nodes = nodeMapper.selectByNameLike(name);
+        List<KnowledgeNode> nodes;
+        if (entityDictionary.isReady()) {
+            // 在内存词典中匹配名称，避免 LIKE '%x%' 全表扫描
+            List<Long> ids = entityDictionary.findIdsByNameContaining(name);
+            nodes = ids.isEmpty() ? List.of() : nodeMapper.selectByIds(ids);
+        } else {
+            nodes = nodeMapper.selectByNameLike(name);
+        }
         return nodes.stream().map(this::convertToVO).toList();
     }
 
@@ -301,4 +374,22 @@ public class KnowledgeNodeServiceImpl extends ServiceImpl<KnowledgeNodeMapper, K
 
         return vo;
     }
+
+    /**
+     * 生成单个节点的向量，失败时返回null
+     */
+    private float[] embed(String name, String text) {
+        OllamaService.EmbeddingResult result = ollamaService.generateEmbeddings(List.of(text)).get(0);
+        if (!result.isSuccess()) {
+            log.warn("节点向量生成失败, 不更新向量, name={}, error: {}", name, result.error());
+        }
+        return result.vector();
+    }
+
+    /**
+     * 节点用于生成向量的文本
+     */
+    static String embeddingText(String name, String description) {
+        return name + " " + description;
+    }
 }
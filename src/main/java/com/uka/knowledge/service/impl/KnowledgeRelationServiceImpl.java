@@ -43,6 +43,7 @@ public class KnowledgeRelationServiceImpl extends ServiceImpl<KnowledgeRelationM
     private final KnowledgeRelationMapper relationMapper;
     private final KnowledgeNodeMapper nodeMapper;
     private final Neo4jNodeRepository neo4jNodeRepository;
+    private final RagQueryCache ragQueryCache;
 
     /**
      * 创建知识关系
@@ -90,6 +91,7 @@ public class KnowledgeRelationServiceImpl extends ServiceImpl<KnowledgeRelationM
                 dto.getName(),
                 relation.getWeight()
         );
+        ragQueryCache.invalidateNodes(List.of(relation.getSourceNodeId()));
 
         log.info("创建知识关系成功, relationId={}, {} -[{}]-> {}",
                 relation.getId(), sourceNode.getName(), dto.getName(), targetNode.getName());
@@ -146,6 +148,7 @@ public class KnowledgeRelationServiceImpl extends ServiceImpl<KnowledgeRelationM
                 relation.getName(),
                 relation.getWeight()
         );
+        ragQueryCache.invalidateNodes(List.of(oldSourceId, relation.getSourceNodeId()));
 
         log.info("更新知识关系成功, relationId={}", relation.getId());
         return relation;
@@ -167,6 +170,7 @@ public class KnowledgeRelationServiceImpl extends ServiceImpl<KnowledgeRelationM
 
         // 逻辑删除MySQL记录
         boolean result = this.removeById(id);
+        ragQueryCache.invalidateNodes(List.of(relation.getSourceNodeId()));
 
         log.info("删除知识关系成功, relationId={}", id);
         return result;
@@ -0,0 +1,455 @@
+package com.uka.knowledge.service.impl;
+
+import com.uka.knowledge.common.ResultCode;
+import com.uka.knowledge.config.MilvusConfig;
+import com.uka.knowledge.config.VectorStoreConfig;
+import com.uka.knowledge.exception.BusinessException;
+import com.uka.knowledge.service.VectorService;
+import io.milvus.v2.common.IndexParam;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内向量服务实现
+ * <p>
+ * vector.store=local 时作为向量服务使用，不依赖Milvus；vector.store=replica 时作为Milvus的本地副本，
+ * 由 {@link ReplicaVectorServiceImpl} 写入Milvus返回的向量ID。local模式下向量ID由 {@link VectorService#businessKey} 计算，
+ * 与Milvus业务主键一致。每个业务对象只保留一条向量，写入时替换旧向量。
+ * 每种向量类型一个 {@link HnswIndex}（vector.local-path/&lt;type&gt;），维度和距离度量沿用 milvus.dimension / milvus.metric-type，
+ * 检索结果的分数与Milvus一致。
+ * </p>
+ * <p>
+ * 删除只打墓碑标记，已删除向量占比达到 vector.compaction-deleted-ratio 时在后台压缩：
+ * 不加锁地将存活向量复制到新索引，再短暂阻塞写入，补齐复制期间的写入（覆盖写入替换已复制的旧向量）和删除后
+ * 以原子移动覆盖原索引文件。原索引文件在被覆盖前不会删除，压缩中断时启动只清理未完成的压缩文件。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+@Service
+@ConditionalOnExpression("!'${vector.store:milvus}'.equalsIgnoreCase('milvus')")
+@RequiredArgsConstructor
+public class LocalVectorServiceImpl implements VectorService {
+
+    private static final String INDEX_NAME = "index";
+    private static final String COMPACT_NAME = "compact";
+
+    private final VectorStoreConfig vectorStoreConfig;
+    private final MilvusConfig milvusConfig;
+    @Qualifier("vectorCompactionScheduler")
+    private final ThreadPoolTaskScheduler vectorCompactionScheduler;
+
+    /**
+     * 类型 → 索引
+     */
+    private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+
+    /**
+     * 服务启动时打开索引并定时检查压缩
+     */
+    @PostConstruct
+    public void init() {
+        initCollection();
+        long interval = vectorStoreConfig.getCompactionIntervalMs();
+        vectorCompactionScheduler.scheduleWithFixedDelay(this::compact, Duration.ofMillis(interval));
+        log.info("本地向量索引初始化成功, 存储={}, 目录={}, 类型={}", vectorStoreConfig.getStore(),
+                vectorStoreConfig.getLocalPath(), shards.keySet());
+    }
+
+    /**
+     * 打开各类型的索引
+     */
+    @Override
+    public void initCollection() {
+        for (String type : milvusConfig.getTypes()) {
+            shard(type);
+        }
+    }
+
+    /**
+     * 插入向量数据
+     */
+    @Override
+    public String insertVector(VectorInsertData vectorInsertData) {
+        List<String> vectorIds = insertVectors(Arrays.asList(vectorInsertData));
+        return vectorIds.isEmpty() ? null : vectorIds.get(0);
+    }
+
+    /**
+     * 批量插入向量数据
+     */
+    @Override
+    public List<String> insertVectors(List<VectorInsertData> vectorInsertDataList) {
+        return upsertVectors(vectorInsertDataList);
+    }
+
+    /**
+     * 写入或覆盖向量
+     */
+    @Override
+    public String upsertVector(VectorInsertData vectorInsertData) {
+        List<String> vectorIds = upsertVectors(Arrays.asList(vectorInsertData));
+        return vectorIds.isEmpty() ? null : vectorIds.get(0);
+    }
+
+    /**
+     * 批量写入或覆盖向量，向量ID由类型和业务ID计算
+     */
+    @Override
+    public List<String> upsertVectors(List<VectorInsertData> vectorInsertDataList) {
+        List<String> vectorIds = new ArrayList<>(vectorInsertDataList.size());
+        for (VectorInsertData data : vectorInsertDataList) {
+            vectorIds.add(String.valueOf(VectorService.businessKey(data.type(), data.businessId())));
+        }
+        upsertVectors(vectorIds, vectorInsertDataList);
+        return vectorIds;
+    }
+
+    /**
+     * 写入本地生成的索引，直接同步完成
+     */
+    @Override
+    public CompletableFuture<List<String>> bulkInsertVectors(List<VectorInsertData> vectorInsertDataList) {
+        try {
+            return CompletableFuture.completedFuture(insertVectors(vectorInsertDataList));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * 删除向量（不知道类型时在所有类型的索引中删除）
+     */
+    @Override
+    public boolean deleteVector(String vectorId) {
+        boolean deleted = false;
+        for (Shard shard : shards.values()) {
+            deleted |= delete(shard, vectorId);
+        }
+        return deleted;
+    }
+
+    /**
+     * 按业务ID删除向量
+     */
+    @Override
+    public boolean deleteVectors(String type, List<Long> businessIds) {
+        checkType(type);
+        Shard shard = shard(type);
+        boolean deleted = false;
+        shard.lock.readLock().lock();
+        try {
+            for (Long businessId : businessIds) {
+                synchronized (shard.stripe(businessId)) {
+                    Long vectorId = shard.vectorIds.remove(businessId);
+                    deleted |= vectorId != null && shard.index.delete(vectorId);
+                }
+            }
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+        return deleted;
+    }
+
+    /**
+     * 删除指定类型的向量
+     */
+    @Override
+    public boolean deleteVector(String vectorId, String type) {
+        checkType(type);
+        return delete(shard(type), vectorId);
+    }
+
+    /**
+     * 向量相似性搜索
+     */
+    @Override
+    public List<VectorSearchResult> search(float[] queryVector, int topK, String type) {
+        if (type != null) {
+            checkType(type);
+            return search(shard(type), queryVector, topK);
+        }
+        // 未指定类型时搜索所有类型后合并
+        Comparator<VectorSearchResult> better = milvusConfig.getMetricTypeEnum() == IndexParam.MetricType.L2
+                ? Comparator.comparingDouble(VectorSearchResult::score)
+                : Comparator.comparingDouble(VectorSearchResult::score).reversed();
+        return shards.values().stream()
+                .flatMap(shard -> search(shard, queryVector, topK).stream())
+                .sorted(better)
+                .limit(topK)
+                .toList();
+    }
+
+    /**
+     * 以给定的向量ID写入或覆盖（副本模式下使用Milvus返回的ID），同一业务对象的旧向量被替换
+     *
+     * @param vectorIds            向量ID，与数据一一对应
+     * @param vectorInsertDataList 向量数据
+     */
+    void upsertVectors(List<String> vectorIds, List<VectorInsertData> vectorInsertDataList) {
+        write(vectorIds, vectorInsertDataList, true);
+    }
+
+    /**
+     * 以给定的向量ID加载（副本同步时使用），业务对象已有向量时跳过，不覆盖同步期间写入的新向量
+     *
+     * @param vectorIds            向量ID，与数据一一对应
+     * @param vectorInsertDataList 向量数据
+     */
+    void loadVectors(List<String> vectorIds, List<VectorInsertData> vectorInsertDataList) {
+        write(vectorIds, vectorInsertDataList, false);
+    }
+
+    private void write(List<String> vectorIds, List<VectorInsertData> vectorInsertDataList, boolean replace) {
+        for (int i = 0; i < vectorInsertDataList.size(); i++) {
+            VectorInsertData data = vectorInsertDataList.get(i);
+            checkType(data.type());
+            long vectorId = Long.parseLong(vectorIds.get(i));
+            Shard shard = shard(data.type());
+            shard.lock.readLock().lock();
+            try {
+                // 同一业务对象的写入串行执行：覆盖写入沿用相同的向量ID，并发的删除旧向量与写入新向量交错时新向量会被丢弃
+                synchronized (shard.stripe(data.businessId())) {
+                    if (replace) {
+                        Long previous = shard.vectorIds.put(data.businessId(), vectorId);
+                        if (previous != null) {
+                            shard.index.delete(previous);
+                        }
+                    } else if (shard.vectorIds.putIfAbsent(data.businessId(), vectorId) != null) {
+                        continue;
+                    }
+                    if (!shard.index.add(vectorId, data.businessId(), data.vector())) {
+                        shard.vectorIds.remove(data.businessId(), vectorId);
+                        throw new BusinessException(ResultCode.MILVUS_ERROR,
+                                "向量ID已被其他业务对象占用: " + vectorId + ", 类型=" + data.type());
+                    }
+                }
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 清空所有索引（副本重新同步前调用）
+     */
+    void clear() {
+        for (Shard shard : shards.values()) {
+            shard.lock.writeLock().lock();
+            try {
+                shard.index.destroy();
+                shard.index = openIndex(shard.type, INDEX_NAME);
+                shard.vectorIds.clear();
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        }
+        log.info("本地向量索引已清空");
+    }
+
+    /**
+     * 获取各类型索引的统计
+     *
+     * @return 类型 → 记录数、已删除数、存活数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("store", vectorStoreConfig.getStore());
+        shards.forEach((type, shard) -> {
+            HnswIndex index = shard.index;
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("records", index.count());
+            item.put("deleted", index.deletedCount());
+            item.put("live", index.ids().size());
+            stats.put(type, item);
+        });
+        return stats;
+    }
+
+    /**
+     * 压缩已删除向量占比达到阈值的索引
+     */
+    void compact() {
+        for (Shard shard : shards.values()) {
+            HnswIndex index = shard.index;
+            if (index.count() == 0
+                    || (double) index.deletedCount() / index.count() < vectorStoreConfig.getCompactionDeletedRatio()) {
+                continue;
+            }
+            try {
+                compact(shard);
+            } catch (Exception e) {
+                log.error("本地向量索引压缩失败, 类型={}", shard.type, e);
+            }
+        }
+    }
+
+    /**
+     * 压缩：复制存活向量到新索引 → 阻塞写入后补齐增量并替换
+     */
+    private void compact(Shard shard) throws IOException {
+        long startTime = System.currentTimeMillis();
+        HnswIndex old = shard.index;
+        int snapshot = old.count();
+        int deleted = old.deletedCount();
+        deleteIndexFiles(shard.type, COMPACT_NAME);
+        HnswIndex fresh = openIndex(shard.type, COMPACT_NAME);
+        old.forEachLive(0, snapshot, fresh::add);
+
+        shard.lock.writeLock().lock();
+        try {
+            // 复制期间新写入的向量；覆盖写入沿用原向量ID，已复制的旧向量先删除再写入新向量
+            old.forEachLive(snapshot, old.count(), (id, businessId, vector) -> {
+                fresh.delete(id);
+                fresh.add(id, businessId, vector);
+            });
+            // 复制期间删除的向量
+            for (Long id : new ArrayList<>(fresh.ids())) {
+                if (!old.contains(id)) {
+                    fresh.delete(id);
+                }
+            }
+            // 先关闭原索引再以原子移动覆盖其文件，替换过程中任何时刻中断都保留完整的原索引或新索引
+            fresh.saveGraph();
+            old.release();
+            fresh.rename(INDEX_NAME);
+            shard.index = fresh;
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+        log.info("本地向量索引压缩完成, 类型={}, 清除={}, 剩余={}, 耗时={}ms", shard.type, deleted,
+                fresh.ids().size(), System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 服务关闭时保存图快照
+     */
+    @PreDestroy
+    public void close() {
+        for (Shard shard : shards.values()) {
+            shard.lock.writeLock().lock();
+            try {
+                shard.index.close();
+            } catch (IOException e) {
+                log.warn("本地向量索引关闭失败, 类型={}: {}", shard.type, e.getMessage());
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private boolean delete(Shard shard, String vectorId) {
+        long id;
+        try {
+            id = Long.parseLong(vectorId);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        shard.lock.readLock().lock();
+        try {
+            Long businessId = shard.index.businessId(id);
+            if (businessId == null) {
+                return false;
+            }
+            synchronized (shard.stripe(businessId)) {
+                shard.vectorIds.remove(businessId, id);
+                return shard.index.delete(id);
+            }
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+
+    private List<VectorSearchResult> search(Shard shard, float[] queryVector, int topK) {
+        return shard.index.search(queryVector, topK, vectorStoreConfig.getHnswEfSearch()).stream()
+                .map(hit -> new VectorSearchResult(hit.businessId(), shard.type, hit.score()))
+                .toList();
+    }
+
+    private Shard shard(String type) {
+        return shards.computeIfAbsent(type, t -> {
+            Shard shard = new Shard(t);
+            // 上次压缩中断时遗留的文件（向量文件覆盖原索引之前中断，原索引仍完整）
+            deleteIndexFiles(t, COMPACT_NAME);
+            shard.index = openIndex(t, INDEX_NAME);
+            shard.index.forEachLiveKey((vectorId, businessId) -> shard.vectorIds.put(businessId, vectorId));
+            return shard;
+        });
+    }
+
+    private HnswIndex openIndex(String type, String name) {
+        try {
+            return HnswIndex.open(directory(type), name, milvusConfig.getDimension(),
+                    HnswIndex.Metric.valueOf(milvusConfig.getMetricType()),
+                    vectorStoreConfig.getHnswM(), vectorStoreConfig.getHnswEfConstruction());
+        } catch (IOException e) {
+            throw new UncheckedIOException("打开本地向量索引失败, 类型=" + type, e);
+        }
+    }
+
+    private void deleteIndexFiles(String type, String name) {
+        try {
+            Files.deleteIfExists(directory(type).resolve(name + ".vec"));
+            Files.deleteIfExists(directory(type).resolve(name + ".graph"));
+        } catch (IOException e) {
+            throw new UncheckedIOException("删除本地向量索引文件失败, 类型=" + type, e);
+        }
+    }
+
+    private Path directory(String type) {
+        return Paths.get(vectorStoreConfig.getLocalPath(), type);
+    }
+
+    private void checkType(String type) {
+        if (!milvusConfig.getTypes().contains(type)) {
+            throw new BusinessException(ResultCode.MILVUS_ERROR, "未配置的向量类型: " + type);
+        }
+    }
+
+    /**
+     * 一种类型的索引，压缩替换时持有写锁，写入和删除持有读锁，检索不加锁
+     * 同一业务对象的写入和删除另外按业务ID分段加锁
+     */
+    private static final class Shard {
+        private static final int STRIPES = 64;
+
+        final String type;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final Object[] stripes = new Object[STRIPES];
+        /**
+         * 业务ID → 向量ID
+         */
+        final Map<Long, Long> vectorIds = new ConcurrentHashMap<>();
+        volatile HnswIndex index;
+
+        Shard(String type) {
+            this.type = type;
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new Object();
+            }
+        }
+
+        Object stripe(long businessId) {
+            return stripes[Long.hashCode(businessId) & (STRIPES - 1)];
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.uka.knowledge.service.impl;
+
+import com.uka.knowledge.mapper.KnowledgeNodeMapper;
+import com.uka.knowledge.model.entity.KnowledgeNode;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 节点规范化名称回填
+ * <p>
+ * 升级脚本只新增 kg_knowledge_node.name_key 列，已有节点的规范化名称在应用启动时用
+ * {@link EntityDictionary#normalize}（NFKC、小写、合并空白）计算后回填，与应用写入的键完全一致，
+ * 全角字符或含连续空白的旧节点同样能被实体消歧和插入或取已有命中。
+ * </p>
+ * <p>
+ * 按ID升序分批回填，与已有节点唯一键冲突的重复节点保持NULL，因此同一实体的重复节点只有ID最小的一个占用唯一键。
+ * 回填在容器初始化阶段同步完成，早于接收请求和恢复文档处理，不与节点写入并发。
+ * 回填完成后只剩重复节点和空名称节点的 name_key 为NULL，之后启动时的扫描量很小。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class NameKeyMigration {
+
+    /**
+     * 每批回填的节点数
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    private final KnowledgeNodeMapper nodeMapper;
+
+    /**
+     * 回填未写入规范化名称的节点
+     */
+    @PostConstruct
+    public void migrate() {
+        long startTime = System.currentTimeMillis();
+        long afterId = 0;
+        int scanned = 0;
+        int filled = 0;
+        try {
+            while (true) {
+                List<KnowledgeNode> page = nodeMapper.selectWithoutNameKeyAfter(afterId, BATCH_SIZE);
+                if (page.isEmpty()) {
+                    break;
+                }
+                List<KnowledgeNode> keyed = new ArrayList<>(page.size());
+                for (KnowledgeNode node : page) {
+                    String nameKey = EntityDictionary.normalize(node.getName());
+                    if (nameKey != null) {
+                        node.setNameKey(nameKey);
+                        keyed.add(node);
+                    }
+                }
+                if (!keyed.isEmpty()) {
+                    filled += nodeMapper.fillNameKeys(keyed);
+                }
+                scanned += page.size();
+                afterId = page.get(page.size() - 1).getId();
+            }
+            if (filled > 0) {
+                log.info("节点规范化名称回填完成, 扫描{}个, 回填{}个, 重复或空名称{}个, 耗时={}ms",
+                        scanned, filled, scanned - filled, System.currentTimeMillis() - startTime);
+            }
+        } catch (Exception e) {
+            log.error("节点规范化名称回填失败, 未回填的节点可能被重复创建, 重启后继续回填", e);
+        }
+    }
+}
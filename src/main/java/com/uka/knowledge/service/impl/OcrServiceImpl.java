@@ -135,16 +135,27 @@ public class OcrServiceImpl extends ServiceImpl<OcrRecordMapper, OcrRecord> impl
 
             // 生成向量并存储
             if (StrUtil.isNotBlank(ocrText)) {
-                float[] vector = ollamaService.generateEmbedding(ocrText);
-                String vectorId = vectorService.insertVector(new VectorService.VectorInsertData(record.getId(), vector, "ocr"));
-                record.setVectorId(vectorId);
+                OllamaService.EmbeddingResult embedding = ollamaService.generateEmbeddings(List.of(ocrText)).get(0);
+                if (embedding.isSuccess()) {
+                    String vectorId = vectorService.upsertVector(
+                            new VectorService.VectorInsertData(record.getId(), embedding.vector(), "ocr"));
+                    record.setVectorId(vectorId);
+                } else {
+                    log.warn("OCR文本向量生成失败, 不写入向量, recordId={}, error: {}", recordId, embedding.error());
+                }
 
                 // 自动抽取知识并构建图谱
                 try {
                     KnowledgeExtractService.ExtractResult extractResult =
                             knowledgeExtractService.extractFromOcr(record.getId(), ocrText);
-                    log.info("OCR知识抽取完成, recordId={}, 节点数={}, 关系数={}",
-                            recordId, extractResult.nodeCount(), extractResult.relationCount());
+                    if (extractResult.failed()) {
+                        log.warn("OCR知识抽取未全部完成, recordId={}, 节点数={}, 关系数={}, error={}",
+                                recordId, extractResult.nodeCount(), extractResult.relationCount(),
+                                extractResult.message());
+                    } else {
+                        log.info("OCR知识抽取完成, recordId={}, 节点数={}, 关系数={}",
+                                recordId, extractResult.nodeCount(), extractResult.relationCount());
+                    }
                 } catch (Exception e) {
                     log.warn("OCR知识抽取失败, recordId={}, error={}", recordId, e.getMessage());
                     // 知识抽取失败不影响OCR识别的整体结果
@@ -217,9 +228,7 @@ public class OcrServiceImpl extends ServiceImpl<OcrRecordMapper, OcrRecord> impl
         }
 
         // 删除向量
-        if (StrUtil.isNotBlank(record.getVectorId())) {
-            vectorService.deleteVector(record.getVectorId());
-        }
+        vectorService.deleteVectors("ocr", List.of(id));
 
         // 删除图片文件
         FileUtil.del(record.getImagePath());
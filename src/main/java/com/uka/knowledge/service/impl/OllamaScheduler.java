@@ -0,0 +1,332 @@
+package com.uka.knowledge.service.impl;
+
+import com.uka.knowledge.common.ResultCode;
+import com.uka.knowledge.config.OllamaSchedulerConfig;
+import com.uka.knowledge.exception.BusinessException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Ollama调用调度器
+ * <p>
+ * 所有Ollama调用在此排队获取执行槽位：总并发不超过 ollama.scheduler.max-concurrency，
+ * 各通道另有自己的并发上限。槽位空出时先分配给交互通道的等待者，交互通道无人等待时才分配给批量通道，
+ * 因此大文档入库期间在线对话和查询向量总是优先执行。
+ * </p>
+ * <p>
+ * 同一通道内按来源（如文档ID、OCR记录ID）轮转分配，多个文档同时入库时交替执行，
+ * 不会因一个大文档排满队列而让其他文档长时间等待。
+ * </p>
+ * <p>
+ * 调用所属通道由当前线程决定：默认为交互通道，批量任务在 {@link #runAsBulk} 中执行，
+ * 其间当前线程发起的Ollama调用进入批量通道。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor
+public class OllamaScheduler {
+
+    /**
+     * 调度通道，声明顺序即优先级
+     */
+    public enum Lane {
+        /**
+         * 交互通道：在线对话、查询向量
+         */
+        INTERACTIVE,
+        /**
+         * 批量通道：文档入库、知识抽取、OCR
+         */
+        BULK
+    }
+
+    private static final String DEFAULT_SOURCE = "default";
+
+    /**
+     * 当前线程所属的通道和来源
+     */
+    private static final ThreadLocal<Source> CURRENT = new ThreadLocal<>();
+
+    private final OllamaSchedulerConfig schedulerConfig;
+
+    private final Object lock = new Object();
+    private final EnumMap<Lane, LaneState> lanes = createLanes();
+    private int totalActive;
+
+    /**
+     * 以批量通道执行任务，任务中发起的Ollama调用进入批量通道
+     *
+     * @param source 来源标识（同一通道内按来源轮转）
+     * @param task   任务
+     * @return 任务结果
+     */
+    public <T> T runAsBulk(String source, Supplier<T> task) {
+        Source previous = CURRENT.get();
+        if (previous != null && previous.lane() == Lane.BULK) {
+            // 已处于批量任务中，沿用外层来源
+            return task.get();
+        }
+        CURRENT.set(new Source(Lane.BULK, source));
+        try {
+            return task.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 以批量通道执行任务
+     *
+     * @param source 来源标识
+     * @param task   任务
+     */
+    public void runAsBulk(String source, Runnable task) {
+        runAsBulk(source, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * 按当前线程所属通道排队后执行同步调用
+     *
+     * @param call Ollama调用
+     * @return 调用结果
+     */
+    public <T> T execute(Supplier<T> call) {
+        Source source = currentSource();
+        CompletableFuture<Permit> future = acquire(source);
+        Permit permit;
+        try {
+            permit = future.get();
+        } catch (InterruptedException e) {
+            if (!future.cancel(false)) {
+                // 中断前已获得槽位，释放后再抛出
+                future.join().close();
+            }
+            Thread.currentThread().interrupt();
+            throw new BusinessException(ResultCode.OLLAMA_ERROR, "等待大模型调用被中断");
+        } catch (ExecutionException | CancellationException e) {
+            throw new BusinessException(ResultCode.OLLAMA_ERROR, "等待大模型调用失败: " + e.getMessage());
+        }
+        try {
+            return call.get();
+        } finally {
+            permit.close();
+        }
+    }
+
+    /**
+     * 按当前线程所属通道排队后执行流式调用，流结束、出错或被取消时释放槽位
+     *
+     * @param call 流式Ollama调用（获得槽位后才订阅）
+     * @return 流式结果
+     */
+    public <T> Flux<T> executeFlux(Supplier<Flux<T>> call) {
+        Source source = currentSource();
+        return Flux.usingWhen(
+                // 取消与获得槽位同时发生时，已获得但未交给下游的槽位被丢弃，丢弃时释放
+                Mono.defer(() -> Mono.fromFuture(acquire(source))).doOnDiscard(Permit.class, Permit::close),
+                permit -> call.get(),
+                permit -> Mono.fromRunnable(permit::close));
+    }
+
+    /**
+     * 获取调度统计
+     *
+     * @return 各通道的排队数、执行数和等待耗时
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("maxConcurrency", schedulerConfig.getMaxConcurrency());
+            stats.put("active", totalActive);
+            for (Lane lane : Lane.values()) {
+                LaneState state = lanes.get(lane);
+                Map<String, Object> laneStats = new LinkedHashMap<>();
+                laneStats.put("maxConcurrency", laneLimit(lane));
+                laneStats.put("active", state.active);
+                laneStats.put("queued", state.queued);
+                laneStats.put("sources", state.queues.size());
+                long dispatched = state.dispatched.get();
+                laneStats.put("dispatched", dispatched);
+                laneStats.put("avgWaitMs", dispatched == 0 ? 0.0 : state.totalWaitNanos.get() / 1e6 / dispatched);
+                laneStats.put("maxWaitMs", state.maxWaitNanos.get() / 1e6);
+                stats.put(lane.name().toLowerCase(Locale.ROOT), laneStats);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 排队获取执行槽位
+     */
+    private CompletableFuture<Permit> acquire(Source source) {
+        Waiter waiter = new Waiter(source, System.nanoTime(), new CompletableFuture<>());
+        List<Waiter> granted;
+        synchronized (lock) {
+            LaneState state = lanes.get(source.lane());
+            state.queues.computeIfAbsent(source.key(), k -> new ArrayDeque<>()).add(waiter);
+            state.queued++;
+            granted = dispatch();
+        }
+        grant(granted);
+        return waiter.future();
+    }
+
+    /**
+     * 释放执行槽位并分配给下一个等待者
+     */
+    private void release(Lane lane) {
+        List<Waiter> granted;
+        synchronized (lock) {
+            lanes.get(lane).active--;
+            totalActive--;
+            granted = dispatch();
+        }
+        grant(granted);
+    }
+
+    /**
+     * 在持有锁时按优先级分配空闲槽位，返回获得槽位的等待者（在锁外通知）
+     */
+    private List<Waiter> dispatch() {
+        List<Waiter> granted = new ArrayList<>();
+        while (totalActive < schedulerConfig.getMaxConcurrency()) {
+            Waiter next = null;
+            for (Lane lane : Lane.values()) {
+                LaneState state = lanes.get(lane);
+                if (state.active < laneLimit(lane) && (next = state.poll()) != null) {
+                    state.active++;
+                    break;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            totalActive++;
+            granted.add(next);
+        }
+        return granted;
+    }
+
+    private void grant(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            Lane lane = waiter.source().lane();
+            LaneState state = lanes.get(lane);
+            long waitNanos = System.nanoTime() - waiter.enqueuedAt();
+            state.dispatched.incrementAndGet();
+            state.totalWaitNanos.addAndGet(waitNanos);
+            state.maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+            if (!waiter.future().complete(new Permit(lane))) {
+                // 等待期间已取消
+                release(lane);
+            }
+        }
+    }
+
+    private int laneLimit(Lane lane) {
+        return lane == Lane.INTERACTIVE
+                ? schedulerConfig.getInteractiveMaxConcurrency()
+                : schedulerConfig.getBulkMaxConcurrency();
+    }
+
+    private static EnumMap<Lane, LaneState> createLanes() {
+        EnumMap<Lane, LaneState> lanes = new EnumMap<>(Lane.class);
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneState());
+        }
+        return lanes;
+    }
+
+    private static Source currentSource() {
+        Source source = CURRENT.get();
+        return source != null ? source : new Source(Lane.INTERACTIVE, DEFAULT_SOURCE);
+    }
+
+    /**
+     * 调用来源
+     */
+    private record Source(Lane lane, String key) {
+    }
+
+    /**
+     * 排队中的调用
+     */
+    private record Waiter(Source source, long enqueuedAt, CompletableFuture<Permit> future) {
+    }
+
+    /**
+     * 单个通道的状态
+     */
+    private static class LaneState {
+        /**
+         * 来源 → 等待队列，按插入顺序轮转
+         */
+        final LinkedHashMap<String, ArrayDeque<Waiter>> queues = new LinkedHashMap<>();
+        final AtomicLong dispatched = new AtomicLong();
+        final AtomicLong totalWaitNanos = new AtomicLong();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        int queued;
+        int active;
+
+        /**
+         * 取出下一个等待者：取队首来源的第一个等待者，并将该来源移到末尾；跳过已取消的等待者
+         */
+        Waiter poll() {
+            while (!queues.isEmpty()) {
+                Iterator<Map.Entry<String, ArrayDeque<Waiter>>> iterator = queues.entrySet().iterator();
+                Map.Entry<String, ArrayDeque<Waiter>> first = iterator.next();
+                ArrayDeque<Waiter> queue = first.getValue();
+                Waiter waiter = queue.poll();
+                iterator.remove();
+                if (!queue.isEmpty()) {
+                    queues.put(first.getKey(), queue);
+                }
+                if (waiter != null) {
+                    queued--;
+                    if (!waiter.future().isDone()) {
+                        return waiter;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 执行槽位，关闭时释放（重复关闭无效）
+     */
+    private class Permit implements AutoCloseable {
+        private final Lane lane;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Permit(Lane lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(lane);
+            }
+        }
+    }
+}
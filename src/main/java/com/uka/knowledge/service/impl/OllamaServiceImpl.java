@@ -6,25 +6,28 @@ import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
 import com.uka.knowledge.exception.BusinessException;
 import com.uka.knowledge.common.ResultCode;
+import com.uka.knowledge.config.EmbeddingConfig;
 import com.uka.knowledge.model.dto.KnowledgeExtractDTO;
 import com.uka.knowledge.model.entity.KnowledgeNode;
 import com.uka.knowledge.model.entity.KnowledgeRelation;
 import com.uka.knowledge.service.OllamaService;
-import lombok.RequiredArgsConstructor;
+import com.uka.knowledge.util.AdaptiveBatchSizer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.ollama.OllamaChatModel;
 import org.springframework.ai.ollama.OllamaEmbeddingModel;
+import org.springframework.ai.ollama.api.OllamaChatOptions;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Ollama大模型服务实现类
  * <p>
- * 实现与Ollama大模型的交互，包括：
+ * 实现与Ollama大模型的交互（所有调用经 {@link OllamaScheduler} 按优先级排队），包括：
  * - 文本对话
  * - 知识实体抽取
  * - 知识关系抽取
@@ -37,11 +40,28 @@ import java.util.List;
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class OllamaServiceImpl implements OllamaService {
 
     private final OllamaChatModel chatModel;
     private final OllamaEmbeddingModel embeddingModel;
+    private final EmbeddingCache embeddingCache;
+    private final OllamaScheduler ollamaScheduler;
+    private final AdaptiveBatchSizer embeddingBatchSizer;
+
+    public OllamaServiceImpl(OllamaChatModel chatModel, OllamaEmbeddingModel embeddingModel,
+                             EmbeddingCache embeddingCache, OllamaScheduler ollamaScheduler,
+                             EmbeddingConfig embeddingConfig) {
+        this.chatModel = chatModel;
+        this.embeddingModel = embeddingModel;
+        this.embeddingCache = embeddingCache;
+        this.ollamaScheduler = ollamaScheduler;
+        this.embeddingBatchSizer = new AdaptiveBatchSizer(
+                embeddingConfig.getBatchMinItems(),
+                embeddingConfig.getBatchMaxItems(),
+                embeddingConfig.getBatchInitialItems(),
+                embeddingConfig.getBatchMaxChars(),
+                embeddingConfig.getBatchTargetLatencyMs());
+    }
 
     /**
      * 文本对话
@@ -50,12 +70,10 @@ public class OllamaServiceImpl implements OllamaService {
     public String chat(String prompt) {
         try {
             ChatClient chatClient = ChatClient.create(chatModel);
-            String response = chatClient.prompt()
-
+            return ollamaScheduler.execute(() -> chatClient.prompt()
                     .user(prompt)
                     .call()
-                    .content();
-            return response;
+                    .content());
         } catch (Exception e) {
             log.error("Ollama对话失败", e);
             throw new BusinessException(ResultCode.OLLAMA_ERROR, "对话失败: " + e.getMessage());
@@ -69,16 +87,34 @@ public class OllamaServiceImpl implements OllamaService {
     public Flux<String> chatStream(String prompt) {
         try {
             ChatClient chatClient = ChatClient.create(chatModel);
-            return chatClient.prompt()
+            return ollamaScheduler.executeFlux(() -> chatClient.prompt()
                     .user(prompt)
                     .stream()
-                    .content();
+                    .content());
         } catch (Exception e) {
             log.error("Ollama流式对话失败", e);
             return Flux.error(new BusinessException(ResultCode.OLLAMA_ERROR, "对话失败: " + e.getMessage()));
         }
     }
 
+    /**
+     * 结构化输出的流式对话
+     */
+    @Override
+    public Flux<String> chatStream(String prompt, Object format) {
+        try {
+            ChatClient chatClient = ChatClient.create(chatModel);
+            return ollamaScheduler.executeFlux(() -> chatClient.prompt()
+                    .user(prompt)
+                    .options(OllamaChatOptions.builder().format(format).build())
+                    .stream()
+                    .content());
+        } catch (Exception e) {
+            log.error("Ollama结构化流式对话失败", e);
+            return Flux.error(new BusinessException(ResultCode.OLLAMA_ERROR, "对话失败: " + e.getMessage()));
+        }
+    }
+
     /**
      * 从文本中抽取知识实体
      */
@@ -187,7 +223,7 @@ public class OllamaServiceImpl implements OllamaService {
         }
 
         try {
-            return embeddingModel.embed(text);
+            return ollamaScheduler.execute(() -> embeddingModel.embed(text));
         } catch (Exception e) {
             log.error("向量生成失败", e);
             // 返回零向量，避免程序中断
@@ -195,6 +231,83 @@ public class OllamaServiceImpl implements OllamaService {
         }
     }
 
+    /**
+     * 批量生成文本的向量表示
+     */
+    @Override
+    public List<EmbeddingResult> generateEmbeddings(List<String> texts) {
+        EmbeddingResult[] results = new EmbeddingResult[texts.size()];
+        List<Integer> indexes = new ArrayList<>(texts.size());
+        List<String> pending = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            float[] cached;
+            if (StrUtil.isBlank(texts.get(i))) {
+                results[i] = EmbeddingResult.failure("文本为空");
+            } else if ((cached = embeddingCache.get(texts.get(i))) != null) {
+                // 内容未变的文本直接复用已缓存的向量
+                results[i] = EmbeddingResult.success(cached);
+            } else {
+                indexes.add(i);
+                pending.add(texts.get(i));
+            }
+        }
+
+        int from = 0;
+        while (from < pending.size()) {
+            int to = embeddingBatchSizer.nextBatchEnd(pending, from);
+            embedBatch(pending, indexes, from, to, results, true);
+            from = to;
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 请求一批向量，整批失败时二分重试以定位失败的条目
+     *
+     * @param adapt 是否按本批结果调整批次大小（二分重试的子批次不参与调整）
+     */
+    private void embedBatch(List<String> texts, List<Integer> indexes, int from, int to,
+                            EmbeddingResult[] results, boolean adapt) {
+        try {
+            // 只统计模型调用耗时，不含排队等待
+            long[] elapsed = new long[1];
+            List<float[]> vectors = ollamaScheduler.execute(() -> {
+                long startTime = System.currentTimeMillis();
+                List<float[]> embedded = embeddingModel.embed(texts.subList(from, to));
+                elapsed[0] = System.currentTimeMillis() - startTime;
+                return embedded;
+            });
+            if (vectors.size() != to - from) {
+                throw new IllegalStateException("返回向量数与文本数不一致: " + vectors.size() + "/" + (to - from));
+            }
+            if (adapt) {
+                embeddingBatchSizer.onSuccess(to - from, elapsed[0]);
+            }
+            for (int i = from; i < to; i++) {
+                float[] vector = vectors.get(i - from);
+                if (vector == null || vector.length == 0) {
+                    results[indexes.get(i)] = EmbeddingResult.failure("返回向量为空");
+                } else {
+                    results[indexes.get(i)] = EmbeddingResult.success(vector);
+                    embeddingCache.put(texts.get(i), vector);
+                }
+            }
+        } catch (Exception e) {
+            if (adapt) {
+                embeddingBatchSizer.onFailure();
+            }
+            if (to - from == 1) {
+                log.error("向量生成失败, 文本长度={}", texts.get(from).length(), e);
+                results[indexes.get(from)] = EmbeddingResult.failure("向量生成失败: " + e.getMessage());
+                return;
+            }
+            log.warn("批量向量生成失败, 拆分重试, 批次大小={}, error: {}", to - from, e.getMessage());
+            int middle = (from + to) >>> 1;
+            embedBatch(texts, indexes, from, middle, results, false);
+            embedBatch(texts, indexes, middle, to, results, false);
+        }
+    }
+
     /**
      * 构建实体抽取提示词
      */
@@ -0,0 +1,338 @@
+package com.uka.knowledge.service.impl;
+
+import com.uka.knowledge.config.RagConfig;
+import com.uka.knowledge.model.vo.RagDocument;
+import com.uka.knowledge.model.vo.RagNode;
+import com.uka.knowledge.service.RagService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * RAG检索结果缓存
+ * <p>
+ * 以归一化后的查询文本+topK为键缓存检索结果；查询文本未命中时，
+ * 若新查询向量与某条缓存的查询向量余弦距离在阈值内，则复用该结果。
+ * 缓存按条数（LRU）和有效期淘汰。
+ * </p>
+ * <p>
+ * 失效策略（向量库使用COSINE度量，检索分数即余弦相似度）：
+ * 1. 文档/节点被删除或更新：移除引用了该文档/节点的缓存条目；
+ * 2. 新增分块/节点向量：只有当新向量与缓存查询的相似度不低于该条目的最低分
+ *    （或该条目结果不足topK条）时，新数据才可能进入结果，此时移除该条目；
+ * 3. 写操作处于事务中时，提交后再执行一次失效，避免提交前的并发查询回填旧数据。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RagQueryCache {
+
+    private final RagConfig ragConfig;
+
+    /**
+     * 缓存条目（按访问顺序排列，用于LRU淘汰）
+     */
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 失效版本号，每次失效操作递增，用于丢弃失效前发起的查询结果
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong similarHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * 按查询文本精确查找
+     * 每次查找计入命中或未命中，未命中后的近似命中另行计数
+     *
+     * @param query 查询文本
+     * @param topK  返回数量
+     * @return 缓存结果，未命中返回null
+     */
+    public RagService.RagResult get(String query, int topK) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = buildKey(query, topK);
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null && isExpired(entry)) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry.result;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 按查询向量查找近似查询的缓存结果
+     * <p>
+     * 只在锁内复制候选条目，相似度计算在锁外进行；
+     * 选中的条目若在计算期间已被失效或替换，视为未命中。
+     * 返回结果的上下文提示词基于原查询文本构建，调用方需按新查询重建。
+     * </p>
+     *
+     * @param queryVector 查询向量
+     * @param topK        返回数量
+     * @return 缓存结果，未命中返回null
+     */
+    public RagService.RagResult getSimilar(float[] queryVector, int topK) {
+        if (!isEnabled()) {
+            return null;
+        }
+        List<Map.Entry<String, CacheEntry>> candidates = new ArrayList<>();
+        synchronized (entries) {
+            for (Map.Entry<String, CacheEntry> e : entries.entrySet()) {
+                if (e.getValue().topK == topK && !isExpired(e.getValue())) {
+                    candidates.add(Map.entry(e.getKey(), e.getValue()));
+                }
+            }
+        }
+
+        double maxDistance = ragConfig.getCache().getMaxCosineDistance();
+        Map.Entry<String, CacheEntry> best = null;
+        double bestDistance = Double.MAX_VALUE;
+        for (Map.Entry<String, CacheEntry> candidate : candidates) {
+            double distance = 1 - cosine(queryVector, candidate.getValue().queryVector);
+            if (distance <= maxDistance && distance < bestDistance) {
+                bestDistance = distance;
+                best = candidate;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+
+        synchronized (entries) {
+            // 同时刷新LRU访问顺序
+            if (entries.get(best.getKey()) != best.getValue()) {
+                return null;
+            }
+        }
+        similarHits.incrementAndGet();
+        log.debug("RAG缓存近似命中, distance={}", bestDistance);
+        return best.getValue().result;
+    }
+
+    /**
+     * 获取当前失效版本号（查询开始前调用，写入缓存时传回）
+     *
+     * @return 版本号
+     */
+    public long currentGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * 写入缓存
+     * 若查询期间发生过失效操作，结果可能已过时，不写入
+     *
+     * @param query       查询文本
+     * @param topK        返回数量
+     * @param queryVector 查询向量
+     * @param result      检索结果
+     * @param startGeneration 查询开始时的版本号
+     */
+    public void put(String query, int topK, float[] queryVector, RagService.RagResult result, long startGeneration) {
+        if (!isEnabled() || queryVector == null) {
+            return;
+        }
+        CacheEntry entry = new CacheEntry(queryVector, topK, result, System.currentTimeMillis());
+        synchronized (entries) {
+            if (generation.get() != startGeneration) {
+                return;
+            }
+            entries.put(buildKey(query, topK), entry);
+            int maxSize = ragConfig.getCache().getMaxSize();
+            Iterator<CacheEntry> iterator = entries.values().iterator();
+            while (entries.size() > maxSize && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 文档数据变更（分块重建或删除）时调用
+     *
+     * @param documentId 文档ID
+     */
+    public void invalidateDocument(Long documentId) {
+        invalidate(entry -> entry.documentIds.contains(documentId));
+    }
+
+    /**
+     * 节点或其关系变更时调用
+     *
+     * @param nodeIds 节点ID集合
+     */
+    public void invalidateNodes(Collection<Long> nodeIds) {
+        Set<Long> ids = new HashSet<>(nodeIds);
+        invalidate(entry -> entry.nodeIds.stream().anyMatch(ids::contains));
+    }
+
+    /**
+     * 新增向量时调用，只移除新数据可能进入结果的条目
+     *
+     * @param type   向量类型（chunk/node）
+     * @param vector 新增的向量
+     */
+    public void onVectorAdded(String type, float[] vector) {
+        boolean chunk = "chunk".equals(type);
+        invalidate(entry -> {
+            int count = chunk ? entry.result.documents().size() : entry.result.nodes().size();
+            double minScore = chunk ? entry.minDocumentScore : entry.minNodeScore;
+            return count < entry.topK || cosine(entry.queryVector, vector) >= minScore;
+        });
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        invalidate(entry -> true);
+    }
+
+    /**
+     * 获取缓存统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", ragConfig.getCache().getMaxSize());
+        stats.put("hits", hits.get());
+        stats.put("similarHits", similarHits.get());
+        stats.put("misses", misses.get());
+        // 每次查询都会先精确查找，近似命中包含在精确未命中之中
+        long total = hits.get() + misses.get();
+        stats.put("hitRate", total == 0 ? 0.0 : (double) (hits.get() + similarHits.get()) / total);
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    /**
+     * 移除满足条件的条目，事务中调用时提交后再执行一次
+     */
+    private void invalidate(Predicate<CacheEntry> condition) {
+        removeIf(condition);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    removeIf(condition);
+                }
+            });
+        }
+    }
+
+    private void removeIf(Predicate<CacheEntry> condition) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            int before = entries.size();
+            entries.values().removeIf(condition);
+            invalidations.addAndGet(before - entries.size());
+        }
+    }
+
+    private boolean isEnabled() {
+        return Boolean.TRUE.equals(ragConfig.getCache().getEnabled());
+    }
+
+    private boolean isExpired(CacheEntry entry) {
+        return System.currentTimeMillis() - entry.createTime > ragConfig.getCache().getTtlSeconds() * 1000;
+    }
+
+    /**
+     * 构建缓存键：NFKC归一化、小写、合并空白、去除末尾标点
+     */
+    static String buildKey(String query, int topK) {
+        String normalized = Normalizer.normalize(query == null ? "" : query, Normalizer.Form.NFKC)
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("\\s+", " ")
+                .trim()
+                .replaceAll("[\\p{Punct}？。！，、；：]+$", "");
+        return topK + "#" + normalized;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        if (a == null || b == null || a.length != b.length) {
+            return 0;
+        }
+        double dot = 0, normA = 0, normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        if (normA == 0 || normB == 0) {
+            return 0;
+        }
+        return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    /**
+     * 缓存条目，同时记录结果引用的文档/节点ID及最低分，用于精确失效
+     */
+    private static class CacheEntry {
+        final float[] queryVector;
+        final int topK;
+        final RagService.RagResult result;
+        final long createTime;
+        final Set<Long> documentIds = new HashSet<>();
+        final Set<Long> nodeIds = new HashSet<>();
+        final double minDocumentScore;
+        final double minNodeScore;
+
+        CacheEntry(float[] queryVector, int topK, RagService.RagResult result, long createTime) {
+            this.queryVector = queryVector;
+            this.topK = topK;
+            this.result = result;
+            this.createTime = createTime;
+
+            double minDoc = Double.MAX_VALUE;
+            for (RagDocument doc : result.documents()) {
+                documentIds.add(doc.getId());
+                minDoc = Math.min(minDoc, doc.getScore() == null ? 0 : doc.getScore());
+            }
+            double minNode = Double.MAX_VALUE;
+            for (RagNode node : result.nodes()) {
+                nodeIds.add(node.getId());
+                minNode = Math.min(minNode, node.getScore() == null ? 0 : node.getScore());
+                // 关系目标节点改名或删除同样会影响结果
+                if (node.getRelations() != null) {
+                    node.getRelations().forEach(rel -> nodeIds.add(rel.getTargetNodeId()));
+                }
+            }
+            this.minDocumentScore = minDoc;
+            this.minNodeScore = minNode;
+        }
+    }
+}
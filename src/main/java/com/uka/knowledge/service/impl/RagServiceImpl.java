@@ -2,22 +2,34 @@ package com.uka.knowledge.service.impl;
 
 import cn.hutool.core.util.StrUtil;
 import com.alibaba.fastjson2.JSON;
+import com.uka.knowledge.config.RagConfig;
 import com.uka.knowledge.mapper.DocumentChunkMapper;
 import com.uka.knowledge.mapper.KnowledgeRelationMapper;
-import com.uka.knowledge.model.entity.Document;
-import com.uka.knowledge.model.entity.DocumentChunk;
 import com.uka.knowledge.model.entity.KnowledgeNode;
-import com.uka.knowledge.model.entity.KnowledgeRelation;
+import com.uka.knowledge.model.vo.KnowledgeRelationVO;
 import com.uka.knowledge.model.vo.RagDocument;
 import com.uka.knowledge.model.vo.RagNode;
 import com.uka.knowledge.service.*;
+import com.uka.knowledge.util.ContextPacker;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * RAG检索增强服务实现类
@@ -35,25 +47,170 @@ public class RagServiceImpl implements RagService {
 
     private final OllamaService ollamaService;
     private final VectorService vectorService;
-    private final DocumentService documentService;
     private final KnowledgeNodeService nodeService;
     private final KnowledgeRelationMapper relationMapper;
     private final DocumentChunkMapper documentChunkMapper;
+    private final RagConfig ragConfig;
+    @Qualifier("ragExecutor")
+    private final ThreadPoolTaskExecutor ragExecutor;
+    private final RagQueryCache ragQueryCache;
+    private final ContextPacker contextPacker;
 
     /**
      * 执行RAG检索
      */
     @Override
     public RagResult search(String query, int topK) {
-        // 检索相关文档
-        List<RagDocument> documents = searchDocuments(query, topK);
+        return searchAsync(query, topK, null).join();
+    }
 
-        // 检索相关节点
-        List<RagNode> nodes = searchNodes(query, topK);
+    /**
+     * 异步执行RAG检索
+     * <p>
+     * 查询向量只生成一次，文档检索与"节点检索 -> 关系扩展"两条链路并行执行，
+     * 每个阶段单独计时，超时的阶段降级为空结果（降级结果不写入缓存）
+     * </p>
+     */
+    @Override
+    public CompletableFuture<RagResult> searchAsync(String query, int topK, RagSearchListener listener) {
+        RagSearchListener callback = listener != null ? listener : new RagSearchListener() {};
+
+        // 查询文本精确命中缓存
+        RagResult cached = ragQueryCache.get(query, topK);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(notifyCached(cached, callback));
+        }
+        long cacheGeneration = ragQueryCache.currentGeneration();
+        AtomicBoolean degraded = new AtomicBoolean(false);
+
+        // 生成查询向量（文档和节点检索共用）
+        return runStage("查询向量生成", () -> embedQuery(query),
+                ragConfig.getEmbeddingTimeoutMs(), null, degraded)
+                .thenCompose(queryVector -> {
+                    if (queryVector == null) {
+                        RagResult empty = new RagResult(List.of(), List.of(), buildContextPrompt(List.of(), query));
+                        return CompletableFuture.completedFuture(notifyCached(empty, callback));
+                    }
+
+                    // 近似查询命中缓存，上下文提示词按当前查询文本重建
+                    RagResult similar = ragQueryCache.getSimilar(queryVector, topK);
+                    if (similar != null) {
+                        RagResult rebuilt = new RagResult(similar.documents(), similar.nodes(),
+                                buildContextPrompt(similar.documents(), query));
+                        return CompletableFuture.completedFuture(notifyCached(rebuilt, callback));
+                    }
+                    return searchWithVector(query, queryVector, topK, callback, degraded)
+                            .thenApply(result -> {
+                                // 降级结果不缓存
+                                if (!degraded.get()) {
+                                    ragQueryCache.put(query, topK, queryVector, result, cacheGeneration);
+                                }
+                                return result;
+                            });
+                });
+    }
+
+    /**
+     * 使用查询向量并行检索文档和节点
+     */
+    private CompletableFuture<RagResult> searchWithVector(String query, float[] queryVector, int topK,
+                                                          RagSearchListener callback, AtomicBoolean degraded) {
+        // 检索相关文档
+        CompletableFuture<List<RagDocument>> documentsFuture = runStage("文档检索",
+                () -> searchDocuments(queryVector, topK), ragConfig.getChunkTimeoutMs(), List.<RagDocument>of(), degraded)
+                .thenApply(documents -> {
+                    notifyQuietly(() -> callback.onDocuments(documents));
+                    return documents;
+                });
+
+        // 检索相关节点，完成后立即扩展节点关系
+        CompletableFuture<List<RagNode>> nodesFuture = runStage("节点检索",
+                () -> searchNodes(queryVector, topK), ragConfig.getNodeTimeoutMs(), List.<RagNode>of(), degraded)
+                .thenCompose(nodes -> {
+                    if (nodes.isEmpty()) {
+                        return CompletableFuture.completedFuture(nodes);
+                    }
+                    List<Long> nodeIds = nodes.stream().map(RagNode::getId).toList();
+                    return runStage("关系扩展", () -> searchRelations(nodeIds),
+                            ragConfig.getRelationTimeoutMs(), Map.<Long, List<RagNode.RagRelation>>of(), degraded)
+                            .thenApply(relationMap -> {
+                                nodes.forEach(node -> node.setRelations(
+                                        relationMap.getOrDefault(node.getId(), new ArrayList<>())));
+                                return nodes;
+                            });
+                })
+                .thenApply(nodes -> {
+                    notifyQuietly(() -> callback.onNodes(nodes));
+                    return nodes;
+                });
 
         // 构建上下文提示词
-        String contextPrompt = buildContextPrompt(documents, query);
-        return new RagResult(documents, nodes, contextPrompt);
+        return documentsFuture.thenCombine(nodesFuture, (documents, nodes) ->
+                new RagResult(documents, nodes, buildContextPrompt(documents, query)));
+    }
+
+    /**
+     * 生成查询向量（与文档、节点共用向量缓存），失败时抛出异常，视为阶段失败（结果不能缓存）
+     */
+    private float[] embedQuery(String query) {
+        OllamaService.EmbeddingResult result = ollamaService.generateEmbeddings(List.of(query)).get(0);
+        if (!result.isSuccess()) {
+            throw new IllegalStateException("查询向量生成失败: " + result.error());
+        }
+        return result.vector();
+    }
+
+    /**
+     * 缓存命中时一次性通知文档和节点结果
+     */
+    private RagResult notifyCached(RagResult result, RagSearchListener callback) {
+        notifyQuietly(() -> callback.onDocuments(result.documents()));
+        notifyQuietly(() -> callback.onNodes(result.nodes()));
+        return result;
+    }
+
+    /**
+     * 执行监听回调，回调异常不影响检索
+     */
+    private void notifyQuietly(Runnable notification) {
+        try {
+            notification.run();
+        } catch (Exception e) {
+            log.warn("RAG检索回调执行失败", e);
+        }
+    }
+
+    /**
+     * 在检索线程池中执行一个检索阶段
+     * 阶段超时或失败时返回降级结果，不抛出异常
+     *
+     * @param stageName 阶段名称（用于日志）
+     * @param task      阶段任务
+     * @param timeoutMs 超时时间（毫秒）
+     * @param fallback  降级结果
+     * @param degraded  降级标记（发生降级时置为true）
+     * @return 阶段结果
+     */
+    private <T> CompletableFuture<T> runStage(String stageName, Supplier<T> task, long timeoutMs, T fallback,
+                                              AtomicBoolean degraded) {
+        long start = System.currentTimeMillis();
+        return CompletableFuture.supplyAsync(task, ragExecutor)
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .handle((result, error) -> {
+                    if (error == null) {
+                        log.debug("RAG阶段完成: {}, 耗时{}ms", stageName, System.currentTimeMillis() - start);
+                        return result;
+                    }
+                    degraded.set(true);
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    if (cause instanceof TimeoutException) {
+                        log.warn("RAG阶段超时, 降级为空结果: {}, timeout={}ms", stageName, timeoutMs);
+                    } else {
+                        log.error("RAG阶段失败, 降级为空结果: {}", stageName, cause);
+                    }
+                    return fallback;
+                });
     }
 
     /**
@@ -61,48 +218,38 @@ public class RagServiceImpl implements RagService {
      */
     @Override
     public List<RagDocument> searchDocuments(String query, int topK) {
+        // 生成查询向量
+        return searchDocuments(embedQuery(query), topK);
+    }
+
+    /**
+     * 使用已生成的查询向量检索相关文档（查询失败时抛出异常，由检索阶段降级且不缓存）
+     */
+    @Override
+    public List<RagDocument> searchDocuments(float[] queryVector, int topK) {
         List<RagDocument> results = new ArrayList<>();
 
-        try {
-            // 生成查询向量
-            float[] queryVector = ollamaService.generateEmbedding(query);
-
-            // 向量搜索 - 搜索chunk类型
-            List<VectorService.VectorSearchResult> searchResults =
-                    vectorService.search(queryVector, topK, "chunk");
-
-            // 获取分块和文档详情
-            for (VectorService.VectorSearchResult result : searchResults) {
-                if (result.id() == null) continue;
-
-                try {
-                    // 查询分块信息
-                    DocumentChunk chunk = documentChunkMapper.selectByChunkId(result.id());
-                    if (chunk == null) continue;
-
-                    // 查询所属文档
-                    Document document = documentService.getById(chunk.getDocumentId());
-                    if (document == null) continue;
-
-                    RagDocument ragDoc = new RagDocument();
-                    ragDoc.setId(document.getId());
-                    ragDoc.setChunkId(chunk.getId());
-                    ragDoc.setName(document.getName());
-                    ragDoc.setFileType(document.getFileType());
-                    ragDoc.setPageNum(chunk.getPageNum());
-                    ragDoc.setSummary(document.getSummary());
-                    ragDoc.setScore((double) result.score());
-
-                    // 使用分块内容作为匹配片段
-                    ragDoc.setMatchedContent(chunk.getContent());
-
-                    results.add(ragDoc);
-                } catch (Exception e) {
-                    log.warn("获取分块详情失败, chunkId={}", result.id(), e);
-                }
-            }
-        } catch (Exception e) {
-            log.error("文档检索失败", e);
+        // 向量搜索 - 搜索chunk类型
+        List<VectorService.VectorSearchResult> searchResults =
+                vectorService.search(queryVector, topK, "chunk");
+
+        // 批量获取分块和文档详情（一次JOIN查询）
+        List<Long> chunkIds = searchResults.stream()
+                .map(VectorService.VectorSearchResult::id)
+                .filter(Objects::nonNull)
+                .toList();
+        if (chunkIds.isEmpty()) {
+            return results;
+        }
+        Map<Long, RagDocument> docByChunkId = documentChunkMapper.selectRagDocumentsByChunkIds(chunkIds).stream()
+                .collect(Collectors.toMap(RagDocument::getChunkId, Function.identity(), (a, b) -> a));
+
+        // 按相似度顺序组装结果
+        for (VectorService.VectorSearchResult result : searchResults) {
+            RagDocument ragDoc = result.id() == null ? null : docByChunkId.get(result.id());
+            if (ragDoc == null) continue;
+            ragDoc.setScore((double) result.score());
+            results.add(ragDoc);
         }
 
         return results;
@@ -113,109 +260,88 @@ public class RagServiceImpl implements RagService {
      */
     @Override
     public List<RagNode> searchNodes(String query, int topK) {
+        // 生成查询向量
+        List<RagNode> nodes = searchNodes(embedQuery(query), topK);
+
+        // 获取关联关系
+        Map<Long, List<RagNode.RagRelation>> relationMap = searchRelations(nodes.stream().map(RagNode::getId).toList());
+        nodes.forEach(node -> node.setRelations(relationMap.getOrDefault(node.getId(), new ArrayList<>())));
+        return nodes;
+    }
+
+    /**
+     * 使用已生成的查询向量检索相关知识节点（不含关系，查询失败时抛出异常，由检索阶段降级且不缓存）
+     */
+    @Override
+    public List<RagNode> searchNodes(float[] queryVector, int topK) {
         List<RagNode> results = new ArrayList<>();
 
-        try {
-            // 生成查询向量
-            float[] queryVector = ollamaService.generateEmbedding(query);
-
-            // 向量搜索 - 搜索节点类型
-            List<VectorService.VectorSearchResult> searchResults =
-                    vectorService.search(queryVector, topK, "node");
-
-            // 获取节点详情及其关系
-            for (VectorService.VectorSearchResult result : searchResults) {
-                if (result.id() == null) continue;
-
-                try {
-                    KnowledgeNode node = nodeService.getById(result.id());
-                    if (node != null) {
-                        RagNode ragNode = new RagNode();
-                        ragNode.setId(node.getId());
-                        ragNode.setName(node.getName());
-                        ragNode.setNodeType(node.getNodeType());
-                        ragNode.setDescription(node.getDescription());
-                        ragNode.setScore((double) result.score());
-
-                        // 解析属性
-                        if (StrUtil.isNotBlank(node.getProperties())) {
-                            ragNode.setProperties(JSON.parseObject(node.getProperties(), Map.class));
-                        }
-
-                        // 获取关联关系
-                        List<RagNode.RagRelation> relations = getNodeRelations(node.getId());
-                        ragNode.setRelations(relations);
-
-                        results.add(ragNode);
-                    }
-                } catch (Exception e) {
-                    log.warn("获取节点详情失败, id={}", result.id(), e);
-                }
+        // 向量搜索 - 搜索节点类型
+        List<VectorService.VectorSearchResult> searchResults =
+                vectorService.search(queryVector, topK, "node");
+
+        // 批量获取节点详情
+        List<Long> nodeIds = searchResults.stream()
+                .map(VectorService.VectorSearchResult::id)
+                .filter(Objects::nonNull)
+                .toList();
+        if (nodeIds.isEmpty()) {
+            return results;
+        }
+        Map<Long, KnowledgeNode> nodeById = nodeService.listByIds(nodeIds).stream()
+                .collect(Collectors.toMap(KnowledgeNode::getId, Function.identity(), (a, b) -> a));
+
+        // 按相似度顺序组装结果
+        for (VectorService.VectorSearchResult result : searchResults) {
+            KnowledgeNode node = result.id() == null ? null : nodeById.get(result.id());
+            if (node == null) continue;
+
+            RagNode ragNode = new RagNode();
+            ragNode.setId(node.getId());
+            ragNode.setName(node.getName());
+            ragNode.setNodeType(node.getNodeType());
+            ragNode.setDescription(node.getDescription());
+            ragNode.setScore((double) result.score());
+
+            // 解析属性
+            if (StrUtil.isNotBlank(node.getProperties())) {
+                ragNode.setProperties(JSON.parseObject(node.getProperties(), Map.class));
             }
-        } catch (Exception e) {
-            log.error("节点检索失败", e);
+
+            results.add(ragNode);
         }
 
         return results;
     }
 
     /**
-     * 获取节点的关联关系
+     * 查询节点的关联关系
+     * 所有节点的关系及目标节点名称通过一次JOIN查询获取，查询失败时抛出异常
      */
-    private List<RagNode.RagRelation> getNodeRelations(Long nodeId) {
-        List<RagNode.RagRelation> relations = new ArrayList<>();
+    @Override
+    public Map<Long, List<RagNode.RagRelation>> searchRelations(List<Long> nodeIds) {
+        Map<Long, List<RagNode.RagRelation>> relationMap = new HashMap<>();
+        if (nodeIds == null || nodeIds.isEmpty()) {
+            return relationMap;
+        }
 
-        try {
-            // 获取以该节点为起点的关系
-            List<KnowledgeRelation> outRelations = relationMapper.selectBySourceNodeId(nodeId);
-            for (KnowledgeRelation rel : outRelations) {
-                KnowledgeNode targetNode = nodeService.getById(rel.getTargetNodeId());
-                if (targetNode != null) {
-                    RagNode.RagRelation ragRel = new RagNode.RagRelation();
-                    ragRel.setName(rel.getName());
-                    ragRel.setRelationType(rel.getRelationType());
-                    ragRel.setTargetNodeId(targetNode.getId());
-                    ragRel.setTargetNodeName(targetNode.getName());
-                    relations.add(ragRel);
-                }
-            }
-        } catch (Exception e) {
-            log.warn("获取节点关系失败, nodeId={}", nodeId, e);
+        for (KnowledgeRelationVO rel : relationMapper.selectBySourceNodeIds(nodeIds)) {
+            RagNode.RagRelation ragRel = new RagNode.RagRelation();
+            ragRel.setName(rel.getName());
+            ragRel.setRelationType(rel.getRelationType());
+            ragRel.setTargetNodeId(rel.getTargetNodeId());
+            ragRel.setTargetNodeName(rel.getTargetNodeName());
+            relationMap.computeIfAbsent(rel.getSourceNodeId(), k -> new ArrayList<>()).add(ragRel);
         }
 
-        return relations;
+        return relationMap;
     }
 
     /**
-     * 构建RAG上下文提示词
+     * 构建RAG上下文提示词（按token预算去重、压缩文档片段）
      */
     @Override
     public String buildContextPrompt(List<RagDocument> documents, String userQuery) {
-        StringBuilder prompt = new StringBuilder();
-
-        // 添加相关文档
-        if (documents != null && !documents.isEmpty()) {
-            prompt.append("\n");
-            for (int i = 0; i < documents.size(); i++) {
-                RagDocument doc = documents.get(i);
-                prompt.append(String.format("- 文档%d名称「%s」", i + 1, doc.getName()));
-
-                // 添加页码信息
-                if (doc.getPageNum() != null && doc.getPageNum() > 0) {
-                    prompt.append(String.format("（第%d页）", doc.getPageNum()));
-                }
-                prompt.append(": ");
-
-                if (StrUtil.isNotBlank(doc.getMatchedContent())) {
-                    prompt.append(doc.getMatchedContent());
-                } else if (StrUtil.isNotBlank(doc.getSummary())) {
-                    prompt.append(doc.getSummary());
-                }
-                prompt.append("\n");
-            }
-            prompt.append("\n");
-        }
-
-        return prompt.toString();
+        return contextPacker.packDocuments(documents, userQuery).text();
     }
 }
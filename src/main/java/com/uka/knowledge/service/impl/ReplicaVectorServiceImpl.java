@@ -0,0 +1,228 @@
+package com.uka.knowledge.service.impl;
+
+import com.uka.knowledge.config.MilvusConfig;
+import com.uka.knowledge.service.VectorService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Milvus + 本地副本向量服务实现
+ * <p>
+ * vector.store=replica 时启用：写入和删除以Milvus为准，成功后按Milvus返回的向量ID同步到进程内HNSW索引；
+ * 检索由本地索引完成，省去一次网络往返。本地索引未就绪（启动同步中、布局迁移未完成）或检索出错时读Milvus。
+ * </p>
+ * <p>
+ * 本地副本在应用启动完成后从Milvus全量同步，索引重建切换或布局迁移完成（向量ID整体变化）后重新同步。
+ * 副本假定所有写入都经过本应用实例，多实例写同一Milvus时其他实例的写入要到下次同步才可见。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+@Service
+@Primary
+@ConditionalOnProperty(prefix = "vector", name = "store", havingValue = "replica")
+@RequiredArgsConstructor
+public class ReplicaVectorServiceImpl implements VectorService {
+
+    private final VectorServiceImpl milvusVectorService;
+    private final LocalVectorServiceImpl localVectorService;
+    private final VectorIndexManager vectorIndexManager;
+    private final VectorMigration vectorMigration;
+    private final MilvusConfig milvusConfig;
+
+    /**
+     * 本地副本是否可用于检索
+     */
+    private volatile boolean ready;
+
+    /**
+     * 是否正在同步
+     */
+    private volatile boolean syncing;
+
+    /**
+     * 同步期间删除的向量ID（按业务ID删除时为“类型:业务ID”），同步读到时跳过
+     */
+    private final Set<String> deletedDuringSync = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void initCollection() {
+        milvusVectorService.initCollection();
+    }
+
+    @Override
+    public String insertVector(VectorInsertData vectorInsertData) {
+        List<String> vectorIds = insertVectors(Arrays.asList(vectorInsertData));
+        return vectorIds.isEmpty() ? null : vectorIds.get(0);
+    }
+
+    @Override
+    public List<String> insertVectors(List<VectorInsertData> vectorInsertDataList) {
+        List<String> vectorIds = milvusVectorService.insertVectors(vectorInsertDataList);
+        replicate(vectorIds, vectorInsertDataList);
+        return vectorIds;
+    }
+
+    @Override
+    public CompletableFuture<List<String>> bulkInsertVectors(List<VectorInsertData> vectorInsertDataList) {
+        return milvusVectorService.bulkInsertVectors(vectorInsertDataList).thenApply(vectorIds -> {
+            replicate(vectorIds, vectorInsertDataList);
+            return vectorIds;
+        });
+    }
+
+    @Override
+    public String upsertVector(VectorInsertData vectorInsertData) {
+        List<String> vectorIds = upsertVectors(Arrays.asList(vectorInsertData));
+        return vectorIds.isEmpty() ? null : vectorIds.get(0);
+    }
+
+    @Override
+    public List<String> upsertVectors(List<VectorInsertData> vectorInsertDataList) {
+        List<String> vectorIds = milvusVectorService.upsertVectors(vectorInsertDataList);
+        replicate(vectorIds, vectorInsertDataList);
+        return vectorIds;
+    }
+
+    @Override
+    public boolean deleteVectors(String type, List<Long> businessIds) {
+        boolean deleted = milvusVectorService.deleteVectors(type, businessIds);
+        if (syncing) {
+            businessIds.forEach(businessId -> deletedDuringSync.add(type + ":" + businessId));
+        }
+        localVectorService.deleteVectors(type, businessIds);
+        return deleted;
+    }
+
+    @Override
+    public boolean deleteVector(String vectorId) {
+        boolean deleted = milvusVectorService.deleteVector(vectorId);
+        if (syncing) {
+            deletedDuringSync.add(vectorId);
+        }
+        localVectorService.deleteVector(vectorId);
+        return deleted;
+    }
+
+    @Override
+    public boolean deleteVector(String vectorId, String type) {
+        boolean deleted = milvusVectorService.deleteVector(vectorId, type);
+        if (syncing) {
+            deletedDuringSync.add(vectorId);
+        }
+        localVectorService.deleteVector(vectorId, type);
+        return deleted;
+    }
+
+    /**
+     * 向量相似性搜索，本地副本就绪时读本地
+     */
+    @Override
+    public List<VectorSearchResult> search(float[] queryVector, int topK, String type) {
+        if (ready && !vectorMigration.isLegacyActive()) {
+            try {
+                return localVectorService.search(queryVector, topK, type);
+            } catch (Exception e) {
+                log.warn("本地向量副本检索失败, 改为检索Milvus: {}", e.getMessage());
+            }
+        }
+        return milvusVectorService.search(queryVector, topK, type);
+    }
+
+    /**
+     * 应用启动完成后同步本地副本
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        sync();
+    }
+
+    /**
+     * 向量ID整体变化后重新同步本地副本
+     *
+     * @param event 变化事件
+     */
+    @Async
+    @EventListener
+    public void onVectorIdsChanged(VectorIndexManager.VectorIdsChangedEvent event) {
+        log.info("向量ID已变化, 集合={}, 重新同步本地副本", event.collectionName());
+        sync();
+    }
+
+    /**
+     * 清空本地副本后从Milvus全量同步
+     */
+    synchronized void sync() {
+        ready = false;
+        if (vectorMigration.isLegacyActive()) {
+            log.info("向量布局迁移未完成, 本地副本在迁移完成后同步");
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        long synced = 0;
+        deletedDuringSync.clear();
+        syncing = true;
+        try {
+            localVectorService.clear();
+            for (String type : milvusConfig.getTypes()) {
+                long[] count = new long[1];
+                vectorIndexManager.scan(type, batch -> {
+                    List<String> vectorIds = new ArrayList<>(batch.size());
+                    List<VectorInsertData> data = new ArrayList<>(batch.size());
+                    batch.forEach((vectorId, item) -> {
+                        if (!deletedDuringSync.contains(vectorId)
+                                && !deletedDuringSync.contains(type + ":" + item.businessId())) {
+                            vectorIds.add(vectorId);
+                            data.add(item);
+                        }
+                    });
+                    localVectorService.loadVectors(vectorIds, data);
+                    count[0] += vectorIds.size();
+                });
+                synced += count[0];
+            }
+            // 同步读到之后才被删除的向量
+            for (String deleted : deletedDuringSync) {
+                int separator = deleted.indexOf(':');
+                if (separator < 0) {
+                    localVectorService.deleteVector(deleted);
+                } else {
+                    localVectorService.deleteVectors(deleted.substring(0, separator),
+                            List.of(Long.parseLong(deleted.substring(separator + 1))));
+                }
+            }
+            ready = true;
+            log.info("本地向量副本同步完成, 向量数={}, 耗时={}ms", synced, System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("本地向量副本同步失败, 检索将继续使用Milvus", e);
+        } finally {
+            syncing = false;
+            deletedDuringSync.clear();
+        }
+    }
+
+    /**
+     * 将Milvus写入成功的向量同步到本地副本，失败时不影响写入结果
+     */
+    private void replicate(List<String> vectorIds, List<VectorInsertData> vectorInsertDataList) {
+        try {
+            localVectorService.upsertVectors(vectorIds, vectorInsertDataList);
+        } catch (Exception e) {
+            ready = false;
+            log.error("本地向量副本写入失败, 检索改为使用Milvus, 重启或索引变化后重新同步", e);
+        }
+    }
+}
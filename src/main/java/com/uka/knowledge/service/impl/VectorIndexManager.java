@@ -0,0 +1,919 @@
+package com.uka.knowledge.service.impl;
+
+import com.uka.knowledge.common.ResultCode;
+import com.uka.knowledge.config.MilvusConfig;
+import com.uka.knowledge.config.VectorStoreConfig;
+import com.uka.knowledge.exception.BusinessException;
+import com.uka.knowledge.service.VectorService;
+import io.milvus.orm.iterator.QueryIterator;
+import io.milvus.response.QueryResultsWrapper;
+import io.milvus.v2.client.MilvusClientV2;
+import io.milvus.v2.common.ConsistencyLevel;
+import io.milvus.v2.common.DataType;
+import io.milvus.v2.common.IndexParam;
+import io.milvus.v2.service.collection.request.AddFieldReq;
+import io.milvus.v2.service.collection.request.CreateCollectionReq;
+import io.milvus.v2.service.collection.request.DropCollectionReq;
+import io.milvus.v2.service.collection.request.HasCollectionReq;
+import io.milvus.v2.service.collection.request.LoadCollectionReq;
+import io.milvus.v2.service.partition.request.CreatePartitionReq;
+import io.milvus.v2.service.partition.request.HasPartitionReq;
+import io.milvus.v2.service.utility.request.AlterAliasReq;
+import io.milvus.v2.service.utility.request.CreateAliasReq;
+import io.milvus.v2.service.utility.request.DescribeAliasReq;
+import io.milvus.v2.service.vector.request.DeleteReq;
+import io.milvus.v2.service.vector.request.QueryIteratorReq;
+import io.milvus.v2.service.vector.request.QueryReq;
+import io.milvus.v2.service.vector.request.SearchReq;
+import io.milvus.v2.service.vector.response.QueryResp;
+import io.milvus.v2.service.vector.request.data.FloatVec;
+import io.milvus.v2.service.vector.response.SearchResp;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * 向量集合与索引管理
+ * <p>
+ * 负责按索引方案创建集合和索引、构建检索请求，并提供两项运维能力：
+ * </p>
+ * <p>
+ * 在线重建索引：Milvus的向量字段只有一个索引，修改索引需要释放集合。重建时按新方案创建新集合，
+ * 复制全部向量后通过别名切换：业务始终使用逻辑集合名（创建集合时即为指向实体集合的别名），复制期间旧集合照常读写，
+ * 复制期间新写入的向量按主键递增追平；删除的向量和按业务主键覆盖写入的向量（主键不变，无法按递增追平）
+ * 记录下来，在切换时以原集合的当前内容重新同步。新集合按 milvus.primary-key 创建，自增主键的集合重建后即改为业务主键。
+ * 切换时短暂暂停向量写入，在一个事务中将业务表的向量ID改为新集合的主键，然后将别名指向新集合并删除旧集合。
+ * </p>
+ * <p>
+ * 召回自检：随机抽取若干条向量作为查询，对比当前索引的ANN检索结果与全量暴力计算的精确结果，
+ * 给出召回率和检索耗时，用于评估索引方案和检索参数。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression(VectorStoreConfig.MILVUS_ENABLED)
+@RequiredArgsConstructor
+public class VectorIndexManager {
+
+    /**
+     * 共用集合（single/partition布局）的索引方案键
+     */
+    private static final String SHARED = "*";
+
+    /**
+     * 追平新写入向量的最多轮数，之后在暂停写入时完成剩余部分
+     */
+    private static final int MAX_CATCH_UP_PASSES = 5;
+
+    /**
+     * 一次回填业务表向量ID的最多条数
+     */
+    private static final int REMAP_BATCH_SIZE = 1000;
+
+    private static final DateTimeFormatter VERSION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final MilvusClientV2 milvusClient;
+    private final MilvusConfig milvusConfig;
+    private final MilvusBulkWriter milvusBulkWriter;
+    private final VectorMigration vectorMigration;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    @Qualifier("vectorIndexExecutor")
+    private final ThreadPoolTaskExecutor vectorIndexExecutor;
+
+    /**
+     * 重建后生效的索引方案（覆盖配置，重启后以配置为准）
+     */
+    private final Map<String, MilvusConfig.IndexProfile> activeProfiles = new ConcurrentHashMap<>();
+
+    /**
+     * 最近一次重建任务
+     */
+    private volatile Rebuild rebuild;
+
+    /**
+     * 注册写入回调，记录重建期间按业务主键覆盖写入的向量
+     */
+    @PostConstruct
+    public void init() {
+        milvusBulkWriter.setUpsertListener(this::onUpsert);
+    }
+
+    /**
+     * 获取类型当前使用的索引方案
+     *
+     * @param type 向量类型（为null时返回共用集合的方案）
+     * @return 索引方案
+     */
+    public MilvusConfig.IndexProfile getProfile(String type) {
+        MilvusConfig.IndexProfile active = activeProfiles.get(profileKey(type));
+        return active != null ? active : milvusConfig.getIndexProfile(type);
+    }
+
+    /**
+     * 获取各类型当前使用的索引方案
+     *
+     * @return 类型 → 索引方案
+     */
+    public Map<String, MilvusConfig.IndexProfile> profiles() {
+        Map<String, MilvusConfig.IndexProfile> profiles = new LinkedHashMap<>();
+        for (String type : milvusConfig.getTypes()) {
+            profiles.put(type, getProfile(type));
+        }
+        return profiles;
+    }
+
+    /**
+     * 集合不存在时按索引方案创建：创建带版本号的实体集合，并以逻辑集合名作为指向它的别名，重建索引时只需切换别名
+     *
+     * @param collectionName 逻辑集合名称
+     * @param type           集合对应的向量类型（共用集合时为null）
+     */
+    public void createCollectionIfAbsent(String collectionName, String type) {
+        // 1、检查集合是否存在
+        Boolean hasCollection = milvusClient.hasCollection(
+                HasCollectionReq.builder().collectionName(collectionName).build()
+        );
+
+        if (hasCollection) {
+            log.info("集合 {} 已存在", collectionName);
+            return;
+        }
+        String physical = physicalName(collectionName);
+        createCollection(physical, type, getProfile(type));
+        try {
+            milvusClient.createAlias(CreateAliasReq.builder().alias(collectionName).collectionName(physical).build());
+        } catch (RuntimeException e) {
+            milvusClient.dropCollection(DropCollectionReq.builder().collectionName(physical).build());
+            throw e;
+        }
+        log.info("集合别名 {} → {} 创建成功", collectionName, physical);
+    }
+
+    /**
+     * 分区不存在时创建
+     *
+     * @param collectionName 集合名称
+     * @param partitionName  分区名称
+     */
+    public void createPartitionIfAbsent(String collectionName, String partitionName) {
+        Boolean hasPartition = milvusClient.hasPartition(HasPartitionReq.builder()
+                .collectionName(collectionName)
+                .partitionName(partitionName)
+                .build());
+        if (!hasPartition) {
+            milvusClient.createPartition(CreatePartitionReq.builder()
+                    .collectionName(collectionName)
+                    .partitionName(partitionName)
+                    .build());
+            log.info("集合 {} 的分区 {} 创建成功", collectionName, partitionName);
+        }
+    }
+
+    /**
+     * 加载集合到内存
+     *
+     * @param collectionName 集合名称
+     */
+    public void loadCollection(String collectionName) {
+        LoadCollectionReq loadCollectionReq = LoadCollectionReq.builder()
+                .collectionName(collectionName)
+                .build();
+        milvusClient.loadCollection(loadCollectionReq);
+    }
+
+    /**
+     * 按索引方案构建检索请求
+     *
+     * @param collectionName 集合名称
+     * @param partitionNames 分区（为null时搜索全部分区）
+     * @param filter         过滤表达式（可为null）
+     * @param profile        索引方案
+     * @param queryVector    查询向量
+     * @param topK           返回数量
+     * @return 检索请求
+     */
+    public SearchReq searchRequest(String collectionName, List<String> partitionNames, String filter,
+                                   MilvusConfig.IndexProfile profile, float[] queryVector, int topK) {
+        SearchReq.SearchReqBuilder builder = SearchReq.builder()
+                .collectionName(collectionName)
+                .metricType(milvusConfig.getMetricTypeEnum())
+                .outputFields(Arrays.asList(VectorServiceImpl.FIELD_BUSINESS_ID, VectorServiceImpl.FIELD_TYPE))
+                .data(Arrays.asList(new FloatVec(queryVector))) // 搜索向量
+                .annsField(VectorServiceImpl.FIELD_VECTOR)
+                .searchParams(numericParams(profile.getSearchParams()))
+                .consistencyLevel(ConsistencyLevel.valueOf(profile.getConsistencyLevel()))
+                .limit(topK);
+        if (partitionNames != null) {
+            builder.partitionNames(partitionNames); // 只搜索对应类型的分区
+        }
+        if (filter != null) {
+            builder.filter(filter); // 类型过滤
+        }
+        return builder.build();
+    }
+
+    /**
+     * 记录删除的向量（重建期间在切换时同步删除新集合中的副本）
+     *
+     * @param collectionName 集合名称
+     * @param vectorId       向量ID
+     */
+    public void onDelete(String collectionName, String vectorId) {
+        Rebuild current = rebuild;
+        if (current != null && current.running && current.collectionName.equals(collectionName)) {
+            current.deleted.add(vectorId);
+        }
+    }
+
+    /**
+     * 记录按业务主键覆盖写入的向量（重建期间在切换时重新同步到新集合）
+     *
+     * @param collectionName 集合名称
+     * @param vectorIds      主键
+     */
+    public void onUpsert(String collectionName, List<Long> vectorIds) {
+        Rebuild current = rebuild;
+        if (current != null && current.running && current.collectionName.equals(collectionName)) {
+            vectorIds.forEach(id -> current.upserted.add(String.valueOf(id)));
+        }
+    }
+
+    /**
+     * 提交索引重建任务
+     *
+     * @param type    向量类型（collection布局必填，其他布局重建共用集合）
+     * @param profile 新的索引方案（为null时使用配置中的方案）
+     * @return 任务状态
+     */
+    public Map<String, Object> rebuild(String type, MilvusConfig.IndexProfile profile) {
+        if (vectorMigration.isLegacyActive()) {
+            throw new BusinessException(ResultCode.MILVUS_ERROR, "原向量集合尚未迁移完成，不能重建索引");
+        }
+        boolean perType = milvusConfig.getLayout() == MilvusConfig.Layout.COLLECTION;
+        if (perType && (type == null || !milvusConfig.getTypes().contains(type))) {
+            throw new BusinessException(ResultCode.PARAM_ERROR, "请指定要重建索引的向量类型");
+        }
+        String target = perType ? type : null;
+        MilvusConfig.IndexProfile effective = mergeProfile(getProfile(target), profile);
+        IndexParam.IndexType.valueOf(effective.getIndexType());
+        ConsistencyLevel.valueOf(effective.getConsistencyLevel());
+
+        Rebuild task = new Rebuild(target, milvusConfig.getTypeCollectionName(target), effective);
+        synchronized (this) {
+            if (rebuild != null && rebuild.running) {
+                throw new BusinessException(ResultCode.MILVUS_ERROR, "已有索引重建任务在执行");
+            }
+            try {
+                vectorIndexExecutor.execute(() -> runRebuild(task));
+            } catch (TaskRejectedException e) {
+                throw new BusinessException(ResultCode.MILVUS_ERROR, "已有索引维护任务在执行");
+            }
+            rebuild = task;
+        }
+        return task.status();
+    }
+
+    /**
+     * 获取最近一次索引重建的状态
+     *
+     * @return 任务状态，没有任务时返回空
+     */
+    public Map<String, Object> rebuildStatus() {
+        Rebuild current = rebuild;
+        return current == null ? Map.of() : current.status();
+    }
+
+    /**
+     * 召回自检：随机抽样查询，比较ANN检索结果与暴力计算的精确结果
+     *
+     * @param type    向量类型
+     * @param samples 抽样查询数
+     * @param topK    每次检索返回数量
+     * @return 召回率和耗时统计
+     */
+    public Map<String, Object> selfCheck(String type, int samples, int topK) {
+        if (type == null || !milvusConfig.getTypes().contains(type)) {
+            throw new BusinessException(ResultCode.PARAM_ERROR, "未配置的向量类型: " + type);
+        }
+        String collectionName = milvusConfig.getTypeCollectionName(type);
+        String partitionName = milvusConfig.getTypePartitionName(type);
+        List<String> partitionNames = partitionName == null ? null : List.of(partitionName);
+        String filter = milvusConfig.getLayout() == MilvusConfig.Layout.SINGLE
+                ? VectorServiceImpl.FIELD_TYPE + " == \"" + type + "\"" : null;
+        MilvusConfig.IndexProfile profile = getProfile(type);
+
+        // 1、蓄水池抽样查询向量的主键
+        List<Object> sampleIds = new ArrayList<>(samples);
+        long total = 0;
+        QueryIterator idIterator = iterator(collectionName, partitionNames, filter, List.of(VectorServiceImpl.FIELD_ID));
+        try {
+            List<QueryResultsWrapper.RowRecord> rows;
+            while (!(rows = idIterator.next()).isEmpty()) {
+                for (QueryResultsWrapper.RowRecord row : rows) {
+                    total++;
+                    if (sampleIds.size() < samples) {
+                        sampleIds.add(row.get(VectorServiceImpl.FIELD_ID));
+                    } else {
+                        long slot = ThreadLocalRandom.current().nextLong(total);
+                        if (slot < samples) {
+                            sampleIds.set((int) slot, row.get(VectorServiceImpl.FIELD_ID));
+                        }
+                    }
+                }
+            }
+        } finally {
+            idIterator.close();
+        }
+        if (sampleIds.isEmpty()) {
+            throw new BusinessException(ResultCode.NOT_FOUND, "该类型没有向量: " + type);
+        }
+        List<float[]> queries = new ArrayList<>();
+        milvusClient.query(QueryReq.builder()
+                        .collectionName(collectionName)
+                        .ids(sampleIds)
+                        .outputFields(List.of(VectorServiceImpl.FIELD_VECTOR))
+                        .build())
+                .getQueryResults()
+                .forEach(r -> queries.add(VectorMigration.toFloatArray((List<?>) r.getEntity().get(VectorServiceImpl.FIELD_VECTOR))));
+
+        // 2、ANN检索
+        List<Set<Object>> annResults = new ArrayList<>();
+        long[] latencies = new long[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            long start = System.nanoTime();
+            SearchResp resp = milvusClient.search(searchRequest(collectionName, partitionNames, filter,
+                    profile, queries.get(i), topK));
+            latencies[i] = System.nanoTime() - start;
+            Set<Object> ids = new HashSet<>();
+            resp.getSearchResults().forEach(list -> list.forEach(r -> ids.add(r.getId())));
+            annResults.add(ids);
+        }
+
+        // 3、暴力计算精确的前topK条
+        long bruteStart = System.currentTimeMillis();
+        boolean smallerBetter = milvusConfig.getMetricTypeEnum() == IndexParam.MetricType.L2;
+        List<PriorityQueue<Scored>> exact = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            // 堆顶为当前前topK中最差的一条
+            exact.add(new PriorityQueue<>(smallerBetter
+                    ? Comparator.comparingDouble(Scored::score).reversed()
+                    : Comparator.comparingDouble(Scored::score)));
+        }
+        QueryIterator vectorIterator = iterator(collectionName, partitionNames, filter,
+                List.of(VectorServiceImpl.FIELD_ID, VectorServiceImpl.FIELD_VECTOR));
+        try {
+            List<QueryResultsWrapper.RowRecord> rows;
+            while (!(rows = vectorIterator.next()).isEmpty()) {
+                for (QueryResultsWrapper.RowRecord row : rows) {
+                    Object id = row.get(VectorServiceImpl.FIELD_ID);
+                    float[] vector = VectorMigration.toFloatArray((List<?>) row.get(VectorServiceImpl.FIELD_VECTOR));
+                    for (int i = 0; i < queries.size(); i++) {
+                        double score = score(queries.get(i), vector);
+                        PriorityQueue<Scored> heap = exact.get(i);
+                        if (heap.size() < topK) {
+                            heap.add(new Scored(id, score));
+                        } else if (smallerBetter ? score < heap.peek().score() : score > heap.peek().score()) {
+                            heap.poll();
+                            heap.add(new Scored(id, score));
+                        }
+                    }
+                }
+            }
+        } finally {
+            vectorIterator.close();
+        }
+        long bruteForceMs = System.currentTimeMillis() - bruteStart;
+
+        // 4、统计
+        double recallSum = 0;
+        double minRecall = 1;
+        for (int i = 0; i < queries.size(); i++) {
+            PriorityQueue<Scored> heap = exact.get(i);
+            Set<Object> ann = annResults.get(i);
+            long hit = heap.stream().filter(s -> ann.contains(s.id())).count();
+            double recall = heap.isEmpty() ? 1 : (double) hit / heap.size();
+            recallSum += recall;
+            minRecall = Math.min(minRecall, recall);
+        }
+        Arrays.sort(latencies);
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("type", type);
+        report.put("collection", collectionName);
+        report.put("indexType", profile.getIndexType());
+        report.put("searchParams", profile.getSearchParams());
+        report.put("consistencyLevel", profile.getConsistencyLevel());
+        report.put("vectors", total);
+        report.put("samples", queries.size());
+        report.put("topK", topK);
+        report.put("recall", recallSum / queries.size());
+        report.put("minRecall", minRecall);
+        report.put("annAvgMs", Arrays.stream(latencies).average().orElse(0) / 1e6);
+        report.put("annP95Ms", latencies[(int) Math.min(latencies.length - 1, Math.ceil(latencies.length * 0.95) - 1)] / 1e6);
+        report.put("annMaxMs", latencies[latencies.length - 1] / 1e6);
+        report.put("bruteForceMs", bruteForceMs);
+        log.info("向量召回自检: {}", report);
+        return report;
+    }
+
+    /**
+     * 分批读取某类型的全部向量
+     *
+     * @param type     向量类型
+     * @param consumer 每批向量（向量ID → 向量数据）
+     */
+    public void scan(String type, Consumer<Map<String, VectorService.VectorInsertData>> consumer) {
+        String partitionName = milvusConfig.getTypePartitionName(type);
+        String filter = milvusConfig.getLayout() == MilvusConfig.Layout.SINGLE
+                ? VectorServiceImpl.FIELD_TYPE + " == \"" + type + "\"" : null;
+        QueryIterator iterator = iterator(milvusConfig.getTypeCollectionName(type),
+                partitionName == null ? null : List.of(partitionName), filter,
+                List.of(VectorServiceImpl.FIELD_ID, VectorServiceImpl.FIELD_BUSINESS_ID, VectorServiceImpl.FIELD_VECTOR));
+        try {
+            List<QueryResultsWrapper.RowRecord> rows;
+            while (!(rows = iterator.next()).isEmpty()) {
+                Map<String, VectorService.VectorInsertData> batch = new LinkedHashMap<>(rows.size() * 2);
+                for (QueryResultsWrapper.RowRecord row : rows) {
+                    batch.put(String.valueOf(row.get(VectorServiceImpl.FIELD_ID)), new VectorService.VectorInsertData(
+                            ((Number) row.get(VectorServiceImpl.FIELD_BUSINESS_ID)).longValue(),
+                            VectorMigration.toFloatArray((List<?>) row.get(VectorServiceImpl.FIELD_VECTOR)),
+                            type));
+                }
+                consumer.accept(batch);
+            }
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * 执行重建：创建新集合 → 复制并追平 → 暂停写入后切换
+     */
+    private void runRebuild(Rebuild task) {
+        String physical = physicalName(task.collectionName);
+        task.physicalName = physical;
+        List<String> partitions = milvusConfig.getLayout() == MilvusConfig.Layout.PARTITION
+                ? milvusConfig.getTypes() : Collections.singletonList(null);
+        log.info("开始重建向量索引, 集合={}, 新集合={}, 方案={}", task.collectionName, physical, task.profile);
+        try {
+            createCollection(physical, task.type, task.profile);
+            for (String partition : partitions) {
+                if (partition != null) {
+                    createPartitionIfAbsent(physical, partition);
+                }
+            }
+            loadCollection(physical);
+
+            // 复制全部向量，并追平复制期间的新写入
+            for (int pass = 0; pass < MAX_CATCH_UP_PASSES; pass++) {
+                long copied = copyPass(task, partitions);
+                if (pass > 0 && copied < milvusConfig.getMigrateBatchSize()) {
+                    break;
+                }
+            }
+
+            milvusBulkWriter.exclusive(() -> {
+                switchOver(task, partitions);
+                return null;
+            });
+            activeProfiles.put(profileKey(task.type), task.profile);
+            task.finish(null);
+            eventPublisher.publishEvent(new VectorIdsChangedEvent(task.collectionName));
+            log.info("向量索引重建完成, 集合={} → {}, 复制={}, 耗时={}ms", task.collectionName, physical,
+                    task.copied, task.finishedAt - task.startedAt);
+        } catch (Exception e) {
+            log.error("向量索引重建失败, 集合={}, 新集合={}", task.collectionName, physical, e);
+            task.finish(e.getMessage());
+            if (!task.switched && !task.replaced) {
+                try {
+                    milvusClient.dropCollection(DropCollectionReq.builder().collectionName(physical).build());
+                } catch (Exception dropError) {
+                    log.warn("删除未完成的新集合失败, 集合={}: {}", physical, dropError.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 在暂停写入时完成切换：复制剩余向量 → 同步删除 → 回填向量ID → 切换别名
+     */
+    private void switchOver(Rebuild task, List<String> partitions) {
+        copyPass(task, partitions);
+
+        Set<String> changed = new HashSet<>(task.deleted);
+        changed.addAll(task.upserted);
+        resync(task, changed);
+
+        remapAll(task.mappings, false);
+
+        String previous = resolveAlias(task.collectionName);
+        try {
+            if (previous != null) {
+                milvusClient.alterAlias(AlterAliasReq.builder()
+                        .alias(task.collectionName).collectionName(task.physicalName).build());
+            } else {
+                // 旧版本创建的逻辑集合名仍是实体集合，删除后才能建立同名别名（新建的集合已是别名，不会走到这里）
+                milvusClient.dropCollection(DropCollectionReq.builder().collectionName(task.collectionName).build());
+                task.replaced = true;
+                milvusClient.createAlias(CreateAliasReq.builder()
+                        .alias(task.collectionName).collectionName(task.physicalName).build());
+            }
+        } catch (RuntimeException e) {
+            if (task.replaced) {
+                // 原集合已删除，新集合是唯一的副本：保留新集合和已回填的向量ID，需手动建立别名
+                log.error("原集合已删除但别名创建失败, 请手动创建别名 {} → {}", task.collectionName, task.physicalName);
+            } else {
+                // 别名未切换，恢复业务表中的向量ID
+                remapAll(task.mappings, true);
+            }
+            throw e;
+        }
+        task.switched = true;
+        milvusBulkWriter.invalidate(task.collectionName);
+        if (previous != null) {
+            milvusClient.dropCollection(DropCollectionReq.builder().collectionName(previous).build());
+        }
+    }
+
+    /**
+     * 按原集合的当前内容重新同步复制期间被删除或覆盖写入的向量：先删除新集合中的旧副本，再复制仍存在的向量
+     */
+    private void resync(Rebuild task, Set<String> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        List<Object> staleIds = new ArrayList<>();
+        for (String oldId : changed) {
+            for (Map<String, String> mappings : task.mappings.values()) {
+                String newId = mappings.remove(oldId);
+                if (newId != null) {
+                    staleIds.add(Long.parseLong(newId));
+                }
+            }
+        }
+        if (!staleIds.isEmpty()) {
+            milvusClient.delete(DeleteReq.builder().collectionName(task.physicalName).ids(staleIds).build());
+        }
+
+        List<Object> oldIds = changed.stream().map(id -> (Object) Long.parseLong(id)).toList();
+        for (int from = 0; from < oldIds.size(); from += REMAP_BATCH_SIZE) {
+            List<QueryResp.QueryResult> rows = milvusClient.query(QueryReq.builder()
+                            .collectionName(task.collectionName)
+                            .ids(oldIds.subList(from, Math.min(from + REMAP_BATCH_SIZE, oldIds.size())))
+                            .outputFields(List.of(VectorServiceImpl.FIELD_ID, VectorServiceImpl.FIELD_BUSINESS_ID,
+                                    VectorServiceImpl.FIELD_TYPE, VectorServiceImpl.FIELD_VECTOR))
+                            .consistencyLevel(ConsistencyLevel.STRONG)
+                            .build())
+                    .getQueryResults();
+            Map<String, List<Map<String, Object>>> byType = new LinkedHashMap<>();
+            rows.forEach(r -> byType.computeIfAbsent(String.valueOf(r.getEntity().get(VectorServiceImpl.FIELD_TYPE)),
+                    t -> new ArrayList<>()).add(r.getEntity()));
+            byType.forEach((type, entities) -> {
+                List<VectorService.VectorInsertData> data = new ArrayList<>(entities.size());
+                for (Map<String, Object> entity : entities) {
+                    data.add(new VectorService.VectorInsertData(
+                            ((Number) entity.get(VectorServiceImpl.FIELD_BUSINESS_ID)).longValue(),
+                            VectorMigration.toFloatArray((List<?>) entity.get(VectorServiceImpl.FIELD_VECTOR)),
+                            type));
+                }
+                List<String> newIds = milvusBulkWriter.insert(task.physicalName,
+                        milvusConfig.getTypePartitionName(type), data);
+                Map<String, String> mappings = task.mappings.computeIfAbsent(type, t -> new HashMap<>());
+                for (int i = 0; i < entities.size(); i++) {
+                    mappings.put(String.valueOf(entities.get(i).get(VectorServiceImpl.FIELD_ID)), newIds.get(i));
+                }
+            });
+        }
+        log.info("重建期间变化的向量已重新同步, 集合={}, 删除旧副本={}, 变化={}", task.physicalName,
+                staleIds.size(), changed.size());
+    }
+
+    /**
+     * 复制一轮：从各分区已复制的最大主键之后开始
+     *
+     * @return 本轮复制条数
+     */
+    private long copyPass(Rebuild task, List<String> partitions) {
+        long copied = 0;
+        for (String partition : partitions) {
+            Long lastId = task.lastIds.get(partition);
+            QueryIterator iterator = iterator(task.collectionName,
+                    partition == null ? null : List.of(partition),
+                    lastId == null ? null : VectorServiceImpl.FIELD_ID + " > " + lastId,
+                    List.of(VectorServiceImpl.FIELD_ID, VectorServiceImpl.FIELD_BUSINESS_ID,
+                            VectorServiceImpl.FIELD_TYPE, VectorServiceImpl.FIELD_VECTOR));
+            try {
+                List<QueryResultsWrapper.RowRecord> rows;
+                while (!(rows = iterator.next()).isEmpty()) {
+                    List<VectorService.VectorInsertData> data = new ArrayList<>(rows.size());
+                    for (QueryResultsWrapper.RowRecord row : rows) {
+                        data.add(new VectorService.VectorInsertData(
+                                ((Number) row.get(VectorServiceImpl.FIELD_BUSINESS_ID)).longValue(),
+                                VectorMigration.toFloatArray((List<?>) row.get(VectorServiceImpl.FIELD_VECTOR)),
+                                String.valueOf(row.get(VectorServiceImpl.FIELD_TYPE))));
+                    }
+                    List<String> newIds = milvusBulkWriter.insert(task.physicalName, partition, data);
+                    for (int i = 0; i < rows.size(); i++) {
+                        long oldId = ((Number) rows.get(i).get(VectorServiceImpl.FIELD_ID)).longValue();
+                        task.mappings.computeIfAbsent(data.get(i).type(), t -> new HashMap<>())
+                                .put(String.valueOf(oldId), newIds.get(i));
+                        task.lastIds.merge(partition, oldId, Math::max);
+                    }
+                    copied += rows.size();
+                    task.copied += rows.size();
+                }
+            } finally {
+                iterator.close();
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * 在一个事务中回填全部向量ID
+     *
+     * @param reverse 为true时改回旧向量ID
+     */
+    private void remapAll(Map<String, Map<String, String>> mappings, boolean reverse) {
+        transactionTemplate.executeWithoutResult(status -> mappings.forEach((type, typeMappings) -> {
+            Map<String, String> batch = new HashMap<>();
+            for (Map.Entry<String, String> entry : typeMappings.entrySet()) {
+                if (entry.getKey().equals(entry.getValue())) {
+                    // 业务主键在新旧集合中相同
+                    continue;
+                }
+                if (reverse) {
+                    batch.put(entry.getValue(), entry.getKey());
+                } else {
+                    batch.put(entry.getKey(), entry.getValue());
+                }
+                if (batch.size() >= REMAP_BATCH_SIZE) {
+                    vectorMigration.remapVectorIds(type, batch);
+                    batch = new HashMap<>();
+                }
+            }
+            vectorMigration.remapVectorIds(type, batch);
+        }));
+    }
+
+    /**
+     * 生成带版本号的实体集合名
+     */
+    private static String physicalName(String collectionName) {
+        return collectionName + "_v" + LocalDateTime.now().format(VERSION_FORMAT);
+    }
+
+    /**
+     * 查询别名当前指向的集合
+     *
+     * @return 集合名称，名称不是别名时返回null
+     */
+    private String resolveAlias(String alias) {
+        try {
+            return milvusClient.describeAlias(DescribeAliasReq.builder().alias(alias).build()).getCollectionName();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void createCollection(String collectionName, String type, MilvusConfig.IndexProfile profile) {
+        // 构建collection
+        CreateCollectionReq collection = CreateCollectionReq.builder()
+                .collectionName(collectionName)
+                .description(type == null ? "知识图谱向量集合" : "知识图谱向量集合（" + type + "）")
+                .indexParams(createIndex(profile))
+                .collectionSchema(createSchema())
+                .build();
+
+        milvusClient.createCollection(collection);
+        log.info("集合 {} 创建成功, 索引={}", collectionName, profile.getIndexType());
+    }
+
+    /**
+     * 创建集合的schema
+     * @return
+     */
+    private CreateCollectionReq.CollectionSchema createSchema() {
+        // 2、构建schema
+        CreateCollectionReq.CollectionSchema schema = milvusClient.createSchema();
+        // 3 向schema添加字段
+        // 主键字段
+        schema.addField(AddFieldReq.builder()
+                .fieldName(VectorServiceImpl.FIELD_ID)
+                .dataType(DataType.Int64)
+                .isPrimaryKey(true)
+                .autoID(milvusConfig.getPrimaryKey() == MilvusConfig.PrimaryKey.AUTO)
+                .build());
+        // 业务ID字段
+        schema.addField(AddFieldReq.builder()
+                .fieldName(VectorServiceImpl.FIELD_BUSINESS_ID)
+                .dataType(DataType.Int64)
+                .build());
+
+        // 类型字段
+        schema.addField(AddFieldReq.builder()
+                .fieldName(VectorServiceImpl.FIELD_TYPE)
+                .dataType(DataType.VarChar)
+                .maxLength(50)
+                .build());
+        // 向量字段
+        schema.addField(AddFieldReq.builder()
+                .fieldName(VectorServiceImpl.FIELD_VECTOR)
+                .dataType(DataType.FloatVector)
+                .dimension(milvusConfig.getDimension())
+                .build());
+        return schema;
+    }
+
+    /**
+     * 创建向量索引
+     */
+    private List<IndexParam> createIndex(MilvusConfig.IndexProfile profile) {
+        IndexParam indexParamForVectorField = IndexParam.builder()
+                .fieldName(VectorServiceImpl.FIELD_VECTOR)
+                .indexType(IndexParam.IndexType.valueOf(profile.getIndexType()))
+                .metricType(milvusConfig.getMetricTypeEnum())
+                .extraParams(numericParams(profile.getIndexParams()))
+                .build();
+        return Arrays.asList(indexParamForVectorField);
+    }
+
+    private QueryIterator iterator(String collectionName, List<String> partitionNames, String expr,
+                                   List<String> outputFields) {
+        QueryIteratorReq.QueryIteratorReqBuilder builder = QueryIteratorReq.builder()
+                .collectionName(collectionName)
+                .outputFields(outputFields)
+                .batchSize(milvusConfig.getMigrateBatchSize());
+        if (partitionNames != null) {
+            builder.partitionNames(partitionNames);
+        }
+        if (expr != null) {
+            builder.expr(expr);
+        }
+        return milvusClient.queryIterator(builder.build());
+    }
+
+    private double score(float[] query, float[] vector) {
+        double dot = 0;
+        double queryNorm = 0;
+        double vectorNorm = 0;
+        double distance = 0;
+        for (int i = 0; i < query.length; i++) {
+            dot += query[i] * vector[i];
+            queryNorm += query[i] * query[i];
+            vectorNorm += vector[i] * vector[i];
+            double d = query[i] - vector[i];
+            distance += d * d;
+        }
+        return switch (milvusConfig.getMetricTypeEnum()) {
+            case L2 -> distance;
+            case IP -> dot;
+            default -> queryNorm == 0 || vectorNorm == 0 ? 0 : dot / Math.sqrt(queryNorm * vectorNorm);
+        };
+    }
+
+    private String profileKey(String type) {
+        return milvusConfig.getLayout() == MilvusConfig.Layout.COLLECTION && type != null ? type : SHARED;
+    }
+
+    /**
+     * 以请求中的方案覆盖当前方案，未指定的项沿用当前值
+     */
+    private static MilvusConfig.IndexProfile mergeProfile(MilvusConfig.IndexProfile current,
+                                                          MilvusConfig.IndexProfile requested) {
+        if (requested == null) {
+            return current;
+        }
+        MilvusConfig.IndexProfile profile = new MilvusConfig.IndexProfile();
+        profile.setIndexType(requested.getIndexType() != null ? requested.getIndexType() : current.getIndexType());
+        profile.setIndexParams(!requested.getIndexParams().isEmpty()
+                ? requested.getIndexParams() : current.getIndexParams());
+        profile.setSearchParams(!requested.getSearchParams().isEmpty()
+                ? requested.getSearchParams() : current.getSearchParams());
+        profile.setConsistencyLevel(requested.getConsistencyLevel() != null
+                ? requested.getConsistencyLevel() : current.getConsistencyLevel());
+        return profile;
+    }
+
+    /**
+     * 配置文件中的参数值绑定为字符串，按数值传给Milvus
+     */
+    static Map<String, Object> numericParams(Map<String, Object> params) {
+        Map<String, Object> converted = new HashMap<>();
+        params.forEach((key, value) -> {
+            Object v = value;
+            if (value instanceof String text) {
+                try {
+                    v = Integer.parseInt(text);
+                } catch (NumberFormatException e) {
+                    try {
+                        v = Double.parseDouble(text);
+                    } catch (NumberFormatException ignored) {
+                        // 非数值参数原样传递
+                    }
+                }
+            }
+            converted.put(key, v);
+        });
+        return converted;
+    }
+
+    /**
+     * 向量ID整体变化事件（索引重建切换或布局迁移完成后发布），本地副本据此重新同步
+     *
+     * @param collectionName 发生变化的集合
+     */
+    public record VectorIdsChangedEvent(String collectionName) {
+    }
+
+    /**
+     * 精确计算的候选结果
+     */
+    private record Scored(Object id, double score) {
+    }
+
+    /**
+     * 一次索引重建任务
+     */
+    private static class Rebuild {
+        final String type;
+        final String collectionName;
+        final MilvusConfig.IndexProfile profile;
+        final long startedAt = System.currentTimeMillis();
+        /**
+         * 向量类型 → (旧主键 → 新主键)
+         */
+        final Map<String, Map<String, String>> mappings = new HashMap<>();
+        /**
+         * 分区 → 已复制的最大旧主键
+         */
+        final Map<String, Long> lastIds = new HashMap<>();
+        /**
+         * 复制期间删除的旧主键
+         */
+        final Set<String> deleted = ConcurrentHashMap.newKeySet();
+        /**
+         * 复制期间按业务主键覆盖写入的主键
+         */
+        final Set<String> upserted = ConcurrentHashMap.newKeySet();
+        volatile String physicalName;
+        volatile boolean running = true;
+        /**
+         * 别名已指向新集合
+         */
+        volatile boolean switched;
+        /**
+         * 原实体集合已删除（旧版本创建的集合首次切换为别名时），新集合不能再删除
+         */
+        volatile boolean replaced;
+        volatile long copied;
+        volatile long finishedAt;
+        volatile String error;
+
+        Rebuild(String type, String collectionName, MilvusConfig.IndexProfile profile) {
+            this.type = type;
+            this.collectionName = collectionName;
+            this.profile = profile;
+        }
+
+        void finish(String error) {
+            this.error = error;
+            this.finishedAt = System.currentTimeMillis();
+            this.running = false;
+        }
+
+        Map<String, Object> status() {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("collection", collectionName);
+            status.put("type", type);
+            status.put("newCollection", physicalName);
+            status.put("profile", profile);
+            status.put("state", running ? "running" : error == null ? "success" : "failed");
+            status.put("copied", copied);
+            status.put("deletedDuringRebuild", deleted.size());
+            status.put("upsertedDuringRebuild", upserted.size());
+            status.put("elapsedMs", (running ? System.currentTimeMillis() : finishedAt) - startedAt);
+            if (error != null) {
+                status.put("error", error);
+            }
+            return status;
+        }
+    }
+}
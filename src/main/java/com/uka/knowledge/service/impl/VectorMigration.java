@@ -0,0 +1,227 @@
+package com.uka.knowledge.service.impl;
+
+import com.uka.knowledge.config.MilvusConfig;
+import com.uka.knowledge.config.VectorStoreConfig;
+import com.uka.knowledge.mapper.DocumentChunkMapper;
+import com.uka.knowledge.mapper.KnowledgeNodeMapper;
+import com.uka.knowledge.mapper.OcrRecordMapper;
+import com.uka.knowledge.service.VectorService;
+import io.milvus.orm.iterator.QueryIterator;
+import io.milvus.response.QueryResultsWrapper;
+import io.milvus.v2.client.MilvusClientV2;
+import io.milvus.v2.common.ConsistencyLevel;
+import io.milvus.v2.service.collection.request.DropCollectionReq;
+import io.milvus.v2.service.collection.request.HasCollectionReq;
+import io.milvus.v2.service.vector.request.DeleteReq;
+import io.milvus.v2.service.vector.request.QueryIteratorReq;
+import io.milvus.v2.service.vector.request.QueryReq;
+import io.milvus.v2.service.vector.response.QueryResp;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * 向量布局迁移
+ * <p>
+ * milvus.layout 从single切换为partition或collection后，原集合（milvus.collection-name）中的向量
+ * 在应用启动完成后分批迁移到新布局：按类型写入对应的集合/分区，将MySQL中引用旧向量ID的记录
+ * （分块、知识节点、OCR记录）改为新向量ID，再从原集合删除该批向量。
+ * 已迁移的向量不再留在原集合中，迁移中断后重启会从剩余的向量继续。
+ * 迁移默认关闭，需设置 milvus.migrate-legacy=true 开启；每批迁移期间短暂暂停向量写入。
+ * </p>
+ * <p>
+ * 原集合存在期间（迁移未完成或未开启迁移），检索会同时搜索原集合并合并结果，删除也会同时作用于原集合，
+ * 因此切换布局后无需停机等待迁移完成。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression(VectorStoreConfig.MILVUS_ENABLED)
+@RequiredArgsConstructor
+public class VectorMigration {
+
+    private final MilvusClientV2 milvusClient;
+    private final MilvusConfig milvusConfig;
+    private final MilvusBulkWriter milvusBulkWriter;
+    private final DocumentChunkMapper documentChunkMapper;
+    private final KnowledgeNodeMapper knowledgeNodeMapper;
+    private final OcrRecordMapper ocrRecordMapper;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 原集合是否仍有需要检索的向量
+     */
+    private volatile boolean legacyActive;
+
+    /**
+     * 检查原集合是否存在（在新布局的集合初始化时调用）
+     */
+    public void detect() {
+        legacyActive = milvusConfig.getLayout() != MilvusConfig.Layout.SINGLE
+                && milvusClient.hasCollection(HasCollectionReq.builder()
+                .collectionName(milvusConfig.getCollectionName())
+                .build());
+        if (legacyActive) {
+            log.info("检测到原向量集合 {}, 布局={}, 迁移完成前检索将同时搜索原集合",
+                    milvusConfig.getCollectionName(), milvusConfig.getLayout());
+        }
+    }
+
+    /**
+     * 原集合是否仍需参与检索和删除
+     *
+     * @return 原集合存在且未迁移完成时返回true
+     */
+    public boolean isLegacyActive() {
+        return legacyActive;
+    }
+
+    /**
+     * 应用启动完成后执行迁移
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrate() {
+        if (!legacyActive || !Boolean.TRUE.equals(milvusConfig.getMigrateLegacy())) {
+            return;
+        }
+        String legacy = milvusConfig.getCollectionName();
+        Set<String> types = new HashSet<>(milvusConfig.getTypes());
+        long startTime = System.currentTimeMillis();
+        long migrated = 0;
+        long skipped = 0;
+        log.info("开始迁移原向量集合 {} 到 {} 布局", legacy, milvusConfig.getLayout());
+
+        QueryIterator iterator = milvusClient.queryIterator(QueryIteratorReq.builder()
+                .collectionName(legacy)
+                .outputFields(List.of(VectorServiceImpl.FIELD_ID, VectorServiceImpl.FIELD_BUSINESS_ID,
+                        VectorServiceImpl.FIELD_TYPE, VectorServiceImpl.FIELD_VECTOR))
+                .batchSize(milvusConfig.getMigrateBatchSize())
+                .build());
+        try {
+            List<QueryResultsWrapper.RowRecord> rows;
+            while (!(rows = iterator.next()).isEmpty()) {
+                // 按类型分组，未配置的类型留在原集合
+                Map<String, List<QueryResultsWrapper.RowRecord>> byType = new LinkedHashMap<>();
+                for (QueryResultsWrapper.RowRecord row : rows) {
+                    String type = String.valueOf(row.get(VectorServiceImpl.FIELD_TYPE));
+                    if (types.contains(type)) {
+                        byType.computeIfAbsent(type, t -> new ArrayList<>()).add(row);
+                    } else {
+                        skipped++;
+                    }
+                }
+                for (Map.Entry<String, List<QueryResultsWrapper.RowRecord>> entry : byType.entrySet()) {
+                    migrateBatch(entry.getKey(), entry.getValue());
+                    migrated += entry.getValue().size();
+                }
+                log.info("向量迁移进度: 已迁移={}, 跳过={}", migrated, skipped);
+            }
+        } catch (Exception e) {
+            log.error("向量迁移失败, 已迁移={}, 重启后将从剩余向量继续", migrated, e);
+            return;
+        } finally {
+            iterator.close();
+        }
+
+        if (skipped > 0) {
+            log.warn("向量迁移完成, 已迁移={}, {}条向量的类型不在 milvus.types 中, 保留在原集合 {}",
+                    migrated, skipped, legacy);
+            return;
+        }
+        legacyActive = false;
+        eventPublisher.publishEvent(new VectorIndexManager.VectorIdsChangedEvent(legacy));
+        if (Boolean.TRUE.equals(milvusConfig.getDropLegacyAfterMigrate())) {
+            milvusClient.dropCollection(DropCollectionReq.builder().collectionName(legacy).build());
+            log.info("已删除原向量集合 {}", legacy);
+        }
+        log.info("向量迁移完成, 已迁移={}, 耗时={}ms", migrated, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 迁移同一类型的一批向量：暂停写入 → 重新读取原集合中仍存在的向量 → 写入新位置 → 回填MySQL中的向量ID → 从原集合删除
+     * <p>
+     * 覆盖写入和删除会先删除原集合中同一业务对象的向量，迭代读出后被并发覆盖或删除的向量重新读取时已不存在，
+     * 不再迁移，避免旧向量覆盖新布局中更新的向量。
+     * </p>
+     */
+    private void migrateBatch(String type, List<QueryResultsWrapper.RowRecord> rows) {
+        List<Object> ids = new ArrayList<>(rows.size());
+        for (QueryResultsWrapper.RowRecord row : rows) {
+            ids.add(row.get(VectorServiceImpl.FIELD_ID));
+        }
+        milvusBulkWriter.exclusive(() -> {
+            List<QueryResp.QueryResult> current = milvusClient.query(QueryReq.builder()
+                            .collectionName(milvusConfig.getCollectionName())
+                            .ids(ids)
+                            .outputFields(List.of(VectorServiceImpl.FIELD_ID, VectorServiceImpl.FIELD_BUSINESS_ID,
+                                    VectorServiceImpl.FIELD_VECTOR))
+                            .consistencyLevel(ConsistencyLevel.STRONG)
+                            .build())
+                    .getQueryResults();
+            if (current.isEmpty()) {
+                return null;
+            }
+            List<VectorService.VectorInsertData> data = new ArrayList<>(current.size());
+            List<Object> oldIds = new ArrayList<>(current.size());
+            for (QueryResp.QueryResult result : current) {
+                Map<String, Object> entity = result.getEntity();
+                oldIds.add(entity.get(VectorServiceImpl.FIELD_ID));
+                data.add(new VectorService.VectorInsertData(
+                        ((Number) entity.get(VectorServiceImpl.FIELD_BUSINESS_ID)).longValue(),
+                        toFloatArray((List<?>) entity.get(VectorServiceImpl.FIELD_VECTOR)),
+                        type));
+            }
+            List<String> newIds = milvusBulkWriter.insert(milvusConfig.getTypeCollectionName(type),
+                    milvusConfig.getTypePartitionName(type), data);
+
+            Map<String, String> mappings = new HashMap<>(oldIds.size() * 2);
+            for (int i = 0; i < oldIds.size(); i++) {
+                mappings.put(String.valueOf(oldIds.get(i)), newIds.get(i));
+            }
+            remapVectorIds(type, mappings);
+
+            milvusClient.delete(DeleteReq.builder()
+                    .collectionName(milvusConfig.getCollectionName())
+                    .ids(oldIds)
+                    .build());
+            return null;
+        });
+    }
+
+    /**
+     * 将业务表中引用旧向量ID的记录改为新向量ID
+     *
+     * @param type     向量类型
+     * @param mappings 旧向量ID → 新向量ID
+     */
+    void remapVectorIds(String type, Map<String, String> mappings) {
+        if (mappings.isEmpty()) {
+            return;
+        }
+        switch (type) {
+            case "chunk" -> documentChunkMapper.remapVectorIds(mappings);
+            case "node" -> knowledgeNodeMapper.remapVectorIds(mappings);
+            case "ocr" -> ocrRecordMapper.remapVectorIds(mappings);
+            default -> log.debug("类型 {} 无对应的业务表, 仅迁移向量", type);
+        }
+    }
+
+    static float[] toFloatArray(List<?> values) {
+        float[] vector = new float[values.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = ((Number) values.get(i)).floatValue();
+        }
+        return vector;
+    }
+}
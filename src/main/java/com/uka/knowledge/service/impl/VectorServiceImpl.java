@@ -1,58 +1,66 @@
 package com.uka.knowledge.service.impl;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import com.uka.knowledge.common.ResultCode;
 import com.uka.knowledge.config.MilvusConfig;
+import com.uka.knowledge.config.VectorStoreConfig;
+import com.uka.knowledge.exception.BusinessException;
 import com.uka.knowledge.service.VectorService;
 import io.milvus.v2.client.MilvusClientV2;
-import io.milvus.v2.common.DataType;
+import io.milvus.v2.common.ConsistencyLevel;
 import io.milvus.v2.common.IndexParam;
-import io.milvus.v2.service.collection.request.AddFieldReq;
-import io.milvus.v2.service.collection.request.CreateCollectionReq;
-import io.milvus.v2.service.collection.request.HasCollectionReq;
-import io.milvus.v2.service.collection.request.LoadCollectionReq;
 import io.milvus.v2.service.vector.request.DeleteReq;
-import io.milvus.v2.service.vector.request.InsertReq;
+import io.milvus.v2.service.vector.request.QueryReq;
 import io.milvus.v2.service.vector.request.SearchReq;
-import io.milvus.v2.service.vector.request.data.FloatVec;
 import io.milvus.v2.service.vector.response.DeleteResp;
-import io.milvus.v2.service.vector.response.InsertResp;
 import io.milvus.v2.service.vector.response.SearchResp;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * 向量服务实现类
  * <p>
  * 实现与Milvus向量数据库的交互，包括：
  * - 集合初始化
- * - 向量插入
+ * - 向量插入（按列编码，批量写入时合并缓冲）
  * - 向量删除
  * - 相似性搜索
  * </p>
+ * <p>
+ * 向量按 milvus.layout 存放：single布局共用一个集合并按type字段过滤；
+ * partition布局每种类型一个分区，检索只搜索对应分区，IVF聚类和nprobe不再被其他类型的向量占用；
+ * collection布局每种类型一个集合，各自使用 milvus.type-indexes 中的索引和检索参数。
+ * 原集合迁移期间由 {@link VectorMigration} 负责，检索和删除同时作用于原集合。
+ * </p>
  *
  * @author uka
  * @version 1.0
  */
 @Slf4j
 @Service
+@ConditionalOnExpression(VectorStoreConfig.MILVUS_ENABLED)
 @RequiredArgsConstructor
 public class VectorServiceImpl implements VectorService {
 
     private final MilvusClientV2 milvusClient;
     private final MilvusConfig milvusConfig;
+    private final MilvusBulkWriter milvusBulkWriter;
+    private final VectorMigration vectorMigration;
+    private final VectorIndexManager vectorIndexManager;
 
     /**
      * 字段名称常量
      */
-    private static final String FIELD_ID = "id";
-    private static final String FIELD_BUSINESS_ID = "business_id";
-    private static final String FIELD_TYPE = "type";
-    private static final String FIELD_VECTOR = "vector";
+    static final String FIELD_ID = "id";
+    static final String FIELD_BUSINESS_ID = "business_id";
+    static final String FIELD_TYPE = "type";
+    static final String FIELD_VECTOR = "vector";
 
     /**
      * 服务启动时初始化集合
@@ -61,7 +69,14 @@ public class VectorServiceImpl implements VectorService {
     public void init() {
         try {
             initCollection();
-            log.info("Milvus集合初始化成功");
+            vectorMigration.detect();
+            if (milvusConfig.getPrimaryKey() == MilvusConfig.PrimaryKey.BUSINESS) {
+                milvusConfig.getTypes().stream().map(this::collectionName).distinct()
+                        .filter(collectionName -> !milvusBulkWriter.isBusinessKeyed(collectionName))
+                        .forEach(collectionName -> log.warn("集合 {} 为自增主键, 更新向量时仍需先删除旧向量, "
+                                + "重建索引后改为业务主键", collectionName));
+            }
+            log.info("Milvus集合初始化成功, 布局={}", milvusConfig.getLayout());
         } catch (Exception e) {
             log.warn("Milvus集合初始化失败，可能Milvus服务未启动: {}", e.getMessage());
         }
@@ -72,91 +87,28 @@ public class VectorServiceImpl implements VectorService {
      */
     @Override
     public void initCollection() {
-        String collectionName = milvusConfig.getCollectionName();
-
-        // 1、检查集合是否存在
-        Boolean hasCollection = milvusClient.hasCollection(
-                HasCollectionReq.builder().collectionName(collectionName).build()
-        );
-
-        if (hasCollection) {
-            log.info("集合 {} 已存在", collectionName);
-            // 加载集合到内存
-            loadCollection();
-            return;
-        }
-        // 构建collection
-        CreateCollectionReq collection = CreateCollectionReq.builder()
-                .collectionName(collectionName)
-                .description("知识图谱向量集合")
-                .indexParams(createIndex())
-                .collectionSchema(createSchema())
-                .build();
-
-        milvusClient.createCollection(collection);
-        // 加载集合到内存
-        loadCollection();
-
-        log.info("集合 {} 创建成功", collectionName);
-    }
-
-    /**
-     * 创建集合的schema
-     * @return
-     */
-    private CreateCollectionReq.CollectionSchema createSchema() {
-        // 2、构建schema
-        CreateCollectionReq.CollectionSchema schema = milvusClient.createSchema();
-        // 3 向schema添加字段
-        // 主键字段
-        schema.addField(AddFieldReq.builder()
-                .fieldName(FIELD_ID)
-                .dataType(DataType.Int64)
-                .isPrimaryKey(true)
-                .autoID(true)
-                .build());
-        // 业务ID字段
-        schema.addField(AddFieldReq.builder()
-                .fieldName(FIELD_BUSINESS_ID)
-                .dataType(DataType.Int64)
-                .build());
-
-        // 类型字段
-        schema.addField(AddFieldReq.builder()
-                .fieldName(FIELD_TYPE)
-                .dataType(DataType.VarChar)
-                .maxLength(50)
-                .build());
-        // 向量字段
-        schema.addField(AddFieldReq.builder()
-                .fieldName(FIELD_VECTOR)
-                .dataType(DataType.FloatVector)
-                .dimension(milvusConfig.getDimension())
-                .build());
-        return schema;
-    }
-
-    /**
-     * 创建向量索引
-     */
-    private List<IndexParam> createIndex() {
-        IndexParam indexParamForVectorField = IndexParam.builder()
-                .fieldName(FIELD_VECTOR)
-                .indexType(milvusConfig.getIndexTypeEnum())
-                .metricType(IndexParam.MetricType.COSINE)
-                .extraParams(Map.of("nlist", 1024))
-                .build();
-        return Arrays.asList(indexParamForVectorField);
-    }
-
-    /**
-     * 加载集合到内存
-     */
-    private void loadCollection() {
-        LoadCollectionReq loadCollectionReq = LoadCollectionReq.builder()
-                .collectionName(milvusConfig.getCollectionName())
-                .build();
-        milvusClient.loadCollection(loadCollectionReq);
+        switch (milvusConfig.getLayout()) {
+            case SINGLE -> {
+                String collectionName = milvusConfig.getCollectionName();
+                vectorIndexManager.createCollectionIfAbsent(collectionName, null);
+                vectorIndexManager.loadCollection(collectionName);
+            }
+            case PARTITION -> {
+                String collectionName = milvusConfig.getTypeCollectionName(null);
+                vectorIndexManager.createCollectionIfAbsent(collectionName, null);
+                for (String type : milvusConfig.getTypes()) {
+                    vectorIndexManager.createPartitionIfAbsent(collectionName, type);
+                }
+                vectorIndexManager.loadCollection(collectionName);
+            }
+            case COLLECTION -> {
+                for (String type : milvusConfig.getTypes()) {
+                    String collectionName = milvusConfig.getTypeCollectionName(type);
+                    vectorIndexManager.createCollectionIfAbsent(collectionName, type);
+                    vectorIndexManager.loadCollection(collectionName);
+                }
+            }
+        }
     }
 
     /**
@@ -171,47 +123,114 @@ public class VectorServiceImpl implements VectorService {
     /**
      * 批量插入向量数据
      */
+    @Override
     public List<String> insertVectors(List<VectorInsertData> vectorInsertDataList) {
-        // 构建向量数据
-        List<JsonObject> dataList = vectorInsertDataList.stream().map(vectorInsertData -> {
-            JsonObject jsonObject = new JsonObject();
-            jsonObject.addProperty(FIELD_BUSINESS_ID, vectorInsertData.businessId());
-            jsonObject.addProperty(FIELD_TYPE, vectorInsertData.type());
-            // 向量转换为JSON数组
-            JsonArray vectorArray = new JsonArray();
-            for (float v : vectorInsertData.vector()) {
-                vectorArray.add(v);
+        if (milvusConfig.getLayout() == MilvusConfig.Layout.SINGLE) {
+            return milvusBulkWriter.insert(milvusConfig.getCollectionName(), null, vectorInsertDataList);
+        }
+        String[] vectorIds = new String[vectorInsertDataList.size()];
+        groupByType(vectorInsertDataList).forEach((type, indexes) -> {
+            List<String> ids = milvusBulkWriter.insert(milvusConfig.getTypeCollectionName(type),
+                    milvusConfig.getTypePartitionName(type), select(vectorInsertDataList, indexes));
+            for (int i = 0; i < indexes.size(); i++) {
+                vectorIds[indexes.get(i)] = ids.get(i);
             }
-            jsonObject.add(FIELD_VECTOR, vectorArray);
-            return jsonObject;
-        }).toList();
-        // 执行插入
-        InsertReq insertReq = InsertReq.builder()
-                .collectionName(milvusConfig.getCollectionName())
-                .data(dataList)
-                .build();
-        InsertResp insertResp = milvusClient.insert(insertReq);
+        });
+        return Arrays.asList(vectorIds);
+    }
+
+    /**
+     * 缓冲批量插入向量数据
+     */
+    @Override
+    public CompletableFuture<List<String>> bulkInsertVectors(List<VectorInsertData> vectorInsertDataList) {
+        if (milvusConfig.getLayout() == MilvusConfig.Layout.SINGLE) {
+            return milvusBulkWriter.submit(milvusConfig.getCollectionName(), null, vectorInsertDataList);
+        }
+        String[] vectorIds = new String[vectorInsertDataList.size()];
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        groupByType(vectorInsertDataList).forEach((type, indexes) -> futures.add(milvusBulkWriter
+                .submit(milvusConfig.getTypeCollectionName(type), milvusConfig.getTypePartitionName(type),
+                        select(vectorInsertDataList, indexes))
+                .thenAccept(ids -> {
+                    for (int i = 0; i < indexes.size(); i++) {
+                        vectorIds[indexes.get(i)] = ids.get(i);
+                    }
+                })));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> Arrays.asList(vectorIds));
+    }
 
-        // 返回生成的ID
-        return insertResp.getPrimaryKeys().stream().map(String::valueOf).toList();
+    /**
+     * 写入或覆盖向量
+     */
+    @Override
+    public String upsertVector(VectorInsertData vectorInsertData) {
+        List<String> vectorIds = upsertVectors(Arrays.asList(vectorInsertData));
+        return vectorIds.isEmpty() ? null : vectorIds.get(0);
+    }
+
+    /**
+     * 批量写入或覆盖向量
+     * 业务主键的集合由upsert直接覆盖；自增主键的集合（及迁移中的原集合）先删除同一业务对象的旧向量
+     */
+    @Override
+    public List<String> upsertVectors(List<VectorInsertData> vectorInsertDataList) {
+        Map<String, List<Long>> businessIds = new LinkedHashMap<>();
+        for (VectorInsertData data : vectorInsertDataList) {
+            businessIds.computeIfAbsent(data.type(), t -> new ArrayList<>()).add(data.businessId());
+        }
+        businessIds.forEach((type, ids) -> {
+            String collectionName = collectionName(type);
+            if (!milvusBulkWriter.isBusinessKeyed(collectionName)) {
+                deleteByBusinessIds(collectionName, milvusConfig.getTypePartitionName(type), type, ids);
+            }
+            deleteLegacyByBusinessIds(type, ids);
+        });
+        return insertVectors(vectorInsertDataList);
+    }
+
+    /**
+     * 按业务ID删除向量
+     */
+    @Override
+    public boolean deleteVectors(String type, List<Long> businessIds) {
+        if (businessIds.isEmpty()) {
+            return false;
+        }
+        boolean deleted = deleteByBusinessIds(collectionName(type), milvusConfig.getTypePartitionName(type),
+                type, businessIds);
+        return deleteLegacyByBusinessIds(type, businessIds) || deleted;
     }
 
     /**
      * 删除向量
+     * 类型未知时从所有类型的集合中删除
      */
     @Override
     public boolean deleteVector(String vectorId) {
-        try {
-            DeleteReq deleteReq = DeleteReq.builder()
-                    .collectionName(milvusConfig.getCollectionName())
-                    .ids(Collections.singletonList(vectorId))
-                    .build();
-            DeleteResp deleteResp = milvusClient.delete(deleteReq);
-            return deleteResp.getDeleteCnt() > 0;
-        } catch (Exception e) {
-            log.error("删除向量失败", e);
-            return false;
+        if (milvusConfig.getLayout() == MilvusConfig.Layout.SINGLE) {
+            return delete(milvusConfig.getCollectionName(), vectorId);
+        }
+        boolean deleted = milvusConfig.getTypes().stream()
+                .map(milvusConfig::getTypeCollectionName)
+                .distinct()
+                .map(collectionName -> delete(collectionName, vectorId))
+                .reduce(false, Boolean::logicalOr);
+        return deleteLegacy(vectorId) || deleted;
+    }
+
+    /**
+     * 删除指定类型的向量
+     */
+    @Override
+    public boolean deleteVector(String vectorId, String type) {
+        if (milvusConfig.getLayout() == MilvusConfig.Layout.SINGLE) {
+            return delete(milvusConfig.getCollectionName(), vectorId);
         }
+        checkType(type);
+        boolean deleted = delete(milvusConfig.getTypeCollectionName(type), vectorId);
+        return deleteLegacy(vectorId) || deleted;
     }
 
     /**
@@ -219,17 +238,47 @@ public class VectorServiceImpl implements VectorService {
      */
     @Override
     public List<VectorSearchResult> search(float[] queryVector, int topK, String type) {
-        // 构建搜索参数
-        SearchReq searchReq = SearchReq.builder()
-                .collectionName(milvusConfig.getCollectionName())
-                .metricType(milvusConfig.getMetricTypeEnum())
-                .outputFields(Arrays.asList(FIELD_BUSINESS_ID, FIELD_TYPE))
-                .data(Arrays.asList(new FloatVec(queryVector))) // 搜索向量
-                .annsField(FIELD_VECTOR)
-                .searchParams(Map.of("nprobe", 10)) // 要搜索的群集数量
-                .filter(FIELD_TYPE + " == \"" + type + "\"") // 类型过滤
-                .limit(topK)
-                .build();
+        List<VectorSearchResult> results = switch (milvusConfig.getLayout()) {
+            case SINGLE -> search(milvusConfig.getCollectionName(), null, typeFilter(type),
+                    vectorIndexManager.getProfile(type), queryVector, topK);
+            case PARTITION -> {
+                if (type != null) {
+                    checkType(type);
+                }
+                yield search(milvusConfig.getTypeCollectionName(type),
+                        type == null ? null : List.of(type), null,
+                        vectorIndexManager.getProfile(type), queryVector, topK);
+            }
+            case COLLECTION -> {
+                if (type != null) {
+                    checkType(type);
+                    yield search(milvusConfig.getTypeCollectionName(type), null, null,
+                            vectorIndexManager.getProfile(type), queryVector, topK);
+                }
+                // 未指定类型时搜索所有类型的集合后合并
+                yield merge(milvusConfig.getTypes().stream()
+                        .flatMap(t -> search(milvusConfig.getTypeCollectionName(t), null, null,
+                                vectorIndexManager.getProfile(t), queryVector, topK).stream())
+                        .toList(), topK);
+            }
+        };
+
+        if (vectorMigration.isLegacyActive()) {
+            // 迁移完成前，原集合中剩余的向量仍参与检索
+            List<VectorSearchResult> legacy = search(milvusConfig.getCollectionName(), null, typeFilter(type),
+                    vectorIndexManager.getProfile(null), queryVector, topK);
+            results = merge(Stream.concat(results.stream(), legacy.stream()).toList(), topK);
+        }
+        return results;
+    }
+
+    /**
+     * 在指定集合/分区中检索
+     */
+    private List<VectorSearchResult> search(String collectionName, List<String> partitionNames, String filter,
+                                            MilvusConfig.IndexProfile profile, float[] queryVector, int topK) {
+        SearchReq searchReq = vectorIndexManager.searchRequest(collectionName, partitionNames, filter,
+                profile, queryVector, topK);
 
         // 执行搜索
         SearchResp searchResp = milvusClient.search(searchReq);
@@ -247,4 +296,116 @@ public class VectorServiceImpl implements VectorService {
 
         return results;
     }
+
+    /**
+     * 合并多个来源的检索结果：同一业务对象只保留最相似的一条，按相似度排序后取前topK条
+     */
+    private List<VectorSearchResult> merge(List<VectorSearchResult> results, int topK) {
+        // L2距离越小越相似，其他度量越大越相似
+        Comparator<VectorSearchResult> better = milvusConfig.getMetricTypeEnum() == IndexParam.MetricType.L2
+                ? Comparator.comparingDouble(VectorSearchResult::score)
+                : Comparator.comparingDouble(VectorSearchResult::score).reversed();
+        Map<String, VectorSearchResult> best = new HashMap<>();
+        for (VectorSearchResult result : results) {
+            best.merge(result.type() + ":" + result.id(), result,
+                    (a, b) -> better.compare(a, b) <= 0 ? a : b);
+        }
+        return best.values().stream().sorted(better).limit(topK).toList();
+    }
+
+    private boolean delete(String collectionName, String vectorId) {
+        return delete(collectionName, Collections.singletonList(vectorId));
+    }
+
+    private boolean delete(String collectionName, List<?> vectorIds) {
+        try {
+            DeleteReq deleteReq = DeleteReq.builder()
+                    .collectionName(collectionName)
+                    .ids(new ArrayList<>(vectorIds))
+                    .build();
+            DeleteResp deleteResp = milvusBulkWriter.shared(() -> {
+                vectorIds.forEach(id -> vectorIndexManager.onDelete(collectionName, String.valueOf(id)));
+                return milvusClient.delete(deleteReq);
+            });
+            return deleteResp.getDeleteCnt() > 0;
+        } catch (Exception e) {
+            log.error("删除向量失败", e);
+            return false;
+        }
+    }
+
+    /**
+     * 按业务ID删除一个集合中的向量：业务主键的集合直接计算主键，自增主键的集合先查询主键
+     */
+    private boolean deleteByBusinessIds(String collectionName, String partitionName, String type,
+                                        List<Long> businessIds) {
+        List<Object> vectorIds = new ArrayList<>(businessIds.size());
+        if (milvusBulkWriter.isBusinessKeyed(collectionName)) {
+            businessIds.forEach(id -> vectorIds.add(VectorService.businessKey(type, id)));
+        } else {
+            QueryReq.QueryReqBuilder query = QueryReq.builder()
+                    .collectionName(collectionName)
+                    .filter(typeFilter(type) + " && " + FIELD_BUSINESS_ID + " in " + businessIds)
+                    .outputFields(List.of(FIELD_ID))
+                    .consistencyLevel(ConsistencyLevel.STRONG);
+            if (partitionName != null) {
+                query.partitionNames(List.of(partitionName));
+            }
+            milvusClient.query(query.build()).getQueryResults()
+                    .forEach(r -> vectorIds.add(r.getEntity().get(FIELD_ID)));
+        }
+        return !vectorIds.isEmpty() && delete(collectionName, vectorIds);
+    }
+
+    private boolean deleteLegacyByBusinessIds(String type, List<Long> businessIds) {
+        return vectorMigration.isLegacyActive()
+                && deleteByBusinessIds(milvusConfig.getCollectionName(), null, type, businessIds);
+    }
+
+    /**
+     * 类型所在的集合
+     */
+    private String collectionName(String type) {
+        if (milvusConfig.getLayout() == MilvusConfig.Layout.SINGLE) {
+            return milvusConfig.getCollectionName();
+        }
+        checkType(type);
+        return milvusConfig.getTypeCollectionName(type);
+    }
+
+    /**
+     * 迁移完成前，向量可能仍在原集合中
+     */
+    private boolean deleteLegacy(String vectorId) {
+        return vectorMigration.isLegacyActive() && delete(milvusConfig.getCollectionName(), vectorId);
+    }
+
+    private void checkType(String type) {
+        if (!milvusConfig.getTypes().contains(type)) {
+            throw new BusinessException(ResultCode.MILVUS_ERROR, "未配置的向量类型: " + type);
+        }
+    }
+
+    private static String typeFilter(String type) {
+        return type == null ? null : FIELD_TYPE + " == \"" + type + "\"";
+    }
+
+    /**
+     * 按类型分组，返回各类型数据在原列表中的下标
+     */
+    private Map<String, List<Integer>> groupByType(List<VectorInsertData> vectorInsertDataList) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < vectorInsertDataList.size(); i++) {
+            String type = vectorInsertDataList.get(i).type();
+            checkType(type);
+            groups.computeIfAbsent(type, t -> new ArrayList<>()).add(i);
+        }
+        return groups;
+    }
+
+    private static List<VectorInsertData> select(List<VectorInsertData> list, List<Integer> indexes) {
+        List<VectorInsertData> selected = new ArrayList<>(indexes.size());
+        indexes.forEach(i -> selected.add(list.get(i)));
+        return selected;
+    }
 }
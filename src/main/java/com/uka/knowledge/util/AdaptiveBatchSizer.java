@@ -0,0 +1,94 @@
+package com.uka.knowledge.util;
+
+import java.util.List;
+
+/**
+ * 自适应批次大小
+ * <p>
+ * 按总字符数和观测到的单批耗时决定下一批包含多少条文本：
+ * 耗时超过目标或请求失败时批次减半，耗时低于目标一半且批次已用满时增大四分之一（至少1条），
+ * 在吞吐和单次请求耗时之间自动找到平衡点。线程安全，多个调用方共享同一个实例。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+public class AdaptiveBatchSizer {
+
+    private final int minItems;
+    private final int maxItems;
+    private final int maxChars;
+    private final long targetLatencyMs;
+
+    private int currentItems;
+
+    /**
+     * @param minItems        单批最少条数
+     * @param maxItems        单批最多条数
+     * @param initialItems    初始单批条数
+     * @param maxChars        单批最多总字符数
+     * @param targetLatencyMs 单批目标耗时（毫秒）
+     */
+    public AdaptiveBatchSizer(int minItems, int maxItems, int initialItems, int maxChars, long targetLatencyMs) {
+        this.minItems = Math.max(1, minItems);
+        this.maxItems = Math.max(this.minItems, maxItems);
+        this.maxChars = maxChars;
+        this.targetLatencyMs = targetLatencyMs;
+        this.currentItems = clamp(initialItems);
+    }
+
+    /**
+     * 计算从 from 开始的下一批的结束位置（不含）
+     *
+     * @param texts 文本列表
+     * @param from  起始位置
+     * @return 结束位置，至少包含一条文本
+     */
+    public int nextBatchEnd(List<String> texts, int from) {
+        int limit = Math.min(texts.size(), from + currentItems());
+        int end = from + 1;
+        long chars = texts.get(from).length();
+        while (end < limit) {
+            chars += texts.get(end).length();
+            if (chars > maxChars) {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * 记录一批请求成功
+     *
+     * @param items     本批条数
+     * @param elapsedMs 本批耗时（毫秒）
+     */
+    public synchronized void onSuccess(int items, long elapsedMs) {
+        if (elapsedMs > targetLatencyMs) {
+            currentItems = clamp(Math.min(currentItems, items) / 2);
+        } else if (elapsedMs * 2 < targetLatencyMs && items >= currentItems) {
+            currentItems = clamp(currentItems + Math.max(1, currentItems / 4));
+        }
+    }
+
+    /**
+     * 记录一批请求失败
+     */
+    public synchronized void onFailure() {
+        currentItems = clamp(currentItems / 2);
+    }
+
+    /**
+     * 当前单批条数
+     *
+     * @return 条数
+     */
+    public synchronized int currentItems() {
+        return currentItems;
+    }
+
+    private int clamp(int items) {
+        return Math.max(minItems, Math.min(maxItems, items));
+    }
+}
@@ -0,0 +1,491 @@
+package com.uka.knowledge.util;
+
+import cn.hutool.core.util.StrUtil;
+import com.alibaba.fastjson2.JSON;
+import com.uka.knowledge.config.RagConfig;
+import com.uka.knowledge.model.entity.ChatAttachment;
+import com.uka.knowledge.model.entity.ChatMessage;
+import com.uka.knowledge.model.vo.RagDocument;
+import com.uka.knowledge.model.vo.RagNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 上下文组装工具类
+ * <p>
+ * 按token预算组装提示词中的文档、图谱节点、附件和历史对话：
+ * - 去除重复或相互覆盖的文档片段
+ * - 超长片段只保留与问题最相关的句子
+ * - 图谱节点以紧凑文本渲染，而非JSON
+ * 并统计每次请求节省的token数
+ * </p>
+ * <p>
+ * 各部分的预算是硬上限：标题、角色前缀、省略号等输出的全部文本都计入预算，组装结果的token数不超过预算。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ContextPacker {
+
+    /**
+     * 句子切分（保留句末标点）
+     */
+    private static final Pattern SENTENCE_SPLIT = Pattern.compile("(?<=[。！？!?；;\\n])|(?<=\\.\\s)");
+
+    /**
+     * 单条历史消息最大token数
+     */
+    private static final int HISTORY_MESSAGE_TOKENS = 300;
+
+    /**
+     * 单个节点描述最大token数
+     */
+    private static final int NODE_DESCRIPTION_TOKENS = 60;
+
+    /**
+     * 单个节点最多渲染的关系数
+     */
+    private static final int NODE_MAX_RELATIONS = 5;
+
+    /**
+     * 截断标记
+     */
+    private static final String TRUNCATION_MARK = "...";
+
+    /**
+     * 不连续句子之间的连接标记
+     */
+    private static final String GAP_MARK = "…";
+
+    private static final String HISTORY_HEADER = "【历史对话】\n";
+
+    private final RagConfig ragConfig;
+
+    private final AtomicLong packedRequests = new AtomicLong();
+    private final AtomicLong originalTokensTotal = new AtomicLong();
+    private final AtomicLong savedTokensTotal = new AtomicLong();
+
+    /**
+     * 组装结果
+     *
+     * @param name           部分名称
+     * @param text           组装后的文本
+     * @param originalTokens 未压缩时的token数
+     * @param packedTokens   组装后的token数
+     */
+    public record Section(String name, String text, int originalTokens, int packedTokens) {
+        public int savedTokens() {
+            return Math.max(0, originalTokens - packedTokens);
+        }
+    }
+
+    /**
+     * 组装文档片段
+     * 按相似度顺序去重，预算按剩余片段均分，超出的片段只保留相关句子
+     *
+     * @param documents 检索到的文档（按相似度降序）
+     * @param query     用户问题
+     * @return 组装结果
+     */
+    public Section packDocuments(List<RagDocument> documents, String query) {
+        if (documents == null || documents.isEmpty()) {
+            return new Section("documents", "", 0, 0);
+        }
+
+        int originalTokens = 0;
+        List<RagDocument> kept = new ArrayList<>();
+        List<Set<String>> keptShingles = new ArrayList<>();
+        for (RagDocument doc : documents) {
+            String content = documentContent(doc);
+            originalTokens += estimateTokens(content);
+            Set<String> shingles = shingles(content);
+            if (isDuplicate(shingles, keptShingles)) {
+                log.debug("上下文去重, 跳过文档片段: {}, chunkId={}", doc.getName(), doc.getChunkId());
+                continue;
+            }
+            kept.add(doc);
+            keptShingles.add(shingles);
+        }
+
+        StringBuilder sb = new StringBuilder("\n");
+        int remaining = ragConfig.getContext().getDocumentTokens();
+        int written = 0;
+        for (int i = 0; i < kept.size(); i++) {
+            RagDocument doc = kept.get(i);
+            StringBuilder header = new StringBuilder(String.format("- 文档%d名称「%s」", written + 1, doc.getName()));
+            if (doc.getPageNum() != null && doc.getPageNum() > 0) {
+                header.append(String.format("（第%d页）", doc.getPageNum()));
+            }
+            header.append(": ");
+
+            // 标题计入本片段的预算份额，放不下标题和内容的片段跳过
+            int headerTokens = estimateTokens(header.toString());
+            String content = selectSentences(documentContent(doc), query, remaining / (kept.size() - i) - headerTokens);
+            if (content.isEmpty()) {
+                continue;
+            }
+            remaining = Math.max(0, remaining - headerTokens - estimateTokens(content));
+            sb.append(header).append(content).append("\n");
+            written++;
+        }
+        if (written == 0) {
+            return new Section("documents", "", originalTokens, 0);
+        }
+        sb.append("\n");
+
+        String text = sb.toString();
+        return new Section("documents", text, originalTokens, estimateTokens(text));
+    }
+
+    /**
+     * 组装知识图谱节点（紧凑文本格式）
+     * 格式：- 名称[类型]: 描述 | 关系: 关系名→目标节点, ...
+     *
+     * @param nodes 检索到的节点（按相似度降序）
+     * @return 组装结果
+     */
+    public Section packNodes(List<RagNode> nodes) {
+        if (nodes == null || nodes.isEmpty()) {
+            return new Section("nodes", "", 0, 0);
+        }
+
+        int originalTokens = estimateTokens(JSON.toJSONString(nodes));
+        int budget = ragConfig.getContext().getNodeTokens();
+        StringBuilder sb = new StringBuilder();
+        int used = 0;
+        for (RagNode node : nodes) {
+            StringBuilder line = new StringBuilder("- ").append(node.getName());
+            if (StrUtil.isNotBlank(node.getNodeType())) {
+                line.append('[').append(node.getNodeType()).append(']');
+            }
+            if (StrUtil.isNotBlank(node.getDescription())) {
+                line.append(": ").append(truncateToTokens(node.getDescription(), NODE_DESCRIPTION_TOKENS));
+            }
+            if (node.getRelations() != null && !node.getRelations().isEmpty()) {
+                line.append(" | 关系: ");
+                StringJoiner joiner = new StringJoiner(", ");
+                node.getRelations().stream().limit(NODE_MAX_RELATIONS).forEach(rel -> joiner.add(
+                        StrUtil.blankToDefault(rel.getName(), rel.getRelationType()) + "→" + rel.getTargetNodeName()));
+                line.append(joiner);
+            }
+            line.append("\n");
+
+            int lineTokens = estimateTokens(line.toString());
+            if (used + lineTokens > budget) {
+                break;
+            }
+            sb.append(line);
+            used += lineTokens;
+        }
+
+        String text = sb.toString();
+        return new Section("nodes", text, originalTokens, estimateTokens(text));
+    }
+
+    /**
+     * 组装附件内容
+     *
+     * @param attachments 附件列表
+     * @param query       用户问题
+     * @return 组装结果
+     */
+    public Section packAttachments(List<ChatAttachment> attachments, String query) {
+        if (attachments == null || attachments.isEmpty()) {
+            return new Section("attachments", "", 0, 0);
+        }
+
+        List<ChatAttachment> parsed = attachments.stream()
+                .filter(a -> StrUtil.isNotBlank(a.getParsedContent()))
+                .toList();
+        int originalTokens = 0;
+        int remaining = ragConfig.getContext().getAttachmentTokens();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < parsed.size(); i++) {
+            ChatAttachment attachment = parsed.get(i);
+            originalTokens += estimateTokens(attachment.getParsedContent());
+            // 标题计入本附件的预算份额，放不下标题和内容的附件跳过
+            String header = String.format("文件「%s」内容:\n", attachment.getFileName());
+            int headerTokens = estimateTokens(header);
+            String content = selectSentences(attachment.getParsedContent(), query,
+                    remaining / (parsed.size() - i) - headerTokens);
+            if (content.isEmpty()) {
+                continue;
+            }
+            remaining = Math.max(0, remaining - headerTokens - estimateTokens(content));
+            sb.append(header).append(content).append("\n\n");
+        }
+
+        String text = sb.toString();
+        return new Section("attachments", text, originalTokens, estimateTokens(text));
+    }
+
+    /**
+     * 组装历史对话
+     * 从最近的消息开始倒序填充预算，输出时恢复为时间正序
+     *
+     * @param history 历史消息（按时间倒序）
+     * @return 组装结果
+     */
+    public Section packHistory(List<ChatMessage> history) {
+        if (history == null || history.isEmpty()) {
+            return new Section("history", "", 0, 0);
+        }
+
+        int originalTokens = 0;
+        // 标题和每条消息的角色前缀都计入预算
+        int remaining = Math.max(0, ragConfig.getContext().getHistoryTokens() - estimateTokens(HISTORY_HEADER));
+        LinkedList<String> lines = new LinkedList<>();
+        for (ChatMessage msg : history) {
+            String content = StrUtil.nullToEmpty(msg.getContent());
+            originalTokens += estimateTokens(content);
+            String prefix = (ChatMessage.ROLE_USER.equals(msg.getRole()) ? "用户" : "助手") + ": ";
+            int contentBudget = Math.min(remaining - estimateTokens(prefix), HISTORY_MESSAGE_TOKENS);
+            if (contentBudget <= 0) {
+                // 预算用尽后只统计原始token数，不再输出更早的消息
+                remaining = 0;
+                continue;
+            }
+            String line = prefix + truncateToTokens(content, contentBudget) + "\n";
+            remaining = Math.max(0, remaining - estimateTokens(line));
+            lines.addFirst(line);
+        }
+        if (lines.isEmpty()) {
+            return new Section("history", "", originalTokens, 0);
+        }
+
+        String text = HISTORY_HEADER + String.join("", lines);
+        return new Section("history", text, originalTokens, estimateTokens(text));
+    }
+
+    /**
+     * 记录一次请求的上下文组装结果
+     *
+     * @param sessionId 会话ID
+     * @param sections  各部分组装结果
+     */
+    public void report(Long sessionId, Section... sections) {
+        int original = 0;
+        int packed = 0;
+        StringJoiner detail = new StringJoiner(", ");
+        for (Section section : sections) {
+            original += section.originalTokens();
+            packed += section.packedTokens();
+            detail.add(section.name() + "=" + section.packedTokens() + "/" + section.originalTokens());
+        }
+        int saved = Math.max(0, original - packed);
+        packedRequests.incrementAndGet();
+        originalTokensTotal.addAndGet(original);
+        savedTokensTotal.addAndGet(saved);
+        log.info("上下文组装完成, sessionId={}, tokens={}/{}, 节省{}tokens [{}]",
+                sessionId, packed, original, saved, detail);
+    }
+
+    /**
+     * 获取累计统计信息
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long requests = packedRequests.get();
+        stats.put("requests", requests);
+        stats.put("originalTokens", originalTokensTotal.get());
+        stats.put("savedTokens", savedTokensTotal.get());
+        stats.put("avgSavedTokens", requests == 0 ? 0 : savedTokensTotal.get() / requests);
+        return stats;
+    }
+
+    /**
+     * 估算token数
+     * 中日韩字符按1个token计，其余非空白字符按4个字符1个token计
+     *
+     * @param text 文本
+     * @return token数
+     */
+    public static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                cjk++;
+            } else if (!Character.isWhitespace(c)) {
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    /**
+     * 在预算内保留与问题最相关的句子（按原文顺序输出，不连续处以省略号连接）
+     */
+    static String selectSentences(String text, String query, int budget) {
+        if (estimateTokens(text) <= budget) {
+            return text;
+        }
+        if (budget <= 0) {
+            return "";
+        }
+
+        List<String> sentences = Arrays.stream(SENTENCE_SPLIT.split(text))
+                .map(String::trim)
+                .filter(StrUtil::isNotBlank)
+                .toList();
+        Set<String> queryBigrams = bigrams(query);
+        Integer[] order = new Integer[sentences.size()];
+        double[] scores = new double[sentences.size()];
+        for (int i = 0; i < sentences.size(); i++) {
+            order[i] = i;
+            Set<String> sentenceBigrams = bigrams(sentences.get(i));
+            long overlap = sentenceBigrams.stream().filter(queryBigrams::contains).count();
+            // 相关度按句长归一化，并对靠前的句子略微加权
+            scores[i] = overlap / Math.sqrt(Math.max(1, sentenceBigrams.size())) + 0.05 / (1 + i);
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+
+        TreeSet<Integer> selected = new TreeSet<>();
+        Set<String> seen = new HashSet<>();
+        String result = "";
+        for (Integer idx : order) {
+            // 同一片段内重复出现的句子只保留一次
+            if (estimateTokens(sentences.get(idx)) > budget || !seen.add(sentences.get(idx))) {
+                continue;
+            }
+            selected.add(idx);
+            // 连接标记随选中句子的位置变化，按拼接后的文本计算
+            String joined = joinSentences(sentences, selected);
+            if (estimateTokens(joined) <= budget) {
+                result = joined;
+            } else {
+                selected.remove(idx);
+            }
+        }
+        if (selected.isEmpty()) {
+            return truncateToTokens(sentences.get(order[0]), budget);
+        }
+        return result;
+    }
+
+    /**
+     * 按原文顺序拼接选中的句子，不连续处以省略号连接
+     */
+    private static String joinSentences(List<String> sentences, SortedSet<Integer> selected) {
+        StringBuilder sb = new StringBuilder();
+        int previous = -1;
+        for (Integer idx : selected) {
+            if (previous >= 0 && idx != previous + 1) {
+                sb.append(GAP_MARK);
+            }
+            sb.append(sentences.get(idx));
+            previous = idx;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 按token预算截断文本，截断标记计入预算（预算容纳不下截断标记时返回空串）
+     */
+    static String truncateToTokens(String text, int budget) {
+        if (estimateTokens(text) <= budget) {
+            return text;
+        }
+        // 与 estimateTokens 相同的计数，初始计入截断标记
+        int cjk = 0;
+        int other = TRUNCATION_MARK.length();
+        if ((other + 3) / 4 > budget) {
+            return "";
+        }
+        int end = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                cjk++;
+            } else if (!Character.isWhitespace(c)) {
+                other++;
+            }
+            if (cjk + (other + 3) / 4 > budget) {
+                break;
+            }
+            end = i + 1;
+        }
+        return text.substring(0, end) + TRUNCATION_MARK;
+    }
+
+    private static String documentContent(RagDocument doc) {
+        if (StrUtil.isNotBlank(doc.getMatchedContent())) {
+            return doc.getMatchedContent();
+        }
+        return StrUtil.nullToEmpty(doc.getSummary());
+    }
+
+    /**
+     * 与已保留片段的重合度（交集/较小集合）超过阈值即视为重复，可同时识别完全重复和包含关系
+     */
+    private boolean isDuplicate(Set<String> shingles, List<Set<String>> keptShingles) {
+        if (shingles.isEmpty()) {
+            return false;
+        }
+        double threshold = ragConfig.getContext().getDedupThreshold();
+        for (Set<String> kept : keptShingles) {
+            if (kept.isEmpty()) {
+                continue;
+            }
+            Set<String> smaller = shingles.size() <= kept.size() ? shingles : kept;
+            Set<String> larger = smaller == shingles ? kept : shingles;
+            long common = smaller.stream().filter(larger::contains).count();
+            if ((double) common / smaller.size() >= threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> shingles(String text) {
+        return grams(text, 3);
+    }
+
+    private static Set<String> bigrams(String text) {
+        return grams(text, 2);
+    }
+
+    /**
+     * 去除空白和标点后按字符切分n-gram
+     */
+    private static Set<String> grams(String text, int n) {
+        Set<String> grams = new HashSet<>();
+        if (text == null) {
+            return grams;
+        }
+        StringBuilder normalized = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        for (int i = 0; i + n <= normalized.length(); i++) {
+            grams.add(normalized.substring(i, i + n));
+        }
+        return grams;
+    }
+
+    private static boolean isCjk(char c) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
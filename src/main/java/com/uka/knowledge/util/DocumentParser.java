@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * 文档解析工具类
@@ -71,7 +72,7 @@ public class DocumentParser {
         private String fullContent;
 
         /**
-         * 按页拆分的内容列表
+         * 按页拆分的内容列表（有页面回调时为空，页面只通过回调传出）
          */
         private List<PageContent> pages;
 
@@ -81,9 +82,44 @@ public class DocumentParser {
         private int totalPages;
 
         public ParseResult(String fullContent, List<PageContent> pages) {
+            this(fullContent, pages, pages.size());
+        }
+
+        public ParseResult(String fullContent, List<PageContent> pages, int totalPages) {
             this.fullContent = fullContent;
             this.pages = pages;
-            this.totalPages = pages.size();
+            this.totalPages = totalPages;
+        }
+    }
+
+    /**
+     * 页面收集器
+     * 有页面回调时逐页回调非空白页面且不保留页面，否则保留全部页面
+     */
+    private static class PageSink {
+        private final Consumer<PageContent> pageConsumer;
+        private final List<PageContent> pages = new ArrayList<>();
+        private int count;
+
+        PageSink(Consumer<PageContent> pageConsumer) {
+            this.pageConsumer = pageConsumer;
+        }
+
+        void add(PageContent page) {
+            count++;
+            if (pageConsumer == null) {
+                pages.add(page);
+            } else if (StrUtil.isNotBlank(page.getContent())) {
+                pageConsumer.accept(page);
+            }
+        }
+
+        int count() {
+            return count;
+        }
+
+        ParseResult result(String fullContent) {
+            return new ParseResult(fullContent, pages, count);
         }
     }
 
@@ -95,6 +131,23 @@ public class DocumentParser {
      * @return 解析结果（包含页码信息）
      */
     public ParseResult parseWithPages(String filePath, String fileType) {
+        return parseWithPages(filePath, fileType, null);
+    }
+
+    /**
+     * 解析文档，每解析出一页立即回调，便于后续处理与解析并行
+     * PDF逐页解析逐页回调，其他格式读取全文后逐页切分逐页回调
+     * <p>
+     * 有回调时结果不保留页面列表（pages为空，totalPages为页数），只保留完整文本（文档内容需要落库），
+     * 解析期间内存中为完整文本加当前页；DOC、TXT、MD 由解析库一次读取全文，另有一份原始全文。
+     * </p>
+     *
+     * @param filePath     文件路径
+     * @param fileType     文件类型
+     * @param pageConsumer 页面回调（可为null，只回调非空白页面）
+     * @return 解析结果（包含页码信息）
+     */
+    public ParseResult parseWithPages(String filePath, String fileType, Consumer<PageContent> pageConsumer) {
         if (StrUtil.isBlank(filePath) || StrUtil.isBlank(fileType)) {
             throw new BusinessException(ResultCode.PARAM_ERROR, "文件路径和类型不能为空");
         }
@@ -107,11 +160,11 @@ public class DocumentParser {
         String lowerType = fileType.toLowerCase();
         try {
             return switch (lowerType) {
-                case "pdf" -> parsePdfWithPages(file);
-                case "doc" -> parseDocWithPages(file);
-                case "docx" -> parseDocxWithPages(file);
-                case "txt" -> parseTxtWithPages(file);
-                case "md", "markdown" -> parseMarkdownWithPages(file);
+                case "pdf" -> parsePdfWithPages(file, pageConsumer);
+                case "doc" -> parseDocWithPages(file, pageConsumer);
+                case "docx" -> parseDocxWithPages(file, pageConsumer);
+                case "txt" -> parseTxtWithPages(file, pageConsumer);
+                case "md", "markdown" -> parseMarkdownWithPages(file, pageConsumer);
                 default -> throw new BusinessException(ResultCode.FILE_TYPE_NOT_SUPPORT,
                         "不支持的文件类型: " + fileType);
             };
@@ -256,10 +309,10 @@ public class DocumentParser {
     // ==================== 带页码的解析方法 ====================
 
     /**
-     * 解析PDF文档（带页码）
+     * 解析PDF文档（带页码），每解析出一页立即回调
      */
-    private ParseResult parsePdfWithPages(File file) throws IOException {
-        List<PageContent> pages = new ArrayList<>();
+    private ParseResult parsePdfWithPages(File file, Consumer<PageContent> pageConsumer) throws IOException {
+        PageSink pages = new PageSink(pageConsumer);
         StringBuilder fullContent = new StringBuilder();
 
         try (PDDocument document = Loader.loadPDF(file)) {
@@ -281,15 +334,15 @@ public class DocumentParser {
             log.info("PDF解析完成（带页码），页数: {}, 字符数: {}", totalPages, fullContent.length());
         }
 
-        return new ParseResult(fullContent.toString(), pages);
+        return pages.result(fullContent.toString());
     }
 
     /**
      * 解析DOC文档（带页码）
      * DOC格式不支持精确页码，按段落分组模拟
      */
-    private ParseResult parseDocWithPages(File file) throws IOException {
-        List<PageContent> pages = new ArrayList<>();
+    private ParseResult parseDocWithPages(File file, Consumer<PageContent> pageConsumer) throws IOException {
+        PageSink pages = new PageSink(pageConsumer);
 
         try (FileInputStream fis = new FileInputStream(file);
              HWPFDocument document = new HWPFDocument(fis);
@@ -300,7 +353,7 @@ public class DocumentParser {
             pages.add(new PageContent(0, fullText.trim()));
 
             log.info("DOC解析完成（带页码），字符数: {}", fullText.length());
-            return new ParseResult(fullText, pages);
+            return pages.result(fullText);
         }
     }
 
@@ -308,8 +361,8 @@ public class DocumentParser {
      * 解析DOCX文档（带页码）
      * DOCX可以通过分页符分割，但这里简化处理
      */
-    private ParseResult parseDocxWithPages(File file) throws IOException {
-        List<PageContent> pages = new ArrayList<>();
+    private ParseResult parseDocxWithPages(File file, Consumer<PageContent> pageConsumer) throws IOException {
+        PageSink pages = new PageSink(pageConsumer);
         StringBuilder fullContent = new StringBuilder();
 
         try (FileInputStream fis = new FileInputStream(file);
@@ -342,19 +395,19 @@ public class DocumentParser {
                 pages.add(new PageContent(pageNum, pageContent.toString().trim()));
             }
 
-            log.info("DOCX解析完成（带页码），段落数: {}, 估算页数: {}", paragraphs.size(), pages.size());
+            log.info("DOCX解析完成（带页码），段落数: {}, 估算页数: {}", paragraphs.size(), pages.count());
         }
 
-        return new ParseResult(fullContent.toString(), pages);
+        return pages.result(fullContent.toString());
     }
 
     /**
      * 解析TXT文档（带页码）
      * 按行数分页
      */
-    private ParseResult parseTxtWithPages(File file) {
+    private ParseResult parseTxtWithPages(File file, Consumer<PageContent> pageConsumer) {
         String fullText = FileUtil.readString(file, StandardCharsets.UTF_8);
-        List<PageContent> pages = new ArrayList<>();
+        PageSink pages = new PageSink(pageConsumer);
 
         String[] lines = fullText.split("\n");
         StringBuilder pageContent = new StringBuilder();
@@ -378,15 +431,15 @@ public class DocumentParser {
             pages.add(new PageContent(pageNum, pageContent.toString().trim()));
         }
 
-        log.info("TXT解析完成（带页码），总行数: {}, 分页数: {}", lines.length, pages.size());
-        return new ParseResult(fullText, pages);
+        log.info("TXT解析完成（带页码），总行数: {}, 分页数: {}", lines.length, pages.count());
+        return pages.result(fullText);
     }
 
     /**
      * 解析Markdown文档（带页码）
      * 按标题分页
      */
-    private ParseResult parseMarkdownWithPages(File file) {
+    private ParseResult parseMarkdownWithPages(File file, Consumer<PageContent> pageConsumer) {
         String markdown = FileUtil.readString(file, StandardCharsets.UTF_8);
 
         Parser parser = Parser.builder().build();
@@ -394,10 +447,10 @@ public class DocumentParser {
         TextContentRenderer renderer = TextContentRenderer.builder().build();
         String fullText = renderer.render(document);
 
-        List<PageContent> pages = new ArrayList<>();
+        PageSink pages = new PageSink(pageConsumer);
 
         // 按一级或二级标题分割
-        String[] sections = markdown.split("(?=^#{1,2}\\s)", java.util.regex.Pattern.MULTILINE);
+        String[] sections = markdown.split("(?m)(?=^#{1,2}\\s)");
         int pageNum = 1;
 
         for (String section : sections) {
@@ -411,11 +464,11 @@ public class DocumentParser {
         }
 
         // 如果没有标题，整体作为一页
-        if (pages.isEmpty()) {
+        if (pages.count() == 0) {
             pages.add(new PageContent(0, fullText.trim()));
         }
 
-        log.info("Markdown解析完成（带页码），分段数: {}", pages.size());
-        return new ParseResult(fullText, pages);
+        log.info("Markdown解析完成（带页码），分段数: {}", pages.count());
+        return pages.result(fullText);
     }
 }
@@ -0,0 +1,265 @@
+package com.uka.knowledge.util;
+
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * SSE片段合并写出器
+ * <p>
+ * 将流式输出的思考内容/正文片段在一个时间窗口或字节数内合并为一帧，
+ * 按固定模板直接拼出完整的SSE帧文本（event:message + data:JSON），
+ * 不经过Map和通用JSON序列化，每帧只调用一次写出和刷新。
+ * </p>
+ * <p>
+ * 片段类型切换（如遇到&lt;/think&gt;）和结束时立即写出，保证思考内容与正文的顺序和边界。
+ * 帧格式与 {@code SseEmitter.event().name("message").data(json)} 一致，前端无需修改。
+ * </p>
+ * <p>
+ * 帧在锁内生成并放入待发送队列，在锁外按顺序写出（同一时刻只有一个线程写出），
+ * 写出目标可以安全地获取其他锁（如写出失败时取消生成），不会与追加片段的线程形成死锁。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+public class SseFrameWriter {
+
+    private static final String FRAME_PREFIX = "event:message\ndata:";
+    private static final String JSON_PREFIX = "{\"type\":\"";
+    private static final String FRAME_MIDDLE = "\",\"content\":\"";
+    private static final String JSON_SUFFIX = "\"}";
+    private static final String FRAME_SUFFIX = "\n\n";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * 帧写出目标
+     */
+    @FunctionalInterface
+    public interface FrameSink {
+        /**
+         * 写出一个完整的SSE帧
+         *
+         * @param frame SSE帧文本
+         */
+        void write(String frame);
+    }
+
+    private final FrameSink sink;
+    private final TaskScheduler scheduler;
+    private final long windowMs;
+    private final int maxBytes;
+
+    /**
+     * 已转义的待写出内容
+     */
+    private final StringBuilder buffer = new StringBuilder(256);
+    private ThinkTagParser.Part bufferPart;
+    private int bufferBytes;
+    private ScheduledFuture<?> pendingFlush;
+    private boolean closed;
+    private long frames;
+
+    /**
+     * 已生成、待写出的帧
+     */
+    private final ArrayDeque<String> outbox = new ArrayDeque<>();
+
+    /**
+     * 是否有线程正在写出
+     */
+    private boolean draining;
+
+    /**
+     * @param sink      帧写出目标
+     * @param scheduler 窗口到期写出的调度器（为null时只按字节数、类型切换和结束写出）
+     * @param windowMs  合并时间窗口（毫秒），不大于0时每个片段单独成帧
+     * @param maxBytes  单帧内容最大字节数（UTF-8），达到后立即写出
+     */
+    public SseFrameWriter(FrameSink sink, TaskScheduler scheduler, long windowMs, int maxBytes) {
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.windowMs = windowMs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 追加一个片段
+     *
+     * @param part 片段类型
+     * @param text 片段文本
+     */
+    public void append(ThinkTagParser.Part part, String text) {
+        synchronized (this) {
+            if (closed || text == null || text.isEmpty()) {
+                return;
+            }
+            if (bufferPart != null && bufferPart != part) {
+                // 思考内容与正文的边界，先写出已合并的内容
+                flushBuffer();
+            }
+            bufferPart = part;
+            bufferBytes += escape(text, buffer);
+
+            if (windowMs <= 0 || bufferBytes >= maxBytes) {
+                flushBuffer();
+            } else if (pendingFlush == null && scheduler != null) {
+                pendingFlush = scheduler.schedule(this::flush, Instant.now().plusMillis(windowMs));
+            }
+        }
+        drain();
+    }
+
+    /**
+     * 立即写出已合并的内容
+     */
+    public void flush() {
+        synchronized (this) {
+            if (!closed) {
+                flushBuffer();
+            }
+        }
+        drain();
+    }
+
+    /**
+     * 写出剩余内容并关闭，之后追加的片段被忽略
+     * 返回时全部帧已写出（其他线程正在写出时等待其完成），之后发送的事件不会先于已合并的内容
+     */
+    public void close() {
+        synchronized (this) {
+            if (!closed) {
+                flushBuffer();
+                closed = true;
+            }
+        }
+        while (true) {
+            drain();
+            synchronized (this) {
+                if (!draining && outbox.isEmpty()) {
+                    return;
+                }
+                if (draining) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 已写出的帧数
+     *
+     * @return 帧数
+     */
+    public synchronized long frameCount() {
+        return frames;
+    }
+
+    private void flushBuffer() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        if (buffer.isEmpty()) {
+            return;
+        }
+        outbox.add(buildFrame(bufferPart, buffer));
+        buffer.setLength(0);
+        bufferBytes = 0;
+        frames++;
+    }
+
+    /**
+     * 在锁外按顺序写出待发送的帧，已有线程在写出时由该线程继续写出
+     */
+    private void drain() {
+        while (true) {
+            String frame;
+            synchronized (this) {
+                if (draining || outbox.isEmpty()) {
+                    return;
+                }
+                frame = outbox.poll();
+                draining = true;
+            }
+            try {
+                sink.write(frame);
+            } finally {
+                synchronized (this) {
+                    draining = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * 按模板构建片段的JSON数据（{"type":"thinking|content","content":"..."}）
+     *
+     * @param part 片段类型
+     * @param text 片段文本
+     * @return JSON文本
+     */
+    public static String toJson(ThinkTagParser.Part part, String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+        escape(text, escaped);
+        return appendJson(new StringBuilder(escaped.length() + 32), part, escaped).toString();
+    }
+
+    /**
+     * 按模板构建SSE帧
+     *
+     * @param part           片段类型
+     * @param escapedContent 已转义的JSON字符串内容
+     * @return SSE帧文本
+     */
+    static String buildFrame(ThinkTagParser.Part part, CharSequence escapedContent) {
+        StringBuilder frame = new StringBuilder(escapedContent.length() + 64).append(FRAME_PREFIX);
+        return appendJson(frame, part, escapedContent).append(FRAME_SUFFIX).toString();
+    }
+
+    private static StringBuilder appendJson(StringBuilder out, ThinkTagParser.Part part, CharSequence escapedContent) {
+        String type = part == ThinkTagParser.Part.THINKING ? "thinking" : "content";
+        return out.append(JSON_PREFIX).append(type).append(FRAME_MIDDLE).append(escapedContent).append(JSON_SUFFIX);
+    }
+
+    /**
+     * 按JSON字符串规则转义并追加，返回原文的UTF-8字节数
+     */
+    static int escape(String text, StringBuilder out) {
+        int bytes = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                bytes += 2;
+            } else {
+                bytes += 3;
+            }
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                case '\u2028', '\u2029' -> out.append("\\u").append(Integer.toHexString(c));
+                default -> {
+                    if (c < 0x20) {
+                        out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+}
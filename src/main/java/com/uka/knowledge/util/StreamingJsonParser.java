@@ -0,0 +1,334 @@
+package com.uka.knowledge.util;
+
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 流式JSON增量解析器
+ * <p>
+ * 逐块输入大模型输出的JSON，单遍扫描，不回扫已输入的内容。顶层对象中数组字段的元素对象
+ * （如 {"entities": [{...}, {...}]} 中的每个实体）一闭合即回调，回调后的元素不再保留，
+ * 输出被截断时已闭合的元素也不会丢失。
+ * </p>
+ * <p>
+ * 对大模型常见的不规范输出宽松处理：第一个 { 之前和顶层对象闭合之后的文字（说明文字、代码块标记）忽略；
+ * 字符串内的换行视为空格；JavaScript风格的字符串拼接 "a" + "b" 合并为 "ab"；
+ * 多余的逗号、无法识别的转义和缺少的冒号忽略；无法识别的字面量按字符串处理。
+ * 思考链标签需先经 {@link ThinkTagParser} 去除。
+ * </p>
+ * <p>
+ * 非线程安全，每个输出流使用一个实例。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+public class StreamingJsonParser {
+
+    /**
+     * 元素回调
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * 顶层数组字段中的一个元素对象已闭合
+         *
+         * @param field   数组字段名
+         * @param element 元素对象
+         */
+        void onElement(String field, JSONObject element);
+    }
+
+    /**
+     * 扫描状态
+     */
+    private enum State {
+        /**
+         * 等待顶层对象开始
+         */
+        BEFORE,
+        /**
+         * 结构字符之间
+         */
+        VALUE,
+        /**
+         * 字符串内
+         */
+        STRING,
+        /**
+         * 字符串内转义字符之后
+         */
+        ESCAPE,
+        /**
+         * \\u 转义的十六进制数字
+         */
+        UNICODE,
+        /**
+         * 数字、true/false/null等字面量内
+         */
+        LITERAL,
+        /**
+         * 字符串结束后，等待判断是否为 + 拼接
+         */
+        AFTER_STRING,
+        /**
+         * 拼接的 + 之后，等待下一个字符串
+         */
+        CONCAT,
+        /**
+         * 顶层对象已闭合
+         */
+        DONE
+    }
+
+    /**
+     * 正在构建的对象或数组
+     */
+    private static final class Frame {
+        final Object container;
+        /**
+         * 本容器在父对象中的字段名
+         */
+        final String field;
+        /**
+         * 对象中已读到、尚未赋值的字段名
+         */
+        String key;
+
+        Frame(Object container, String field) {
+            this.container = container;
+            this.field = field;
+        }
+
+        boolean isObject() {
+            return container instanceof JSONObject;
+        }
+    }
+
+    private final Listener listener;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private final StringBuilder token = new StringBuilder();
+    private State state = State.BEFORE;
+    private int unicodeValue;
+    private int unicodeDigits;
+    private JSONObject root;
+
+    /**
+     * @param listener 元素回调
+     */
+    public StreamingJsonParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 输入一个输出块
+     *
+     * @param chunk 输出块
+     */
+    public void feed(CharSequence chunk) {
+        if (chunk == null) {
+            return;
+        }
+        for (int i = 0; i < chunk.length() && state != State.DONE; i++) {
+            accept(chunk.charAt(i));
+        }
+    }
+
+    /**
+     * 输入结束，补全未闭合的字面量和字符串（未闭合的元素对象不回调）
+     *
+     * @return 顶层对象（已回调的元素不在其中），未出现顶层对象时返回null
+     */
+    public JSONObject finish() {
+        switch (state) {
+            case LITERAL -> value(literal(takeToken()));
+            case STRING, ESCAPE, UNICODE, AFTER_STRING, CONCAT -> value(takeToken());
+            default -> {
+            }
+        }
+        state = State.DONE;
+        return root;
+    }
+
+    /**
+     * 顶层对象是否已闭合
+     *
+     * @return 是否已闭合
+     */
+    public boolean isComplete() {
+        return state == State.DONE && root != null && stack.isEmpty();
+    }
+
+    private void accept(char c) {
+        switch (state) {
+            case BEFORE -> {
+                if (c == '{') {
+                    root = new JSONObject();
+                    stack.push(new Frame(root, null));
+                    state = State.VALUE;
+                }
+            }
+            case STRING -> {
+                if (c == '"') {
+                    state = State.AFTER_STRING;
+                } else if (c == '\\') {
+                    state = State.ESCAPE;
+                } else {
+                    token.append(c == '\n' || c == '\r' ? ' ' : c);
+                }
+            }
+            case ESCAPE -> {
+                state = State.STRING;
+                switch (c) {
+                    case 'n' -> token.append('\n');
+                    case 't' -> token.append('\t');
+                    case 'r' -> token.append('\r');
+                    case 'b' -> token.append('\b');
+                    case 'f' -> token.append('\f');
+                    case 'u' -> {
+                        unicodeValue = 0;
+                        unicodeDigits = 0;
+                        state = State.UNICODE;
+                    }
+                    default -> token.append(c);
+                }
+            }
+            case UNICODE -> {
+                int digit = Character.digit(c, 16);
+                if (digit < 0) {
+                    // 不完整的 \\u 转义，按已读到的部分处理
+                    state = State.STRING;
+                    accept(c);
+                    return;
+                }
+                unicodeValue = unicodeValue * 16 + digit;
+                if (++unicodeDigits == 4) {
+                    token.append((char) unicodeValue);
+                    state = State.STRING;
+                }
+            }
+            case AFTER_STRING -> {
+                if (c == '+') {
+                    state = State.CONCAT;
+                } else if (!Character.isWhitespace(c)) {
+                    state = State.VALUE;
+                    value(takeToken());
+                    accept(c);
+                }
+            }
+            case CONCAT -> {
+                if (c == '"') {
+                    state = State.STRING;
+                } else if (!Character.isWhitespace(c)) {
+                    state = State.VALUE;
+                    value(takeToken());
+                    accept(c);
+                }
+            }
+            case LITERAL -> {
+                if (c == ',' || c == '}' || c == ']' || c == ':' || c == '"' || Character.isWhitespace(c)) {
+                    state = State.VALUE;
+                    value(literal(takeToken()));
+                    accept(c);
+                } else {
+                    token.append(c);
+                }
+            }
+            case VALUE -> structural(c);
+            default -> {
+            }
+        }
+    }
+
+    private void structural(char c) {
+        switch (c) {
+            case '{' -> push(new JSONObject());
+            case '[' -> push(new JSONArray());
+            case '}', ']' -> pop();
+            case '"' -> state = State.STRING;
+            case ',', ':' -> {
+            }
+            default -> {
+                if (!Character.isWhitespace(c)) {
+                    token.append(c);
+                    state = State.LITERAL;
+                }
+            }
+        }
+    }
+
+    private void push(Object container) {
+        Frame parent = stack.peek();
+        String field = null;
+        if (parent.isObject()) {
+            field = parent.key != null ? parent.key : "";
+            parent.key = null;
+        }
+        stack.push(new Frame(container, field));
+    }
+
+    private void pop() {
+        Frame frame = stack.pop();
+        Frame parent = stack.peek();
+        if (parent == null) {
+            state = State.DONE;
+            return;
+        }
+        // 顶层对象 → 数组字段 → 元素对象：回调后不再保留
+        if (frame.isObject() && !parent.isObject() && stack.size() == 2) {
+            listener.onElement(parent.field, (JSONObject) frame.container);
+            return;
+        }
+        attach(parent, frame.field, frame.container);
+    }
+
+    private void value(Object value) {
+        Frame frame = stack.peek();
+        if (frame == null) {
+            return;
+        }
+        if (frame.isObject() && frame.key == null) {
+            frame.key = String.valueOf(value);
+            return;
+        }
+        attach(frame, frame.key, value);
+        frame.key = null;
+    }
+
+    private static void attach(Frame frame, String field, Object value) {
+        if (frame.container instanceof JSONObject object) {
+            object.put(field != null ? field : "", value);
+        } else {
+            ((JSONArray) frame.container).add(value);
+        }
+    }
+
+    private String takeToken() {
+        String text = token.toString();
+        token.setLength(0);
+        return text;
+    }
+
+    private static Object literal(String text) {
+        switch (text) {
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            case "null":
+                return null;
+            default:
+                try {
+                    BigDecimal number = new BigDecimal(text);
+                    return number.scale() <= 0 && number.precision() - number.scale() < 19
+                            ? (Object) number.longValueExact() : number;
+                } catch (NumberFormatException | ArithmeticException e) {
+                    return text;
+                }
+        }
+    }
+}
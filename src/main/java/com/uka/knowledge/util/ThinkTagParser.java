@@ -0,0 +1,210 @@
+package com.uka.knowledge.util;
+
+/**
+ * 思考链标签增量解析器
+ * <p>
+ * 将大模型输出的token流按 &lt;think&gt;...&lt;/think&gt; 拆分为思考内容和正文，
+ * 逐块输入、逐段回调，标签被拆分到多个块中时也能正确识别。
+ * 解析过程只暂存可能构成标签前缀的少量字符，不回扫已输出的内容。
+ * 默认保留完整的思考内容和正文供 {@link #result()} 使用；不需要完整结果时可不保留，只通过回调输出。
+ * </p>
+ * <p>
+ * 非线程安全，每个输出流使用一个实例。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+public class ThinkTagParser {
+
+    private static final String OPEN_TAG = "<think>";
+    private static final String CLOSE_TAG = "</think>";
+
+    /**
+     * 片段类型
+     */
+    public enum Part {
+        /**
+         * 思考内容
+         */
+        THINKING,
+        /**
+         * 正文内容
+         */
+        CONTENT
+    }
+
+    /**
+     * 片段回调
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * 解析出一个片段
+         *
+         * @param part 片段类型
+         * @param text 片段文本（非空）
+         */
+        void onText(Part part, String text);
+    }
+
+    /**
+     * 解析结果
+     *
+     * @param thinking 思考内容（无思考内容时为null）
+     * @param content  正文内容
+     */
+    public record Result(String thinking, String content) {
+    }
+
+    private final StringBuilder thinking = new StringBuilder();
+    private final StringBuilder content = new StringBuilder();
+
+    /**
+     * 是否保留完整输出
+     */
+    private final boolean retainResult;
+
+    /**
+     * 暂存的可能是标签前缀的字符（如块末尾的"</th"）
+     */
+    private String pending = "";
+
+    /**
+     * 当前是否处于思考块内
+     */
+    private boolean inThinking;
+
+    /**
+     * 正文是否已出现非空白字符（用于去除思考块之后的前导空白）
+     */
+    private boolean contentStarted;
+
+    public ThinkTagParser() {
+        this(true);
+    }
+
+    /**
+     * @param retainResult 是否保留完整输出（为false时不能调用 {@link #result()}）
+     */
+    public ThinkTagParser(boolean retainResult) {
+        this.retainResult = retainResult;
+    }
+
+    /**
+     * 解析完整文本
+     *
+     * @param text 大模型完整输出
+     * @return 解析结果
+     */
+    public static Result parse(String text) {
+        ThinkTagParser parser = new ThinkTagParser();
+        parser.feed(text, null);
+        parser.finish(null);
+        return parser.result();
+    }
+
+    /**
+     * 输入一个输出块
+     *
+     * @param chunk    输出块
+     * @param listener 片段回调（可为null）
+     */
+    public void feed(String chunk, Listener listener) {
+        if (chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        String text = pending.isEmpty() ? chunk : pending + chunk;
+        pending = "";
+
+        int length = text.length();
+        int start = 0;
+        int i = text.indexOf('<');
+        while (i >= 0) {
+            String tag = inThinking ? CLOSE_TAG : OPEN_TAG;
+            if (text.startsWith(tag, i)) {
+                emit(text, start, i, listener);
+                inThinking = !inThinking;
+                start = i + tag.length();
+                i = text.indexOf('<', start);
+            } else if (length - i < tag.length() && tag.startsWith(text.substring(i))) {
+                // 块末尾是标签的前缀，等待下一块
+                emit(text, start, i, listener);
+                pending = text.substring(i);
+                return;
+            } else {
+                i = text.indexOf('<', i + 1);
+            }
+        }
+        emit(text, start, length, listener);
+    }
+
+    /**
+     * 输入结束，输出暂存的字符
+     *
+     * @param listener 片段回调（可为null）
+     */
+    public void finish(Listener listener) {
+        if (!pending.isEmpty()) {
+            String rest = pending;
+            pending = "";
+            emit(rest, 0, rest.length(), listener);
+        }
+    }
+
+    /**
+     * 获取当前解析结果（首尾空白已去除）
+     *
+     * @return 解析结果
+     * @throws IllegalStateException 创建时指定不保留完整输出
+     */
+    public Result result() {
+        if (!retainResult) {
+            throw new IllegalStateException("解析器未保留完整输出");
+        }
+        String thinkingText = thinking.toString().trim();
+        return new Result(thinkingText.isEmpty() ? null : thinkingText, content.toString().trim());
+    }
+
+    /**
+     * 已输入的块是否处于思考块内
+     *
+     * @return 是否处于思考块内
+     */
+    public boolean isInThinking() {
+        return inThinking;
+    }
+
+    private void emit(String text, int start, int end, Listener listener) {
+        if (start >= end) {
+            return;
+        }
+        if (inThinking) {
+            if (retainResult) {
+                thinking.append(text, start, end);
+            }
+            notify(listener, Part.THINKING, text, start, end);
+            return;
+        }
+        if (!contentStarted) {
+            // 跳过正文前的空白（通常是</think>后的换行）
+            while (start < end && Character.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            if (start == end) {
+                return;
+            }
+            contentStarted = true;
+        }
+        if (retainResult) {
+            content.append(text, start, end);
+        }
+        notify(listener, Part.CONTENT, text, start, end);
+    }
+
+    private static void notify(Listener listener, Part part, String text, int start, int end) {
+        if (listener != null) {
+            listener.onText(part, start == 0 && end == text.length() ? text : text.substring(start, end));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.uka.knowledge;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.uka.knowledge.model.dto.ChatSendRequest;
+import com.uka.knowledge.model.entity.ChatMessage;
+import com.uka.knowledge.model.vo.ChatMessageVO;
+import com.uka.knowledge.model.vo.ChatSendResponse;
+import com.uka.knowledge.service.ChatService;
+import com.uka.knowledge.service.OllamaService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * 对话数据库连接占用压力测试
+ * <p>
+ * 并发数超过连接池最大连接数的同步对话同时处于大模型生成阶段，
+ * 验证生成期间不占用数据库连接，且其他数据库操作不受影响。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@SpringBootTest
+class ChatConnectionLoadTest {
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @MockitoBean
+    private OllamaService ollamaService;
+
+    /**
+     * 测试并发大模型调用不占用数据库连接
+     */
+    @Test
+    void testConcurrentChatsDoNotHoldConnections() throws Exception {
+        DruidDataSource druid = dataSource.unwrap(DruidDataSource.class);
+        int concurrency = druid.getMaxActive() + 10;
+
+        // 模拟耗时生成：所有请求都进入生成阶段后才返回
+        CountDownLatch generating = new CountDownLatch(concurrency);
+        CountDownLatch release = new CountDownLatch(1);
+        when(ollamaService.chat(anyString())).thenAnswer(invocation -> {
+            generating.countDown();
+            release.await(60, TimeUnit.SECONDS);
+            return "<think>思考过程</think>测试回答";
+        });
+
+        List<Long> sessionIds = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            sessionIds.add(chatService.createSession().getId());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        List<Future<ChatSendResponse>> futures = new ArrayList<>();
+        try {
+            for (Long sessionId : sessionIds) {
+                ChatSendRequest request = new ChatSendRequest();
+                request.setMessage("并发测试消息");
+                request.setEnableRag(false);
+                futures.add(executor.submit(() -> chatService.sendMessage(sessionId, request)));
+            }
+
+            // 生成期间持有连接时，超出连接池的请求无法进入生成阶段
+            assertTrue(generating.await(30, TimeUnit.SECONDS), "并发对话因数据库连接耗尽被阻塞");
+            assertEquals(0, druid.getActiveCount());
+
+            // 生成期间消息处于pending状态，且其他请求仍可正常访问数据库
+            ChatMessageVO pending = findAssistantMessage(sessionIds.get(0));
+            assertEquals(ChatMessage.STATUS_PENDING, pending.getStatus());
+        } finally {
+            release.countDown();
+        }
+
+        for (Future<ChatSendResponse> future : futures) {
+            ChatSendResponse response = future.get(30, TimeUnit.SECONDS);
+            assertEquals("测试回答", response.getAssistantMessage().getContent());
+            assertEquals("思考过程", response.getAssistantMessage().getThinkingContent());
+            assertEquals(ChatMessage.STATUS_COMPLETE, response.getAssistantMessage().getStatus());
+        }
+        executor.shutdown();
+
+        ChatMessageVO completed = findAssistantMessage(sessionIds.get(0));
+        assertEquals(ChatMessage.STATUS_COMPLETE, completed.getStatus());
+        assertEquals("测试回答", completed.getContent());
+
+        // 清理测试数据
+        sessionIds.forEach(chatService::deleteSession);
+    }
+
+    /**
+     * 查找会话中的AI消息
+     */
+    private ChatMessageVO findAssistantMessage(Long sessionId) {
+        return chatService.getMessages(sessionId).stream()
+                .filter(message -> ChatMessage.ROLE_ASSISTANT.equals(message.getRole()))
+                .findFirst()
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,171 @@
+package com.uka.knowledge;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.uka.knowledge.mapper.KnowledgeNodeMapper;
+import com.uka.knowledge.mapper.KnowledgeRelationMapper;
+import com.uka.knowledge.model.entity.KnowledgeNode;
+import com.uka.knowledge.service.KnowledgeExtractService;
+import com.uka.knowledge.service.KnowledgeNodeService;
+import com.uka.knowledge.service.OllamaService;
+import com.uka.knowledge.service.impl.EntityDictionary;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * 并发知识抽取实体去重压力测试
+ * <p>
+ * 多个文档同时抽取出同一批实体（部分文档使用全角大写写法），
+ * 验证每个实体只创建一个节点、每条关系只创建一次，且各文档独有的实体全部创建。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+@SpringBootTest
+class EntityUpsertConcurrencyTest {
+
+    private static final int CONCURRENCY = 8;
+
+    private static final int SHARED_ENTITIES = 30;
+
+    private static final int UNIQUE_ENTITIES = 5;
+
+    private static final int STREAM_CHUNK_SIZE = 16;
+
+    @Autowired
+    private KnowledgeExtractService knowledgeExtractService;
+
+    @Autowired
+    private KnowledgeNodeService nodeService;
+
+    @Autowired
+    private KnowledgeNodeMapper nodeMapper;
+
+    @Autowired
+    private KnowledgeRelationMapper relationMapper;
+
+    @MockitoBean
+    private OllamaService ollamaService;
+
+    /**
+     * 测试并发抽取相同实体不产生重复节点
+     */
+    @Test
+    void testConcurrentExtractionCreatesNoDuplicates() throws Exception {
+        String runId = UUID.randomUUID().toString().substring(0, 8);
+        List<String> sharedNames = new ArrayList<>();
+        for (int i = 0; i < SHARED_ENTITIES; i++) {
+            sharedNames.add("stress-" + runId + "-shared-" + i);
+        }
+
+        // 每次抽取返回全部共享实体、若干独有实体和共享实体间的关系，奇数次调用使用全角大写名称
+        AtomicInteger calls = new AtomicInteger();
+        when(ollamaService.chatStream(anyString(), any())).thenAnswer(invocation -> {
+            int call = calls.getAndIncrement();
+            StringBuilder entities = new StringBuilder();
+            StringBuilder relations = new StringBuilder();
+            for (int i = 0; i < SHARED_ENTITIES; i++) {
+                String name = call % 2 == 0 ? sharedNames.get(i) : toFullWidthUpperCase(sharedNames.get(i));
+                entities.append("{\"name\":\"").append(name).append("\",\"type\":\"Concept\",\"description\":\"共享实体\"},");
+                if (i > 0) {
+                    String previous = call % 2 == 0 ? sharedNames.get(i - 1) : toFullWidthUpperCase(sharedNames.get(i - 1));
+                    relations.append("{\"source\":\"").append(previous).append("\",\"target\":\"").append(name)
+                            .append("\",\"relation\":\"相关\",\"type\":\"RELATED_TO\"},");
+                }
+            }
+            for (int i = 0; i < UNIQUE_ENTITIES; i++) {
+                entities.append("{\"name\":\"stress-").append(runId).append("-unique-").append(call).append('-').append(i)
+                        .append("\",\"type\":\"Concept\",\"description\":\"独有实体\"},");
+            }
+            String reply = "{\"entities\":[" + entities.substring(0, entities.length() - 1)
+                    + "],\"relations\":[" + relations.substring(0, relations.length() - 1) + "]}";
+            // 按小块流式返回
+            List<String> chunks = new ArrayList<>();
+            for (int i = 0; i < reply.length(); i += STREAM_CHUNK_SIZE) {
+                chunks.add(reply.substring(i, Math.min(i + STREAM_CHUNK_SIZE, reply.length())));
+            }
+            return Flux.fromIterable(chunks);
+        });
+        when(ollamaService.generateEmbeddings(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return texts.stream().map(text -> OllamaService.EmbeddingResult.failure("测试不生成向量")).toList();
+        });
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        List<Future<KnowledgeExtractService.ExtractResult>> futures = new ArrayList<>();
+        for (int i = 0; i < CONCURRENCY; i++) {
+            long sourceId = i;
+            futures.add(executor.submit(() -> {
+                start.await();
+                return knowledgeExtractService.extractAndBuildGraph("并发抽取测试文本 " + sourceId, sourceId, "manual");
+            }));
+        }
+        start.countDown();
+
+        List<Long> createdNodeIds = new ArrayList<>();
+        int createdRelations = 0;
+        for (Future<KnowledgeExtractService.ExtractResult> future : futures) {
+            KnowledgeExtractService.ExtractResult result = future.get(120, TimeUnit.SECONDS);
+            result.nodes().forEach(node -> createdNodeIds.add(node.getId()));
+            createdRelations += result.relationCount();
+        }
+        executor.shutdown();
+
+        try {
+            // 每个共享实体只有一个节点
+            List<Long> sharedIds = new ArrayList<>();
+            for (String name : sharedNames) {
+                List<KnowledgeNode> nodes = nodeMapper.selectList(new LambdaQueryWrapper<KnowledgeNode>()
+                        .eq(KnowledgeNode::getNameKey, EntityDictionary.normalize(name))
+                        .eq(KnowledgeNode::getNodeType, "Concept"));
+                assertEquals(1, nodes.size(), "实体重复: " + name);
+                sharedIds.add(nodes.get(0).getId());
+            }
+
+            // 每条共享关系只创建一次
+            for (int i = 1; i < SHARED_ENTITIES; i++) {
+                assertEquals(1, relationMapper.selectBySourceAndTarget(sharedIds.get(i - 1), sharedIds.get(i)).size(),
+                        "关系重复: " + sharedNames.get(i - 1) + " -> " + sharedNames.get(i));
+            }
+            assertEquals(SHARED_ENTITIES - 1, createdRelations);
+
+            // 共享实体只由一个文档创建，独有实体全部创建
+            assertEquals(SHARED_ENTITIES + CONCURRENCY * UNIQUE_ENTITIES, createdNodeIds.size());
+            assertEquals(createdNodeIds.size(), createdNodeIds.stream().distinct().count());
+        } finally {
+            // 清理测试数据
+            createdNodeIds.forEach(nodeService::deleteNode);
+        }
+    }
+
+    /**
+     * 转为全角大写（ASCII字母数字和标点转为对应的全角字符）
+     */
+    private static String toFullWidthUpperCase(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for (char c : text.toUpperCase().toCharArray()) {
+            builder.append(c > ' ' && c < 0x7f ? (char) (c - 0x21 + 0xFF01) : c);
+        }
+        return builder.toString();
+    }
+}
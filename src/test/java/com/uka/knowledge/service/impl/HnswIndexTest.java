@@ -0,0 +1,198 @@
+package com.uka.knowledge.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 进程内HNSW向量索引测试
+ * <p>
+ * 校验检索结果与暴力检索的召回率、删除后的墓碑标记、重新打开时按图快照补建节点，
+ * 以及压缩替换索引文件后的内容。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+    private static final int M = 16;
+    private static final int EF_CONSTRUCTION = 200;
+
+    @TempDir
+    Path tempDir;
+
+    private HnswIndex open(String name) throws IOException {
+        return HnswIndex.open(tempDir, name, DIMENSION, HnswIndex.Metric.COSINE, M, EF_CONSTRUCTION);
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    /**
+     * 暴力检索最相似的topK个向量ID
+     */
+    private static Set<Long> bruteForce(Map<Long, float[]> vectors, float[] query, int topK) {
+        Set<Long> ids = new HashSet<>();
+        vectors.entrySet().stream()
+                .sorted(Comparator.comparingDouble((Map.Entry<Long, float[]> e) -> cosine(query, e.getValue())).reversed())
+                .limit(topK)
+                .forEach(e -> ids.add(e.getKey()));
+        return ids;
+    }
+
+    private static Set<Long> hitIds(List<HnswIndex.Hit> hits) {
+        Set<Long> ids = new HashSet<>();
+        hits.forEach(hit -> ids.add(hit.id()));
+        return ids;
+    }
+
+    @Test
+    void recallMatchesBruteForce() throws IOException {
+        Random random = new Random(42);
+        Map<Long, float[]> vectors = new HashMap<>();
+        try (HnswIndex index = open("index")) {
+            for (long id = 1; id <= 2000; id++) {
+                float[] vector = randomVector(random);
+                vectors.put(id, vector);
+                assertTrue(index.add(id, id * 10, vector));
+            }
+
+            int topK = 10;
+            int found = 0;
+            for (int q = 0; q < 50; q++) {
+                float[] query = randomVector(random);
+                Set<Long> expected = bruteForce(vectors, query, topK);
+                List<HnswIndex.Hit> hits = index.search(query, topK, 64);
+                assertEquals(topK, hits.size());
+                for (HnswIndex.Hit hit : hits) {
+                    assertEquals(hit.id() * 10, hit.businessId());
+                }
+                Set<Long> actual = hitIds(hits);
+                actual.retainAll(expected);
+                found += actual.size();
+            }
+            double recall = found / (50.0 * topK);
+            assertTrue(recall >= 0.9, "召回率过低: " + recall);
+        }
+    }
+
+    @Test
+    void deletedVectorsAreTombstoned() throws IOException {
+        Random random = new Random(7);
+        Map<Long, float[]> vectors = new HashMap<>();
+        try (HnswIndex index = open("index")) {
+            for (long id = 1; id <= 300; id++) {
+                float[] vector = randomVector(random);
+                vectors.put(id, vector);
+                index.add(id, id, vector);
+            }
+            for (long id = 1; id <= 300; id += 2) {
+                assertTrue(index.delete(id));
+            }
+            assertFalse(index.delete(1));
+            assertFalse(index.add(2, 2, vectors.get(2L)));
+
+            assertEquals(300, index.count());
+            assertEquals(150, index.deletedCount());
+            assertEquals(150, index.ids().size());
+            assertFalse(index.contains(1));
+            assertNull(index.businessId(1));
+            assertEquals(2L, index.businessId(2));
+
+            // 被删除的向量仍参与遍历，但不出现在结果中
+            for (long id = 1; id <= 300; id += 2) {
+                List<HnswIndex.Hit> hits = index.search(vectors.get(id), 20, 64);
+                assertFalse(hits.isEmpty());
+                hits.forEach(hit -> assertEquals(0, hit.id() % 2, "返回了已删除的向量: " + hit.id()));
+            }
+            // 删除后可以用相同的向量ID重新写入
+            assertTrue(index.add(1, 1, vectors.get(1L)));
+            assertEquals(1L, index.search(vectors.get(1L), 1, 64).get(0).id());
+        }
+
+        try (HnswIndex reopened = open("index")) {
+            assertEquals(150, reopened.deletedCount());
+            assertTrue(reopened.contains(1));
+            assertFalse(reopened.contains(3));
+        }
+    }
+
+    @Test
+    void reopenReplaysRecordsAfterGraphSnapshot() throws IOException {
+        Random random = new Random(11);
+        Map<Long, float[]> vectors = new HashMap<>();
+        HnswIndex index = open("index");
+        for (long id = 1; id <= 500; id++) {
+            float[] vector = randomVector(random);
+            vectors.put(id, vector);
+            index.add(id, id, vector);
+        }
+        index.saveGraph();
+        for (long id = 501; id <= 800; id++) {
+            float[] vector = randomVector(random);
+            vectors.put(id, vector);
+            index.add(id, id, vector);
+        }
+        // 模拟进程异常退出：不保存快照之后的图
+        index.release();
+
+        try (HnswIndex reopened = open("index")) {
+            assertEquals(800, reopened.count());
+            assertEquals(800, reopened.ids().size());
+            for (long id = 1; id <= 800; id += 37) {
+                List<HnswIndex.Hit> hits = reopened.search(vectors.get(id), 1, 64);
+                assertEquals(id, hits.get(0).id());
+                assertEquals(1.0f, hits.get(0).score(), 1e-4f);
+            }
+        }
+    }
+
+    @Test
+    void renameReplacesExistingIndex() throws IOException {
+        Random random = new Random(3);
+        HnswIndex old = open("index");
+        for (long id = 1; id <= 100; id++) {
+            old.add(id, id, randomVector(random));
+        }
+        old.close();
+
+        float[] vector = randomVector(random);
+        HnswIndex fresh = open("compact");
+        fresh.add(1000, 1000, vector);
+        fresh.saveGraph();
+        fresh.rename("index");
+        fresh.close();
+
+        assertFalse(Files.exists(tempDir.resolve("compact.vec")));
+        assertFalse(Files.exists(tempDir.resolve("compact.graph")));
+        try (HnswIndex reopened = open("index")) {
+            assertEquals(Set.of(1000L), reopened.ids());
+            assertEquals(1000L, reopened.search(vector, 1, 64).get(0).id());
+        }
+    }
+}
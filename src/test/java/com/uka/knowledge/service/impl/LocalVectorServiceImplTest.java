@@ -0,0 +1,235 @@
+package com.uka.knowledge.service.impl;
+
+import com.uka.knowledge.exception.BusinessException;
+import com.uka.knowledge.config.MilvusConfig;
+import com.uka.knowledge.config.VectorStoreConfig;
+import com.uka.knowledge.service.VectorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 本地向量服务测试
+ * <p>
+ * 校验按类型检索只返回该类型的向量、同一业务对象并发覆盖写入后保留最后写入的向量，
+ * 以及压缩与并发写入、删除交错时不丢失或复活向量，重新打开后内容一致。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+class LocalVectorServiceImplTest {
+
+    private static final int DIMENSION = 16;
+
+    @TempDir
+    Path tempDir;
+
+    private final VectorStoreConfig vectorStoreConfig = new VectorStoreConfig();
+    private final MilvusConfig milvusConfig = new MilvusConfig();
+    private LocalVectorServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        vectorStoreConfig.setStore(VectorStoreConfig.Store.LOCAL);
+        vectorStoreConfig.setLocalPath(tempDir.toString());
+        vectorStoreConfig.setCompactionDeletedRatio(0.1);
+        milvusConfig.setDimension(DIMENSION);
+        milvusConfig.setTypes(new ArrayList<>(List.of("chunk", "node")));
+        service = open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.close();
+    }
+
+    private LocalVectorServiceImpl open() {
+        LocalVectorServiceImpl opened = new LocalVectorServiceImpl(vectorStoreConfig, milvusConfig, null);
+        opened.initCollection();
+        return opened;
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static VectorService.VectorInsertData data(long businessId, float[] vector, String type) {
+        return new VectorService.VectorInsertData(businessId, vector, type);
+    }
+
+    private void assertTopHit(float[] vector, long businessId, String type) {
+        List<VectorService.VectorSearchResult> results = service.search(vector, 1, type);
+        assertFalse(results.isEmpty());
+        assertEquals(businessId, results.get(0).id());
+        assertEquals(1.0f, results.get(0).score(), 1e-4f);
+    }
+
+    @Test
+    void searchFiltersByType() {
+        Random random = new Random(1);
+        float[] shared = randomVector(random);
+        service.upsertVector(data(1L, shared, "chunk"));
+        service.upsertVector(data(2L, shared, "node"));
+        for (long id = 10; id < 60; id++) {
+            service.upsertVector(data(id, randomVector(random), id % 2 == 0 ? "chunk" : "node"));
+        }
+
+        List<VectorService.VectorSearchResult> chunks = service.search(shared, 10, "chunk");
+        assertEquals(10, chunks.size());
+        chunks.forEach(result -> assertEquals("chunk", result.type()));
+        assertEquals(1L, chunks.get(0).id());
+
+        List<VectorService.VectorSearchResult> nodes = service.search(shared, 10, "node");
+        nodes.forEach(result -> assertEquals("node", result.type()));
+        assertEquals(2L, nodes.get(0).id());
+
+        // 未指定类型时合并所有类型的结果
+        List<VectorService.VectorSearchResult> all = service.search(shared, 2, null);
+        assertEquals(Set.of("chunk", "node"), Set.of(all.get(0).type(), all.get(1).type()));
+
+        assertThrows(BusinessException.class, () -> service.search(shared, 10, "ocr"));
+        assertThrows(BusinessException.class, () -> service.upsertVector(data(3L, shared, "ocr")));
+
+        assertTrue(service.deleteVectors("chunk", List.of(1L)));
+        assertTrue(service.search(shared, 10, "chunk").stream().noneMatch(result -> result.id() == 1L));
+        assertEquals(2L, service.search(shared, 1, "node").get(0).id());
+    }
+
+    @Test
+    void concurrentUpsertsOfSameBusinessIdKeepLastVector() throws Exception {
+        Random random = new Random(2);
+        int threads = 8;
+        int rounds = 200;
+        Map<Long, List<float[]>> lastRound = new HashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                long businessId = round % 5;
+                CyclicBarrier barrier = new CyclicBarrier(threads);
+                List<Future<?>> futures = new ArrayList<>();
+                List<float[]> written = new ArrayList<>();
+                lastRound.put(businessId, written);
+                for (int t = 0; t < threads; t++) {
+                    float[] vector = randomVector(random);
+                    written.add(vector);
+                    futures.add(executor.submit(() -> {
+                        barrier.await();
+                        return service.upsertVector(data(businessId, vector, "chunk"));
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get(10, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // 每次写入都追加一条记录，并发覆盖时新向量不会被丢弃
+        Map<?, ?> stats = (Map<?, ?>) service.stats().get("chunk");
+        assertEquals(rounds * threads, stats.get("records"));
+        // 每个业务对象只保留一个存活的向量，且是最后一轮并发写入的向量之一
+        assertEquals(5, stats.get("live"));
+        for (Map.Entry<Long, List<float[]>> entry : lastRound.entrySet()) {
+            long matched = entry.getValue().stream()
+                    .map(vector -> service.search(vector, 1, "chunk").get(0))
+                    .filter(result -> result.id().equals(entry.getKey()) && result.score() > 0.9999f)
+                    .count();
+            assertEquals(1, matched, "业务ID=" + entry.getKey());
+        }
+    }
+
+    @Test
+    void compactionKeepsConcurrentWrites() throws Exception {
+        Random random = new Random(3);
+        Map<Long, float[]> latest = new ConcurrentHashMap<>();
+        for (long id = 0; id < 2000; id++) {
+            float[] vector = randomVector(random);
+            latest.put(id, vector);
+            service.upsertVector(data(id, vector, "chunk"));
+        }
+        List<Long> deleted = new ArrayList<>();
+        for (long id = 0; id < 2000; id += 3) {
+            deleted.add(id);
+            latest.remove(id);
+        }
+        service.deleteVectors("chunk", deleted);
+
+        // 压缩期间覆盖写入已有对象、写入新对象并删除部分对象
+        int[] upserts = new int[1];
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        Future<?> writes = writer.submit(() -> {
+            Random writerRandom = new Random(4);
+            started.countDown();
+            for (long i = 0; i < 1500; i++) {
+                long id = i % 3 == 0 ? 2000 + i : 1 + (i * 7) % 1999;
+                if (i % 10 == 9) {
+                    service.deleteVectors("chunk", List.of(id));
+                    latest.remove(id);
+                    continue;
+                }
+                float[] vector = randomVector(writerRandom);
+                service.upsertVector(data(id, vector, "chunk"));
+                latest.put(id, vector);
+                upserts[0]++;
+            }
+        });
+        started.await();
+        service.compact();
+        writes.get(60, TimeUnit.SECONDS);
+        writer.shutdown();
+
+        Map<?, ?> stats = (Map<?, ?>) service.stats().get("chunk");
+        assertEquals(latest.size(), stats.get("live"));
+        // 未压缩时记录数为初始写入数加覆盖写入数
+        assertTrue((Integer) stats.get("records") < 2000 + upserts[0], "压缩未清除已删除的向量: " + stats);
+        assertFalse(Files.exists(tempDir.resolve("chunk").resolve("compact.vec")));
+        for (Map.Entry<Long, float[]> entry : latest.entrySet()) {
+            assertTopHit(entry.getValue(), entry.getKey(), "chunk");
+        }
+
+        // 重新打开后内容一致
+        service.close();
+        service = open();
+        assertEquals(latest.size(), ((Map<?, ?>) service.stats().get("chunk")).get("live"));
+        for (long id = 0; id < 2000; id += 17) {
+            float[] vector = latest.get(id);
+            if (vector != null) {
+                assertTopHit(vector, id, "chunk");
+            }
+        }
+    }
+
+    @Test
+    void startupDiscardsUnfinishedCompaction() throws Exception {
+        Random random = new Random(5);
+        float[] vector = randomVector(random);
+        service.upsertVector(data(1L, vector, "chunk"));
+        service.close();
+
+        // 压缩在替换原索引之前中断
+        HnswIndex unfinished = HnswIndex.open(tempDir.resolve("chunk"), "compact", DIMENSION,
+                HnswIndex.Metric.COSINE, vectorStoreConfig.getHnswM(), vectorStoreConfig.getHnswEfConstruction());
+        unfinished.add(99L, 99L, randomVector(random));
+        unfinished.close();
+
+        service = open();
+        assertFalse(Files.exists(tempDir.resolve("chunk").resolve("compact.vec")));
+        assertEquals(1, ((Map<?, ?>) service.stats().get("chunk")).get("live"));
+        assertTopHit(vector, 1L, "chunk");
+    }
+}
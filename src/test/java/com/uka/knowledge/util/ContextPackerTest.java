@@ -0,0 +1,182 @@
+package com.uka.knowledge.util;
+
+import com.uka.knowledge.config.RagConfig;
+import com.uka.knowledge.model.entity.ChatAttachment;
+import com.uka.knowledge.model.entity.ChatMessage;
+import com.uka.knowledge.model.vo.RagDocument;
+import com.uka.knowledge.model.vo.RagNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.uka.knowledge.util.ContextPacker.estimateTokens;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 上下文组装工具类测试
+ * <p>
+ * 校验各部分组装结果（含标题、角色前缀、截断标记和省略号）的token数不超过预算，
+ * 以及预算很小或为0时不输出超出预算的内容。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+class ContextPackerTest {
+
+    private static final String QUERY = "知识图谱如何支持检索增强生成";
+
+    private final RagConfig ragConfig = new RagConfig();
+    private final ContextPacker packer = new ContextPacker(ragConfig);
+
+    /**
+     * 生成互不重复、带句末标点的长文本
+     */
+    private static String longText(String topic, int sentences) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < sentences; i++) {
+            sb.append(topic).append("第").append(i).append("句，知识图谱 graph retrieval ")
+                    .append(Integer.toHexString(topic.hashCode() * 31 + i)).append(" 用于检索增强生成。");
+        }
+        return sb.toString();
+    }
+
+    private static void assertWithinBudget(ContextPacker.Section section, int budget) {
+        assertTrue(estimateTokens(section.text()) <= budget,
+                section.name() + " 超出预算: " + estimateTokens(section.text()) + " > " + budget);
+        assertEquals(estimateTokens(section.text()), section.packedTokens());
+    }
+
+    @Test
+    void documentsStayWithinBudget() {
+        List<RagDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            RagDocument doc = new RagDocument();
+            doc.setName("很长很长的文档名称用于占用标题预算-" + i + ".pdf");
+            doc.setPageNum(100 + i);
+            doc.setMatchedContent(longText("文档" + i, 20));
+            documents.add(doc);
+        }
+
+        for (int budget : new int[]{0, 5, 30, 120, 400}) {
+            ragConfig.getContext().setDocumentTokens(budget);
+            ContextPacker.Section section = packer.packDocuments(documents, QUERY);
+            assertWithinBudget(section, budget);
+            if (budget >= 120) {
+                assertTrue(section.text().contains("- 文档1名称"));
+            }
+        }
+    }
+
+    @Test
+    void documentsAreNumberedByEmittedOrder() {
+        ragConfig.getContext().setDocumentTokens(60);
+        List<RagDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            RagDocument doc = new RagDocument();
+            doc.setName("文档" + i);
+            doc.setMatchedContent(longText("片段" + i, 10));
+            documents.add(doc);
+        }
+
+        // 第一个片段的标题已超过均分的份额，被跳过的片段不占编号
+        documents.get(0).setName("标题超过均分份额的超长文档名称标题超过均分份额的超长文档名称");
+        ContextPacker.Section section = packer.packDocuments(documents, QUERY);
+        assertWithinBudget(section, 60);
+        assertFalse(section.text().contains("超长文档名称"));
+        assertTrue(section.text().contains("- 文档1名称「文档1」"));
+        assertTrue(section.text().contains("- 文档2名称「文档2」"));
+    }
+
+    @Test
+    void nodesStayWithinBudget() {
+        List<RagNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            RagNode node = new RagNode();
+            node.setName("节点" + i);
+            node.setNodeType("Concept");
+            node.setDescription(longText("描述" + i, 5));
+            RagNode.RagRelation relation = new RagNode.RagRelation();
+            relation.setRelationType("RELATED_TO");
+            relation.setTargetNodeName("节点" + (i + 1));
+            node.setRelations(List.of(relation));
+            nodes.add(node);
+        }
+
+        for (int budget : new int[]{0, 10, 100, 400}) {
+            ragConfig.getContext().setNodeTokens(budget);
+            assertWithinBudget(packer.packNodes(nodes), budget);
+        }
+    }
+
+    @Test
+    void attachmentsStayWithinBudget() {
+        List<ChatAttachment> attachments = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ChatAttachment attachment = new ChatAttachment();
+            attachment.setFileName("附件名称也会占用预算-" + i + ".docx");
+            attachment.setParsedContent(longText("附件" + i, 30));
+            attachments.add(attachment);
+        }
+
+        for (int budget : new int[]{0, 8, 50, 300, 1500}) {
+            ragConfig.getContext().setAttachmentTokens(budget);
+            ContextPacker.Section section = packer.packAttachments(attachments, QUERY);
+            assertWithinBudget(section, budget);
+            if (budget >= 300) {
+                assertTrue(section.text().contains("文件「附件名称也会占用预算-0.docx」内容:"));
+            }
+        }
+    }
+
+    @Test
+    void historyStaysWithinBudget() {
+        List<ChatMessage> history = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            ChatMessage message = new ChatMessage();
+            message.setRole(i % 2 == 0 ? ChatMessage.ROLE_ASSISTANT : ChatMessage.ROLE_USER);
+            message.setContent(longText("消息" + i, 15));
+            history.add(message);
+        }
+
+        for (int budget : new int[]{0, 3, 10, 100, 600}) {
+            ragConfig.getContext().setHistoryTokens(budget);
+            ContextPacker.Section section = packer.packHistory(history);
+            assertWithinBudget(section, budget);
+            if (section.text().isEmpty()) {
+                assertTrue(budget < 10);
+            } else {
+                assertTrue(section.text().startsWith("【历史对话】\n"));
+            }
+        }
+
+        // 最近的消息优先保留，输出时恢复为时间正序
+        ragConfig.getContext().setHistoryTokens(600);
+        String text = packer.packHistory(history).text();
+        assertTrue(text.endsWith("\n"));
+        assertTrue(text.contains("助手: 消息0第0句"));
+        assertFalse(text.contains("消息11第0句"));
+    }
+
+    @Test
+    void truncationMarkCountsAgainstBudget() {
+        String text = "abcdefghijklmnopqrstuvwxyz 知识图谱检索增强生成";
+        for (int budget = 0; budget <= estimateTokens(text); budget++) {
+            String truncated = ContextPacker.truncateToTokens(text, budget);
+            assertTrue(estimateTokens(truncated) <= budget, budget + ": " + truncated);
+        }
+        assertEquals("", ContextPacker.truncateToTokens(text, 0));
+        assertEquals("a...", ContextPacker.truncateToTokens(text, 1));
+        assertEquals(text, ContextPacker.truncateToTokens(text, estimateTokens(text)));
+    }
+
+    @Test
+    void selectedSentencesIncludeGapMarks() {
+        String text = longText("句子", 40);
+        for (int budget = -5; budget <= 200; budget += 7) {
+            String selected = ContextPacker.selectSentences(text, QUERY, budget);
+            assertTrue(estimateTokens(selected) <= Math.max(0, budget), budget + ": " + selected);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.uka.knowledge.util;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 文档解析工具类测试
+ * <p>
+ * 校验带页面回调解析时逐页回调、结果不保留页面列表，且回调的页面与不带回调解析的页面一致。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+class DocumentParserTest {
+
+    private final DocumentParser parser = new DocumentParser();
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * 分别以有回调和无回调方式解析，校验两者页面一致且有回调时不保留页面
+     */
+    private List<DocumentParser.PageContent> assertStreamedPages(Path file, String fileType) {
+        DocumentParser.ParseResult collected = parser.parseWithPages(file.toString(), fileType);
+
+        List<DocumentParser.PageContent> streamed = new ArrayList<>();
+        DocumentParser.ParseResult result = parser.parseWithPages(file.toString(), fileType, streamed::add);
+
+        assertTrue(result.getPages().isEmpty());
+        assertEquals(collected.getTotalPages(), result.getTotalPages());
+        assertEquals(collected.getPages(), streamed);
+        assertEquals(collected.getFullContent(), result.getFullContent());
+        return streamed;
+    }
+
+    @Test
+    void streamsTxtPagesWithoutRetainingThem() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 120; i++) {
+            text.append("第").append(i).append("行\n");
+        }
+        Path file = tempDir.resolve("a.txt");
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+
+        List<DocumentParser.PageContent> pages = assertStreamedPages(file, "txt");
+        assertEquals(3, pages.size());
+        assertTrue(pages.get(2).getContent().startsWith("第100行"));
+    }
+
+    @Test
+    void streamsMarkdownSections() throws IOException {
+        Path file = tempDir.resolve("a.md");
+        Files.writeString(file, "# 知识图谱\n节点与关系。\n\n## 检索\n向量检索。\n", StandardCharsets.UTF_8);
+
+        List<DocumentParser.PageContent> pages = assertStreamedPages(file, "md");
+        assertEquals(2, pages.size());
+        assertEquals(2, pages.get(1).getPageNum());
+    }
+
+    @Test
+    void streamsDocxPages() throws IOException {
+        Path file = tempDir.resolve("a.docx");
+        try (XWPFDocument document = new XWPFDocument(); OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < 30; i++) {
+                document.createParagraph().createRun().setText("段落" + i + "内容".repeat(100));
+            }
+            document.write(out);
+        }
+
+        List<DocumentParser.PageContent> pages = assertStreamedPages(file, "docx");
+        assertTrue(pages.size() > 1);
+    }
+
+    @Test
+    void skipsBlankPagesInCallback() throws IOException {
+        Path file = tempDir.resolve("blank.txt");
+        Files.writeString(file, "\n".repeat(60) + "正文\n", StandardCharsets.UTF_8);
+
+        List<DocumentParser.PageContent> streamed = new ArrayList<>();
+        DocumentParser.ParseResult result = parser.parseWithPages(file.toString(), "txt", streamed::add);
+
+        assertEquals(2, result.getTotalPages());
+        assertEquals(1, streamed.size());
+        assertEquals("正文", streamed.get(0).getContent());
+    }
+}
@@ -0,0 +1,136 @@
+package com.uka.knowledge.util;
+
+import com.alibaba.fastjson2.JSON;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SSE片段合并写出基准测试
+ * <p>
+ * 对比逐token发送（Map + 通用JSON序列化 + SseEmitter事件构建 + 每token一次写出）
+ * 与按模板合并成帧发送（每帧一个预拼好的数据项）每个token消耗的CPU时间和写出次数。
+ * 结果通过 {@link TestReporter} 记录到测试报告中，不输出到控制台。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+class SseFrameWriterBenchmarkTest {
+
+    private static final int TOKENS = 2000;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int ROUNDS = 500;
+
+    /**
+     * 模拟大模型输出：先思考内容，后正文，中英文混合并包含需转义的字符
+     */
+    private static List<String> sampleTokens() {
+        String[] words = {"知识", "图谱", " graph", "的", "节点", " \"node\"", "与", "关系", "\n", "。", " RAG", "\\", "检索"};
+        List<String> tokens = new ArrayList<>(TOKENS);
+        tokens.add("<think>");
+        for (int i = 0; i < TOKENS; i++) {
+            if (i == TOKENS / 4) {
+                tokens.add("</think>");
+            }
+            tokens.add(words[i % words.length]);
+        }
+        return tokens;
+    }
+
+    @Test
+    void coalescedFramesUseLessCpuPerToken(TestReporter reporter) {
+        List<String> tokens = sampleTokens();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            perTokenEvents(tokens);
+            coalescedFrames(tokens);
+        }
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        long writesBefore = 0;
+        long start = threadBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            writesBefore += perTokenEvents(tokens);
+        }
+        long beforeNanos = threadBean.getCurrentThreadCpuTime() - start;
+
+        long framesAfter = 0;
+        start = threadBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            framesAfter += coalescedFrames(tokens);
+        }
+        long afterNanos = threadBean.getCurrentThreadCpuTime() - start;
+
+        double tokenCount = (double) tokens.size() * ROUNDS;
+        reporter.publishEntry(Map.of(
+                "perTokenNanosPerToken", String.format("%.1f", beforeNanos / tokenCount),
+                "perTokenWritesPerRound", String.valueOf(writesBefore / ROUNDS),
+                "coalescedNanosPerToken", String.format("%.1f", afterNanos / tokenCount),
+                "coalescedWritesPerRound", String.valueOf(framesAfter / ROUNDS)));
+
+        assertTrue(framesAfter < writesBefore, framesAfter + " >= " + writesBefore);
+        assertTrue(afterNanos < beforeNanos, "合并帧发送的CPU时间未减少: " + afterNanos + "ns >= " + beforeNanos + "ns");
+    }
+
+    /**
+     * 优化前：每个片段构建Map、通用JSON序列化、构建SseEmitter事件、单独一次写出
+     *
+     * @return 写出次数
+     */
+    private static long perTokenEvents(List<String> tokens) {
+        ThinkTagParser parser = new ThinkTagParser();
+        long[] counter = {0};
+        ThinkTagParser.Listener listener = (part, text) -> {
+            Map<String, Object> data = new HashMap<>();
+            data.put("type", part == ThinkTagParser.Part.THINKING ? "thinking" : "content");
+            data.put("content", text);
+            Set<ResponseBodyEmitter.DataWithMediaType> parts = SseEmitter.event()
+                    .name("message")
+                    .data(JSON.toJSONString(data))
+                    .build();
+            if (!parts.isEmpty()) {
+                counter[0]++;
+            }
+        };
+        for (String token : tokens) {
+            parser.feed(token, listener);
+        }
+        parser.finish(listener);
+        return counter[0];
+    }
+
+    /**
+     * 优化后：按模板合并成帧，每帧作为一个预拼好的数据项写出
+     *
+     * @return 写出次数
+     */
+    private static long coalescedFrames(List<String> tokens) {
+        ThinkTagParser parser = new ThinkTagParser();
+        long[] writes = {0};
+        SseFrameWriter writer = new SseFrameWriter(frame -> {
+            Set<ResponseBodyEmitter.DataWithMediaType> parts =
+                    Set.of(new ResponseBodyEmitter.DataWithMediaType(frame, MediaType.TEXT_PLAIN));
+            writes[0] += parts.size();
+        }, null, 50, 1024);
+        for (String token : tokens) {
+            parser.feed(token, writer::append);
+        }
+        parser.finish(writer::append);
+        writer.close();
+        assertEquals(writer.frameCount(), writes[0]);
+        return writer.frameCount();
+    }
+}
@@ -0,0 +1,208 @@
+package com.uka.knowledge.util;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SSE片段合并写出器测试
+ * <p>
+ * 校验帧格式与 {@code SseEmitter.event().name("message").data(json)} 一致、片段按字节数和类型切换分帧、
+ * 合并后的内容与原始输出一致，以及帧在写出器的锁外写出。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+class SseFrameWriterTest {
+
+    private static final ThinkTagParser.Part THINKING = ThinkTagParser.Part.THINKING;
+    private static final ThinkTagParser.Part CONTENT = ThinkTagParser.Part.CONTENT;
+
+    private final List<String> frames = new ArrayList<>();
+
+    /**
+     * 不按时间窗口写出，只按字节数、类型切换和结束分帧
+     */
+    private SseFrameWriter writer(long windowMs, int maxBytes) {
+        return new SseFrameWriter(frames::add, null, windowMs, maxBytes);
+    }
+
+    /**
+     * 取出帧中的JSON数据
+     */
+    private static JSONObject data(String frame) {
+        assertTrue(frame.startsWith("event:message\ndata:"), frame);
+        assertTrue(frame.endsWith("\n\n"), frame);
+        String json = frame.substring("event:message\ndata:".length(), frame.length() - 2);
+        assertFalse(json.contains("\n"));
+        return JSON.parseObject(json);
+    }
+
+    /**
+     * 拼接事件的全部输出
+     */
+    private static String text(Set<ResponseBodyEmitter.DataWithMediaType> parts) {
+        return parts.stream().map(part -> String.valueOf(part.getData())).collect(Collectors.joining());
+    }
+
+    @Test
+    void frameMatchesSseEmitterFormat() {
+        SseFrameWriter writer = writer(0, 1024);
+        writer.append(CONTENT, "知识\"图谱\"\n");
+
+        assertEquals(1, frames.size());
+        String expected = text(SseEmitter.event().name("message")
+                .data(SseFrameWriter.toJson(CONTENT, "知识\"图谱\"\n")).build());
+        assertEquals(expected, frames.get(0));
+    }
+
+    @Test
+    void coalescesFragmentsUntilMaxBytes() {
+        SseFrameWriter writer = writer(50, 8);
+        writer.append(CONTENT, "abc");
+        writer.append(CONTENT, "def");
+        assertTrue(frames.isEmpty());
+
+        // 达到8字节立即写出
+        writer.append(CONTENT, "gh");
+        assertEquals(1, frames.size());
+        assertEquals("abcdefgh", data(frames.get(0)).getString("content"));
+
+        // 中文按UTF-8字节计数
+        writer.append(CONTENT, "中文中");
+        assertEquals(2, frames.size());
+        assertEquals("中文中", data(frames.get(1)).getString("content"));
+
+        writer.append(CONTENT, "ij");
+        writer.close();
+        assertEquals(3, frames.size());
+        assertEquals("ij", data(frames.get(2)).getString("content"));
+        assertEquals(3, writer.frameCount());
+    }
+
+    @Test
+    void writesEachFragmentWithoutWindow() {
+        SseFrameWriter writer = writer(0, 1024);
+        writer.append(CONTENT, "a");
+        writer.append(CONTENT, "b");
+        writer.append(CONTENT, "");
+
+        assertEquals(2, frames.size());
+        assertEquals("a", data(frames.get(0)).getString("content"));
+        assertEquals("b", data(frames.get(1)).getString("content"));
+    }
+
+    @Test
+    void flushesAtPartBoundary() {
+        SseFrameWriter writer = writer(50, 1024);
+        writer.append(THINKING, "思考");
+        writer.append(THINKING, "中");
+        assertTrue(frames.isEmpty());
+
+        writer.append(CONTENT, "正文");
+        assertEquals(1, frames.size());
+        assertEquals(Map.of("type", "thinking", "content", "思考中"), data(frames.get(0)));
+
+        writer.flush();
+        assertEquals(2, frames.size());
+        assertEquals(Map.of("type", "content", "content", "正文"), data(frames.get(1)));
+    }
+
+    @Test
+    void ignoresFragmentsAfterClose() {
+        SseFrameWriter writer = writer(50, 1024);
+        writer.close();
+        writer.append(CONTENT, "late");
+        writer.flush();
+
+        assertTrue(frames.isEmpty());
+        assertEquals(0, writer.frameCount());
+    }
+
+    @Test
+    void coalescedFramesPreserveContent() {
+        String[] words = {"知识", "图谱", " graph", "的", "节点", " \"node\"", "与", "关系", "\n", "。", " RAG", "\\", "检索"};
+        List<String> tokens = new ArrayList<>();
+        tokens.add("<think>");
+        for (int i = 0; i < 400; i++) {
+            if (i == 100) {
+                tokens.add("</think>");
+            }
+            tokens.add(words[i % words.length]);
+        }
+
+        ThinkTagParser parser = new ThinkTagParser();
+        SseFrameWriter writer = writer(50, 64);
+        tokens.forEach(token -> parser.feed(token, writer::append));
+        parser.finish(writer::append);
+        writer.close();
+
+        StringBuilder thinking = new StringBuilder();
+        StringBuilder content = new StringBuilder();
+        String lastType = null;
+        for (String frame : frames) {
+            JSONObject data = data(frame);
+            String type = data.getString("type");
+            (type.equals("thinking") ? thinking : content).append(data.getString("content"));
+            // 思考内容全部在正文之前，且只切换一次
+            if (lastType != null && !lastType.equals(type)) {
+                assertEquals("content", type);
+            }
+            lastType = type;
+        }
+        assertTrue(frames.size() < tokens.size());
+
+        ThinkTagParser.Result expected = ThinkTagParser.parse(String.join("", tokens));
+        assertEquals(expected.thinking(), thinking.toString().trim());
+        assertEquals(expected.content(), content.toString().trim());
+    }
+
+    @Test
+    void writesFramesOutsideWriterLock() throws Exception {
+        // 写出目标需要的锁被追加片段的线程持有（对应流式句柄的锁），写出不能持有写出器的锁
+        Object handleLock = new Object();
+        CountDownLatch writing = new CountDownLatch(1);
+        SseFrameWriter writer = new SseFrameWriter(frame -> {
+            writing.countDown();
+            synchronized (handleLock) {
+                frames.add(frame);
+            }
+        }, null, 50, 1024);
+        writer.append(CONTENT, "a");
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            Thread flusher;
+            synchronized (handleLock) {
+                flusher = new Thread(writer::flush);
+                flusher.start();
+                assertTrue(writing.await(5, TimeUnit.SECONDS));
+                writer.append(CONTENT, "b");
+            }
+            flusher.join();
+            writer.close();
+        });
+        assertEquals(List.of("a", "b"), frames.stream().map(f -> data(f).getString("content")).toList());
+    }
+
+    @Test
+    void escapesControlAndLineSeparatorCharacters() {
+        String text = "a\"b\\c\nd\re\tf\u0001g\u2028h中文";
+        String json = SseFrameWriter.toJson(CONTENT, text);
+        assertEquals(text, JSON.parseObject(json).getString("content"));
+        assertFalse(json.contains("\u2028"));
+    }
+}
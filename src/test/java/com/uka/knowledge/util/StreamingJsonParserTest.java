@@ -0,0 +1,93 @@
+package com.uka.knowledge.util;
+
+import com.alibaba.fastjson2.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式JSON增量解析器测试
+ * <p>
+ * 校验逐字符输入时元素对象一闭合即回调，以及对大模型常见不规范输出（前后说明文字、字符串拼接、
+ * 字符串内换行、多余逗号、输出截断）的宽松处理。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+class StreamingJsonParserTest {
+
+    private final List<String> fields = new ArrayList<>();
+    private final List<JSONObject> elements = new ArrayList<>();
+    private final StreamingJsonParser parser = new StreamingJsonParser((field, element) -> {
+        fields.add(field);
+        elements.add(element);
+    });
+
+    /**
+     * 逐字符输入
+     */
+    private void feedByChar(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            parser.feed(text.substring(i, i + 1));
+        }
+    }
+
+    @Test
+    void emitsEachElementAsSoonAsItCloses() {
+        feedByChar("{\"entities\": [{\"name\": \"Java\", \"type\": \"Technology\"}");
+        assertEquals(1, elements.size());
+        assertEquals("Java", elements.get(0).getString("name"));
+
+        feedByChar(", {\"name\": \"Spring\", \"weight\": 0.5, \"core\": true, \"tags\": [\"a\", \"b\"]}], "
+                + "\"relations\": [{\"source\": \"Spring\", \"target\": \"Java\", \"type\": \"USED_BY\"}], \"total\": 3}");
+        JSONObject root = parser.finish();
+
+        assertTrue(parser.isComplete());
+        assertEquals(List.of("entities", "entities", "relations"), fields);
+        JSONObject spring = elements.get(1);
+        assertEquals(0.5, spring.getDoubleValue("weight"));
+        assertTrue(spring.getBooleanValue("core"));
+        assertEquals(List.of("a", "b"), spring.getJSONArray("tags").toJavaList(String.class));
+        assertEquals("Java", elements.get(2).getString("target"));
+        // 已回调的元素不保留，其他字段保留在顶层对象中
+        assertTrue(root.getJSONArray("entities").isEmpty());
+        assertEquals(3L, root.getLongValue("total"));
+    }
+
+    @Test
+    void toleratesMalformedModelOutput() {
+        feedByChar("好的，以下是抽取结果：\n```json\n{\"entities\": [\n"
+                + "  {\"name\": \"知识\" + \"图谱\", \"description\": \"第一行\n第二行\", \"note\": \"\\\"引号\\\" \\u4e2d\\u6587\",},\n"
+                + "],}\n```\n以上 {\"entities\": [{\"name\": \"忽略\"}]}");
+        parser.finish();
+
+        assertTrue(parser.isComplete());
+        assertEquals(1, elements.size());
+        JSONObject entity = elements.get(0);
+        assertEquals("知识图谱", entity.getString("name"));
+        assertEquals("第一行 第二行", entity.getString("description"));
+        assertEquals("\"引号\" 中文", entity.getString("note"));
+    }
+
+    @Test
+    void keepsClosedElementsWhenOutputIsTruncated() {
+        feedByChar("{\"entities\": [{\"name\": \"A\"}, {\"name\": \"B\"}, {\"name\": \"C");
+        JSONObject root = parser.finish();
+
+        assertNotNull(root);
+        assertFalse(parser.isComplete());
+        assertEquals(2, elements.size());
+        assertEquals("B", elements.get(1).getString("name"));
+    }
+
+    @Test
+    void returnsNullWithoutJson() {
+        parser.feed("模型没有输出JSON");
+        assertNull(parser.finish());
+        assertTrue(elements.isEmpty());
+    }
+}
@@ -0,0 +1,118 @@
+package com.uka.knowledge.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 思考链标签增量解析器测试
+ * <p>
+ * 逐字符输入，校验标签被拆分到多个块中时的识别、未闭合的思考块、无标签文本，
+ * 以及回调片段与 {@link ThinkTagParser#result()} 一致。
+ * </p>
+ *
+ * @author uka
+ * @version 1.0
+ */
+class ThinkTagParserTest {
+
+    private final ThinkTagParser parser = new ThinkTagParser();
+
+    /**
+     * 回调片段，相邻的同类型片段合并
+     */
+    private final List<String> parts = new ArrayList<>();
+    private ThinkTagParser.Part lastPart;
+
+    private void onText(ThinkTagParser.Part part, String text) {
+        assertFalse(text.isEmpty());
+        if (part == lastPart) {
+            parts.set(parts.size() - 1, parts.get(parts.size() - 1) + text);
+        } else {
+            parts.add(part.name() + ":" + text);
+            lastPart = part;
+        }
+    }
+
+    /**
+     * 逐字符输入后结束
+     */
+    private ThinkTagParser.Result feedByChar(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            parser.feed(text.substring(i, i + 1), this::onText);
+        }
+        parser.finish(this::onText);
+        return parser.result();
+    }
+
+    @Test
+    void splitsTagsAcrossChunks() {
+        ThinkTagParser.Result result = feedByChar("<think>先分析问题</think>\n\n最终答案");
+
+        assertEquals("先分析问题", result.thinking());
+        assertEquals("最终答案", result.content());
+        assertEquals(List.of("THINKING:先分析问题", "CONTENT:最终答案"), parts);
+    }
+
+    @Test
+    void waitsForSplitCloseTag() {
+        parser.feed("<think>思考</th", this::onText);
+        assertTrue(parser.isInThinking());
+        assertEquals(List.of("THINKING:思考"), parts);
+
+        parser.feed("ink>正文", this::onText);
+        parser.finish(this::onText);
+        assertFalse(parser.isInThinking());
+        assertEquals(List.of("THINKING:思考", "CONTENT:正文"), parts);
+    }
+
+    @Test
+    void keepsUnclosedThinkBlockAsThinking() {
+        ThinkTagParser.Result result = feedByChar("<think>还没想完 a < b </thi");
+
+        assertTrue(parser.isInThinking());
+        assertEquals("还没想完 a < b </thi", result.thinking());
+        assertEquals("", result.content());
+        assertEquals(List.of("THINKING:还没想完 a < b </thi"), parts);
+    }
+
+    @Test
+    void passesTextWithoutTags() {
+        ThinkTagParser.Result result = feedByChar("if (a < b && b <= c) return <thin>;");
+
+        assertNull(result.thinking());
+        assertEquals("if (a < b && b <= c) return <thin>;", result.content());
+        assertEquals(List.of("CONTENT:if (a < b && b <= c) return <thin>;"), parts);
+    }
+
+    @Test
+    void flushesPendingTagPrefixOnFinish() {
+        ThinkTagParser.Result result = feedByChar("结尾是<thi");
+
+        assertNull(result.thinking());
+        assertEquals("结尾是<thi", result.content());
+    }
+
+    @Test
+    void streamsWithoutRetainingResult() {
+        ThinkTagParser streaming = new ThinkTagParser(false);
+        for (String chunk : new String[]{"<thi", "nk>思考</thi", "nk>\n正文", "<thi"}) {
+            streaming.feed(chunk, this::onText);
+        }
+        streaming.finish(this::onText);
+
+        assertEquals(List.of("THINKING:思考", "CONTENT:正文<thi"), parts);
+        assertThrows(IllegalStateException.class, streaming::result);
+    }
+
+    @Test
+    void parsesCompleteText() {
+        ThinkTagParser.Result result = ThinkTagParser.parse("<think>\n思考\n</think>正文");
+
+        assertEquals("思考", result.thinking());
+        assertEquals("正文", result.content());
+    }
+}